@@ -0,0 +1,90 @@
+#!/usr/bin/env python3
+"""Сравнение результатов JMH с сохраненной базовой линией.
+
+    python3 benchmarks/compare.py benchmarks/target/jmh-result.json
+    python3 benchmarks/compare.py benchmarks/target/jmh-result.json --update
+
+Замер считается регрессией, если он хуже базовой линии больше чем на порог
+(по умолчанию 10 %) и разница превышает сумму погрешностей обоих замеров.
+При регрессии скрипт завершается с кодом 1. С ключом --update результаты
+сохраняются как новая базовая линия.
+"""
+
+import argparse
+import json
+import os
+import shutil
+import sys
+
+DEFAULT_BASELINE = os.path.join(os.path.dirname(os.path.abspath(__file__)), "baseline.json")
+
+# В этих режимах меньше — лучше, в остальных (thrpt) — больше
+LOWER_IS_BETTER = {"avgt", "sample", "ss"}
+
+
+def load(path):
+    with open(path, encoding="utf-8") as f:
+        results = {}
+        for entry in json.load(f):
+            params = entry.get("params") or {}
+            name = entry["benchmark"]
+            if params:
+                name += "(" + ", ".join(f"{k}={v}" for k, v in sorted(params.items())) + ")"
+            metric = entry["primaryMetric"]
+            error = metric.get("scoreError")
+            results[name] = {
+                "mode": entry["mode"],
+                "score": metric["score"],
+                "error": error if isinstance(error, (int, float)) and error == error else 0.0,
+                "unit": metric["scoreUnit"],
+            }
+        return results
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Сравнение результатов JMH с базовой линией")
+    parser.add_argument("results", help="JSON-файл JMH (-rf json)")
+    parser.add_argument("--baseline", default=DEFAULT_BASELINE, help="файл базовой линии")
+    parser.add_argument("--threshold", type=float, default=10.0, help="допустимое ухудшение, %%")
+    parser.add_argument("--update", action="store_true", help="сохранить результаты как базовую линию")
+    args = parser.parse_args()
+
+    if args.update:
+        shutil.copyfile(args.results, args.baseline)
+        print(f"Базовая линия обновлена: {args.baseline}")
+        return 0
+    if not os.path.exists(args.baseline):
+        print(f"Базовая линия не найдена: {args.baseline}. Сохраните ее ключом --update.", file=sys.stderr)
+        return 2
+
+    baseline = load(args.baseline)
+    current = load(args.results)
+    regressions = 0
+    for name in sorted(current):
+        now = current[name]
+        before = baseline.get(name)
+        if before is None or before["unit"] != now["unit"] or before["score"] == 0:
+            print(f"  новый   {name}: {now['score']:.3f} {now['unit']}")
+            continue
+        change = (now["score"] - before["score"]) / before["score"] * 100
+        worse = change if now["mode"] in LOWER_IS_BETTER else -change
+        significant = abs(now["score"] - before["score"]) > now["error"] + before["error"]
+        if worse > args.threshold and significant:
+            status = "ХУЖЕ"
+            regressions += 1
+        elif worse < -args.threshold and significant:
+            status = "лучше"
+        else:
+            status = "  ="
+        print(f"{status:>6}  {name}: {before['score']:.3f} -> {now['score']:.3f} {now['unit']} ({change:+.1f} %)")
+    for name in sorted(set(baseline) - set(current)):
+        print(f"  нет    {name}")
+
+    if regressions:
+        print(f"Регрессий: {regressions}", file=sys.stderr)
+        return 1
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -0,0 +1,86 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.db.Database;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+
+/**
+ * Файлы SQLite с заданным числом строк истории для замеров.
+ * <p>
+ * Строка i детерминирована: лицевой счет i / 120 + 1 и один из 120 месяцев начиная с 2015 года,
+ * так что замеры могут восстанавливать удаленные строки и выбирать существующие ключи без чтения базы.
+ * Созданные файлы переиспользуются между запусками (каталог задается {@code -Dbills.bench.data}).
+ */
+final class BenchmarkDatabases {
+    static final int PERIODS_PER_ACCOUNT = 120;
+    private static final int BATCH_SIZE = 100_000;
+
+    private BenchmarkDatabases() {
+    }
+
+    static File prepare(int rows) throws IOException, SQLException {
+        File directory = new File(System.getProperty("bills.bench.data", "target/bench-data"));
+        File file = new File(directory, "history-" + rows + ".db");
+        File marker = new File(directory, "history-" + rows + ".complete");
+        if (file.exists() && marker.exists()) {
+            return file;
+        }
+        Files.createDirectories(directory.toPath());
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(new File(file.getPath() + suffix).toPath());
+        }
+
+        System.out.println("Создание базы для замеров: " + rows + " строк");
+        Database database = new Database(file);
+        database.connect();
+        try (DbExecutor executor = new DbExecutor();
+             HistoryRepository repository = new HistoryRepository(database, executor)) {
+            HistoryColumns batch = new HistoryColumns(BATCH_SIZE);
+            for (int row = 0; row < rows; row++) {
+                addRow(batch, row);
+                if (batch.size() == BATCH_SIZE) {
+                    repository.upsertBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                repository.upsertBatch(batch);
+            }
+        } finally {
+            database.close();
+        }
+        Files.createFile(marker.toPath());
+        return file;
+    }
+
+    static HistoryKey key(int row) {
+        return new HistoryKey(accountId(row), period(row));
+    }
+
+    static void addRow(HistoryColumns columns, int row) {
+        double cold = row % 13 + 1.5;
+        double hot = row % 7 + 0.5;
+        double sewer = cold + hot;
+        double day = row % 300 + 100;
+        double night = row % 150 + 50;
+        double total = cold * 30 + hot * 50 + sewer * 20 + day * 4.5 + night * 3.0;
+        columns.add(accountId(row), period(row), cold, hot, sewer, day, night, total);
+    }
+
+    private static int accountId(int row) {
+        return row / PERIODS_PER_ACCOUNT + 1;
+    }
+
+    private static int period(int row) {
+        int month = row % PERIODS_PER_ACCOUNT;
+        return BillingPeriod.key(2015 + month / 12, month % 12 + 1);
+    }
+}
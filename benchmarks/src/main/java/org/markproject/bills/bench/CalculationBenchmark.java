@@ -0,0 +1,99 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.billing.BillingEngine;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.billing.MeterColumns;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.ReferenceBilling;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.TariffSnapshot;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Расчет счета: поиск тарифа по периоду и начисление в копейках, по одной строке и по столбцам,
+ * в сравнении с эталонным расчетом на BigDecimal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CalculationBenchmark {
+    private static final int PERIODS = 1024;
+
+    @Param({"1", "24", "240"})
+    int tariffVersions;
+
+    /** Наибольшее число ступеней в строке; 1 — плоский тариф. */
+    @Param({"1", "3"})
+    int tiers;
+
+    private TariffSnapshot snapshot;
+    private final int[] periods = new int[PERIODS];
+    private final long[] readings = new long[PERIODS * TariffPlan.STANDARD_LINES];
+    private final long[] single = new long[TariffPlan.STANDARD_LINES];
+    private MeterColumns columns;
+    private long[] totals;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        int[] effectiveFrom = new int[tariffVersions];
+        TariffPlan[] plans = new TariffPlan[tariffVersions];
+        for (int i = 0; i < tariffVersions; i++) {
+            // Новая версия тарифов каждый месяц начиная с 2005 года
+            effectiveFrom[i] = i == 0 ? BillingPeriod.BEGINNING : BillingPeriod.key(2005 + i / 12, i % 12 + 1);
+            plans[i] = TariffPlans.random(random, TariffPlan.STANDARD_LINES, tiers);
+        }
+        snapshot = new TariffSnapshot(effectiveFrom, plans);
+
+        for (int i = 0; i < PERIODS; i++) {
+            periods[i] = BillingPeriod.key(2005 + random.nextInt(21), random.nextInt(12) + 1);
+        }
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = TariffPlans.quantity(random);
+        }
+
+        columns = new MeterColumns(100_000);
+        for (int i = 0; i < columns.size(); i++) {
+            int r = (i % PERIODS) * TariffPlan.STANDARD_LINES;
+            columns.set(i, readings[r], readings[r + 1], readings[r + 2], readings[r + 3], readings[r + 4]);
+        }
+        totals = new long[columns.size()];
+    }
+
+    /** То же, что делает calculateBill: тариф для периода, проверка и сумма. */
+    @Benchmark
+    public long calculateBill() {
+        int i = next++ & (PERIODS - 1);
+        CompiledTariff tariff = snapshot.forPeriod(periods[i]).requireValid();
+        int r = i * TariffPlan.STANDARD_LINES;
+        return tariff.totalKopecks(readings[r], readings[r + 1], readings[r + 2], readings[r + 3], readings[r + 4]);
+    }
+
+    /** Тот же расчет по эталону на BigDecimal. */
+    @Benchmark
+    public BigDecimal calculateBillReference() {
+        int i = next++ & (PERIODS - 1);
+        System.arraycopy(readings, i * TariffPlan.STANDARD_LINES, single, 0, TariffPlan.STANDARD_LINES);
+        return ReferenceBilling.total(snapshot.latest(), single);
+    }
+
+    @Benchmark
+    public CompiledTariff tariffLookup() {
+        return snapshot.forPeriod(periods[next++ & (PERIODS - 1)]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long[] columnTotals() {
+        BillingEngine.totals(snapshot.forPeriod(periods[0]), columns, totals, 0, columns.size());
+        return totals;
+    }
+}
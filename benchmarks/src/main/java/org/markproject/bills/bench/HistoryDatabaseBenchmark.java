@@ -0,0 +1,93 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.db.Database;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.HistoryEntry;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Работа с историей в базе заданного размера: загрузка, постраничное чтение, сохранение и удаление.
+ * Полная загрузка 10 млн строк требует около 1 ГБ кучи, поэтому форк запускается с -Xmx4g.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class HistoryDatabaseBenchmark {
+    private static final int PAGE_SIZE = 200;
+
+    @Param({"1000", "100000", "10000000"})
+    int rows;
+
+    private Database database;
+    private DbExecutor executor;
+    private HistoryRepository repository;
+    private final SplittableRandom random = new SplittableRandom(42);
+    private int deletedRow = -1;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        database = new Database(BenchmarkDatabases.prepare(rows));
+        database.connect();
+        executor = new DbExecutor();
+        repository = new HistoryRepository(database, executor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.close();
+        executor.close();
+        database.close();
+    }
+
+    /** Прежний loadHistoryData: вся история одним запросом. */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public HistoryColumns loadHistoryData() {
+        return repository.loadAll().join();
+    }
+
+    /** Страница таблицы истории с произвольного места ленты. */
+    @Benchmark
+    public HistoryColumns loadPage() {
+        return repository.loadPage(BenchmarkDatabases.key(random.nextInt(rows)), PAGE_SIZE).join();
+    }
+
+    /** saveToHistory: одна запись с ожиданием фиксации. */
+    @Benchmark
+    public void saveToHistory() {
+        HistoryKey key = BenchmarkDatabases.key(random.nextInt(rows));
+        CompletableFuture<Void> saved = repository.save(new HistoryEntry(key.accountId(), key.period(),
+                random.nextInt(100), random.nextInt(100), random.nextInt(200), random.nextInt(500), random.nextInt(300),
+                random.nextInt(10_000)));
+        repository.flush();
+        saved.join();
+    }
+
+    /** deleteRecordFromDatabase; удаленная строка восстанавливается вне замера. */
+    @Benchmark
+    public boolean deleteRecord() {
+        deletedRow = random.nextInt(rows);
+        HistoryKey key = BenchmarkDatabases.key(deletedRow);
+        return repository.delete(key.accountId(), key.period()).join();
+    }
+
+    @TearDown(Level.Invocation)
+    public void restoreDeleted() throws Exception {
+        if (deletedRow >= 0) {
+            HistoryColumns row = new HistoryColumns(1);
+            BenchmarkDatabases.addRow(row, deletedRow);
+            repository.upsertBatch(row);
+            deletedRow = -1;
+        }
+    }
+}
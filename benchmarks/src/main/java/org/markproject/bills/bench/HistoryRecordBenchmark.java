@@ -0,0 +1,59 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.HistoryRecord;
+import org.markproject.bills.history.HistoryColumns;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Создание строк истории для таблицы: отдельные записи и представления над столбцами.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryRecordBenchmark {
+    // Размер страницы таблицы истории
+    private static final int ROWS = 200;
+
+    private HistoryColumns columns;
+
+    @Setup
+    public void setUp() {
+        columns = new HistoryColumns(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            BenchmarkDatabases.addRow(columns, i);
+        }
+    }
+
+    @Benchmark
+    public void construct(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new HistoryRecord(columns.accountId(i), columns.period(i), columns.coldWater(i),
+                    columns.hotWater(i), columns.sewer(i), columns.electricityDay(i), columns.electricityNight(i),
+                    columns.total(i)));
+        }
+    }
+
+    @Benchmark
+    public void view(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new HistoryRecord(columns, i));
+        }
+    }
+
+    /** Представление вместе с тем, что читает видимая строка таблицы. */
+    @Benchmark
+    public void viewAndRender(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            HistoryRecord record = new HistoryRecord(columns, i);
+            blackhole.consume(record.asObservable());
+            blackhole.consume(record.getLocalizedPeriod());
+            blackhole.consume(record.getTotal());
+        }
+    }
+}
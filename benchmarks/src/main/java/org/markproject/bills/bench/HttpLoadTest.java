@@ -0,0 +1,214 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.db.Database;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.db.MeterRepository;
+import org.markproject.bills.db.TariffRepository;
+import org.markproject.bills.diag.LatencyHistogram;
+import org.markproject.bills.diag.Metrics;
+import org.markproject.bills.server.BillsServer;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.Tariffs;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузочный тест headless-сервера на localhost: устойчивое число запросов в секунду
+ * и хвосты задержек по видам запросов.
+ * <p>
+ * Каждый из {@code --clients} клиентов — виртуальный поток, который без пауз шлет запрос,
+ * дожидается ответа и шлет следующий (замкнутая модель). Вид запроса выбирается случайно
+ * по долям {@code --mix}: расчет без сохранения, чтение истории счета и расчет с сохранением.
+ * Первые {@code --warmup} секунд не учитываются.
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar org.markproject.bills.bench.HttpLoadTest \
+ *        [--clients 64] [--seconds 30] [--warmup 10] [--mix 70,25,5] [--rows 1000000] [--url http://host:port]
+ * </pre>
+ * Без {@code --url} сервер запускается в том же процессе на базе замеров
+ * ({@link BenchmarkDatabases}) и случайном порту; тогда в отчет попадают и замеры сервера.
+ */
+public final class HttpLoadTest {
+    private static final String[] KINDS = {"расчет", "история", "сохранение"};
+
+    private HttpLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = 64;
+        int seconds = 30;
+        int warmup = 10;
+        int rows = 1_000_000;
+        int[] mix = {70, 25, 5};
+        String url = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--clients" -> clients = Integer.parseInt(value);
+                case "--seconds" -> seconds = Integer.parseInt(value);
+                case "--warmup" -> warmup = Integer.parseInt(value);
+                case "--rows" -> rows = Integer.parseInt(value);
+                case "--url" -> url = value;
+                case "--mix" -> {
+                    String[] parts = value.split(",");
+                    for (int kind = 0; kind < mix.length; kind++) {
+                        mix[kind] = kind < parts.length ? Integer.parseInt(parts[kind].trim()) : 0;
+                    }
+                }
+                default -> throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+        }
+
+        Database database = null;
+        DbExecutor executor = null;
+        HistoryRepository history = null;
+        BillsServer server = null;
+        if (url == null) {
+            File file = BenchmarkDatabases.prepare(rows);
+            database = new Database(file);
+            database.connect();
+            executor = new DbExecutor();
+            history = new HistoryRepository(database, executor);
+            TariffRepository tariffs = new TariffRepository(database, executor);
+            ensureTariffs(tariffs);
+            server = new BillsServer(history, tariffs, new MeterRepository(database, executor));
+            InetSocketAddress address = server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            url = "http://" + address.getHostString() + ":" + address.getPort();
+        }
+        int accounts = Math.max(1, rows / BenchmarkDatabases.PERIODS_PER_ACCOUNT);
+
+        try {
+            Result result = run(URI.create(url), clients, warmup, seconds, mix, accounts);
+            System.out.println(result.report(clients, seconds));
+            if (server != null) {
+                System.out.println("Замеры сервера:\n" + Metrics.dump());
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+                history.close();
+                executor.close();
+                database.close();
+            }
+        }
+    }
+
+    private static void ensureTariffs(TariffRepository tariffs) {
+        try {
+            tariffs.snapshot().join().forPeriod(BillingPeriod.key(2015, 1)).requireValid();
+        } catch (IllegalStateException e) {
+            tariffs.save(BillingPeriod.key(2000, 1), TariffPlan.flat(new Tariffs(30, 50, 20, 4.5, 3.0))).join();
+        }
+    }
+
+    private record Result(LatencyHistogram[] latencies, long errors, long elapsedNanos) {
+        String report(int clients, int seconds) {
+            StringBuilder text = new StringBuilder(String.format(Locale.ROOT,
+                    "Клиентов: %d, длительность: %d с%n%-12s %10s %10s %9s %9s %9s %9s %9s%n", clients, seconds,
+                    "запрос", "число", "запр/с", "p50, мс", "p90, мс", "p99, мс", "p99.9, мс", "макс, мс"));
+            long total = 0;
+            for (LatencyHistogram latency : latencies) {
+                total += latency.count();
+                text.append(String.format(Locale.ROOT, "%-12s %10d %10.0f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                        latency.name().substring("нагрузка ".length()), latency.count(),
+                        latency.count() * 1e9 / elapsedNanos,
+                        latency.percentileNanos(0.5) / 1e6, latency.percentileNanos(0.9) / 1e6,
+                        latency.percentileNanos(0.99) / 1e6, latency.percentileNanos(0.999) / 1e6,
+                        latency.maxNanos() / 1e6));
+            }
+            text.append(String.format(Locale.ROOT, "Всего: %d запросов, %.0f запр/с, ошибок: %d",
+                    total, total * 1e9 / elapsedNanos, errors));
+            return text.toString();
+        }
+    }
+
+    private static Result run(URI base, int clients, int warmup, int seconds, int[] mix, int accounts) {
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        LatencyHistogram[] latencies = new LatencyHistogram[KINDS.length];
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            latencies[kind] = Metrics.timer("нагрузка " + KINDS[kind]);
+        }
+        int mixTotal = mix[0] + mix[1] + mix[2];
+        AtomicLong errors = new AtomicLong();
+
+        long start = System.nanoTime();
+        long measureFrom = start + Duration.ofSeconds(warmup).toNanos();
+        long end = measureFrom + Duration.ofSeconds(seconds).toNanos();
+        AtomicBoolean warmedUp = new AtomicBoolean();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            pool.submit(() -> {
+                // Конец прогрева: замеры сервера и клиентов начинаются заново
+                Thread.sleep(Duration.ofNanos(Math.max(0, measureFrom - System.nanoTime())));
+                Metrics.reset();
+                warmedUp.set(true);
+                return null;
+            });
+            for (int i = 0; i < clients; i++) {
+                pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (true) {
+                        long sent = System.nanoTime();
+                        if (sent >= end) {
+                            return null;
+                        }
+                        int pick = random.nextInt(mixTotal);
+                        int kind = pick < mix[0] ? 0 : pick < mix[0] + mix[1] ? 1 : 2;
+                        HttpRequest request = request(base, kind, random, accounts);
+                        int status;
+                        try {
+                            status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        } catch (java.io.IOException e) {
+                            status = -1;
+                        }
+                        long received = System.nanoTime();
+                        if (sent >= measureFrom && warmedUp.get()) {
+                            latencies[kind].record(received - sent);
+                            if (status != 200) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+        return new Result(latencies, errors.get(), end - measureFrom);
+    }
+
+    private static HttpRequest request(URI base, int kind, ThreadLocalRandom random, int accounts) {
+        int account = random.nextInt(accounts) + 1;
+        int year = 2015 + random.nextInt(10);
+        String readings = "&cold=" + random.nextInt(20) + "." + random.nextInt(1000)
+                          + "&hot=" + random.nextInt(10) + "&sewer=" + random.nextInt(30)
+                          + "&day=" + (100 + random.nextInt(300)) + "&night=" + (50 + random.nextInt(150));
+        String period = String.format(Locale.ROOT, "%d-%02d", year, random.nextInt(12) + 1);
+        return switch (kind) {
+            case 0 -> HttpRequest.newBuilder(base.resolve("/api/bill?account=" + account + "&period=" + period + readings))
+                    .GET().build();
+            case 1 -> HttpRequest.newBuilder(base.resolve("/api/history?account=" + account
+                                                          + "&from=" + year + "-01&limit=24"))
+                    .GET().build();
+            default -> HttpRequest.newBuilder(base.resolve("/api/bill"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString("account=" + account + "&period=" + period + readings))
+                    .build();
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.chart.Lttb;
+import org.markproject.bills.db.Database;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.MeterRepository;
+import org.markproject.bills.meter.IntervalBlocks;
+import org.markproject.bills.meter.IntervalSeries;
+import org.markproject.bills.meter.MeterKind;
+import org.markproject.bills.meter.MeterMonth;
+import org.markproject.bills.meter.TariffZones;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Интервальные показания: сжатие и распаковка суточного блока, чтение года показаний
+ * одного счетчика и месячных итогов, прореживание года показаний под ширину графика. База с годом четвертьчасовых показаний {@code meters}
+ * счетчиков создается заново в начале замера; ее размер печатается.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeterStoreBenchmark {
+    private static final int READINGS_PER_DAY = 96;
+    private static final int DAYS = 366;
+    private static final int CHART_WIDTH = 1000;
+    private static final int START = IntervalSeries.minute(LocalDateTime.of(2024, 1, 1, 0, 0));
+
+    @Param({"100"})
+    int meters;
+
+    private Database database;
+    private DbExecutor executor;
+    private MeterRepository repository;
+    private final IntervalSeries day = new IntervalSeries(READINGS_PER_DAY);
+    private final IntervalSeries decoded = new IntervalSeries(READINGS_PER_DAY * DAYS);
+    private final IntervalSeries year = new IntervalSeries(READINGS_PER_DAY * DAYS);
+    private final IntervalSeries chart = new IntervalSeries(CHART_WIDTH);
+    private final long[] zones = new long[2];
+    private byte[] block;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        File directory = new File(System.getProperty("bills.bench.data", "target/bench-data"));
+        Files.createDirectories(directory.toPath());
+        File file = new File(directory, "meters-" + meters + ".db");
+        for (String suffix : new String[]{"", "-wal", "-shm"}) {
+            Files.deleteIfExists(new File(file.getPath() + suffix).toPath());
+        }
+        database = new Database(file);
+        database.connect();
+        executor = new DbExecutor();
+        repository = new MeterRepository(database, executor);
+
+        SplittableRandom random = new SplittableRandom(42);
+        long started = System.nanoTime();
+        for (int meter = 1; meter <= meters; meter++) {
+            year.clear();
+            for (int i = 0; i < READINGS_PER_DAY * DAYS; i++) {
+                year.add(START + i * 15, consumption(random, i % READINGS_PER_DAY * 15));
+            }
+            repository.write(meter, MeterKind.ELECTRICITY, year);
+        }
+        long[] storage = repository.storage().join();
+        System.out.printf("%nЗаписано %d показаний за %d мс, блоки: %.2f МБ (%.2f байта на показание)%n",
+                storage[0], (System.nanoTime() - started) / 1_000_000, storage[1] / 1048576.0,
+                (double) storage[1] / storage[0]);
+
+        for (int i = 0; i < READINGS_PER_DAY; i++) {
+            day.add(START + i * 15, consumption(random, i * 15));
+        }
+        block = IntervalBlocks.encode(day, 0, day.size());
+    }
+
+    /** Ватт-часы за четверть часа: ночью меньше, вечером пик, плюс шум. */
+    private static long consumption(SplittableRandom random, int minuteOfDay) {
+        long base = TariffZones.isDay(minuteOfDay) ? 150 : 60;
+        long peak = minuteOfDay >= 18 * 60 && minuteOfDay < 22 * 60 ? 200 : 0;
+        return base + peak + random.nextInt(80);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+        database.close();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public byte[] encodeDay() {
+        return IntervalBlocks.encode(day, 0, day.size());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public IntervalSeries decodeDay() {
+        decoded.clear();
+        IntervalBlocks.decode(block, 0, decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public long[] zoneTotalsDay() {
+        zones[0] = 0;
+        zones[1] = 0;
+        IntervalBlocks.addZoneTotals(block, zones);
+        return zones;
+    }
+
+    /** Год четвертьчасовых показаний одного счетчика из базы. */
+    @Benchmark
+    public IntervalSeries readYear() throws Exception {
+        decoded.clear();
+        repository.read(next++ % meters + 1, MeterKind.ELECTRICITY, START, START + DAYS * IntervalSeries.MINUTES_PER_DAY,
+                decoded);
+        return decoded;
+    }
+
+    /** Год четвертьчасовых показаний, прореженный до ширины графика. */
+    @Benchmark
+    public IntervalSeries downsampleYear() {
+        chart.clear();
+        Lttb.downsample(year, 0, year.size(), CHART_WIDTH, chart);
+        return chart;
+    }
+
+    /** Месячные итоги счетчиков одного счета за год. */
+    @Benchmark
+    public List<MeterMonth> monthlyYear() throws Exception {
+        return repository.monthly(next++ % meters + 1, 202401, 202501);
+    }
+}
@@ -0,0 +1,50 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.text.DecimalParser;
+import org.markproject.bills.text.Decimals;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор введенных чисел: строковый путь формы расчета и байтовый разбор импорта.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final int VALUES = 1024;
+
+    private final String[] texts = new String[VALUES];
+    private final byte[][] bytes = new byte[VALUES][];
+    private final DecimalParser parser = new DecimalParser();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < VALUES; i++) {
+            // Показания вида 123,45 и 123.45 вперемешку
+            String text = (random.nextInt(1_000_000) / 100.0 + "").replace('.', random.nextBoolean() ? ',' : '.');
+            texts[i] = text;
+            bytes[i] = text.getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    @Benchmark
+    public double parseDouble() {
+        return Decimals.parse(texts[next++ & (VALUES - 1)]);
+    }
+
+    @Benchmark
+    public double decimalParser() {
+        byte[] value = bytes[next++ & (VALUES - 1)];
+        parser.parse(value, 0, value.length);
+        return parser.value();
+    }
+}
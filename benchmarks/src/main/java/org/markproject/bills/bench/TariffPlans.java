@@ -0,0 +1,44 @@
+package org.markproject.bills.bench;
+
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Случайные тарифы и показания для замеров.
+ */
+final class TariffPlans {
+    private TariffPlans() {
+    }
+
+    /**
+     * Тариф из lines строк, в каждой от 1 до maxTiers ступеней с ценами до 100 руб.
+     */
+    static TariffPlan random(SplittableRandom random, int lines, int maxTiers) {
+        List<List<TariffPlan.Tier>> plan = new ArrayList<>();
+        for (int line = 0; line < lines; line++) {
+            int tiers = 1 + random.nextInt(maxTiers);
+            List<TariffPlan.Tier> ladder = new ArrayList<>();
+            long limit = 0;
+            for (int tier = 0; tier < tiers; tier++) {
+                long price = 1 + random.nextLong(100 * FixedPoint.PRICE_UNIT);
+                if (tier == tiers - 1) {
+                    ladder.add(new TariffPlan.Tier(TariffPlan.UNLIMITED, price));
+                } else {
+                    limit += 1 + random.nextLong(500 * FixedPoint.QUANTITY_UNIT);
+                    ladder.add(new TariffPlan.Tier(limit, price));
+                }
+            }
+            plan.add(ladder);
+        }
+        return new TariffPlan(plan);
+    }
+
+    /** Потребление до 2000 единиц с тремя знаками после запятой. */
+    static long quantity(SplittableRandom random) {
+        return random.nextLong(2_000 * FixedPoint.QUANTITY_UNIT);
+    }
+}
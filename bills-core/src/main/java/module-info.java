@@ -0,0 +1,20 @@
+module org.markproject.bills.core {
+    requires transitive java.sql;
+    requires transitive jdk.jfr;
+    requires jdk.httpserver;
+    requires org.xerial.sqlitejdbc;
+
+    exports org.markproject.bills.billing;
+    exports org.markproject.bills.chart;
+    exports org.markproject.bills.csv;
+    exports org.markproject.bills.db;
+    exports org.markproject.bills.diag;
+    exports org.markproject.bills.export;
+    exports org.markproject.bills.history;
+    exports org.markproject.bills.meter;
+    exports org.markproject.bills.reprice;
+    exports org.markproject.bills.server;
+    exports org.markproject.bills.service;
+    exports org.markproject.bills.tariff;
+    exports org.markproject.bills.text;
+}
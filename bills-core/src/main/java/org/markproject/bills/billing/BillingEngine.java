@@ -0,0 +1,120 @@
+package org.markproject.bills.billing;
+
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Пакетный расчет начислений без привязки к интерфейсу.
+ * Методы работают по столбцам показаний в простом цикле без выделения памяти;
+ * большие пакеты делятся между ядрами через fork-join.
+ */
+public final class BillingEngine {
+    /** Размер части пакета, которую не имеет смысла делить дальше. */
+    static final int SPLIT_THRESHOLD = 16_384;
+
+    private BillingEngine() {
+    }
+
+    /**
+     * Начисления одного счета по строкам тарифа; возвращает итог в копейках.
+     * Единственный расчет отдельного счета: окно, сервер, счетчики и квитанции считают через него.
+     *
+     * @param quantities потребление по строкам в тысячных долях единицы
+     * @param charges    начисления по строкам в копейках, не короче quantities
+     * @throws IllegalArgumentException если число показаний не совпадает с числом строк тарифа
+     *                                  или показание вне допустимого диапазона
+     */
+    public static long charges(CompiledTariff tariff, long[] quantities, long[] charges) {
+        if (quantities.length != tariff.lines()) {
+            throw new IllegalArgumentException("Ожидалось показаний: " + tariff.lines() + ", передано: " + quantities.length);
+        }
+        long total = 0;
+        for (int line = 0; line < quantities.length; line++) {
+            charges[line] = tariff.lineKopecks(line, quantities[line]);
+            total += charges[line];
+        }
+        return total;
+    }
+
+    /**
+     * Все показания не больше {@link FixedPoint#MAX_QUANTITY} по модулю и могут быть посчитаны.
+     */
+    public static boolean inRange(long[] quantities) {
+        for (long quantity : quantities) {
+            if (quantity > FixedPoint.MAX_QUANTITY || quantity < -FixedPoint.MAX_QUANTITY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Начисления в копейках для счетов с индексами [from, to) в текущем потоке.
+     */
+    public static void totals(CompiledTariff tariff, MeterColumns readings, long[] totals, int from, int to) {
+        long[] cold = readings.cold;
+        long[] hot = readings.hot;
+        long[] sewer = readings.sewer;
+        long[] day = readings.electricityDay;
+        long[] night = readings.electricityNight;
+        for (int i = from; i < to; i++) {
+            totals[i] = tariff.totalKopecks(cold[i], hot[i], sewer[i], day[i], night[i]);
+        }
+    }
+
+    /**
+     * Начисления для всех счетов пакета; большие пакеты считаются параллельно в общем пуле.
+     */
+    public static void totals(CompiledTariff tariff, MeterColumns readings, long[] totals) {
+        totals(tariff, readings, totals, ForkJoinPool.commonPool());
+    }
+
+    public static void totals(CompiledTariff tariff, MeterColumns readings, long[] totals, ForkJoinPool pool) {
+        totals(tariff, readings, totals, 0, readings.size(), pool);
+    }
+
+    /**
+     * Начисления для счетов с индексами [from, to); большой диапазон делится между потоками пула.
+     */
+    public static void totals(CompiledTariff tariff, MeterColumns readings, long[] totals, int from, int to,
+                              ForkJoinPool pool) {
+        if (totals.length < to) {
+            throw new IllegalArgumentException("Массив результатов короче пакета показаний");
+        }
+        if (to - from <= SPLIT_THRESHOLD) {
+            totals(tariff, readings, totals, from, to);
+        } else {
+            pool.invoke(new TotalsTask(tariff, readings, totals, from, to));
+        }
+    }
+
+    private static final class TotalsTask extends RecursiveAction {
+        private final CompiledTariff tariff;
+        private final MeterColumns readings;
+        private final long[] totals;
+        private final int from;
+        private final int to;
+
+        TotalsTask(CompiledTariff tariff, MeterColumns readings, long[] totals, int from, int to) {
+            this.tariff = tariff;
+            this.readings = readings;
+            this.totals = totals;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                totals(tariff, readings, totals, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TotalsTask(tariff, readings, totals, from, middle),
+                      new TotalsTask(tariff, readings, totals, middle, to));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.markproject.bills.billing;
+
+import java.time.Month;
+import java.time.YearMonth;
+import java.time.format.TextStyle;
+import java.util.Locale;
+
+/**
+ * Расчетный период в виде целого ключа yyyymm (например, 202401).
+ * Ключи сортируются так же, как календарные месяцы.
+ */
+public final class BillingPeriod {
+    /** Ключ, предшествующий любому реальному периоду. */
+    public static final int BEGINNING = 0;
+
+    // Названия месяцев с заглавной буквы, индекс — номер месяца
+    private static final String[] MONTH_NAMES = new String[13];
+    // Подписи периодов 1900–2199 создаются один раз: таблица истории запрашивает их при каждой
+    // отрисовке ячейки. Гонка при заполнении безвредна: строки неизменяемы, а лишняя копия уйдет в мусор
+    private static final int FIRST_NAMED_YEAR = 1900;
+    private static final String[] DISPLAY_NAMES = new String[300 * 12];
+
+    static {
+        Locale russian = Locale.of("ru");
+        for (Month month : Month.values()) {
+            String name = month.getDisplayName(TextStyle.FULL_STANDALONE, russian);
+            MONTH_NAMES[month.getValue()] = name.substring(0, 1).toUpperCase(russian) + name.substring(1).toLowerCase(russian);
+        }
+    }
+
+    private BillingPeriod() {
+    }
+
+    public static int key(int year, int month) {
+        return year * 100 + month;
+    }
+
+    public static int key(YearMonth yearMonth) {
+        return key(yearMonth.getYear(), yearMonth.getMonthValue());
+    }
+
+    public static int year(int key) {
+        return key / 100;
+    }
+
+    public static int month(int key) {
+        return key % 100;
+    }
+
+    public static YearMonth toYearMonth(int key) {
+        return YearMonth.of(year(key), month(key));
+    }
+
+    /**
+     * Период в виде "Январь 2024"; ключ с некорректным месяцем возвращается как есть.
+     * Подписи обычных периодов кэшируются и не создаются заново.
+     */
+    public static String displayName(int key) {
+        int monthValue = month(key);
+        int index = (year(key) - FIRST_NAMED_YEAR) * 12 + monthValue - 1;
+        if (monthValue < 1 || monthValue > 12 || index < 0 || index >= DISPLAY_NAMES.length) {
+            return formatDisplayName(key);
+        }
+        String name = DISPLAY_NAMES[index];
+        if (name == null) {
+            name = formatDisplayName(key);
+            DISPLAY_NAMES[index] = name;
+        }
+        return name;
+    }
+
+    /**
+     * Название месяца с заглавной буквы: "Январь".
+     */
+    public static String monthName(int month) {
+        return MONTH_NAMES[month];
+    }
+
+    private static String formatDisplayName(int key) {
+        int monthValue = month(key);
+        if (monthValue < 1 || monthValue > 12) {
+            return String.valueOf(key);
+        }
+        return MONTH_NAMES[monthValue] + " " + year(key);
+    }
+}
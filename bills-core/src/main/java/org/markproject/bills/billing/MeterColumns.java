@@ -0,0 +1,45 @@
+package org.markproject.bills.billing;
+
+/**
+ * Показания счетчиков множества лицевых счетов в столбцовом виде:
+ * по одному массиву на каждый вид услуги, индекс массива соответствует счету.
+ * Показания хранятся в тысячных долях м3 или кВт*ч (см. {@code FixedPoint}).
+ */
+public final class MeterColumns {
+    public final long[] cold;
+    public final long[] hot;
+    public final long[] sewer;
+    public final long[] electricityDay;
+    public final long[] electricityNight;
+
+    public MeterColumns(int size) {
+        this(new long[size], new long[size], new long[size], new long[size], new long[size]);
+    }
+
+    public MeterColumns(long[] cold, long[] hot, long[] sewer,
+                        long[] electricityDay, long[] electricityNight) {
+        int size = cold.length;
+        if (hot.length != size || sewer.length != size
+            || electricityDay.length != size || electricityNight.length != size) {
+            throw new IllegalArgumentException("Столбцы показаний должны быть одной длины");
+        }
+        this.cold = cold;
+        this.hot = hot;
+        this.sewer = sewer;
+        this.electricityDay = electricityDay;
+        this.electricityNight = electricityNight;
+    }
+
+    public int size() {
+        return cold.length;
+    }
+
+    public void set(int index, long cold, long hot, long sewer,
+                    long electricityDay, long electricityNight) {
+        this.cold[index] = cold;
+        this.hot[index] = hot;
+        this.sewer[index] = sewer;
+        this.electricityDay[index] = electricityDay;
+        this.electricityNight[index] = electricityNight;
+    }
+}
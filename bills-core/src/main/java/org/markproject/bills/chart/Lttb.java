@@ -0,0 +1,64 @@
+package org.markproject.bills.chart;
+
+import org.markproject.bills.meter.IntervalSeries;
+
+/**
+ * Прореживание ряда методом Largest-Triangle-Three-Buckets: первая и последняя точки сохраняются,
+ * остальные делятся на корзины, и из каждой корзины берется точка, образующая наибольший треугольник
+ * с уже выбранной точкой и средней точкой следующей корзины. Пики и провалы при этом не теряются,
+ * в отличие от выборки каждой n-й точки или усреднения.
+ */
+public final class Lttb {
+    private Lttb() {
+    }
+
+    /**
+     * Дописывает в into не более threshold точек ряда [from, to) источника; ряд должен быть
+     * упорядочен по времени. Если точек не больше threshold, они копируются без изменений.
+     */
+    public static void downsample(IntervalSeries source, int from, int to, int threshold, IntervalSeries into) {
+        int count = to - from;
+        if (count <= threshold || threshold < 3) {
+            for (int i = from; i < to; i++) {
+                into.add(source.minute(i), source.quantity(i));
+            }
+            return;
+        }
+        // Корзины делят точки между первой и последней
+        double every = (double) (count - 2) / (threshold - 2);
+        int selected = from;
+        into.add(source.minute(from), source.quantity(from));
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // Средняя точка следующей корзины; для последней корзины это последняя точка ряда
+            int nextFrom = from + (int) ((bucket + 1) * every) + 1;
+            int nextTo = Math.min(from + (int) ((bucket + 2) * every) + 1, to);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextFrom; i < nextTo; i++) {
+                averageX += source.minute(i);
+                averageY += source.quantity(i);
+            }
+            averageX /= nextTo - nextFrom;
+            averageY /= nextTo - nextFrom;
+
+            // Точка текущей корзины с наибольшей удвоенной площадью треугольника
+            double ax = source.minute(selected);
+            double ay = source.quantity(selected);
+            int bucketFrom = from + (int) (bucket * every) + 1;
+            int bucketTo = nextFrom;
+            double maxArea = -1;
+            int best = bucketFrom;
+            for (int i = bucketFrom; i < bucketTo; i++) {
+                double area = Math.abs((ax - averageX) * (source.quantity(i) - ay)
+                                       - (ax - source.minute(i)) * (averageY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    best = i;
+                }
+            }
+            into.add(source.minute(best), source.quantity(best));
+            selected = best;
+        }
+        into.add(source.minute(to - 1), source.quantity(to - 1));
+    }
+}
@@ -0,0 +1,100 @@
+package org.markproject.bills.chart;
+
+import org.markproject.bills.diag.LatencyHistogram;
+import org.markproject.bills.diag.Metrics;
+import org.markproject.bills.meter.IntervalSeries;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ряд для графика, прореженный по {@link Lttb} под ширину графика в пикселях, с кэшем по уровням масштаба.
+ * <p>
+ * Ось времени на уровне L делится на плитки по 2^L минут, и каждая плитка прореживается отдельно
+ * до ширины графика. Для окна берется наименьший уровень, плитка которого не уже окна, поэтому окно
+ * задевает не больше двух плиток и на экране оказывается от половины до двух ширин точек.
+ * При сдвиге прореживаются только вновь показавшиеся плитки, при возврате к прежнему масштабу
+ * плитки берутся из кэша.
+ * <p>
+ * Методы синхронизированы: ряд читается в фоновом потоке, пока поток FX показывает прежний результат.
+ */
+public final class SampledSeries {
+    private static final LatencyHistogram SAMPLING = Metrics.timer("chart.tile");
+    // Плитки ширины 1000 точек занимают по 12 КБ; кэш держит последние использованные
+    private static final int CACHED_TILES = 256;
+
+    private record Tile(int level, long index) {
+    }
+
+    private final IntervalSeries points;
+    private final Map<Tile, IntervalSeries> tiles = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Tile, IntervalSeries> eldest) {
+            return size() > CACHED_TILES;
+        }
+    };
+    // Ширина, под которую прорежены плитки кэша
+    private int width;
+
+    /**
+     * @param points исходный ряд, упорядоченный по времени; дальше не изменяется
+     */
+    public SampledSeries(IntervalSeries points) {
+        this.points = points;
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    /** Минута первой точки ряда. */
+    public int firstMinute() {
+        return points.minute(0);
+    }
+
+    /** Минута сразу после последней точки ряда. */
+    public int endMinute() {
+        return points.minute(points.size() - 1) + 1;
+    }
+
+    /**
+     * Дописывает в into прореженные точки плиток, покрывающих окно [fromMinute, toMinute), по возрастанию
+     * времени. Точки за краями окна тоже попадают в результат, чтобы линия доходила до краев графика.
+     *
+     * @param width ширина графика в пикселях; при ее изменении кэш сбрасывается
+     * @return число плиток, прореженных заново, а не взятых из кэша
+     */
+    public synchronized int window(int fromMinute, int toMinute, int width, IntervalSeries into) {
+        if (width != this.width) {
+            tiles.clear();
+            this.width = width;
+        }
+        long span = Math.max((long) toMinute - fromMinute, 1);
+        int level = 64 - Long.numberOfLeadingZeros(span - 1);
+        long tileSpan = 1L << level;
+        int sampled = 0;
+        for (long index = Math.floorDiv(fromMinute, tileSpan); index <= Math.floorDiv(toMinute - 1L, tileSpan); index++) {
+            Tile key = new Tile(level, index);
+            IntervalSeries tile = tiles.get(key);
+            if (tile == null) {
+                tile = sample(index * tileSpan, (index + 1) * tileSpan, width);
+                tiles.put(key, tile);
+                sampled++;
+            }
+            for (int i = 0; i < tile.size(); i++) {
+                into.add(tile.minute(i), tile.quantity(i));
+            }
+        }
+        return sampled;
+    }
+
+    private IntervalSeries sample(long fromMinute, long toMinute, int width) {
+        long started = System.nanoTime();
+        int from = points.lowerBound((int) Math.max(fromMinute, Integer.MIN_VALUE));
+        int to = points.lowerBound((int) Math.min(toMinute, Integer.MAX_VALUE));
+        IntervalSeries tile = new IntervalSeries(Math.min(to - from, width));
+        Lttb.downsample(points, from, to, width, tile);
+        SAMPLING.recordSince(started);
+        return tile;
+    }
+}
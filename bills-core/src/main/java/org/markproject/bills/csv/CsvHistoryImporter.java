@@ -0,0 +1,452 @@
+package org.markproject.bills.csv;
+
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffSnapshot;
+import org.markproject.bills.text.DecimalParser;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Потоковый импорт показаний из CSV в историю.
+ * <p>
+ * Формат строки: {@code лицевой_счет;период;ХВС;ГВС;водоотведение;электроэнергия_день;электроэнергия_ночь}.
+ * Восьмое поле, сумма из выгрузки истории, допускается и не читается: сумма пересчитывается по тарифам.
+ * Период записывается как {@code 2024-01}, {@code 202401} или {@code 01.2024}. Разделитель полей
+ * определяется по первой строке: точка с запятой, если она есть, иначе запятая (тогда дробная
+ * часть отделяется только точкой). Первая строка пропускается, если это заголовок. Поля могут
+ * быть в двойных кавычках.
+ * <p>
+ * Файл читается через {@link FileChannel} блоками по мегабайту и разбирается прямо в байтах,
+ * без строк на каждую запись. Принятые строки оцениваются по тарифам своего периода и пишутся
+ * пакетами по {@link #BATCH_SIZE} в отдельных транзакциях; пока один пакет фиксируется,
+ * следующий уже разбирается. Отклоненные строки с причиной пишутся в файл рядом с исходным.
+ */
+public final class CsvHistoryImporter {
+    public static final int BATCH_SIZE = 10_000;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int FIELD_COUNT = 7;
+    private static final int MAX_REPORTED_REJECTIONS = 1000;
+
+    private final HistoryRepository repository;
+    private final TariffSnapshot tariffs;
+    private volatile boolean cancelled;
+
+    private final DecimalParser decimal = new DecimalParser();
+    private final int[] fieldStart = new int[FIELD_COUNT];
+    private final int[] fieldEnd = new int[FIELD_COUNT];
+    // Показания текущей строки в тысячных долях единицы
+    private final long[] readings = new long[FIELD_COUNT - 2];
+    // Действующий тариф каждого встреченного периода; null — тарифа нет или он некорректен
+    private final Map<Integer, CompiledTariff> periodTariffs = new HashMap<>();
+
+    private byte delimiter;
+    private boolean firstLine = true;
+    private HistoryColumns batch = new HistoryColumns(BATCH_SIZE);
+    private HistoryColumns spare = new HistoryColumns(BATCH_SIZE);
+    private long accepted;
+    private long rejected;
+    private final List<ImportReport.Rejection> rejections = new ArrayList<>();
+    private Path rejectedFile;
+    private BufferedWriter rejectedWriter;
+
+    public CsvHistoryImporter(HistoryRepository repository, TariffSnapshot tariffs) {
+        this.repository = repository;
+        this.tariffs = tariffs;
+    }
+
+    /**
+     * Запускает импорт в отдельном виртуальном потоке. Экземпляр импортирует один файл.
+     */
+    public CompletableFuture<ImportReport> start(Path csv, ImportListener listener) {
+        CompletableFuture<ImportReport> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("bills-import").start(() -> {
+            try {
+                result.complete(importFile(csv, listener));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Останавливает импорт перед чтением следующего блока; уже записанные пакеты остаются в истории,
+     * строки, разобранные после последнего пакета, не записываются.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public ImportReport importFile(Path csv, ImportListener listener) throws IOException, SQLException {
+        long started = System.nanoTime();
+        boolean stopped = false;
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ);
+             ExecutorService writer = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("bills-import-writer").factory())) {
+            long totalBytes = channel.size();
+            long bytesRead = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            Future<?> pendingWrite = CompletableFuture.completedFuture(null);
+
+            int start = 0;
+            int limit = 0;
+            long line = 0;
+            boolean eof = false;
+            boolean skipping = false; // остаток слишком длинной строки
+            while (true) {
+                int newline = indexOf(bytes, start, limit, (byte) '\n');
+                if (newline < 0) {
+                    if (eof) {
+                        if (start < limit && !skipping) {
+                            acceptLine(bytes, start, limit, ++line, csv);
+                        }
+                        break;
+                    }
+                    if (start == 0 && limit == bytes.length) {
+                        if (!skipping) {
+                            reject(++line, "Строка длиннее " + BUFFER_SIZE + " байт", bytes, 0, 80, csv);
+                        }
+                        skipping = true;
+                        limit = 0;
+                    } else {
+                        System.arraycopy(bytes, start, bytes, 0, limit - start);
+                        limit -= start;
+                        start = 0;
+                    }
+                    if (cancelled) {
+                        stopped = true;
+                        break;
+                    }
+                    buffer.limit(bytes.length).position(limit);
+                    int read = channel.read(buffer);
+                    if (read < 0) {
+                        eof = true;
+                    } else {
+                        limit += read;
+                        bytesRead += read;
+                        // Ход сообщается по прочитанным блокам: файл почти из одних отклоненных
+                        // строк иначе не показывал бы его до самого конца
+                        listener.progress(accepted, rejected, bytesRead, totalBytes);
+                    }
+                    continue;
+                }
+                if (skipping) {
+                    skipping = false;
+                } else {
+                    acceptLine(bytes, start, newline, ++line, csv);
+                }
+                start = newline + 1;
+
+                if (batch.size() == BATCH_SIZE) {
+                    pendingWrite = submitBatch(writer, pendingWrite);
+                }
+            }
+            if (stopped) {
+                // Строки незаписанного пакета не попадают в историю
+                accepted -= batch.size();
+            } else if (!batch.isEmpty()) {
+                pendingWrite = submitBatch(writer, pendingWrite);
+            }
+            await(pendingWrite);
+            listener.progress(accepted, rejected, bytesRead, totalBytes);
+        } finally {
+            if (rejectedWriter != null) {
+                rejectedWriter.close();
+            }
+        }
+        return new ImportReport(accepted, rejected, System.nanoTime() - started,
+                List.copyOf(rejections), rejectedFile, stopped);
+    }
+
+    /**
+     * Отдает заполненный пакет на запись и продолжает разбор во второй буфер.
+     */
+    private Future<?> submitBatch(ExecutorService writer, Future<?> pendingWrite) throws SQLException {
+        // Второй буфер освобождается только после фиксации предыдущего пакета
+        await(pendingWrite);
+        HistoryColumns full = batch;
+        batch = spare;
+        spare = full;
+        batch.clear();
+        return writer.submit(() -> {
+            repository.upsertBatch(full);
+            return null;
+        });
+    }
+
+    private static void await(Future<?> write) throws SQLException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Импорт прерван", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Ошибка записи пакета", e.getCause());
+        }
+    }
+
+    private void acceptLine(byte[] bytes, int from, int to, long line, Path csv) throws IOException {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        if (firstLine) {
+            from = skipBom(bytes, from, to);
+        }
+        if (isBlank(bytes, from, to)) {
+            return;
+        }
+        if (firstLine) {
+            firstLine = false;
+            delimiter = indexOf(bytes, from, to, (byte) ';') >= 0 ? (byte) ';' : (byte) ',';
+            if (isHeader(bytes, from, to)) {
+                return;
+            }
+        }
+
+        int fields = split(bytes, from, to);
+        if (fields != FIELD_COUNT && fields != FIELD_COUNT + 1) {
+            reject(line, fields < 0 ? "Ошибка в кавычках" : "Ожидалось " + FIELD_COUNT + " полей, найдено " + fields,
+                    bytes, from, to, csv);
+            return;
+        }
+        int accountId = parseInt(bytes, fieldStart[0], fieldEnd[0]);
+        if (accountId <= 0) {
+            reject(line, "Некорректный лицевой счет", bytes, from, to, csv);
+            return;
+        }
+        int period = parsePeriod(bytes, fieldStart[1], fieldEnd[1]);
+        if (period < 0) {
+            reject(line, "Некорректный период", bytes, from, to, csv);
+            return;
+        }
+        for (int i = 0; i < readings.length; i++) {
+            DecimalParser.Status status = decimal.parseFixed(bytes, fieldStart[i + 2], fieldEnd[i + 2],
+                    FixedPoint.QUANTITY_SCALE);
+            if (status == DecimalParser.Status.EMPTY || status == DecimalParser.Status.MALFORMED) {
+                reject(line, "Неверный формат числа в поле " + (i + 3), bytes, from, to, csv);
+                return;
+            }
+            long value = decimal.fixed();
+            if (status == DecimalParser.Status.VALID && value < 0) {
+                reject(line, "Отрицательное показание в поле " + (i + 3), bytes, from, to, csv);
+                return;
+            }
+            if (status == DecimalParser.Status.OVERFLOW || value > FixedPoint.MAX_QUANTITY) {
+                reject(line, "Слишком большое показание в поле " + (i + 3), bytes, from, to, csv);
+                return;
+            }
+            readings[i] = value;
+        }
+
+        CompiledTariff tariff = tariffFor(period);
+        if (tariff == null) {
+            CompiledTariff invalid = tariffs.find(period);
+            reject(line, invalid == null ? TariffSnapshot.NOT_FOUND : invalid.invalidReason(), bytes, from, to, csv);
+            return;
+        }
+        long total = tariff.totalKopecks(readings[0], readings[1], readings[2], readings[3], readings[4]);
+        batch.add(accountId, period, FixedPoint.quantityValue(readings[0]), FixedPoint.quantityValue(readings[1]),
+                FixedPoint.quantityValue(readings[2]), FixedPoint.quantityValue(readings[3]),
+                FixedPoint.quantityValue(readings[4]), FixedPoint.rubles(total));
+        accepted++;
+    }
+
+    /**
+     * Действующий тариф периода или {@code null}, если тарифа нет или он некорректен.
+     */
+    private CompiledTariff tariffFor(int period) {
+        CompiledTariff tariff = periodTariffs.get(period);
+        if (tariff == null && !periodTariffs.containsKey(period)) {
+            tariff = tariffs.find(period);
+            if (tariff != null && !tariff.isValid()) {
+                tariff = null;
+            }
+            periodTariffs.put(period, tariff);
+        }
+        return tariff;
+    }
+
+    /**
+     * Находит границы полей строки. Возвращает число полей или -1 при ошибке в кавычках;
+     * при лишних полях возвращает число больше {@link #FIELD_COUNT}.
+     */
+    private int split(byte[] bytes, int from, int to) {
+        int count = 0;
+        int position = from;
+        while (true) {
+            int start = position;
+            int end;
+            if (position < to && bytes[position] == '"') {
+                int closing = indexOf(bytes, position + 1, to, (byte) '"');
+                if (closing < 0) {
+                    return -1;
+                }
+                start = position + 1;
+                end = closing;
+                position = closing + 1;
+                // После кавычки допускаются только пробелы до разделителя
+                while (position < to && bytes[position] == ' ') {
+                    position++;
+                }
+                if (position < to && bytes[position] != delimiter) {
+                    return -1;
+                }
+            } else {
+                while (position < to && bytes[position] != delimiter) {
+                    position++;
+                }
+                end = position;
+            }
+            if (count < FIELD_COUNT) {
+                fieldStart[count] = start;
+                fieldEnd[count] = end;
+            }
+            count++;
+            if (position >= to) {
+                return count;
+            }
+            position++; // разделитель
+        }
+    }
+
+    private boolean isHeader(byte[] bytes, int from, int to) {
+        for (int i = from; i < to && bytes[i] != delimiter; i++) {
+            byte b = bytes[i];
+            if (b != ' ' && b != '"' && (b < '0' || b > '9')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Разбирает 2024-01, 2024.01, 2024/01, 202401 или 01.2024; возвращает -1, если формат не подходит.
+     */
+    static int parsePeriod(byte[] bytes, int from, int to) {
+        while (from < to && bytes[from] == ' ') {
+            from++;
+        }
+        while (to > from && bytes[to - 1] == ' ') {
+            to--;
+        }
+        int first = 0;
+        int firstDigits = 0;
+        int second = 0;
+        int secondDigits = 0;
+        boolean separator = false;
+        for (int i = from; i < to; i++) {
+            int b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                if (separator) {
+                    second = second * 10 + (b - '0');
+                    secondDigits++;
+                } else {
+                    first = first * 10 + (b - '0');
+                    firstDigits++;
+                }
+            } else if ((b == '-' || b == '.' || b == '/') && !separator) {
+                separator = true;
+            } else {
+                return -1;
+            }
+        }
+        int year;
+        int month;
+        if (!separator && firstDigits == 6) {
+            year = first / 100;
+            month = first % 100;
+        } else if (separator && firstDigits == 4 && secondDigits >= 1 && secondDigits <= 2) {
+            year = first;
+            month = second;
+        } else if (separator && firstDigits >= 1 && firstDigits <= 2 && secondDigits == 4) {
+            year = second;
+            month = first;
+        } else {
+            return -1;
+        }
+        if (month < 1 || month > 12 || year < 1900 || year > 2200) {
+            return -1;
+        }
+        return BillingPeriod.key(year, month);
+    }
+
+    private static int parseInt(byte[] bytes, int from, int to) {
+        while (from < to && bytes[from] == ' ') {
+            from++;
+        }
+        while (to > from && bytes[to - 1] == ' ') {
+            to--;
+        }
+        if (from == to || to - from > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            int b = bytes[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private void reject(long line, String reason, byte[] bytes, int from, int to, Path csv) throws IOException {
+        rejected++;
+        String text = new String(bytes, from, Math.max(0, to - from), StandardCharsets.UTF_8);
+        if (rejections.size() < MAX_REPORTED_REJECTIONS) {
+            rejections.add(new ImportReport.Rejection(line, reason, text));
+        }
+        if (rejectedWriter == null) {
+            rejectedFile = csv.resolveSibling(csv.getFileName() + ".rejected.txt");
+            rejectedWriter = Files.newBufferedWriter(rejectedFile, StandardCharsets.UTF_8);
+        }
+        rejectedWriter.write(line + "\t" + reason + "\t" + text);
+        rejectedWriter.newLine();
+    }
+
+    private static int skipBom(byte[] bytes, int from, int to) {
+        if (to - from >= 3 && bytes[from] == (byte) 0xEF && bytes[from + 1] == (byte) 0xBB && bytes[from + 2] == (byte) 0xBF) {
+            return from + 3;
+        }
+        return from;
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] != ' ' && bytes[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
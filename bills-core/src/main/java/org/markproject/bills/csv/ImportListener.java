@@ -0,0 +1,9 @@
+package org.markproject.bills.csv;
+
+/**
+ * Получает ход импорта. Вызывается из фонового потока импорта.
+ */
+@FunctionalInterface
+public interface ImportListener {
+    void progress(long accepted, long rejected, long bytesRead, long totalBytes);
+}
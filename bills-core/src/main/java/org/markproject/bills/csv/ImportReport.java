@@ -0,0 +1,26 @@
+package org.markproject.bills.csv;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итог импорта.
+ *
+ * @param rejections первые отклоненные строки; полный список лежит в {@code rejectedFile}
+ * @param rejectedFile файл с отклоненными строками или {@code null}, если таких строк нет
+ * @param cancelled    импорт остановлен до конца файла
+ */
+public record ImportReport(long accepted, long rejected, long elapsedNanos,
+                           List<Rejection> rejections, Path rejectedFile, boolean cancelled) {
+
+    public long rowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : accepted * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Отклоненная строка файла.
+     */
+    public record Rejection(long line, String reason, String text) {
+    }
+}
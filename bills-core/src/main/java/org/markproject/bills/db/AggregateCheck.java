@@ -0,0 +1,19 @@
+package org.markproject.bills.db;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итог сверки годовых итогов с исходными строками истории.
+ *
+ * @param groups     проверено пар (счет, год)
+ * @param mismatched пар, итоги которых не совпали с историей или отсутствовали
+ * @param totalsMismatched пар (год, услуга), где итоги по всем счетам не совпали с итогами счетов
+ * @param repaired   расхождения исправлены пересчетом
+ */
+public record AggregateCheck(long rows, long groups, long mismatched, long totalsMismatched, boolean repaired,
+                             long elapsedNanos) {
+
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+}
@@ -0,0 +1,227 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.history.YearlySummary;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Чтение годовых итогов и их сверка с историей. Итоги читаются из history_yearly
+ * без обращения к строкам истории, поэтому время ответа не зависит от ее размера.
+ */
+public final class AnalyticsRepository {
+    /** Число диапазонов счетов, на которые делится сверка; читаются параллельно на читающих подключениях. */
+    private static final int CHECK_SLICES = 16;
+    // Суммы в базе и в сверке складываются в разном порядке
+    private static final double SUM_TOLERANCE = 1e-6;
+
+    private final Database database;
+    private final DbExecutor executor;
+
+    public AnalyticsRepository(Database database, DbExecutor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    /**
+     * Итоги одного счета по годам и услугам.
+     */
+    public CompletableFuture<List<YearlySummary>> yearly(int accountId) {
+        return executor.submit(() -> database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(
+                    "SELECT year, utility, months, total, minimum, maximum FROM history_yearly " +
+                    "WHERE account_id = ? ORDER BY year, utility");
+            stmt.setInt(1, accountId);
+            return readSummaries(stmt);
+        }));
+    }
+
+    /**
+     * Итоги по всем счетам из history_totals. Минимум и максимум по всем счетам не поддерживаются
+     * приращениями и возвращаются как {@link Double#NaN}.
+     */
+    public CompletableFuture<List<YearlySummary>> yearlyAll() {
+        return executor.submit(() -> database.connections().read(session -> readSummaries(session.prepare(
+                "SELECT year, utility, months, total, NULL, NULL FROM history_totals " +
+                "WHERE months > 0 ORDER BY year, utility"))));
+    }
+
+    private static List<YearlySummary> readSummaries(PreparedStatement stmt) throws SQLException {
+        List<YearlySummary> summaries = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                double minimum = rs.getDouble(5);
+                if (rs.wasNull()) {
+                    minimum = Double.NaN;
+                }
+                double maximum = rs.getDouble(6);
+                if (rs.wasNull()) {
+                    maximum = Double.NaN;
+                }
+                summaries.add(new YearlySummary(rs.getInt(1), rs.getInt(2), rs.getLong(3), rs.getDouble(4), minimum, maximum));
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Сверяет годовые итоги с историей. Диапазоны счетов читаются параллельно: итоги каждой пары
+     * (счет, год) заново считаются из строк и сравниваются с сохраненными. Строки и итоги диапазона
+     * читаются в одной транзакции, поэтому запись, зафиксированная во время сверки, не выглядит
+     * расхождением. При repair итоги по всем счетам сверяются в той же транзакции записи, в которой
+     * несовпавшие пары пересчитываются, а итоги по всем счетам строятся заново.
+     */
+    public CompletableFuture<AggregateCheck> check(boolean repair) {
+        long started = System.nanoTime();
+        return executor.submit(() -> database.connections().read(session -> {
+            try (ResultSet rs = session.prepare("SELECT MIN(account_id), MAX(account_id) FROM history").executeQuery()) {
+                rs.next();
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+            }
+        })).thenCompose(bounds -> {
+            long step = Math.max(1, (bounds[1] - bounds[0] + CHECK_SLICES) / CHECK_SLICES);
+            List<CompletableFuture<SliceCheck>> slices = new ArrayList<>();
+            // Итоги без строк истории тоже расхождение, поэтому крайние диапазоны открыты
+            for (long from = bounds[0]; from <= bounds[1]; from += step) {
+                long low = from == bounds[0] ? Long.MIN_VALUE : from;
+                long high = from + step > bounds[1] ? Long.MAX_VALUE : from + step - 1;
+                slices.add(executor.submit(() -> checkSlice(low, high)));
+            }
+            if (slices.isEmpty()) {
+                slices.add(executor.submit(() -> checkSlice(Long.MIN_VALUE, Long.MAX_VALUE)));
+            }
+            return CompletableFuture.allOf(slices.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+                long rows = 0;
+                long groups = 0;
+                Set<Long> mismatched = new HashSet<>();
+                for (CompletableFuture<SliceCheck> slice : slices) {
+                    SliceCheck result = slice.join();
+                    rows += result.rows;
+                    groups += result.groups;
+                    mismatched.addAll(result.mismatched);
+                }
+                return new SliceCheck(rows, groups, mismatched);
+            });
+        }).thenCompose(result -> {
+            if (!repair) {
+                return executor.submit(() -> new AggregateCheck(result.rows, result.groups, result.mismatched.size(),
+                        database.connections().read(AnalyticsRepository::mismatchedTotals), false,
+                        System.nanoTime() - started));
+            }
+            return executor.submit(() -> database.connections().transaction(session -> {
+                // Под блокировкой записи итоги по всем счетам не меняются между сверкой и перестройкой
+                long totals = mismatchedTotals(session);
+                boolean repaired = !result.mismatched.isEmpty() || totals > 0;
+                if (repaired) {
+                    YearlyAggregates.refresh(session, result.mismatched);
+                    session.prepare("DELETE FROM history_totals").executeUpdate();
+                    session.prepare(YearlyAggregates.REBUILD_TOTALS).executeUpdate();
+                }
+                return new AggregateCheck(result.rows, result.groups, result.mismatched.size(), totals, repaired,
+                        System.nanoTime() - started);
+            }));
+        });
+    }
+
+    /**
+     * Число пар (год, услуга), где итоги по всем счетам расходятся с суммой итогов счетов.
+     */
+    private static long mismatchedTotals(SqlSession session) throws SQLException {
+        PreparedStatement stmt = session.prepare(
+                "SELECT COUNT(*) FROM (SELECT year, utility, SUM(months) AS months, SUM(total) AS total " +
+                "FROM history_yearly GROUP BY year, utility) AS expected " +
+                "FULL JOIN history_totals AS stored USING (year, utility) " +
+                "WHERE COALESCE(stored.months, 0) <> COALESCE(expected.months, 0) " +
+                "OR ABS(COALESCE(stored.total, 0) - COALESCE(expected.total, 0)) > ? * MAX(1, ABS(COALESCE(expected.total, 0)))");
+        stmt.setDouble(1, SUM_TOLERANCE);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    private SliceCheck checkSlice(long fromAccount, long toAccount) throws SQLException {
+        return database.connections().readTransaction(session -> {
+            // Итоги из строк истории: на каждую пару (счет, год) по шесть услуг
+            Map<Long, double[]> computed = new HashMap<>();
+            long rows = 0;
+            PreparedStatement history = session.prepare(
+                    "SELECT account_id, period, cold_water, hot_water, sewer, electricity_day, electricity_night, total " +
+                    "FROM history WHERE account_id BETWEEN ? AND ?");
+            history.setLong(1, fromAccount);
+            history.setLong(2, toAccount);
+            try (ResultSet rs = history.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                    double[] group = computed.computeIfAbsent(YearlyAggregates.group(rs.getInt(1), rs.getInt(2)),
+                            key -> newGroup());
+                    for (int utility = 0; utility < YearlySummary.UTILITIES; utility++) {
+                        add(group, utility, rs.getDouble(3 + utility));
+                    }
+                }
+            }
+
+            Set<Long> mismatched = new HashSet<>();
+            Set<Long> seen = new HashSet<>();
+            PreparedStatement stored = session.prepare(
+                    "SELECT account_id, year, utility, months, total, minimum, maximum FROM history_yearly " +
+                    "WHERE account_id BETWEEN ? AND ?");
+            stored.setLong(1, fromAccount);
+            stored.setLong(2, toAccount);
+            try (ResultSet rs = stored.executeQuery()) {
+                while (rs.next()) {
+                    long key = YearlyAggregates.group(rs.getInt(1), rs.getInt(2) * 100);
+                    seen.add(key);
+                    double[] group = computed.get(key);
+                    int utility = rs.getInt(3);
+                    if (group == null || utility < 0 || utility >= YearlySummary.UTILITIES
+                        || !matches(group, utility, rs.getLong(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7))) {
+                        mismatched.add(key);
+                    }
+                }
+            }
+            for (Long key : computed.keySet()) {
+                if (!seen.contains(key)) {
+                    mismatched.add(key);
+                }
+            }
+            return new SliceCheck(rows, computed.size(), mismatched);
+        });
+    }
+
+    // Группа хранит по услуге четыре значения: число месяцев, сумму, минимум и максимум
+    private static double[] newGroup() {
+        double[] group = new double[YearlySummary.UTILITIES * 4];
+        for (int utility = 0; utility < YearlySummary.UTILITIES; utility++) {
+            group[utility * 4 + 2] = Double.POSITIVE_INFINITY;
+            group[utility * 4 + 3] = Double.NEGATIVE_INFINITY;
+        }
+        return group;
+    }
+
+    private static void add(double[] group, int utility, double value) {
+        int base = utility * 4;
+        group[base]++;
+        group[base + 1] += value;
+        group[base + 2] = Math.min(group[base + 2], value);
+        group[base + 3] = Math.max(group[base + 3], value);
+    }
+
+    private static boolean matches(double[] group, int utility, long months, double total, double minimum, double maximum) {
+        int base = utility * 4;
+        return group[base] == months
+               && Math.abs(group[base + 1] - total) <= SUM_TOLERANCE * Math.max(1, Math.abs(total))
+               && group[base + 2] == minimum
+               && group[base + 3] == maximum;
+    }
+
+    private record SliceCheck(long rows, long groups, Set<Long> mismatched) {
+    }
+}
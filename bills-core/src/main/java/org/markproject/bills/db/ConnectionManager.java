@@ -0,0 +1,134 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Один пишущий и несколько читающих подключений к одному файлу SQLite.
+ * Журнал WAL позволяет читателям работать параллельно с записью, а
+ * подключения живут всё время работы приложения.
+ */
+public final class ConnectionManager implements AutoCloseable {
+    private static final int BUSY_TIMEOUT_MS = 5000;
+    private static final int CACHE_SIZE_KB = 8192;
+
+    private final SqlSession writer;
+    // Справедливая блокировка: длинная фоновая задача, пишущая транзакциями подряд,
+    // пропускает вперед записи, которые ждали освобождения подключения
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final BlockingQueue<SqlSession> readers;
+    private final List<SqlSession> allSessions = new ArrayList<>();
+    private final DbStats stats = new DbStats();
+
+    private final Durability durability;
+
+    public ConnectionManager(String sqlPath, int readerCount, Durability durability) throws SQLException {
+        this.durability = durability;
+        String url = "jdbc:sqlite:" + sqlPath;
+        writer = open(url, false);
+        readers = new ArrayBlockingQueue<>(readerCount);
+        for (int i = 0; i < readerCount; i++) {
+            readers.add(open(url, true));
+        }
+    }
+
+    private SqlSession open(String url, boolean readOnly) throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            if (!readOnly) {
+                // Режим журнала хранится в самом файле, достаточно включить его один раз
+                stmt.execute("PRAGMA journal_mode=WAL");
+            }
+            stmt.execute("PRAGMA busy_timeout=" + BUSY_TIMEOUT_MS);
+            // В режиме WAL NORMAL не теряет целостность, а fsync выполняется только на контрольных точках;
+            // FULL добавляет fsync на каждую фиксацию для режима немедленной записи
+            stmt.execute(!readOnly && durability == Durability.SYNC ? "PRAGMA synchronous=FULL" : "PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA cache_size=-" + CACHE_SIZE_KB);
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=ON");
+            }
+        }
+        SqlSession session = new SqlSession(connection, stats);
+        allSessions.add(session);
+        return session;
+    }
+
+    /**
+     * Выполняет чтение на свободном читающем подключении.
+     */
+    public <T> T read(SessionWork<T> work) throws SQLException {
+        long start = System.nanoTime();
+        SqlSession session;
+        try {
+            session = readers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Ожидание подключения прервано", e);
+        }
+        try {
+            return work.run(session);
+        } finally {
+            readers.add(session);
+            stats.recordOperation(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Выполняет несколько чтений в одной транзакции на читающем подключении: все они видят
+     * один снимок базы, даже если между ними фиксируются записи.
+     */
+    public <T> T readTransaction(SessionWork<T> work) throws SQLException {
+        return read(session -> session.inTransaction(work));
+    }
+
+    /**
+     * Выполняет запись на единственном пишущем подключении.
+     */
+    public <T> T write(SessionWork<T> work) throws SQLException {
+        long start = System.nanoTime();
+        writeLock.lock();
+        try {
+            return work.run(writer);
+        } finally {
+            writeLock.unlock();
+            stats.recordOperation(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Выполняет запись в одной транзакции.
+     */
+    public <T> T transaction(SessionWork<T> work) throws SQLException {
+        return write(session -> session.inTransaction(work));
+    }
+
+    public DbStats stats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            for (SqlSession session : allSessions) {
+                try {
+                    session.close();
+                } catch (SQLException e) {
+                    Log.error("Ошибка при закрытии подключения", e);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
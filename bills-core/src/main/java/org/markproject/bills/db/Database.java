@@ -0,0 +1,253 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.diag.Log;
+
+import java.io.*;
+import java.net.URL;
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Расположение файла базы данных, пул подключений и начальная схема.
+ */
+public final class Database implements AutoCloseable {
+    private static final String DB_FILE = "utility_bills.sql";
+
+    /** Лицевой счет, к которому относятся записи, созданные до появления счетов. */
+    public static final int DEFAULT_ACCOUNT = 1;
+    private static final int READER_COUNT = 4;
+
+    // История хранится по лицевому счету и периоду yyyymm; таблица кластеризована по ключу,
+    // поэтому выборка истории одного счета в порядке периодов читает только первичный ключ
+    private static final String HISTORY_COLUMNS =
+            "account_id INTEGER NOT NULL, period INTEGER NOT NULL, " +
+            "cold_water REAL, hot_water REAL, sewer REAL, electricity_day REAL, electricity_night REAL, total REAL, " +
+            "PRIMARY KEY (account_id, period)";
+    private static final String HISTORY_OPTIONS = " WITHOUT ROWID";
+    private static final String CREATE_HISTORY = "CREATE TABLE history (" + HISTORY_COLUMNS + ")" + HISTORY_OPTIONS;
+
+    // Порядок миграций определяет номер версии схемы; новые миграции добавляются только в конец
+    private final SchemaMigrator migrator = new SchemaMigrator(List.of(
+            Migration.of("базовые таблицы", Database::createTables),
+            Migration.of("столбец total в истории", Database::addHistoryTotal),
+            new HistoryPeriodMigration(CREATE_HISTORY),
+            Migration.of("индекс истории по периодам", Database::createHistoryIndexes),
+            Migration.of("версии тарифов", Database::createTariffVersions),
+            Migration.of("ступени тарифов", Database::createTariffTiers),
+            YearlyAggregates.migration(),
+            Migration.of("интервальные показания счетчиков", MeterRepository::createTables),
+            Migration.of("корзина удаленных записей истории", HistoryRepository::createTombstones)));
+
+    private final Durability durability = Durability.fromSystemProperty();
+    private final File file;
+    private ConnectionManager connections;
+    private final CompletableFuture<ConnectionManager> ready = new CompletableFuture<>();
+
+    /**
+     * База в каталоге пользователя, при первом запуске копируется из ресурсов.
+     */
+    public Database() {
+        this.file = null;
+    }
+
+    /**
+     * База в указанном файле; файл создается, если его нет (используется в замерах и утилитах).
+     */
+    public Database(File file) {
+        this.file = file;
+    }
+
+    private String getDatabasePath() {
+        if (file != null) {
+            return file.getAbsolutePath();
+        }
+        try {
+            // Получаем путь к базе данных в ресурсе .jar
+            URL resource = getClass().getClassLoader().getResource(DB_FILE);
+
+            if (resource != null) {
+                // Если база данных существует как ресурс, копируем её во временную директорию
+                File tempFile = new File(System.getProperty("user.home"), "Library/Application Support/YourAppName/utility_bills.db");
+                if (!tempFile.exists()) {
+                    tempFile.getParentFile().mkdirs(); // Создаем директорию, если не существует
+                    try (InputStream inputStream = resource.openStream();
+                         OutputStream outputStream = new FileOutputStream(tempFile)) {
+                        byte[] buffer = new byte[1024];
+                        int length;
+                        while ((length = inputStream.read(buffer)) != -1) {
+                            outputStream.write(buffer, 0, length);
+                        }
+                    }
+                }
+                return tempFile.getAbsolutePath();
+            } else {
+                // Если база данных не существует, создаем её в рабочей директории
+                String sqlPath = new File(DB_FILE).getAbsolutePath();
+                copyDatabaseFromResources(sqlPath); // Копирование из ресурсов
+                return sqlPath;
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Ошибка получения пути к базе данных", e);
+        }
+    }
+
+    private void copyDatabaseFromResources(String sqlPath) throws IOException {
+        // Копирование базы данных из ресурсов, если она не существует
+        File sqlFile = new File(sqlPath);
+        if (!sqlFile.exists()) {
+            try (InputStream sqlStream = getClass().getClassLoader().getResourceAsStream(DB_FILE);
+                 OutputStream out = new FileOutputStream(sqlPath)) {
+                if (sqlStream == null) {
+                    throw new FileNotFoundException("Файл базы данных не найден в ресурсах!");
+                }
+                sqlStream.transferTo(out);
+                Log.info("Файл базы данных скопирован из ресурсов.");
+            }
+        } else {
+            Log.info("База данных уже существует, копирование не требуется.");
+        }
+    }
+
+    public Durability durability() {
+        return durability;
+    }
+
+    /**
+     * Пул подключений. Если база еще открывается, ждет окончания подготовки,
+     * поэтому вызывается только из фоновых потоков.
+     */
+    public ConnectionManager connections() {
+        return ready.join();
+    }
+
+    /**
+     * Открывает базу и готовит схему в фоновом потоке, не задерживая показ окна.
+     */
+    public CompletableFuture<Void> open() {
+        Thread.ofVirtual().name("bills-db-bootstrap").start(this::connect);
+        return ready.thenApply(connections -> null);
+    }
+
+    public void connect() {
+        try {
+            // Путь определяется один раз, дальше работаем через долгоживущие подключения
+            String sqlPath = getDatabasePath();
+            connections = new ConnectionManager(sqlPath, READER_COUNT, durability);
+            Log.info("База данных успешно подключена.");
+
+            // При актуальной схеме это единственное чтение PRAGMA user_version
+            migrator.migrate(connections);
+            ready.complete(connections);
+
+        } catch (SQLException | RuntimeException e) {
+            Log.error("Ошибка при подключении или работе с базой данных", e);
+            ready.completeExceptionally(e);
+        }
+    }
+
+    private static void initializeDefaultTariffs(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM tariff_versions")) {
+            rs.next();
+            if (rs.getInt(1) > 0) {
+                Log.info("Тарифы уже существуют в базе данных.");
+                return;
+            }
+        }
+
+        // Прежняя однострочная таблица Tariffs становится версией, действующей с самого начала
+        try (Statement stmt = connection.createStatement()) {
+            int migrated = stmt.executeUpdate(
+                    "INSERT INTO tariff_versions (effective_from, cold, hot, sewer, electricity_day, electricity_night) " +
+                    "SELECT " + BillingPeriod.BEGINNING + ", cold, hot, sewer, electricity_day, electricity_night " +
+                    "FROM Tariffs LIMIT 1");
+            if (migrated > 0) {
+                Log.info("Тарифы перенесены в таблицу версий.");
+                return;
+            }
+
+            Log.info("Тарифы не найдены. Устанавливаются значения по умолчанию.");
+            int rowsAffected = stmt.executeUpdate(
+                    "INSERT INTO tariff_versions (effective_from, cold, hot, sewer, electricity_day, electricity_night) " +
+                    "VALUES (" + BillingPeriod.BEGINNING + ", 30.0, 50.0, 20.0, 4.5, 3.0)");
+            if (rowsAffected == 0) {
+                // Ошибка откатывает миграцию, и тарифы будут установлены при следующем запуске
+                throw new SQLException("Тарифы по умолчанию не установлены");
+            }
+            Log.info("Тарифы по умолчанию установлены.");
+        }
+    }
+
+    private static void createTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS Tariffs (" +
+                         "cold REAL, hot REAL, sewer REAL, electricity_day REAL, electricity_night REAL)");
+            // Таблица history в старом формате остается как есть и переносится следующими миграциями
+            stmt.execute("CREATE TABLE IF NOT EXISTS history (" + HISTORY_COLUMNS + ")" + HISTORY_OPTIONS);
+        }
+    }
+
+    private static void addHistoryTotal(Connection connection) throws SQLException {
+        if (!hasColumn(connection, "history", "period") && !hasColumn(connection, "history", "total")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE history ADD COLUMN total REAL");
+            }
+            Log.info("Столбец 'total' успешно добавлен.");
+        }
+    }
+
+    private static void createHistoryIndexes(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Общая лента по периодам и отчеты по диапазону периодов обходятся одним индексом
+            stmt.execute("CREATE INDEX IF NOT EXISTS history_by_period ON history (period, account_id, total)");
+        }
+    }
+
+    private static void createTariffVersions(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Версии тарифов: каждая действует с периода effective_from (yyyymm) до следующей версии
+            stmt.execute("CREATE TABLE IF NOT EXISTS tariff_versions (" +
+                         "effective_from INTEGER PRIMARY KEY, cold REAL NOT NULL, hot REAL NOT NULL, " +
+                         "sewer REAL NOT NULL, electricity_day REAL NOT NULL, electricity_night REAL NOT NULL)");
+        }
+        initializeDefaultTariffs(connection);
+    }
+
+    private static void createTariffTiers(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // Ступени строки начисления версии тарифов; строки без ступеней берут плоскую цену из tariff_versions.
+            // Порог в тысячных долях единицы (NULL у последней ступени), цена в десятитысячных долях рубля
+            stmt.execute("CREATE TABLE IF NOT EXISTS tariff_tiers (" +
+                         "effective_from INTEGER NOT NULL, line INTEGER NOT NULL, tier INTEGER NOT NULL, " +
+                         "up_to INTEGER, price INTEGER NOT NULL, " +
+                         "PRIMARY KEY (effective_from, line, tier)) WITHOUT ROWID");
+        }
+    }
+
+    static boolean hasTable(Connection connection, String table) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(null, null, table, column)) {
+            return rs.next();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (connections == null) {
+            return;
+        }
+        Log.info("Статистика базы данных: " + connections.stats());
+        connections.close();
+    }
+}
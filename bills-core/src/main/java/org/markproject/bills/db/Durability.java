@@ -0,0 +1,28 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+/**
+ * Режим надежности записи истории. Задается системным свойством {@code bills.durability}.
+ */
+public enum Durability {
+    /**
+     * Записи копятся в очереди и сбрасываются пакетом по размеру или таймеру;
+     * при сбое питания могут потеряться последние доли секунды ввода.
+     */
+    BUFFERED,
+    /**
+     * Каждая запись фиксируется сразу, а SQLite выполняет fsync при каждой фиксации.
+     */
+    SYNC;
+
+    public static Durability fromSystemProperty() {
+        String value = System.getProperty("bills.durability", BUFFERED.name());
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.warn("Неизвестный режим bills.durability: " + value + ", используется " + BUFFERED);
+            return BUFFERED;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.markproject.bills.db;
+
+/**
+ * Изменение одной строки истории, зафиксированное в базе.
+ *
+ * @param entry новое содержимое строки; {@code null} для удаления
+ */
+public record HistoryChange(Kind kind, HistoryKey key, HistoryEntry entry) {
+
+    public enum Kind {
+        INSERTED, UPDATED, DELETED
+    }
+
+    static HistoryChange of(Kind kind, HistoryEntry entry) {
+        return new HistoryChange(kind, new HistoryKey(entry.accountId(), entry.period()), entry);
+    }
+
+    static HistoryChange deleted(int accountId, int period) {
+        return new HistoryChange(Kind.DELETED, new HistoryKey(accountId, period), null);
+    }
+}
@@ -0,0 +1,14 @@
+package org.markproject.bills.db;
+
+import java.util.List;
+
+/**
+ * Записи истории, удаленные одной транзакцией; до очистки корзины их можно восстановить
+ * через {@link HistoryRepository#restore(long)}, который возвращает такой же набор для
+ * действительно восстановленных записей.
+ *
+ * @param batch номер удаления в корзине history_deleted
+ * @param keys  ключи действительно удаленных (или восстановленных) записей
+ */
+public record HistoryDeletion(long batch, List<HistoryKey> keys, long elapsedNanos) {
+}
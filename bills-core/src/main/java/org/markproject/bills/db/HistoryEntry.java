@@ -0,0 +1,10 @@
+package org.markproject.bills.db;
+
+/**
+ * Строка таблицы history без привязки к JavaFX.
+ *
+ * @param period расчетный период yyyymm, см. {@link org.markproject.bills.billing.BillingPeriod}
+ */
+public record HistoryEntry(int accountId, int period, double coldWater, double hotWater, double sewer,
+                           double electricityDay, double electricityNight, double total) {
+}
@@ -0,0 +1,49 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Шина изменений истории внутри процесса. Все пути записи в таблицу history публикуют сюда
+ * зафиксированные изменения, и представления обновляются по ним, не перечитывая таблицу.
+ * <p>
+ * Хук обновлений SQLite здесь не подходит: он не вызывается для таблиц WITHOUT ROWID,
+ * а history именно такая. Поэтому изменения публикуют сами пути записи.
+ */
+public final class HistoryEvents {
+    private final List<HistoryListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void subscribe(HistoryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(HistoryListener listener) {
+        listeners.remove(listener);
+    }
+
+    void publish(List<HistoryChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (HistoryListener listener : listeners) {
+            try {
+                listener.changed(changes);
+            } catch (RuntimeException e) {
+                // Ошибка подписчика не должна отменять уже зафиксированную запись
+                Log.error("Ошибка обработки изменений истории", e);
+            }
+        }
+    }
+
+    void publishInvalidated() {
+        for (HistoryListener listener : listeners) {
+            try {
+                listener.invalidated();
+            } catch (RuntimeException e) {
+                Log.error("Ошибка обработки изменений истории", e);
+            }
+        }
+    }
+}
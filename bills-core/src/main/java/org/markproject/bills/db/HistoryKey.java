@@ -0,0 +1,7 @@
+package org.markproject.bills.db;
+
+/**
+ * Первичный ключ записи истории.
+ */
+public record HistoryKey(int accountId, int period) {
+}
@@ -0,0 +1,20 @@
+package org.markproject.bills.db;
+
+import java.util.List;
+
+/**
+ * Подписчик на изменения истории. Методы вызываются в потоке, зафиксировавшем запись,
+ * сразу после фиксации, поэтому должны только передать изменения дальше.
+ */
+public interface HistoryListener {
+    /**
+     * Изменения одной транзакции в порядке их выполнения.
+     */
+    void changed(List<HistoryChange> changes);
+
+    /**
+     * Изменено слишком много строк, чтобы перечислять их (например, импортом);
+     * подписчик перечитывает то, что держит.
+     */
+    void invalidated();
+}
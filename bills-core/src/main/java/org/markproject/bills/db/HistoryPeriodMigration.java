@@ -0,0 +1,126 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.diag.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Month;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Перенос истории из старого формата (название месяца) в таблицу по лицевому счету и периоду.
+ * Старая таблица переименовывается в history_legacy и переносится порциями: каждая порция —
+ * отдельная транзакция, перенесенные строки удаляются из history_legacy, так что после сбоя
+ * перенос продолжается с оставшихся строк.
+ */
+final class HistoryPeriodMigration implements Migration {
+    private static final int CHUNK_SIZE = 10_000;
+
+    private final String createHistory;
+    private final YearMonth now = YearMonth.now();
+    private long lastRowId;
+    private int migrated;
+    private int skipped;
+
+    HistoryPeriodMigration(String createHistory) {
+        this.createHistory = createHistory;
+    }
+
+    @Override
+    public String description() {
+        return "история по лицевым счетам и периодам";
+    }
+
+    @Override
+    public boolean apply(Connection connection) throws SQLException {
+        if (!Database.hasColumn(connection, "history", "period")) {
+            Log.info("Таблица history в старом формате. Переносим данные...");
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE history RENAME TO history_legacy");
+                stmt.execute(createHistory);
+            }
+            return true;
+        }
+        if (!Database.hasTable(connection, "history_legacy")) {
+            return false;
+        }
+        if (copyChunk(connection) == CHUNK_SIZE) {
+            return true;
+        }
+
+        if (skipped == 0) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP TABLE history_legacy");
+            }
+            Log.info("История перенесена в новый формат: " + migrated);
+        } else {
+            Log.warn("Нераспознанные записи оставлены в таблице history_legacy: " + skipped);
+        }
+        return false;
+    }
+
+    private int copyChunk(Connection connection) throws SQLException {
+        int read = 0;
+        try (PreparedStatement select = connection.prepareStatement(
+                     "SELECT rowid, month, cold_water, hot_water, sewer, electricity_day, electricity_night, total " +
+                     "FROM history_legacy WHERE rowid > ? ORDER BY rowid LIMIT " + CHUNK_SIZE);
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT OR REPLACE INTO history (account_id, period, cold_water, hot_water, sewer, " +
+                     "electricity_day, electricity_night, total) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+             PreparedStatement delete = connection.prepareStatement("DELETE FROM history_legacy WHERE rowid = ?")) {
+            select.setLong(1, lastRowId);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    read++;
+                    lastRowId = rs.getLong(1);
+                    String month = rs.getString(2);
+                    int period = legacyPeriod(month, now);
+                    if (period < 0) {
+                        Log.warn("Не удалось определить период записи истории: " + month);
+                        skipped++;
+                        continue;
+                    }
+                    insert.setInt(1, Database.DEFAULT_ACCOUNT);
+                    insert.setInt(2, period);
+                    for (int column = 3; column <= 8; column++) {
+                        insert.setDouble(column, rs.getDouble(column));
+                    }
+                    insert.addBatch();
+                    delete.setLong(1, lastRowId);
+                    delete.addBatch();
+                    migrated++;
+                }
+            }
+            insert.executeBatch();
+            delete.executeBatch();
+        }
+        return read;
+    }
+
+    /**
+     * Период старой записи: имя месяца (JANUARY) относится к последним двенадцати месяцам,
+     * значение вида 2024-01 переносится как есть. Возвращает -1, если формат не распознан.
+     */
+    static int legacyPeriod(String month, YearMonth now) {
+        if (month == null) {
+            return -1;
+        }
+        try {
+            Month parsed = Month.valueOf(month.trim().toUpperCase());
+            int year = parsed.getValue() > now.getMonthValue() ? now.getYear() - 1 : now.getYear();
+            return BillingPeriod.key(year, parsed.getValue());
+        } catch (IllegalArgumentException ignored) {
+            // Возможно, месяц записан вместе с годом
+        }
+        try {
+            return BillingPeriod.key(YearMonth.parse(month.trim()));
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
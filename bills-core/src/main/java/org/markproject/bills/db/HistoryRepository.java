@@ -0,0 +1,530 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+import org.markproject.bills.history.HistoryColumns;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Доступ к таблице history. Чтение выполняется на {@link DbExecutor},
+ * запись идет через {@link HistoryWriteQueue}. Каждая зафиксированная запись
+ * публикуется в {@link #events()}; годовые итоги ({@link YearlyAggregates}) обновляются
+ * в той же транзакции, что и сама запись.
+ * <p>
+ * Удаленные записи переносятся в корзину history_deleted той же транзакцией, что и удаление,
+ * поэтому удаление можно отменить; остальные запросы к истории корзину не видят.
+ * Корзину очищает {@link TombstoneCompactor}.
+ */
+public final class HistoryRepository implements AutoCloseable {
+    private static final String SELECT_ENTRIES =
+            "SELECT account_id, period, cold_water, hot_water, sewer, electricity_day, electricity_night, total " +
+            "FROM history ";
+
+    static final String CREATE_DELETED = "CREATE TABLE IF NOT EXISTS history_deleted (" +
+            "batch INTEGER NOT NULL, deleted_at INTEGER NOT NULL, account_id INTEGER NOT NULL, period INTEGER NOT NULL, " +
+            "cold_water REAL, hot_water REAL, sewer REAL, electricity_day REAL, electricity_night REAL, total REAL, " +
+            "PRIMARY KEY (batch, account_id, period)) WITHOUT ROWID";
+    // Больше стольких изменений подписчикам проще перечитать историю, чем применять по одному
+    private static final int PUBLISHED_CHANGES = 1_000;
+    // Корзина очищается порциями, чтобы не держать блокировку записи
+    private static final int PURGE_CHUNK = 5_000;
+
+    private final Database database;
+    private final DbExecutor executor;
+    private final HistoryWriteQueue writeQueue;
+    private final HistoryEvents events = new HistoryEvents();
+
+    public HistoryRepository(Database database, DbExecutor executor) {
+        this.database = database;
+        this.executor = executor;
+        this.writeQueue = new HistoryWriteQueue(database, database.durability(), events);
+    }
+
+    /**
+     * Шина изменений истории.
+     */
+    public HistoryEvents events() {
+        return events;
+    }
+
+    public CompletableFuture<HistoryColumns> loadAll() {
+        return executor.submit(this::loadHistoryData);
+    }
+
+    public CompletableFuture<Integer> count() {
+        return executor.submit(() -> database.connections().read(session -> {
+            try (ResultSet rs = session.prepare("SELECT COUNT(*) FROM history").executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }));
+    }
+
+    /**
+     * Ключ записи, стоящей на позиции offset в общей ленте (period DESC, account_id DESC).
+     * Читает только индекс history_by_period и нужен лишь для перехода к произвольной странице,
+     * последовательная прокрутка обходится {@link #loadPage}.
+     */
+    public CompletableFuture<HistoryKey> keyAt(int offset) {
+        return executor.submit(() -> database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(
+                    "SELECT account_id, period FROM history ORDER BY period DESC, account_id DESC LIMIT 1 OFFSET ?");
+            stmt.setInt(1, offset);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? new HistoryKey(rs.getInt(1), rs.getInt(2)) : null;
+            }
+        }));
+    }
+
+    /**
+     * Страница общей ленты, следующая сразу за ключом after (keyset-пагинация).
+     *
+     * @param after последний ключ предыдущей страницы или {@code null} для первой страницы
+     */
+    public CompletableFuture<HistoryColumns> loadPage(HistoryKey after, int limit) {
+        return executor.submit(() -> database.connections().read(session -> {
+            PreparedStatement stmt;
+            if (after == null) {
+                stmt = session.prepare(SELECT_ENTRIES + "ORDER BY period DESC, account_id DESC LIMIT ?");
+                stmt.setInt(1, limit);
+            } else {
+                stmt = session.prepare(SELECT_ENTRIES + "WHERE (period, account_id) < (?, ?) " +
+                                       "ORDER BY period DESC, account_id DESC LIMIT ?");
+                stmt.setInt(1, after.period());
+                stmt.setInt(2, after.accountId());
+                stmt.setInt(3, limit);
+            }
+            HistoryColumns page = new HistoryColumns(limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rs, page);
+                }
+            }
+            return page;
+        }));
+    }
+
+    /**
+     * Ставит запись в очередь; будущее завершается, когда она зафиксирована в базе.
+     */
+    public CompletableFuture<Void> save(HistoryEntry entry) {
+        return writeQueue.enqueue(entry);
+    }
+
+    /**
+     * Записывает пакет строк в одной транзакции в текущем потоке, минуя очередь.
+     * Предназначен для фоновых пакетных задач, таких как импорт; подписчики получают
+     * не отдельные строки, а признак того, что история изменилась целиком.
+     */
+    public void upsertBatch(HistoryColumns batch) throws SQLException {
+        database.connections().transaction(session -> {
+            writeBatch(session, batch);
+            return null;
+        });
+        events.publishInvalidated();
+    }
+
+    /**
+     * Перезаписывает записи счета accountId за периоды [fromPeriod, toPeriod) одной транзакцией
+     * в текущем потоке: update получает сохраненные записи по возрастанию периода и дописывает
+     * в пакет новые. Чтение, расчет и запись идут на пишущем подключении под его блокировкой,
+     * так что другая запись истории не может вклиниться между ними; очередь записи перед этим
+     * сбрасывается. Подписчики, как и после {@link #upsertBatch}, получают признак изменения истории.
+     *
+     * @return записанный пакет
+     */
+    public HistoryColumns updateAccount(int accountId, int fromPeriod, int toPeriod,
+                                        BiConsumer<HistoryColumns, HistoryColumns> update) throws SQLException {
+        try {
+            flush().join();
+        } catch (CompletionException e) {
+            throw new SQLException("Не удалось записать очередь истории", e.getCause());
+        }
+        HistoryColumns batch = database.connections().transaction(session -> {
+            HistoryColumns stored = new HistoryColumns(16);
+            selectAccount(session, accountId, fromPeriod, toPeriod, Integer.MAX_VALUE, stored);
+            HistoryColumns rows = new HistoryColumns(Math.max(16, stored.size()));
+            update.accept(stored, rows);
+            writeBatch(session, rows);
+            return rows;
+        });
+        if (!batch.isEmpty()) {
+            events.publishInvalidated();
+        }
+        return batch;
+    }
+
+    private static void writeBatch(SqlSession session, HistoryColumns batch) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        PreparedStatement stmt = session.prepare(HistoryWriteQueue.UPSERT);
+        for (int row = 0; row < batch.size(); row++) {
+            stmt.setInt(1, batch.accountId(row));
+            stmt.setInt(2, batch.period(row));
+            stmt.setDouble(3, batch.coldWater(row));
+            stmt.setDouble(4, batch.hotWater(row));
+            stmt.setDouble(5, batch.sewer(row));
+            stmt.setDouble(6, batch.electricityDay(row));
+            stmt.setDouble(7, batch.electricityNight(row));
+            stmt.setDouble(8, batch.total(row));
+            stmt.addBatch();
+        }
+        stmt.executeBatch();
+        Set<Long> groups = new HashSet<>();
+        for (int row = 0; row < batch.size(); row++) {
+            groups.add(YearlyAggregates.group(batch.accountId(row), batch.period(row)));
+        }
+        YearlyAggregates.refresh(session, groups);
+    }
+
+    /**
+     * Количество записей с периодами из [fromPeriod, toPeriod) в текущем потоке; читает только индекс.
+     */
+    public long countRange(int fromPeriod, int toPeriod) throws SQLException {
+        return database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare("SELECT COUNT(*) FROM history WHERE period >= ? AND period < ?");
+            stmt.setInt(1, fromPeriod);
+            stmt.setInt(2, toPeriod);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        });
+    }
+
+    /**
+     * Дописывает в into до limit записей с периодами из [fromPeriod, toPeriod), следующих
+     * за ключом after в порядке первичного ключа (account_id, period). Выполняется в текущем потоке.
+     * Таблица обходится подряд по первичному ключу: последующая запись тех же строк
+     * ({@link #updateTotals}) попадает в соседние страницы, а не разбрасывается по всему файлу.
+     * Унарный плюс не дает планировщику выбрать индекс по периоду вместо первичного ключа.
+     */
+    public void readRange(int fromPeriod, int toPeriod, HistoryKey after, int limit, HistoryColumns into)
+            throws SQLException {
+        database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(SELECT_ENTRIES +
+                    "WHERE (account_id, period) > (?, ?) AND +period >= ? AND +period < ? " +
+                    "ORDER BY account_id, period LIMIT ?");
+            stmt.setInt(1, after.accountId());
+            stmt.setInt(2, after.period());
+            stmt.setInt(3, fromPeriod);
+            stmt.setInt(4, toPeriod);
+            stmt.setInt(5, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rs, into);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Дописывает в into до limit записей с периодами из [fromPeriod, toPeriod), следующих
+     * за ключом after в порядке (period, account_id). Выполняется в текущем потоке.
+     * В отличие от {@link #readRange} идет по индексу history_by_period и читает только
+     * нужные периоды; подходит для выборки нескольких месяцев из длинной истории.
+     */
+    public void readByPeriod(int fromPeriod, int toPeriod, HistoryKey after, int limit, HistoryColumns into)
+            throws SQLException {
+        database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(SELECT_ENTRIES +
+                    "WHERE (period, account_id) > (?, ?) AND period >= ? AND period < ? " +
+                    "ORDER BY period, account_id LIMIT ?");
+            stmt.setInt(1, after.period());
+            stmt.setInt(2, after.accountId());
+            stmt.setInt(3, fromPeriod);
+            stmt.setInt(4, toPeriod);
+            stmt.setInt(5, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rs, into);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Дописывает в into до limit записей счета accountId с периодами из [fromPeriod, toPeriod)
+     * по возрастанию периода. Выполняется в текущем потоке; читает диапазон первичного ключа.
+     */
+    public void readAccount(int accountId, int fromPeriod, int toPeriod, int limit, HistoryColumns into)
+            throws SQLException {
+        database.connections().read(session -> {
+            selectAccount(session, accountId, fromPeriod, toPeriod, limit, into);
+            return null;
+        });
+    }
+
+    private static void selectAccount(SqlSession session, int accountId, int fromPeriod, int toPeriod, int limit,
+                                      HistoryColumns into) throws SQLException {
+        PreparedStatement stmt = session.prepare(SELECT_ENTRIES +
+                "WHERE account_id = ? AND period >= ? AND period < ? ORDER BY period LIMIT ?");
+        stmt.setInt(1, accountId);
+        stmt.setInt(2, fromPeriod);
+        stmt.setInt(3, toPeriod);
+        stmt.setInt(4, limit);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                readRow(rs, into);
+            }
+        }
+    }
+
+    /**
+     * Записывает суммы строк [from, to) пакета в одной транзакции в текущем потоке.
+     * Строка обновляется, только если ее показания в базе совпадают с показаниями пакета,
+     * а сумма отличается. Возвращает число измененных строк.
+     */
+    public int updateTotals(HistoryColumns rows, int from, int to) throws SQLException {
+        List<HistoryChange> changes = new ArrayList<>();
+        database.connections().transaction(session -> {
+            PreparedStatement stmt = session.prepare(
+                    "UPDATE history SET total = ? WHERE account_id = ? AND period = ? " +
+                    "AND cold_water IS ? AND hot_water IS ? AND sewer IS ? " +
+                    "AND electricity_day IS ? AND electricity_night IS ? AND total IS NOT ?");
+            for (int row = from; row < to; row++) {
+                stmt.setDouble(1, rows.total(row));
+                stmt.setInt(2, rows.accountId(row));
+                stmt.setInt(3, rows.period(row));
+                stmt.setDouble(4, rows.coldWater(row));
+                stmt.setDouble(5, rows.hotWater(row));
+                stmt.setDouble(6, rows.sewer(row));
+                stmt.setDouble(7, rows.electricityDay(row));
+                stmt.setDouble(8, rows.electricityNight(row));
+                stmt.setDouble(9, rows.total(row));
+                stmt.addBatch();
+            }
+            int[] counts = stmt.executeBatch();
+            Set<Long> groups = new HashSet<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    changes.add(HistoryChange.of(HistoryChange.Kind.UPDATED, entry(rows, from + i)));
+                    groups.add(YearlyAggregates.group(rows.accountId(from + i), rows.period(from + i)));
+                }
+            }
+            YearlyAggregates.refresh(session, groups);
+            return null;
+        });
+        events.publish(changes);
+        return changes.size();
+    }
+
+    private static HistoryEntry entry(HistoryColumns rows, int row) {
+        return new HistoryEntry(rows.accountId(row), rows.period(row), rows.coldWater(row), rows.hotWater(row),
+                rows.sewer(row), rows.electricityDay(row), rows.electricityNight(row), rows.total(row));
+    }
+
+    public CompletableFuture<Void> flush() {
+        return writeQueue.flush();
+    }
+
+    /**
+     * Удаляет одну запись так же, как {@link #deleteBatch(Collection)}.
+     */
+    public CompletableFuture<Boolean> delete(int accountId, int period) {
+        return deleteBatch(List.of(new HistoryKey(accountId, period))).thenApply(deletion -> !deletion.keys().isEmpty());
+    }
+
+    static void createTombstones(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_DELETED);
+            stmt.execute("CREATE INDEX IF NOT EXISTS history_deleted_by_time ON history_deleted (deleted_at)");
+        }
+    }
+
+    /**
+     * Удаляет записи одной транзакцией, перенося их в корзину под общим номером удаления.
+     * Ключи, которых уже нет в истории, пропускаются. Сначала сбрасывается очередь записи:
+     * иначе отложенное сохранение удаляемой записи зафиксировалось бы после удаления и вернуло ее.
+     */
+    public CompletableFuture<HistoryDeletion> deleteBatch(Collection<HistoryKey> keys) {
+        List<HistoryKey> requested = List.copyOf(keys);
+        return flush().thenCompose(ignored -> executor.submit(() -> deleteKeys(requested)));
+    }
+
+    private HistoryDeletion deleteKeys(List<HistoryKey> keys) throws SQLException {
+        long started = System.nanoTime();
+        List<HistoryKey> deleted = new ArrayList<>(keys.size());
+        long batch = database.connections().transaction(session -> {
+            // Номер не повторяется и после очистки корзины, иначе старая отмена вернула бы чужие записи
+            long now = System.currentTimeMillis();
+            long number;
+            try (ResultSet rs = session.prepare("SELECT COALESCE(MAX(batch), 0) + 1 FROM history_deleted").executeQuery()) {
+                rs.next();
+                number = Math.max(rs.getLong(1), now);
+            }
+            PreparedStatement bury = session.prepare(
+                    "INSERT INTO history_deleted (batch, deleted_at, account_id, period, cold_water, hot_water, sewer, " +
+                    "electricity_day, electricity_night, total) SELECT ?, ?, account_id, period, cold_water, hot_water, " +
+                    "sewer, electricity_day, electricity_night, total FROM history WHERE account_id = ? AND period = ?");
+            PreparedStatement remove = session.prepare("DELETE FROM history WHERE account_id = ? AND period = ?");
+            for (HistoryKey key : keys) {
+                bury.setLong(1, number);
+                bury.setLong(2, now);
+                bury.setInt(3, key.accountId());
+                bury.setInt(4, key.period());
+                bury.addBatch();
+                remove.setInt(1, key.accountId());
+                remove.setInt(2, key.period());
+                remove.addBatch();
+            }
+            bury.executeBatch();
+            int[] counts = remove.executeBatch();
+            Set<Long> groups = new HashSet<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    HistoryKey key = keys.get(i);
+                    deleted.add(key);
+                    groups.add(YearlyAggregates.group(key.accountId(), key.period()));
+                }
+            }
+            YearlyAggregates.refresh(session, groups);
+            return number;
+        });
+        Log.info("Удалено записей: " + deleted.size() + " (удаление " + batch + ")");
+        publish(deleted.stream().map(key -> HistoryChange.deleted(key.accountId(), key.period())).toList());
+        return new HistoryDeletion(batch, deleted, System.nanoTime() - started);
+    }
+
+    /**
+     * Возвращает в историю записи удаления batch одной транзакцией и убирает их из корзины.
+     * Запись, ключ которой с тех пор снова занят, не восстанавливается: новые данные важнее.
+     * Повторять удаление можно только по возвращенным ключам, иначе оно сотрет эти новые данные.
+     * Как и удаление, сначала сбрасывает очередь записи, чтобы новые данные уже были в истории.
+     *
+     * @return ключи действительно восстановленных записей; пусто, если корзина уже очищена
+     */
+    public CompletableFuture<HistoryDeletion> restore(long batch) {
+        return flush().thenCompose(ignored -> executor.submit(() -> restoreBatch(batch)));
+    }
+
+    private HistoryDeletion restoreBatch(long batch) throws SQLException {
+        long started = System.nanoTime();
+        List<HistoryChange> restored = new ArrayList<>();
+        List<HistoryKey> keys = new ArrayList<>();
+        database.connections().transaction(session -> {
+            HistoryColumns rows = new HistoryColumns(64);
+            PreparedStatement select = session.prepare(
+                    "SELECT account_id, period, cold_water, hot_water, sewer, electricity_day, electricity_night, total " +
+                    "FROM history_deleted WHERE batch = ?");
+            select.setLong(1, batch);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rs, rows);
+                }
+            }
+            PreparedStatement insert = session.prepare(
+                    "INSERT OR IGNORE INTO history (account_id, period, cold_water, hot_water, sewer, " +
+                    "electricity_day, electricity_night, total) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+            for (int row = 0; row < rows.size(); row++) {
+                insert.setInt(1, rows.accountId(row));
+                insert.setInt(2, rows.period(row));
+                insert.setDouble(3, rows.coldWater(row));
+                insert.setDouble(4, rows.hotWater(row));
+                insert.setDouble(5, rows.sewer(row));
+                insert.setDouble(6, rows.electricityDay(row));
+                insert.setDouble(7, rows.electricityNight(row));
+                insert.setDouble(8, rows.total(row));
+                insert.addBatch();
+            }
+            int[] counts = insert.executeBatch();
+            Set<Long> groups = new HashSet<>();
+            for (int row = 0; row < counts.length; row++) {
+                if (counts[row] > 0) {
+                    restored.add(HistoryChange.of(HistoryChange.Kind.INSERTED, new HistoryEntry(
+                            rows.accountId(row), rows.period(row), rows.coldWater(row), rows.hotWater(row),
+                            rows.sewer(row), rows.electricityDay(row), rows.electricityNight(row), rows.total(row))));
+                    keys.add(new HistoryKey(rows.accountId(row), rows.period(row)));
+                    groups.add(YearlyAggregates.group(rows.accountId(row), rows.period(row)));
+                }
+            }
+            PreparedStatement purge = session.prepare("DELETE FROM history_deleted WHERE batch = ?");
+            purge.setLong(1, batch);
+            purge.executeUpdate();
+            YearlyAggregates.refresh(session, groups);
+            return null;
+        });
+        Log.info("Восстановлено записей: " + restored.size() + " (удаление " + batch + ")");
+        publish(restored);
+        return new HistoryDeletion(batch, keys, System.nanoTime() - started);
+    }
+
+    private void publish(List<HistoryChange> changes) {
+        if (changes.size() > PUBLISHED_CHANGES) {
+            events.publishInvalidated();
+        } else {
+            events.publish(changes);
+        }
+    }
+
+    /**
+     * Стирает из корзины записи, удаленные раньше deletedBefore (мс с начала эпохи), порциями
+     * в отдельных транзакциях. Выполняется в текущем потоке; между порциями проверяет stop.
+     *
+     * @return число стертых записей
+     */
+    public long purgeDeleted(long deletedBefore, BooleanSupplier stop) throws SQLException {
+        long purged = 0;
+        while (!stop.getAsBoolean()) {
+            int chunk = database.connections().transaction(session -> {
+                PreparedStatement stmt = session.prepare(
+                        "DELETE FROM history_deleted WHERE (batch, account_id, period) IN (" +
+                        "SELECT batch, account_id, period FROM history_deleted WHERE deleted_at < ? LIMIT ?)");
+                stmt.setLong(1, deletedBefore);
+                stmt.setInt(2, PURGE_CHUNK);
+                return stmt.executeUpdate();
+            });
+            purged += chunk;
+            if (chunk < PURGE_CHUNK) {
+                break;
+            }
+        }
+        return purged;
+    }
+
+    private HistoryColumns loadHistoryData() throws SQLException {
+        return database.connections().read(session -> {
+            HistoryColumns history = new HistoryColumns(1024);
+            // Порядок совпадает с индексом history_by_period, сортировка не требуется
+            PreparedStatement stmt = session.prepare(SELECT_ENTRIES + "ORDER BY period DESC, account_id DESC");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    readRow(rs, history);
+                }
+            }
+            Log.info("Данные истории успешно загружены.");
+            return history;
+        });
+    }
+
+    private static void readRow(ResultSet rs, HistoryColumns columns) throws SQLException {
+        columns.add(
+                rs.getInt(1),
+                rs.getInt(2),
+                rs.getDouble(3),
+                rs.getDouble(4),
+                rs.getDouble(5),
+                rs.getDouble(6),
+                rs.getDouble(7),
+                rs.getDouble(8));
+    }
+
+    @Override
+    public void close() {
+        writeQueue.close();
+    }
+}
@@ -0,0 +1,207 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Очередь отложенной записи истории.
+ * <p>
+ * Повторные сохранения одного периода схлопываются в одну запись, а накопленное сбрасывается
+ * одним пакетом INSERT ... ON CONFLICT DO UPDATE в одной транзакции: по достижении
+ * {@link #FLUSH_SIZE} записей, через {@link #FLUSH_DELAY_MS} после первой записи пакета,
+ * по явному {@link #flush()} и при закрытии. Будущее, возвращаемое {@link #enqueue},
+ * завершается после фиксации транзакции, в которую попала запись. Зафиксированные строки
+ * публикуются в {@link HistoryEvents} как вставки или обновления, а годовые итоги
+ * затронутых счетов пересчитываются в той же транзакции.
+ */
+public final class HistoryWriteQueue implements AutoCloseable {
+    static final int FLUSH_SIZE = 500;
+    static final long FLUSH_DELAY_MS = 200;
+    // Ключей в одном запросе существующих строк: по два параметра на ключ
+    private static final int EXISTING_CHUNK = 250;
+
+    static final String UPSERT =
+            "INSERT INTO history (account_id, period, cold_water, hot_water, sewer, " +
+            "electricity_day, electricity_night, total) VALUES (?, ?, ?, ?, ?, ?, ?, ?) " +
+            "ON CONFLICT(account_id, period) DO UPDATE SET cold_water = excluded.cold_water, " +
+            "hot_water = excluded.hot_water, sewer = excluded.sewer, electricity_day = excluded.electricity_day, " +
+            "electricity_night = excluded.electricity_night, total = excluded.total";
+
+    private static final String SELECT_EXISTING = "SELECT account_id, period FROM history " +
+            "WHERE (account_id, period) IN (VALUES " + "(?, ?), ".repeat(EXISTING_CHUNK - 1) + "(?, ?))";
+
+    private final Database database;
+    private final Durability durability;
+    private final HistoryEvents events;
+    // Единственный поток записи: пакеты фиксируются строго по очереди
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bills-history-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Object lock = new Object();
+    private Map<HistoryKey, Pending> pending = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public HistoryWriteQueue(Database database, Durability durability, HistoryEvents events) {
+        this.database = database;
+        this.durability = durability;
+        this.events = events;
+    }
+
+    public CompletableFuture<Void> enqueue(HistoryEntry entry) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        boolean flushNow;
+        synchronized (lock) {
+            Pending previous = pending.put(new HistoryKey(entry.accountId(), entry.period()), new Pending(entry, done));
+            if (previous != null) {
+                // Более раннее значение перезаписано, но его ожидающие узнают о фиксации вместе с новым
+                done.whenComplete((ignored, error) -> complete(previous.done, error));
+            }
+            flushNow = durability == Durability.SYNC || pending.size() >= FLUSH_SIZE;
+            if (!flushNow && scheduledFlush == null) {
+                scheduledFlush = writer.schedule(this::flushPending, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (flushNow) {
+            writer.execute(this::flushPending);
+        }
+        return done;
+    }
+
+    /**
+     * Сбрасывает всё накопленное; будущее завершается после фиксации
+     * или с ошибкой, если пакет записать не удалось.
+     */
+    public CompletableFuture<Void> flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        writer.execute(() -> complete(done, writePending()));
+        return done;
+    }
+
+    private void flushPending() {
+        writePending();
+    }
+
+    /**
+     * Записывает накопленный пакет в потоке записи.
+     *
+     * @return ошибка записи или {@code null}, если пакет зафиксирован или пуст
+     */
+    private Throwable writePending() {
+        Map<HistoryKey, Pending> batch;
+        synchronized (lock) {
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+        if (batch.isEmpty()) {
+            return null;
+        }
+
+        Throwable failure = null;
+        List<HistoryChange> changes = new ArrayList<>(batch.size());
+        try {
+            database.connections().transaction(session -> {
+                // Вставка или замена определяется до записи одним запросом на порцию ключей:
+                // UPSERT сам этого не сообщает
+                Set<HistoryKey> existing = existingKeys(session, batch.keySet());
+                PreparedStatement stmt = session.prepare(UPSERT);
+                for (Map.Entry<HistoryKey, Pending> write : batch.entrySet()) {
+                    HistoryEntry entry = write.getValue().entry;
+                    changes.add(HistoryChange.of(existing.contains(write.getKey())
+                            ? HistoryChange.Kind.UPDATED : HistoryChange.Kind.INSERTED, entry));
+                    stmt.setInt(1, entry.accountId());
+                    stmt.setInt(2, entry.period());
+                    stmt.setDouble(3, entry.coldWater());
+                    stmt.setDouble(4, entry.hotWater());
+                    stmt.setDouble(5, entry.sewer());
+                    stmt.setDouble(6, entry.electricityDay());
+                    stmt.setDouble(7, entry.electricityNight());
+                    stmt.setDouble(8, entry.total());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                Set<Long> groups = new HashSet<>();
+                for (HistoryKey key : batch.keySet()) {
+                    groups.add(YearlyAggregates.group(key.accountId(), key.period()));
+                }
+                YearlyAggregates.refresh(session, groups);
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            Log.error("Ошибка записи истории", e);
+            failure = e;
+        }
+        if (failure == null) {
+            events.publish(changes);
+        }
+        for (Pending write : batch.values()) {
+            complete(write.done, failure);
+        }
+        return failure;
+    }
+
+    /**
+     * Ключи из keys, уже записанные в истории.
+     */
+    private static Set<HistoryKey> existingKeys(SqlSession session, Set<HistoryKey> keys) throws SQLException {
+        Set<HistoryKey> existing = new HashSet<>();
+        List<HistoryKey> all = new ArrayList<>(keys);
+        PreparedStatement stmt = session.prepare(SELECT_EXISTING);
+        for (int from = 0; from < all.size(); from += EXISTING_CHUNK) {
+            int parameter = 1;
+            for (int i = from; i < from + EXISTING_CHUNK; i++) {
+                // Неполная порция дополняется повтором последнего ключа, чтобы текст запроса был один
+                HistoryKey key = all.get(Math.min(i, all.size() - 1));
+                stmt.setInt(parameter++, key.accountId());
+                stmt.setInt(parameter++, key.period());
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existing.add(new HistoryKey(rs.getInt(1), rs.getInt(2)));
+                }
+            }
+        }
+        return existing;
+    }
+
+    private static void complete(CompletableFuture<Void> future, Throwable error) {
+        if (error == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    @Override
+    public void close() {
+        // Записи, принятые до закрытия, должны дойти до диска
+        writer.execute(this::flushPending);
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                Log.warn("Запись истории не завершилась вовремя.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Pending(HistoryEntry entry, CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,245 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.meter.IntervalBlocks;
+import org.markproject.bills.meter.IntervalSeries;
+import org.markproject.bills.meter.MeterKind;
+import org.markproject.bills.meter.MeterMonth;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Интервальные показания счетчиков. Показания счетчика за сутки хранятся одним сжатым блоком
+ * ({@link IntervalBlocks}) в meter_blocks вместе с суточным итогом по зонам; месячные итоги
+ * по зонам лежат в meter_monthly. Оба итога обновляются в той же транзакции, что и блоки,
+ * поэтому чтение итогов не распаковывает показания.
+ */
+public final class MeterRepository {
+    static final String CREATE_BLOCKS = "CREATE TABLE IF NOT EXISTS meter_blocks (" +
+            "account_id INTEGER NOT NULL, kind INTEGER NOT NULL, day INTEGER NOT NULL, " +
+            "readings INTEGER NOT NULL, day_zone INTEGER NOT NULL, night_zone INTEGER NOT NULL, block BLOB NOT NULL, " +
+            "PRIMARY KEY (account_id, kind, day)) WITHOUT ROWID";
+    static final String CREATE_MONTHLY = "CREATE TABLE IF NOT EXISTS meter_monthly (" +
+            "account_id INTEGER NOT NULL, kind INTEGER NOT NULL, period INTEGER NOT NULL, " +
+            "readings INTEGER NOT NULL, day_zone INTEGER NOT NULL, night_zone INTEGER NOT NULL, " +
+            "PRIMARY KEY (account_id, kind, period)) WITHOUT ROWID";
+
+    private static final String UPSERT_BLOCK =
+            "INSERT OR REPLACE INTO meter_blocks (account_id, kind, day, readings, day_zone, night_zone, block) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    // Месяц пересчитывается из суточных итогов своих не более чем 31 строки по первичному ключу
+    private static final String REFRESH_MONTH =
+            "INSERT OR REPLACE INTO meter_monthly (account_id, kind, period, readings, day_zone, night_zone) " +
+            "SELECT ?, ?, ?, SUM(readings), SUM(day_zone), SUM(night_zone) FROM meter_blocks " +
+            "WHERE account_id = ? AND kind = ? AND day >= ? AND day < ? HAVING COUNT(*) > 0";
+
+    private final Database database;
+    private final DbExecutor executor;
+
+    public MeterRepository(Database database, DbExecutor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    static void createTables(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_BLOCKS);
+            stmt.execute(CREATE_MONTHLY);
+        }
+    }
+
+    /**
+     * Записывает показания счетчика в одной транзакции в текущем потоке. Показания сливаются
+     * с уже сохраненными за те же сутки; при совпадении минуты остается новое.
+     * Порядок показаний может быть любым, ряд при этом упорядочивается.
+     *
+     * @return затронутые периоды yyyymm по возрастанию
+     */
+    public int[] write(int accountId, MeterKind kind, IntervalSeries readings) throws SQLException {
+        readings.normalize();
+        TreeSet<Integer> periods = new TreeSet<>();
+        database.connections().transaction(session -> {
+            PreparedStatement select = session.prepare(
+                    "SELECT block FROM meter_blocks WHERE account_id = ? AND kind = ? AND day = ?");
+            PreparedStatement upsert = session.prepare(UPSERT_BLOCK);
+            IntervalSeries stored = new IntervalSeries(128);
+            IntervalSeries merged = new IntervalSeries(128);
+            long[] zones = new long[2];
+            int from = 0;
+            while (from < readings.size()) {
+                int day = IntervalSeries.day(readings.minute(from));
+                int to = from + 1;
+                while (to < readings.size() && IntervalSeries.day(readings.minute(to)) == day) {
+                    to++;
+                }
+                stored.clear();
+                select.setInt(1, accountId);
+                select.setInt(2, kind.ordinal());
+                select.setInt(3, day);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        IntervalBlocks.decode(rs.getBytes(1), day, stored);
+                    }
+                }
+                merged.clear();
+                merge(stored, readings, from, to, merged);
+
+                byte[] block = IntervalBlocks.encode(merged, 0, merged.size());
+                zones[0] = 0;
+                zones[1] = 0;
+                IntervalBlocks.addZoneTotals(block, zones);
+                upsert.setInt(1, accountId);
+                upsert.setInt(2, kind.ordinal());
+                upsert.setInt(3, day);
+                upsert.setInt(4, merged.size());
+                upsert.setLong(5, zones[0]);
+                upsert.setLong(6, zones[1]);
+                upsert.setBytes(7, block);
+                upsert.addBatch();
+                LocalDate date = LocalDate.ofEpochDay(day);
+                periods.add(BillingPeriod.key(date.getYear(), date.getMonthValue()));
+                from = to;
+            }
+            upsert.executeBatch();
+
+            PreparedStatement refresh = session.prepare(REFRESH_MONTH);
+            for (int period : periods) {
+                YearMonth month = BillingPeriod.toYearMonth(period);
+                refresh.setInt(1, accountId);
+                refresh.setInt(2, kind.ordinal());
+                refresh.setInt(3, period);
+                refresh.setInt(4, accountId);
+                refresh.setInt(5, kind.ordinal());
+                refresh.setLong(6, month.atDay(1).toEpochDay());
+                refresh.setLong(7, month.plusMonths(1).atDay(1).toEpochDay());
+                refresh.addBatch();
+            }
+            refresh.executeBatch();
+            return null;
+        });
+        return periods.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Сохраненные показания [stored] и новые [from, to) одних суток, оба ряда упорядочены;
+     * при совпадении минуты побеждает новое.
+     */
+    private static void merge(IntervalSeries stored, IntervalSeries readings, int from, int to, IntervalSeries into) {
+        int i = 0;
+        int j = from;
+        while (i < stored.size() || j < to) {
+            if (j == to || i < stored.size() && stored.minute(i) < readings.minute(j)) {
+                into.add(stored.minute(i), stored.quantity(i));
+                i++;
+            } else {
+                if (i < stored.size() && stored.minute(i) == readings.minute(j)) {
+                    i++;
+                }
+                into.add(readings.minute(j), readings.quantity(j));
+                j++;
+            }
+        }
+    }
+
+    /**
+     * Дописывает в into показания счетчика с минутами из [fromMinute, toMinute) в порядке времени.
+     * Выполняется в текущем потоке.
+     */
+    public void read(int accountId, MeterKind kind, int fromMinute, int toMinute, IntervalSeries into)
+            throws SQLException {
+        int fromDay = IntervalSeries.day(fromMinute);
+        int toDay = IntervalSeries.day(toMinute - 1);
+        database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(
+                    "SELECT day, block FROM meter_blocks WHERE account_id = ? AND kind = ? AND day >= ? AND day <= ? " +
+                    "ORDER BY day");
+            stmt.setInt(1, accountId);
+            stmt.setInt(2, kind.ordinal());
+            stmt.setInt(3, fromDay);
+            stmt.setInt(4, toDay);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int day = rs.getInt(1);
+                    int start = into.size();
+                    IntervalBlocks.decode(rs.getBytes(2), day, into);
+                    if (day == fromDay || day == toDay) {
+                        into.retain(start, fromMinute, toMinute);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Месячные итоги всех счетчиков счета за периоды [fromPeriod, toPeriod) в текущем потоке.
+     */
+    public List<MeterMonth> monthly(int accountId, int fromPeriod, int toPeriod) throws SQLException {
+        return database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(
+                    "SELECT kind, period, readings, day_zone, night_zone FROM meter_monthly " +
+                    "WHERE account_id = ? AND period >= ? AND period < ? ORDER BY period, kind");
+            stmt.setInt(1, accountId);
+            stmt.setInt(2, fromPeriod);
+            stmt.setInt(3, toPeriod);
+            List<MeterMonth> months = new ArrayList<>();
+            MeterKind[] kinds = MeterKind.values();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    months.add(new MeterMonth(accountId, kinds[rs.getInt(1)], rs.getInt(2), rs.getInt(3),
+                            rs.getLong(4), rs.getLong(5)));
+                }
+            }
+            return months;
+        });
+    }
+
+    public CompletableFuture<List<MeterMonth>> loadMonthly(int accountId, int fromPeriod, int toPeriod) {
+        return executor.submit(() -> monthly(accountId, fromPeriod, toPeriod));
+    }
+
+    /**
+     * Суточные итоги счетчика за сутки [fromDay, toDay) в текущем потоке: дописывает в into
+     * по показанию на сутки с минутой их начала и расходом за сутки.
+     */
+    public void daily(int accountId, MeterKind kind, int fromDay, int toDay, IntervalSeries into) throws SQLException {
+        database.connections().read(session -> {
+            PreparedStatement stmt = session.prepare(
+                    "SELECT day, day_zone + night_zone FROM meter_blocks " +
+                    "WHERE account_id = ? AND kind = ? AND day >= ? AND day < ? ORDER BY day");
+            stmt.setInt(1, accountId);
+            stmt.setInt(2, kind.ordinal());
+            stmt.setInt(3, fromDay);
+            stmt.setInt(4, toDay);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    into.add(rs.getInt(1) * IntervalSeries.MINUTES_PER_DAY, rs.getLong(2));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Число показаний и суммарный размер сжатых блоков в байтах: {@code {readings, bytes}}.
+     */
+    public CompletableFuture<long[]> storage() {
+        return executor.submit(() -> database.connections().read(session -> {
+            try (ResultSet rs = session.prepare(
+                    "SELECT COALESCE(SUM(readings), 0), COALESCE(SUM(length(block)), 0) FROM meter_blocks").executeQuery()) {
+                rs.next();
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+            }
+        }));
+    }
+}
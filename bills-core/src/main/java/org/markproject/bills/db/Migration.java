@@ -0,0 +1,40 @@
+package org.markproject.bills.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Шаг схемы базы данных. Номер версии задается положением в {@link SchemaMigrator}.
+ */
+interface Migration {
+    String description();
+
+    /**
+     * Выполняет миграцию или ее очередную порцию в открытой транзакции.
+     * Возвращает {@code true}, если работа не закончена и нужна следующая порция
+     * в новой транзакции. Порции должны быть повторяемыми: после сбоя миграция
+     * продолжается с того места, где зафиксирована последняя порция.
+     */
+    boolean apply(Connection connection) throws SQLException;
+
+    static Migration of(String description, Step step) {
+        return new Migration() {
+            @Override
+            public String description() {
+                return description;
+            }
+
+            @Override
+            public boolean apply(Connection connection) throws SQLException {
+                step.apply(connection);
+                return false;
+            }
+        };
+    }
+
+    /** Миграция, выполняемая одной транзакцией. */
+    @FunctionalInterface
+    interface Step {
+        void apply(Connection connection) throws SQLException;
+    }
+}
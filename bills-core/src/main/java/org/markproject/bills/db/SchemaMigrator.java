@@ -0,0 +1,75 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Применяет миграции по порядку, сверяясь с {@code PRAGMA user_version}.
+ * Версия базы равна числу примененных миграций и меняется в той же транзакции,
+ * что и последняя порция миграции, поэтому каждая миграция применяется ровно один раз.
+ */
+final class SchemaMigrator {
+    private final List<Migration> migrations;
+
+    SchemaMigrator(List<Migration> migrations) {
+        this.migrations = List.copyOf(migrations);
+    }
+
+    int latestVersion() {
+        return migrations.size();
+    }
+
+    /**
+     * Приводит схему к последней версии. При актуальной схеме ограничивается чтением версии.
+     */
+    void migrate(ConnectionManager connections) throws SQLException {
+        int version = connections.read(session -> userVersion(session.connection()));
+        if (version == latestVersion()) {
+            return;
+        }
+        if (version > latestVersion()) {
+            throw new IllegalStateException("База данных создана более новой версией программы (схема " + version + ")");
+        }
+
+        for (int index = version; index < migrations.size(); index++) {
+            Migration migration = migrations.get(index);
+            int target = index + 1;
+            Log.info("Миграция схемы " + target + ": " + migration.description());
+            int chunks = 0;
+            boolean more;
+            do {
+                more = connections.transaction(session -> {
+                    Connection connection = session.connection();
+                    boolean unfinished = migration.apply(connection);
+                    if (!unfinished) {
+                        setUserVersion(connection, target);
+                    }
+                    return unfinished;
+                });
+                chunks++;
+            } while (more);
+            if (chunks > 1) {
+                Log.info("Миграция схемы " + target + " выполнена порциями: " + chunks);
+            }
+        }
+    }
+
+    static int userVersion(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void setUserVersion(Connection connection, int version) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // PRAGMA не поддерживает параметры; значение — номер миграции, а не ввод пользователя
+            stmt.execute("PRAGMA user_version = " + version);
+        }
+    }
+}
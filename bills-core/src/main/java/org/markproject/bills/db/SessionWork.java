@@ -0,0 +1,11 @@
+package org.markproject.bills.db;
+
+import java.sql.SQLException;
+
+/**
+ * Работа, выполняемая на выданной {@link ConnectionManager} сессии.
+ */
+@FunctionalInterface
+public interface SessionWork<T> {
+    T run(SqlSession session) throws SQLException;
+}
@@ -0,0 +1,87 @@
+package org.markproject.bills.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Долгоживущее подключение вместе с кэшем подготовленных запросов.
+ * Экземпляр выдается {@link ConnectionManager} одному потоку за раз,
+ * поэтому сам по себе не синхронизирован.
+ */
+public final class SqlSession implements AutoCloseable {
+    private static final int STATEMENT_CACHE_SIZE = 64;
+
+    private final Connection connection;
+    private final DbStats stats;
+    private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<>(STATEMENT_CACHE_SIZE, 0.75f, true);
+
+    SqlSession(Connection connection, DbStats stats) {
+        this.connection = connection;
+        this.stats = stats;
+    }
+
+    public Connection connection() {
+        return connection;
+    }
+
+    /**
+     * Возвращает подготовленный запрос из кэша по тексту SQL.
+     * Закрывать его не нужно: этим занимается сессия.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statements.get(sql);
+        if (stmt != null) {
+            stats.recordCacheHit();
+            return stmt;
+        }
+        stats.recordCacheMiss();
+        stmt = TracedStatements.wrap(connection.prepareStatement(sql), sql);
+        statements.put(sql, stmt);
+        evictIfNeeded();
+        return stmt;
+    }
+
+    /**
+     * Выполняет работу в одной транзакции. Вложенные вызовы используют внешнюю транзакцию.
+     */
+    public <T> T inTransaction(SessionWork<T> work) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            return work.run(this);
+        }
+        connection.setAutoCommit(false);
+        try {
+            T result = work.run(this);
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private void evictIfNeeded() throws SQLException {
+        if (statements.size() <= STATEMENT_CACHE_SIZE) {
+            return;
+        }
+        Iterator<PreparedStatement> eldest = statements.values().iterator();
+        PreparedStatement stmt = eldest.next();
+        eldest.remove();
+        stmt.close();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement stmt : statements.values()) {
+            stmt.close();
+        }
+        statements.clear();
+        connection.close();
+    }
+}
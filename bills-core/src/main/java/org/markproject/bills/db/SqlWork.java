@@ -0,0 +1,11 @@
+package org.markproject.bills.db;
+
+import java.sql.SQLException;
+
+/**
+ * Единица работы с базой данных, выполняемая в фоновом потоке.
+ */
+@FunctionalInterface
+public interface SqlWork<T> {
+    T run() throws SQLException;
+}
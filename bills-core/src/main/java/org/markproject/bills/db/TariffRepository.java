@@ -0,0 +1,147 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.TariffSnapshot;
+import org.markproject.bills.tariff.Tariffs;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Доступ к версиям тарифов. Все версии держатся в памяти одним неизменяемым
+ * снимком, который загружается один раз и заменяется целиком при сохранении.
+ * Плоские цены версии лежат в tariff_versions, ступенчатые строки — в tariff_tiers.
+ */
+public final class TariffRepository {
+    private static final String SELECT_VERSIONS =
+            "SELECT effective_from, cold, hot, sewer, electricity_day, electricity_night " +
+            "FROM tariff_versions ORDER BY effective_from";
+    private static final String SELECT_TIERS =
+            "SELECT effective_from, line, up_to, price FROM tariff_tiers ORDER BY effective_from, line, tier";
+
+    private final Database database;
+    private final DbExecutor executor;
+    private final AtomicReference<TariffSnapshot> snapshot = new AtomicReference<>();
+
+    public TariffRepository(Database database, DbExecutor executor) {
+        this.database = database;
+        this.executor = executor;
+    }
+
+    /**
+     * Текущий снимок тарифов. После первой загрузки возвращается без обращения к базе.
+     */
+    public CompletableFuture<TariffSnapshot> snapshot() {
+        TariffSnapshot current = snapshot.get();
+        if (current != null) {
+            return CompletableFuture.completedFuture(current);
+        }
+        return executor.submit(() -> {
+            TariffSnapshot loaded = database.connections().read(TariffRepository::readSnapshot);
+            // Если параллельно уже сохранили новые тарифы, их снимок свежее
+            return snapshot.compareAndSet(null, loaded) ? loaded : snapshot.get();
+        });
+    }
+
+    /**
+     * Сохраняет тарифы, действующие начиная с указанного периода, и заменяет снимок.
+     */
+    public CompletableFuture<TariffSnapshot> save(int effectiveFrom, TariffPlan plan) {
+        return executor.submit(() -> database.connections().transaction(session -> {
+            Tariffs base = plan.basePrices();
+            PreparedStatement stmt = session.prepare(
+                    "INSERT INTO tariff_versions (effective_from, cold, hot, sewer, electricity_day, electricity_night) " +
+                    "VALUES (?, ?, ?, ?, ?, ?) " +
+                    "ON CONFLICT(effective_from) DO UPDATE SET cold = excluded.cold, hot = excluded.hot, " +
+                    "sewer = excluded.sewer, electricity_day = excluded.electricity_day, " +
+                    "electricity_night = excluded.electricity_night");
+            stmt.setInt(1, effectiveFrom);
+            stmt.setDouble(2, base.cold());
+            stmt.setDouble(3, base.hot());
+            stmt.setDouble(4, base.sewer());
+            stmt.setDouble(5, base.electricityDay());
+            stmt.setDouble(6, base.electricityNight());
+            stmt.executeUpdate();
+
+            PreparedStatement clear = session.prepare("DELETE FROM tariff_tiers WHERE effective_from = ?");
+            clear.setInt(1, effectiveFrom);
+            clear.executeUpdate();
+            PreparedStatement insert = session.prepare(
+                    "INSERT INTO tariff_tiers (effective_from, line, tier, up_to, price) VALUES (?, ?, ?, ?, ?)");
+            for (int line = 0; line < plan.lines(); line++) {
+                if (!plan.isTiered(line)) {
+                    continue;
+                }
+                List<TariffPlan.Tier> tiers = plan.tiers(line);
+                for (int tier = 0; tier < tiers.size(); tier++) {
+                    insert.setInt(1, effectiveFrom);
+                    insert.setInt(2, line);
+                    insert.setInt(3, tier);
+                    if (tiers.get(tier).upTo() == TariffPlan.UNLIMITED) {
+                        insert.setNull(4, Types.INTEGER);
+                    } else {
+                        insert.setLong(4, tiers.get(tier).upTo());
+                    }
+                    insert.setLong(5, tiers.get(tier).price());
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+
+            // Перечитываем версии внутри той же транзакции, чтобы снимок совпадал с базой
+            TariffSnapshot updated = readSnapshot(session);
+            snapshot.set(updated);
+            return updated;
+        }));
+    }
+
+    private static TariffSnapshot readSnapshot(SqlSession session) throws SQLException {
+        Map<Integer, Map<Integer, List<TariffPlan.Tier>>> tiered = new HashMap<>();
+        try (ResultSet rs = session.prepare(SELECT_TIERS).executeQuery()) {
+            while (rs.next()) {
+                long upTo = rs.getLong(3);
+                if (rs.wasNull()) {
+                    upTo = TariffPlan.UNLIMITED;
+                }
+                tiered.computeIfAbsent(rs.getInt(1), version -> new HashMap<>())
+                        .computeIfAbsent(rs.getInt(2), line -> new ArrayList<>())
+                        .add(new TariffPlan.Tier(upTo, rs.getLong(4)));
+            }
+        }
+
+        List<Integer> dates = new ArrayList<>();
+        List<TariffPlan> plans = new ArrayList<>();
+        try (ResultSet rs = session.prepare(SELECT_VERSIONS).executeQuery()) {
+            while (rs.next()) {
+                int version = rs.getInt(1);
+                dates.add(version);
+                TariffPlan flat = TariffPlan.flat(new Tariffs(rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
+                        rs.getDouble(5), rs.getDouble(6)));
+                Map<Integer, List<TariffPlan.Tier>> lines = tiered.get(version);
+                if (lines == null) {
+                    plans.add(flat);
+                    continue;
+                }
+                // Ступени заменяют плоскую цену в тех строках, где они заданы
+                List<List<TariffPlan.Tier>> merged = new ArrayList<>();
+                for (int line = 0; line < flat.lines(); line++) {
+                    merged.add(lines.getOrDefault(line, flat.tiers(line)));
+                }
+                plans.add(new TariffPlan(merged));
+            }
+        }
+        int[] effectiveFrom = new int[dates.size()];
+        for (int i = 0; i < effectiveFrom.length; i++) {
+            effectiveFrom[i] = dates.get(i);
+        }
+        return new TariffSnapshot(effectiveFrom, plans.toArray(new TariffPlan[0]));
+    }
+}
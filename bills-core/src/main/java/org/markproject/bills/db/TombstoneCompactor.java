@@ -0,0 +1,76 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фоновая очистка корзины истории: записи, удаленные больше {@link #KEEP} назад, стираются
+ * вскоре после запуска и затем раз в час. Работает в отдельном виртуальном потоке и пишет
+ * небольшими транзакциями, чтобы не задерживать запись истории.
+ */
+public final class TombstoneCompactor implements AutoCloseable {
+    /** Сколько удаленные записи хранятся в корзине. */
+    public static final Duration KEEP = Duration.ofDays(7);
+    private static final Duration FIRST_DELAY = Duration.ofSeconds(30);
+    private static final Duration INTERVAL = Duration.ofHours(1);
+
+    private final HistoryRepository history;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private Thread thread;
+
+    public TombstoneCompactor(HistoryRepository history) {
+        this.history = history;
+    }
+
+    /**
+     * Запускает очистку; база данных должна быть уже открыта.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = Thread.ofVirtual().name("bills-compaction").start(this::run);
+        }
+    }
+
+    private void run() {
+        Duration delay = FIRST_DELAY;
+        try {
+            while (!closed.await(delay.toMillis(), TimeUnit.MILLISECONDS)) {
+                delay = INTERVAL;
+                try {
+                    long purged = history.purgeDeleted(System.currentTimeMillis() - KEEP.toMillis(),
+                            () -> closed.getCount() == 0);
+                    if (purged > 0) {
+                        Log.info("Из корзины истории стерто записей: " + purged);
+                    }
+                } catch (Exception e) {
+                    // Следующая попытка будет через час
+                    Log.error("Ошибка очистки корзины истории", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Останавливает очистку и дожидается конца текущей порции.
+     */
+    @Override
+    public void close() {
+        closed.countDown();
+        Thread running;
+        synchronized (this) {
+            running = thread;
+        }
+        if (running != null) {
+            try {
+                running.join(Duration.ofSeconds(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
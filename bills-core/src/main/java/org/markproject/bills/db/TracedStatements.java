@@ -0,0 +1,166 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.LatencyHistogram;
+import org.markproject.bills.diag.Metrics;
+import org.markproject.bills.diag.SqlEvent;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Замер выполнения подготовленных запросов: каждое выполнение попадает в гистограмму
+ * по типу запроса и, если запись JFR включена, в событие {@link SqlEvent}.
+ * Для выборок замер заканчивается при закрытии ResultSet, чтобы учесть чтение строк.
+ */
+final class TracedStatements {
+    private static final LatencyHistogram QUERIES = Metrics.timer("sql.query");
+    private static final LatencyHistogram UPDATES = Metrics.timer("sql.update");
+    private static final LatencyHistogram BATCHES = Metrics.timer("sql.batch");
+
+    private TracedStatements() {
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, String sql) {
+        return (PreparedStatement) Proxy.newProxyInstance(TracedStatements.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new StatementHandler(statement, sql));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void record(LatencyHistogram histogram, SqlEvent event, String sql, String kind,
+                               long rows, long startNanos) {
+        histogram.recordSince(startNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.sql = sql;
+            event.kind = kind;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    private record StatementHandler(PreparedStatement statement, String sql) implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            // Привязка параметров в пакетной записи вызывается на каждое значение, поэтому идет без отражения
+            if (args != null && args.length == 2 && args[0] instanceof Integer index) {
+                switch (name) {
+                    case "setDouble":
+                        statement.setDouble(index, (Double) args[1]);
+                        return null;
+                    case "setInt":
+                        statement.setInt(index, (Integer) args[1]);
+                        return null;
+                    case "setLong":
+                        statement.setLong(index, (Long) args[1]);
+                        return null;
+                    default:
+                        break;
+                }
+            }
+            if (args == null && "addBatch".equals(name)) {
+                statement.addBatch();
+                return null;
+            }
+            if (!name.startsWith("execute") || (args != null && args.length > 0)) {
+                return TracedStatements.invoke(statement, method, args);
+            }
+            long start = System.nanoTime();
+            SqlEvent event = new SqlEvent();
+            event.begin();
+            Object result = TracedStatements.invoke(statement, method, args);
+            switch (name) {
+                case "executeQuery" -> {
+                    ResultSet rs = (ResultSet) result;
+                    return Proxy.newProxyInstance(TracedStatements.class.getClassLoader(),
+                            new Class<?>[]{ResultSet.class}, new ResultSetHandler(rs, sql, event, start));
+                }
+                case "executeBatch" -> record(BATCHES, event, sql, "batch", sum((int[]) result), start);
+                case "executeLargeBatch" -> record(BATCHES, event, sql, "batch", sum((long[]) result), start);
+                case "executeUpdate" -> record(UPDATES, event, sql, "update", (Integer) result, start);
+                case "executeLargeUpdate" -> record(UPDATES, event, sql, "update", (Long) result, start);
+                default -> record(UPDATES, event, sql, "execute", statement.getUpdateCount(), start);
+            }
+            return result;
+        }
+
+        private static long sum(int[] counts) {
+            long total = 0;
+            for (int count : counts) {
+                total += Math.max(count, 0);
+            }
+            return total;
+        }
+
+        private static long sum(long[] counts) {
+            long total = 0;
+            for (long count : counts) {
+                total += Math.max(count, 0);
+            }
+            return total;
+        }
+    }
+
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet resultSet;
+        private final String sql;
+        private final SqlEvent event;
+        private final long start;
+        private long rows;
+        private boolean recorded;
+
+        ResultSetHandler(ResultSet resultSet, String sql, SqlEvent event, long start) {
+            this.resultSet = resultSet;
+            this.sql = sql;
+            this.event = event;
+            this.start = start;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            // Чтение значений по номеру столбца вызывается на каждую строку, поэтому идет без отражения
+            if (args != null && args.length == 1 && args[0] instanceof Integer column) {
+                switch (method.getName()) {
+                    case "getDouble":
+                        return resultSet.getDouble(column);
+                    case "getInt":
+                        return resultSet.getInt(column);
+                    case "getLong":
+                        return resultSet.getLong(column);
+                    case "getString":
+                        return resultSet.getString(column);
+                    default:
+                        break;
+                }
+            }
+            switch (method.getName()) {
+                case "next":
+                    boolean hasRow = resultSet.next();
+                    if (hasRow) {
+                        rows++;
+                    }
+                    return hasRow;
+                case "close":
+                    if (!recorded) {
+                        recorded = true;
+                        record(QUERIES, event, sql, "query", rows, start);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return TracedStatements.invoke(resultSet, method, args);
+        }
+    }
+}
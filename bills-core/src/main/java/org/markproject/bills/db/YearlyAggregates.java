@@ -0,0 +1,230 @@
+package org.markproject.bills.db;
+
+import org.markproject.bills.diag.Log;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+
+/**
+ * Годовые итоги истории в таблице history_yearly: по лицевому счету, году и услуге
+ * число месяцев, сумма, минимум и максимум. Услуги 0–4 — показания в порядке столбцов
+ * истории, 5 — сумма начисления в рублях.
+ * <p>
+ * Итоги поддерживаются в той же транзакции, что и запись истории: каждая затронутая пара
+ * (счет, год) пересчитывается из своих не более чем двенадцати строк по первичному ключу.
+ * Так минимум и максимум остаются точными и после удаления строк. Итоги по всем счетам
+ * (history_totals: год, услуга, число месяцев и сумма) поправляются на разницу старого
+ * и нового итога пары, поэтому тоже не требуют обхода.
+ */
+final class YearlyAggregates {
+    static final String CREATE = "CREATE TABLE IF NOT EXISTS history_yearly (" +
+            "account_id INTEGER NOT NULL, year INTEGER NOT NULL, utility INTEGER NOT NULL, " +
+            "months INTEGER NOT NULL, total REAL NOT NULL, minimum REAL NOT NULL, maximum REAL NOT NULL, " +
+            "PRIMARY KEY (account_id, year, utility)) WITHOUT ROWID";
+
+    // Столбцы истории в порядке номеров услуг
+    private static final String[] UTILITY_COLUMNS =
+            {"cold_water", "hot_water", "sewer", "electricity_day", "electricity_night", "total"};
+
+    static final String CREATE_TOTALS = "CREATE TABLE IF NOT EXISTS history_totals (" +
+            "year INTEGER NOT NULL, utility INTEGER NOT NULL, months INTEGER NOT NULL, total REAL NOT NULL, " +
+            "PRIMARY KEY (year, utility)) WITHOUT ROWID";
+    static final String REBUILD_TOTALS =
+            "INSERT OR REPLACE INTO history_totals (year, utility, months, total) " +
+            "SELECT year, utility, SUM(months), SUM(total) FROM history_yearly GROUP BY year, utility";
+
+    private static final String SUBTRACT_GROUP =
+            "UPDATE history_totals SET months = history_totals.months - old.months, " +
+            "total = history_totals.total - old.total " +
+            "FROM (SELECT utility, months, total FROM history_yearly WHERE account_id = ? AND year = ?) AS old " +
+            "WHERE history_totals.year = ? AND history_totals.utility = old.utility";
+    private static final String ADD_GROUP =
+            "INSERT INTO history_totals (year, utility, months, total) " +
+            "SELECT year, utility, months, total FROM history_yearly WHERE account_id = ? AND year = ? " +
+            "ON CONFLICT(year, utility) DO UPDATE SET months = history_totals.months + excluded.months, " +
+            "total = history_totals.total + excluded.total";
+    static final String DELETE_GROUP = "DELETE FROM history_yearly WHERE account_id = ? AND year = ?";
+    static final String INSERT_GROUP =
+            aggregate("history h WHERE h.account_id = ? AND h.period > ? AND h.period < ?", "h.account_id", "h.period / 100");
+    private static final String INSERT_TOUCHED = aggregate("touched_groups g CROSS JOIN history h " +
+            "ON h.account_id = g.account_id AND h.period > g.year * 100 AND h.period < g.year * 100 + 100",
+            "g.account_id", "g.year");
+
+    /**
+     * С этого числа групп пересчет идет несколькими запросами над временной таблицей групп.
+     * CROSS JOIN закрепляет порядок обхода: у временной таблицы нет статистики,
+     * и без него планировщик просматривает history целиком.
+     */
+    private static final int BULK_GROUPS = 64;
+
+    private static final String CREATE_TOUCHED = "CREATE TEMP TABLE IF NOT EXISTS touched_groups (" +
+            "account_id INTEGER NOT NULL, year INTEGER NOT NULL, PRIMARY KEY (account_id, year)) WITHOUT ROWID";
+    private static final String TOUCHED_TOTALS =
+            "SELECT y.year, y.utility, SUM(y.months) AS months, SUM(y.total) AS total " +
+            "FROM touched_groups g CROSS JOIN history_yearly y ON y.account_id = g.account_id AND y.year = g.year " +
+            "GROUP BY y.year, y.utility";
+
+    /** Строк истории в одной порции первоначального расчета. */
+    private static final int MIGRATION_CHUNK = 50_000;
+
+    private YearlyAggregates() {
+    }
+
+    /**
+     * Запрос пересчета итогов по строкам истории h из источника {@code source}: сначала одна строка
+     * на пару (счет, год) со всеми шестью итогами, затем она раскладывается на шесть строк по услугам.
+     * Так группируется по строке на месяц, а не по шесть. Выражения пары, идущие в порядке обхода
+     * источника, избавляют группировку от сортировки.
+     */
+    private static String aggregate(String source, String account, String year) {
+        StringBuilder pairs = new StringBuilder("SELECT ").append(account).append(" AS account_id, ")
+                .append(year).append(" AS year, COUNT(*) AS months");
+        for (int utility = 0; utility < UTILITY_COLUMNS.length; utility++) {
+            String value = "COALESCE(h." + UTILITY_COLUMNS[utility] + ", 0)";
+            pairs.append(", SUM(").append(value).append(") AS s").append(utility)
+                    .append(", MIN(").append(value).append(") AS n").append(utility)
+                    .append(", MAX(").append(value).append(") AS x").append(utility);
+        }
+        pairs.append(" FROM ").append(source).append(" GROUP BY ").append(account).append(", ").append(year);
+        StringBuilder utilities = new StringBuilder("SELECT 0 AS utility");
+        for (int utility = 1; utility < UTILITY_COLUMNS.length; utility++) {
+            utilities.append(" UNION ALL SELECT ").append(utility);
+        }
+        return "INSERT OR REPLACE INTO history_yearly (account_id, year, utility, months, total, minimum, maximum) " +
+                "SELECT a.account_id, a.year, u.utility, a.months, " +
+                byUtility("s") + ", " + byUtility("n") + ", " + byUtility("x") +
+                " FROM (" + pairs + ") a CROSS JOIN (" + utilities + ") u";
+    }
+
+    private static String byUtility(String prefix) {
+        StringBuilder sql = new StringBuilder("CASE u.utility");
+        for (int utility = 0; utility < UTILITY_COLUMNS.length - 1; utility++) {
+            sql.append(" WHEN ").append(utility).append(" THEN a.").append(prefix).append(utility);
+        }
+        return sql.append(" ELSE a.").append(prefix).append(UTILITY_COLUMNS.length - 1).append(" END").toString();
+    }
+
+    /**
+     * Ключ пары (счет, год) для набора затронутых групп.
+     */
+    static long group(int accountId, int period) {
+        return (long) accountId << 32 | period / 100;
+    }
+
+    /**
+     * Пересчитывает итоги указанных групп в текущей транзакции сессии.
+     */
+    static void refresh(SqlSession session, Collection<Long> groups) throws SQLException {
+        if (groups.size() >= BULK_GROUPS) {
+            refreshBulk(session, groups);
+            return;
+        }
+        PreparedStatement subtract = session.prepare(SUBTRACT_GROUP);
+        PreparedStatement delete = session.prepare(DELETE_GROUP);
+        PreparedStatement insert = session.prepare(INSERT_GROUP);
+        PreparedStatement add = session.prepare(ADD_GROUP);
+        for (long group : groups) {
+            int accountId = (int) (group >>> 32);
+            int year = (int) group;
+            subtract.setInt(1, accountId);
+            subtract.setInt(2, year);
+            subtract.setInt(3, year);
+            subtract.executeUpdate();
+            delete.setInt(1, accountId);
+            delete.setInt(2, year);
+            delete.executeUpdate();
+            insert.setInt(1, accountId);
+            insert.setInt(2, year * 100);
+            insert.setInt(3, year * 100 + 100);
+            insert.executeUpdate();
+            add.setInt(1, accountId);
+            add.setInt(2, year);
+            add.executeUpdate();
+        }
+    }
+
+    /**
+     * Пересчет многих групп, например пакета импорта: вместо четырех запросов на группу
+     * несколько запросов над временной таблицей затронутых групп.
+     */
+    private static void refreshBulk(SqlSession session, Collection<Long> groups) throws SQLException {
+        session.prepare(CREATE_TOUCHED).execute();
+        PreparedStatement touch = session.prepare("INSERT OR IGNORE INTO touched_groups (account_id, year) VALUES (?, ?)");
+        for (long group : groups) {
+            touch.setInt(1, (int) (group >>> 32));
+            touch.setInt(2, (int) group);
+            touch.addBatch();
+        }
+        touch.executeBatch();
+
+        session.prepare("UPDATE history_totals SET months = history_totals.months - old.months, " +
+                        "total = history_totals.total - old.total FROM (" + TOUCHED_TOTALS + ") AS old " +
+                        "WHERE history_totals.year = old.year AND history_totals.utility = old.utility").executeUpdate();
+        session.prepare("DELETE FROM history_yearly WHERE (account_id, year) IN " +
+                        "(SELECT account_id, year FROM touched_groups)").executeUpdate();
+        session.prepare(INSERT_TOUCHED).executeUpdate();
+        session.prepare("INSERT INTO history_totals (year, utility, months, total) " +
+                        "SELECT year, utility, months, total FROM (" + TOUCHED_TOTALS + ") WHERE true " +
+                        "ON CONFLICT(year, utility) DO UPDATE SET months = history_totals.months + excluded.months, " +
+                        "total = history_totals.total + excluded.total").executeUpdate();
+        session.prepare("DELETE FROM touched_groups").executeUpdate();
+    }
+
+    /**
+     * Первоначальный расчет итогов по уже накопленной истории, порциями по диапазонам счетов.
+     * Порции пишутся через INSERT OR REPLACE, поэтому повтор после сбоя безопасен.
+     */
+    static Migration migration() {
+        return new Migration() {
+            private long lastAccount = Long.MIN_VALUE;
+            private int chunks;
+
+            @Override
+            public String description() {
+                return "годовые итоги истории";
+            }
+
+            @Override
+            public boolean apply(Connection connection) throws SQLException {
+                if (chunks++ == 0) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute(CREATE);
+                        stmt.execute(CREATE_TOTALS);
+                    }
+                }
+                // Граница порции — счет, на котором заканчиваются очередные MIGRATION_CHUNK строк
+                long upTo = Long.MAX_VALUE;
+                try (PreparedStatement stmt = connection.prepareStatement(
+                        "SELECT account_id FROM history WHERE account_id > ? ORDER BY account_id LIMIT 1 OFFSET ?")) {
+                    stmt.setLong(1, lastAccount);
+                    stmt.setInt(2, MIGRATION_CHUNK);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            upTo = rs.getLong(1);
+                        }
+                    }
+                }
+                try (PreparedStatement stmt = connection.prepareStatement(
+                        aggregate("history h WHERE h.account_id > ? AND h.account_id <= ?",
+                                "h.account_id", "h.period / 100"))) {
+                    stmt.setLong(1, lastAccount);
+                    stmt.setLong(2, upTo);
+                    stmt.executeUpdate();
+                }
+                lastAccount = upTo;
+                if (upTo == Long.MAX_VALUE) {
+                    try (Statement stmt = connection.createStatement()) {
+                        stmt.execute(REBUILD_TOTALS);
+                    }
+                    Log.info("Годовые итоги истории рассчитаны.");
+                    return false;
+                }
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package org.markproject.bills.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Обработка события или задачи в потоке JavaFX.
+ */
+@Name("org.markproject.bills.FxHandler")
+@Label("Обработчик FX")
+@Category({"Bills", "JavaFX"})
+@Description("Время обработки события или задачи в потоке JavaFX")
+public final class FxHandlerEvent extends Event {
+    @Label("Событие")
+    public String eventType;
+
+    @Label("Цель")
+    public String target;
+}
@@ -0,0 +1,24 @@
+package org.markproject.bills.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Поток JavaFX не обрабатывал события дольше порога.
+ */
+@Name("org.markproject.bills.FxStall")
+@Label("Зависание FX")
+@Category({"Bills", "JavaFX"})
+@Description("Поток JavaFX не отвечал дольше порога")
+public final class FxStallEvent extends Event {
+    @Label("Длительность")
+    @Timespan(Timespan.MILLISECONDS)
+    public long stallMillis;
+
+    @Label("Стек потока FX")
+    public String stackTrace;
+}
@@ -0,0 +1,105 @@
+package org.markproject.bills.diag;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронный журнал. Вызывающий поток только кладет сообщение в очередь,
+ * форматирование и вывод в консоль выполняет отдельный поток.
+ * При переполнении очереди сообщения отбрасываются, а их число попадает в журнал позже.
+ */
+public final class Log {
+    private static final int QUEUE_CAPACITY = 16_384;
+    private static final int DRAIN_BATCH = 256;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private enum Level { INFO, WARN, ERROR }
+
+    private record Entry(Level level, long timeMillis, String thread, String message, Throwable error) {
+    }
+
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        Thread writer = new Thread(Log::writeLoop, "bills-log");
+        writer.setDaemon(true);
+        writer.start();
+        // Недописанные сообщения выводятся при завершении программы
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::drain, "bills-log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message, null);
+    }
+
+    public static void error(String message, Throwable error) {
+        log(Level.ERROR, message, error);
+    }
+
+    /** Число сообщений, отброшенных из-за переполнения очереди. */
+    public static long dropped() {
+        return dropped.get();
+    }
+
+    private static void log(Level level, String message, Throwable error) {
+        Entry entry = new Entry(level, System.currentTimeMillis(), Thread.currentThread().getName(), message, error);
+        if (!queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private static void writeLoop() {
+        List<Entry> batch = new ArrayList<>(DRAIN_BATCH);
+        long reportedDrops = 0;
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, DRAIN_BATCH - 1);
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                System.err.println("Журнал: пропущено сообщений: " + (drops - reportedDrops));
+                reportedDrops = drops;
+            }
+            batch.forEach(Log::write);
+            batch.clear();
+        }
+    }
+
+    private static synchronized void drain() {
+        List<Entry> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.forEach(Log::write);
+    }
+
+    private static synchronized void write(Entry entry) {
+        PrintStream out = entry.level() == Level.INFO ? System.out : System.err;
+        LocalTime time = LocalTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis()), ZoneId.systemDefault());
+        out.println(TIME.format(time) + " " + entry.level() + " [" + entry.thread() + "] " + entry.message());
+        if (entry.error() != null) {
+            entry.error().printStackTrace(out);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.markproject.bills.diag;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Реестр замеров длительности в процессе. Гистограммы создаются по имени при первом
+ * обращении; вызывающий код обычно держит ссылку в статическом поле.
+ */
+public final class Metrics {
+    private static final Map<String, LatencyHistogram> timers = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram timer(String name) {
+        return timers.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /** Гистограммы, в которые хоть что-то записано, по имени. */
+    public static List<LatencyHistogram> timers() {
+        List<LatencyHistogram> result = new ArrayList<>();
+        for (LatencyHistogram timer : timers.values()) {
+            if (timer.count() > 0) {
+                result.add(timer);
+            }
+        }
+        result.sort(Comparator.comparing(LatencyHistogram::name));
+        return result;
+    }
+
+    public static void reset() {
+        timers.values().forEach(LatencyHistogram::reset);
+    }
+
+    /**
+     * Текстовая сводка: число замеров, p50, p99 и максимум в миллисекундах.
+     */
+    public static String dump() {
+        StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "%-28s %10s %10s %10s %10s%n",
+                "замер", "число", "p50, мс", "p99, мс", "макс, мс"));
+        for (LatencyHistogram timer : timers()) {
+            text.append(String.format(Locale.ROOT, "%-28s %10d %10.3f %10.3f %10.3f%n",
+                    timer.name(), timer.count(),
+                    timer.percentileNanos(0.5) / 1e6, timer.percentileNanos(0.99) / 1e6, timer.maxNanos() / 1e6));
+        }
+        if (Log.dropped() > 0) {
+            text.append("Пропущено сообщений журнала: ").append(Log.dropped()).append('\n');
+        }
+        return text.toString();
+    }
+}
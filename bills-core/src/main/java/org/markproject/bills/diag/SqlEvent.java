@@ -0,0 +1,25 @@
+package org.markproject.bills.diag;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Выполнение SQL-запроса; для выборок длительность включает чтение строк.
+ */
+@Name("org.markproject.bills.Sql")
+@Label("SQL")
+@Category({"Bills", "Database"})
+@Description("Выполнение SQL-запроса")
+public final class SqlEvent extends Event {
+    @Label("Запрос")
+    public String sql;
+
+    @Label("Тип")
+    public String kind;
+
+    @Label("Строк")
+    public long rows;
+}
@@ -0,0 +1,150 @@
+package org.markproject.bills.export;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Буферизованная запись байтов в файл через {@link FileChannel}. Числа пишутся цифрами
+ * прямо в буфер, без промежуточных строк, поэтому запись строки выгрузки не выделяет память.
+ * <p>
+ * Данные пишутся во временный файл рядом с целевым и переносятся на его место только
+ * в {@link #commit()}; прерванная выгрузка не оставляет недописанного файла.
+ */
+final class ChannelWriter implements AutoCloseable {
+    static final int BUFFER_SIZE = 1 << 20;
+    // Самое длинное число long с минусом и точкой
+    private static final int MAX_NUMBER = 21;
+
+    private final Path target;
+    private final Path part;
+    private final FileChannel channel;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    private final byte[] digits = new byte[MAX_NUMBER];
+    private int position;
+    private long flushed;
+    private boolean committed;
+
+    ChannelWriter(Path target) throws IOException {
+        this.target = target;
+        this.part = target.resolveSibling(target.getFileName() + ".part");
+        this.channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Записано байтов, включая еще не сброшенные в файл. */
+    long bytesWritten() {
+        return flushed + position;
+    }
+
+    ChannelWriter write(byte b) throws IOException {
+        if (position == bytes.length) {
+            flush();
+        }
+        bytes[position++] = b;
+        return this;
+    }
+
+    ChannelWriter write(byte[] data) throws IOException {
+        if (data.length > bytes.length - position) {
+            flush();
+            if (data.length > bytes.length) {
+                channel.write(ByteBuffer.wrap(data));
+                flushed += data.length;
+                return this;
+            }
+        }
+        System.arraycopy(data, 0, bytes, position, data.length);
+        position += data.length;
+        return this;
+    }
+
+    ChannelWriter write(String text) throws IOException {
+        return write(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    ChannelWriter integer(long value) throws IOException {
+        return decimal(value, 0);
+    }
+
+    /**
+     * Число с фиксированной точкой {@code value / 10^scale}: точка в качестве разделителя,
+     * без незначащих нулей в дробной части ({@code 4.5}, {@code 12}).
+     */
+    ChannelWriter decimal(long value, int scale) throws IOException {
+        if (bytes.length - position < MAX_NUMBER) {
+            flush();
+        }
+        boolean negative = value < 0;
+        long rest = Math.abs(value);
+        int end = digits.length;
+        int at = end;
+        // Дробная часть без завершающих нулей
+        boolean significant = false;
+        for (int i = 0; i < scale; i++) {
+            int digit = (int) (rest % 10);
+            rest /= 10;
+            if (digit != 0 || significant) {
+                significant = true;
+                digits[--at] = (byte) ('0' + digit);
+            }
+        }
+        if (significant) {
+            digits[--at] = '.';
+        }
+        do {
+            digits[--at] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (negative) {
+            digits[--at] = '-';
+        }
+        System.arraycopy(digits, at, bytes, position, end - at);
+        position += end - at;
+        return this;
+    }
+
+    /** Период в виде {@code 2024-01}. */
+    ChannelWriter period(int period) throws IOException {
+        integer(period / 100);
+        int month = period % 100;
+        return write((byte) '-').write((byte) ('0' + month / 10)).write((byte) ('0' + month % 10));
+    }
+
+    private void flush() throws IOException {
+        buffer.clear().limit(position);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        flushed += position;
+        position = 0;
+    }
+
+    /**
+     * Дописывает буфер и заменяет целевой файл записанным.
+     */
+    void commit() throws IOException {
+        flush();
+        channel.force(false);
+        channel.close();
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Закрывает файл; без {@link #commit()} временный файл удаляется.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            channel.close();
+            Files.deleteIfExists(part);
+        }
+    }
+}
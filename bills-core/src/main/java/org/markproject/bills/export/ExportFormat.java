@@ -0,0 +1,31 @@
+package org.markproject.bills.export;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Формат выгрузки истории.
+ */
+public enum ExportFormat {
+    /** Формат импорта ({@code ;}, период {@code 2024-01}) с суммой восьмым полем; файл в UTF-8 с BOM для Excel. */
+    CSV("csv"),
+    /** Массив объектов с полями, названными как столбцы таблицы history. */
+    JSON("json");
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    /**
+     * Формат по расширению файла; все, кроме {@code .json}, выгружается в CSV.
+     */
+    public static ExportFormat forFile(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith("." + JSON.extension) ? JSON : CSV;
+    }
+}
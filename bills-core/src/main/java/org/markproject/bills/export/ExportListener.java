@@ -0,0 +1,9 @@
+package org.markproject.bills.export;
+
+/**
+ * Получает ход выгрузки. Вызывается из фонового потока выгрузки.
+ */
+@FunctionalInterface
+public interface ExportListener {
+    void progress(long rows, long totalRows, long bytesWritten);
+}
@@ -0,0 +1,20 @@
+package org.markproject.bills.export;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итог выгрузки.
+ *
+ * @param file записанный файл или {@code null}, если выгрузка отменена
+ */
+public record ExportReport(long rows, long bytesWritten, long elapsedNanos, Path file, boolean cancelled) {
+
+    public long rowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    public long megabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytesWritten * TimeUnit.SECONDS.toNanos(1) / elapsedNanos / (1 << 20);
+    }
+}
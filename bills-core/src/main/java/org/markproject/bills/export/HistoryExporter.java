@@ -0,0 +1,175 @@
+package org.markproject.bills.export;
+
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.tariff.FixedPoint;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.*;
+
+/**
+ * Потоковая выгрузка всей истории в CSV или JSON.
+ * <p>
+ * Записи читаются порциями по {@link #CHUNK_SIZE} в порядке первичного ключа (account_id, period)
+ * и сразу кодируются в буфер {@link ChannelWriter}; пока одна порция пишется отдельным потоком,
+ * следующая уже читается. В памяти не больше двух порций при любом объеме истории.
+ */
+public final class HistoryExporter {
+    public static final int CHUNK_SIZE = 16_384;
+
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final String CSV_HEADER =
+            "Счет;Период;ХВС;ГВС;Водоотведение;Электроэнергия день;Электроэнергия ночь;Сумма\n";
+    // Неизменные части объекта JSON между значениями
+    private static final byte[] JSON_FIRST = ascii("\n{\"account_id\":");
+    private static final byte[] JSON_NEXT = ascii(",\n{\"account_id\":");
+    private static final byte[] JSON_PERIOD = ascii(",\"period\":\"");
+    private static final byte[] JSON_COLD = ascii("\",\"cold_water\":");
+    private static final byte[] JSON_HOT = ascii(",\"hot_water\":");
+    private static final byte[] JSON_SEWER = ascii(",\"sewer\":");
+    private static final byte[] JSON_DAY = ascii(",\"electricity_day\":");
+    private static final byte[] JSON_NIGHT = ascii(",\"electricity_night\":");
+    private static final byte[] JSON_TOTAL = ascii(",\"total\":");
+
+    private final HistoryRepository repository;
+    private final ExportFormat format;
+    private volatile boolean cancelled;
+
+    private HistoryColumns chunk = new HistoryColumns(CHUNK_SIZE);
+    private HistoryColumns spare = new HistoryColumns(CHUNK_SIZE);
+    private long rows;
+
+    public HistoryExporter(HistoryRepository repository, ExportFormat format) {
+        this.repository = repository;
+        this.format = format;
+    }
+
+    /**
+     * Запускает выгрузку в отдельном виртуальном потоке. Экземпляр выполняется один раз.
+     */
+    public CompletableFuture<ExportReport> start(Path target, ExportListener listener) {
+        CompletableFuture<ExportReport> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("bills-export").start(() -> {
+            try {
+                result.complete(export(target, listener));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Останавливает выгрузку после текущей порции; файл не создается.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public ExportReport export(Path target, ExportListener listener) throws IOException, SQLException {
+        long started = System.nanoTime();
+        // Записи, еще стоящие в очереди, тоже попадают в выгрузку
+        await(repository.flush());
+        long total = repository.countRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        listener.progress(0, total, 0);
+
+        try (ChannelWriter out = new ChannelWriter(target);
+             ExecutorService writer = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("bills-export-writer").factory())) {
+            if (format == ExportFormat.CSV) {
+                out.write(UTF8_BOM).write(CSV_HEADER);
+            } else {
+                out.write((byte) '[');
+            }
+            Future<?> pendingWrite = CompletableFuture.completedFuture(null);
+            HistoryKey after = new HistoryKey(Integer.MIN_VALUE, Integer.MIN_VALUE);
+            while (!cancelled) {
+                chunk.clear();
+                repository.readRange(Integer.MIN_VALUE, Integer.MAX_VALUE, after, CHUNK_SIZE, chunk);
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                int last = chunk.size() - 1;
+                after = new HistoryKey(chunk.accountId(last), chunk.period(last));
+
+                // Второй буфер освобождается только после записи предыдущей порции
+                await(pendingWrite);
+                listener.progress(rows, total, out.bytesWritten());
+                HistoryColumns full = chunk;
+                chunk = spare;
+                spare = full;
+                pendingWrite = writer.submit(() -> {
+                    encode(full, out);
+                    return null;
+                });
+            }
+            await(pendingWrite);
+            if (cancelled) {
+                return new ExportReport(rows, out.bytesWritten(), System.nanoTime() - started, null, true);
+            }
+            if (format == ExportFormat.JSON) {
+                out.write(rows == 0 ? "]\n" : "\n]\n");
+            }
+            out.commit();
+            listener.progress(rows, total, out.bytesWritten());
+            return new ExportReport(rows, out.bytesWritten(), System.nanoTime() - started, target, false);
+        }
+    }
+
+    private void encode(HistoryColumns chunk, ChannelWriter out) throws IOException {
+        for (int row = 0; row < chunk.size(); row++) {
+            if (format == ExportFormat.CSV) {
+                out.integer(chunk.accountId(row)).write((byte) ';')
+                        .period(chunk.period(row)).write((byte) ';');
+                quantity(out, chunk.coldWater(row)).write((byte) ';');
+                quantity(out, chunk.hotWater(row)).write((byte) ';');
+                quantity(out, chunk.sewer(row)).write((byte) ';');
+                quantity(out, chunk.electricityDay(row)).write((byte) ';');
+                quantity(out, chunk.electricityNight(row)).write((byte) ';');
+                rubles(out, chunk.total(row)).write((byte) '\n');
+            } else {
+                out.write(rows + row == 0 ? JSON_FIRST : JSON_NEXT);
+                out.integer(chunk.accountId(row)).write(JSON_PERIOD).period(chunk.period(row)).write(JSON_COLD);
+                quantity(out, chunk.coldWater(row)).write(JSON_HOT);
+                quantity(out, chunk.hotWater(row)).write(JSON_SEWER);
+                quantity(out, chunk.sewer(row)).write(JSON_DAY);
+                quantity(out, chunk.electricityDay(row)).write(JSON_NIGHT);
+                quantity(out, chunk.electricityNight(row)).write(JSON_TOTAL);
+                rubles(out, chunk.total(row)).write((byte) '}');
+            }
+        }
+        rows += chunk.size();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static ChannelWriter quantity(ChannelWriter out, double value) throws IOException {
+        return out.decimal(FixedPoint.quantity(value), FixedPoint.QUANTITY_SCALE);
+    }
+
+    private static ChannelWriter rubles(ChannelWriter out, double value) throws IOException {
+        return out.decimal(Math.round(value * FixedPoint.KOPECKS_PER_RUBLE), 2);
+    }
+
+    private static void await(Future<?> future) throws IOException, SQLException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Выгрузка прервана", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new IOException("Ошибка записи выгрузки", e.getCause());
+        }
+    }
+}
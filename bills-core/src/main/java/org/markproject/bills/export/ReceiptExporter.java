@@ -0,0 +1,223 @@
+package org.markproject.bills.export;
+
+import org.markproject.bills.billing.BillingEngine;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.TariffSnapshot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Квитанции за месяцы [fromPeriod, toPeriod) одним HTML-файлом для печати: по квитанции
+ * на страницу, в порядке периода и лицевого счета.
+ * <p>
+ * Записи читаются порциями по {@link #CHUNK_SIZE} по индексу периодов. Порция делится на
+ * части по {@link #SLICE_SIZE} квитанций, которые оформляются параллельно в общем fork-join
+ * пуле, пока читается следующая порция; готовые части пишутся в файл по порядку.
+ * Начисление по услугам считается по тарифам своего периода, как на вкладке расчета;
+ * если тарифа нет, в квитанции только показания и сохраненная сумма.
+ */
+public final class ReceiptExporter {
+    public static final int CHUNK_SIZE = 4_096;
+    static final int SLICE_SIZE = 256;
+
+    private static final String[] SERVICES = {
+            "Холодное водоснабжение", "Горячее водоснабжение", "Водоотведение",
+            "Электроэнергия, день", "Электроэнергия, ночь"};
+    private static final String[] UNITS = {"м³", "м³", "м³", "кВт⋅ч", "кВт⋅ч"};
+    private static final String HEAD = """
+            <!DOCTYPE html>
+            <html lang="ru">
+            <head>
+            <meta charset="utf-8">
+            <title>Квитанции</title>
+            <style>
+            body { font-family: sans-serif; font-size: 12pt; }
+            .receipt { max-width: 18cm; page-break-after: always; }
+            table { border-collapse: collapse; width: 100%; }
+            th, td { border: 1px solid #888; padding: 4px 8px; text-align: left; }
+            td.n { text-align: right; }
+            </style>
+            </head>
+            <body>
+            """;
+    private static final String TAIL = "</body>\n</html>\n";
+
+    private final HistoryRepository repository;
+    private final TariffSnapshot tariffs;
+    private volatile boolean cancelled;
+
+    private HistoryColumns chunk = new HistoryColumns(CHUNK_SIZE);
+    private HistoryColumns spare = new HistoryColumns(CHUNK_SIZE);
+
+    public ReceiptExporter(HistoryRepository repository, TariffSnapshot tariffs) {
+        this.repository = repository;
+        this.tariffs = tariffs;
+    }
+
+    /**
+     * Запускает выгрузку в отдельном виртуальном потоке. Экземпляр выполняется один раз.
+     */
+    public CompletableFuture<ExportReport> start(Path target, int fromPeriod, int toPeriod, ExportListener listener) {
+        CompletableFuture<ExportReport> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("bills-receipts").start(() -> {
+            try {
+                result.complete(export(target, fromPeriod, toPeriod, listener));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Останавливает выгрузку после текущей порции; файл не создается.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public ExportReport export(Path target, int fromPeriod, int toPeriod, ExportListener listener)
+            throws IOException, SQLException {
+        long started = System.nanoTime();
+        try {
+            repository.flush().join();
+        } catch (CompletionException e) {
+            throw new SQLException("Не удалось записать очередь истории", e.getCause());
+        }
+        long total = repository.countRange(fromPeriod, toPeriod);
+        listener.progress(0, total, 0);
+
+        long rows = 0;
+        try (ChannelWriter out = new ChannelWriter(target)) {
+            out.write(HEAD);
+            HistoryKey after = new HistoryKey(Integer.MIN_VALUE, fromPeriod);
+            List<CompletableFuture<byte[]>> rendering = List.of();
+            int renderingRows = 0;
+            while (!cancelled) {
+                chunk.clear();
+                repository.readByPeriod(fromPeriod, toPeriod, after, CHUNK_SIZE, chunk);
+                // Пока читалась порция, предыдущая оформлялась; пишем ее и освобождаем буфер
+                write(rendering, out);
+                rows += renderingRows;
+                rendering = List.of();
+                renderingRows = 0;
+                listener.progress(rows, total, out.bytesWritten());
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                int last = chunk.size() - 1;
+                after = new HistoryKey(chunk.accountId(last), chunk.period(last));
+                HistoryColumns full = chunk;
+                chunk = spare;
+                spare = full;
+                rendering = render(full);
+                renderingRows = full.size();
+            }
+            write(rendering, out);
+            rows += renderingRows;
+            if (cancelled) {
+                return new ExportReport(rows, out.bytesWritten(), System.nanoTime() - started, null, true);
+            }
+            out.write(TAIL);
+            out.commit();
+            listener.progress(rows, total, out.bytesWritten());
+            return new ExportReport(rows, out.bytesWritten(), System.nanoTime() - started, target, false);
+        }
+    }
+
+    private List<CompletableFuture<byte[]>> render(HistoryColumns rows) {
+        List<CompletableFuture<byte[]>> slices = new ArrayList<>();
+        for (int from = 0; from < rows.size(); from += SLICE_SIZE) {
+            int sliceFrom = from;
+            int sliceTo = Math.min(rows.size(), from + SLICE_SIZE);
+            slices.add(CompletableFuture.supplyAsync(() -> render(rows, sliceFrom, sliceTo), ForkJoinPool.commonPool()));
+        }
+        return slices;
+    }
+
+    /**
+     * Записывает оформленные части по порядку.
+     */
+    private static void write(List<CompletableFuture<byte[]>> slices, ChannelWriter out) throws IOException {
+        for (CompletableFuture<byte[]> slice : slices) {
+            try {
+                out.write(slice.join());
+            } catch (CompletionException e) {
+                throw new IOException("Ошибка оформления квитанций", e.getCause());
+            }
+        }
+    }
+
+    private byte[] render(HistoryColumns rows, int from, int to) {
+        StringBuilder html = new StringBuilder((to - from) * 1024);
+        long[] quantities = new long[SERVICES.length];
+        long[] kopecks = new long[SERVICES.length];
+        // Строки идут по периодам, поэтому тариф ищется один раз на каждый период части
+        int tariffPeriod = 0;
+        CompiledTariff tariff = null;
+        for (int row = from; row < to; row++) {
+            int period = rows.period(row);
+            if (row == from || period != tariffPeriod) {
+                tariffPeriod = period;
+                tariff = tariffFor(period);
+            }
+            quantities[TariffPlan.COLD] = FixedPoint.quantity(rows.coldWater(row));
+            quantities[TariffPlan.HOT] = FixedPoint.quantity(rows.hotWater(row));
+            quantities[TariffPlan.SEWER] = FixedPoint.quantity(rows.sewer(row));
+            quantities[TariffPlan.ELECTRICITY_DAY] = FixedPoint.quantity(rows.electricityDay(row));
+            quantities[TariffPlan.ELECTRICITY_NIGHT] = FixedPoint.quantity(rows.electricityNight(row));
+            boolean priced = price(tariff, quantities, kopecks);
+
+            html.append("<section class=\"receipt\">\n<h2>Квитанция за ")
+                .append(BillingPeriod.displayName(period).toLowerCase())
+                .append("</h2>\n<p>Лицевой счет: ").append(rows.accountId(row))
+                .append("</p>\n<table>\n<tr><th>Услуга</th><th>Объем</th><th>Начислено, руб.</th></tr>\n");
+            long total = 0;
+            for (int line = 0; line < SERVICES.length; line++) {
+                html.append("<tr><td>").append(SERVICES[line]).append("</td><td class=\"n\">")
+                    .append(FixedPoint.formatDecimal(quantities[line], FixedPoint.QUANTITY_SCALE))
+                    .append(' ').append(UNITS[line]).append("</td><td class=\"n\">")
+                    .append(priced ? FixedPoint.formatRubles(kopecks[line]) : "—").append("</td></tr>\n");
+                total += kopecks[line];
+            }
+            long amount = priced ? total : Math.round(rows.total(row) * FixedPoint.KOPECKS_PER_RUBLE);
+            html.append("<tr><th colspan=\"2\">Итого к оплате</th><td class=\"n\"><b>")
+                .append(FixedPoint.formatRubles(amount)).append("</b></td></tr>\n</table>\n</section>\n");
+        }
+        return html.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Заполняет начисления по строкам; возвращает {@code false}, если тарифа нет
+     * или показание вне допустимого диапазона.
+     */
+    private static boolean price(CompiledTariff tariff, long[] quantities, long[] kopecks) {
+        if (tariff == null || !BillingEngine.inRange(quantities)) {
+            return false;
+        }
+        BillingEngine.charges(tariff, quantities, kopecks);
+        return true;
+    }
+
+    /**
+     * Действующий тариф периода или {@code null}, если тарифа нет или он некорректен.
+     */
+    private CompiledTariff tariffFor(int period) {
+        CompiledTariff tariff = tariffs.find(period);
+        return tariff != null && tariff.isValid() ? tariff : null;
+    }
+}
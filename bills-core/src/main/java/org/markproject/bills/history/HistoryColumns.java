@@ -0,0 +1,119 @@
+package org.markproject.bills.history;
+
+import java.util.Arrays;
+
+/**
+ * Записи истории в столбцовом виде: по массиву примитивов на каждое поле.
+ * Строка занимает 56 байт без заголовков объектов, а обход одного столбца
+ * не затрагивает остальные. Объекты-представления строк создаются снаружи
+ * и только для тех строк, которые действительно нужны.
+ * <p>
+ * Не синхронизирован; после заполнения может свободно читаться из любых потоков.
+ */
+public final class HistoryColumns {
+    private int size;
+    private int[] accountId;
+    private int[] period;
+    private double[] coldWater;
+    private double[] hotWater;
+    private double[] sewer;
+    private double[] electricityDay;
+    private double[] electricityNight;
+    private double[] total;
+
+    public HistoryColumns(int capacity) {
+        accountId = new int[capacity];
+        period = new int[capacity];
+        coldWater = new double[capacity];
+        hotWater = new double[capacity];
+        sewer = new double[capacity];
+        electricityDay = new double[capacity];
+        electricityNight = new double[capacity];
+        total = new double[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Очищает строки, сохраняя выделенные массивы для повторного заполнения.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public int add(int accountId, int period, double coldWater, double hotWater, double sewer,
+                   double electricityDay, double electricityNight, double total) {
+        if (size == this.accountId.length) {
+            grow();
+        }
+        int row = size++;
+        set(row, accountId, period, coldWater, hotWater, sewer, electricityDay, electricityNight, total);
+        return row;
+    }
+
+    public void set(int row, int accountId, int period, double coldWater, double hotWater, double sewer,
+                    double electricityDay, double electricityNight, double total) {
+        this.accountId[row] = accountId;
+        this.period[row] = period;
+        this.coldWater[row] = coldWater;
+        this.hotWater[row] = hotWater;
+        this.sewer[row] = sewer;
+        this.electricityDay[row] = electricityDay;
+        this.electricityNight[row] = electricityNight;
+        this.total[row] = total;
+    }
+
+    public void setTotal(int row, double total) {
+        this.total[row] = total;
+    }
+
+    public int accountId(int row) {
+        return accountId[row];
+    }
+
+    public int period(int row) {
+        return period[row];
+    }
+
+    public double coldWater(int row) {
+        return coldWater[row];
+    }
+
+    public double hotWater(int row) {
+        return hotWater[row];
+    }
+
+    public double sewer(int row) {
+        return sewer[row];
+    }
+
+    public double electricityDay(int row) {
+        return electricityDay[row];
+    }
+
+    public double electricityNight(int row) {
+        return electricityNight[row];
+    }
+
+    public double total(int row) {
+        return total[row];
+    }
+
+    private void grow() {
+        int capacity = Math.max(16, accountId.length + (accountId.length >> 1));
+        accountId = Arrays.copyOf(accountId, capacity);
+        period = Arrays.copyOf(period, capacity);
+        coldWater = Arrays.copyOf(coldWater, capacity);
+        hotWater = Arrays.copyOf(hotWater, capacity);
+        sewer = Arrays.copyOf(sewer, capacity);
+        electricityDay = Arrays.copyOf(electricityDay, capacity);
+        electricityNight = Arrays.copyOf(electricityNight, capacity);
+        total = Arrays.copyOf(total, capacity);
+    }
+}
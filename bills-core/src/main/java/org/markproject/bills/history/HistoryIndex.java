@@ -0,0 +1,148 @@
+package org.markproject.bills.history;
+
+import org.markproject.bills.billing.BillingPeriod;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Отбор и сортировка записей истории по {@link HistoryQuery} над снимком в памяти.
+ * <p>
+ * Для каждого поля один раз вычисляется целочисленный ранг значения в строке (номер значения
+ * среди различных значений поля по возрастанию); ранги кэшируются на все время жизни снимка,
+ * поэтому сравнение строк — это сравнение двух int без чтения самих значений. Сортировка по
+ * нескольким ключам — стабильные проходы от последнего ключа к первому: в каждом проходе строки
+ * упорядочиваются по long «ранг << 32 | позиция», и {@link Arrays#parallelSort(long[])} делит
+ * большие массивы между потоками общего пула. Отбор больших снимков тоже идет параллельно.
+ * Подписи периодов для текстового поиска проверяются по разу на каждый различный период.
+ * <p>
+ * Снимок после создания не изменяется; методы можно вызывать из любого потока.
+ */
+public final class HistoryIndex {
+    // С такого числа строк отбор и вычисление рангов идут параллельно
+    private static final int PARALLEL_ROWS = 50_000;
+    private static final Locale RUSSIAN = Locale.of("ru");
+
+    private record Ranks(int[] ofRow, double[] distinct) {
+    }
+
+    private final HistoryColumns rows;
+    private final Ranks[] ranks = new Ranks[HistoryQuery.Field.values().length];
+
+    /**
+     * @param rows снимок истории; дальше не изменяется
+     */
+    public HistoryIndex(HistoryColumns rows) {
+        this.rows = rows;
+    }
+
+    public HistoryColumns rows() {
+        return rows;
+    }
+
+    /**
+     * Номера строк снимка, прошедших фильтры, в порядке сортировки запроса. Выполняется в текущем потоке.
+     */
+    public int[] evaluate(HistoryQuery query) {
+        IntStream all = IntStream.range(0, rows.size());
+        if (rows.size() >= PARALLEL_ROWS) {
+            all = all.parallel();
+        }
+        IntPredicate accepted = predicate(query);
+        int[] order = (accepted == null ? all : all.filter(accepted)).toArray();
+
+        long[] keys = new long[order.length];
+        for (int k = query.sort().size() - 1; k >= 0; k--) {
+            HistoryQuery.SortKey sortKey = query.sort().get(k);
+            Ranks field = ranks(sortKey.field());
+            int[] rank = field.ofRow();
+            int last = field.distinct().length - 1;
+            for (int i = 0; i < order.length; i++) {
+                int value = sortKey.descending() ? last - rank[order[i]] : rank[order[i]];
+                keys[i] = (long) value << 32 | i;
+            }
+            // Позиция в младших разрядах делает проход устойчивым: равные строки сохраняют порядок
+            Arrays.parallelSort(keys);
+            int[] sorted = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sorted[i] = order[(int) keys[i]];
+            }
+            order = sorted;
+        }
+        return order;
+    }
+
+    private IntPredicate predicate(HistoryQuery query) {
+        IntPredicate result = null;
+        for (HistoryQuery.Filter filter : query.filters()) {
+            IntPredicate next = switch (filter) {
+                case HistoryQuery.Months months -> {
+                    int mask = months.mask();
+                    yield row -> (mask >> BillingPeriod.month(rows.period(row)) & 1) != 0;
+                }
+                case HistoryQuery.Range range -> {
+                    HistoryQuery.Field field = range.field();
+                    double min = range.min();
+                    double max = range.max();
+                    yield row -> {
+                        double value = field.value(rows, row);
+                        return value >= min && value <= max;
+                    };
+                }
+                case HistoryQuery.Text text -> textPredicate(text.text());
+            };
+            result = result == null ? next : result.and(next);
+        }
+        return result;
+    }
+
+    private IntPredicate textPredicate(String text) {
+        String needle = text.strip().toLowerCase(RUSSIAN);
+        Ranks periods = ranks(HistoryQuery.Field.PERIOD);
+        Ranks accounts = ranks(HistoryQuery.Field.ACCOUNT);
+        boolean[] periodMatches = new boolean[periods.distinct().length];
+        for (int i = 0; i < periodMatches.length; i++) {
+            periodMatches[i] = BillingPeriod.displayName((int) periods.distinct()[i]).toLowerCase(RUSSIAN).contains(needle);
+        }
+        boolean[] accountMatches = new boolean[accounts.distinct().length];
+        for (int i = 0; i < accountMatches.length; i++) {
+            accountMatches[i] = Long.toString((long) accounts.distinct()[i]).contains(needle);
+        }
+        int[] periodOfRow = periods.ofRow();
+        int[] accountOfRow = accounts.ofRow();
+        return row -> periodMatches[periodOfRow[row]] || accountMatches[accountOfRow[row]];
+    }
+
+    private synchronized Ranks ranks(HistoryQuery.Field field) {
+        Ranks cached = ranks[field.ordinal()];
+        if (cached == null) {
+            cached = computeRanks(field);
+            ranks[field.ordinal()] = cached;
+        }
+        return cached;
+    }
+
+    private Ranks computeRanks(HistoryQuery.Field field) {
+        int size = rows.size();
+        double[] values = new double[size];
+        for (int row = 0; row < size; row++) {
+            values[row] = field.value(rows, row);
+        }
+        // Различные значения по возрастанию; -0.0 и NaN упорядочены так же, как в Arrays.binarySearch
+        double[] sorted = values.clone();
+        Arrays.parallelSort(sorted);
+        int count = 0;
+        for (double value : sorted) {
+            if (count == 0 || Double.compare(sorted[count - 1], value) != 0) {
+                sorted[count++] = value;
+            }
+        }
+        double[] distinct = Arrays.copyOf(sorted, count);
+        int[] ofRow = new int[size];
+        IntStream all = IntStream.range(0, size);
+        (size >= PARALLEL_ROWS ? all.parallel() : all).forEach(row -> ofRow[row] = Arrays.binarySearch(distinct, values[row]));
+        return new Ranks(ofRow, distinct);
+    }
+}
@@ -0,0 +1,77 @@
+package org.markproject.bills.history;
+
+import java.util.List;
+
+/**
+ * Отбор и сортировка записей истории для {@link HistoryIndex}: все фильтры должны выполняться
+ * одновременно, сортировка идет по ключам по порядку, а при их равенстве строки остаются
+ * в исходном порядке снимка (новые периоды сначала).
+ */
+public record HistoryQuery(List<Filter> filters, List<SortKey> sort) {
+    /** Запрос без фильтров и сортировки: снимок как есть. */
+    public static final HistoryQuery ALL = new HistoryQuery(List.of(), List.of());
+
+    /** Маски месяцев для {@link Months}: бит n — месяц n. */
+    public static final int WINTER = 1 << 12 | 1 << 1 | 1 << 2;
+    public static final int SPRING = 1 << 3 | 1 << 4 | 1 << 5;
+    public static final int SUMMER = 1 << 6 | 1 << 7 | 1 << 8;
+    public static final int AUTUMN = 1 << 9 | 1 << 10 | 1 << 11;
+
+    public HistoryQuery {
+        filters = List.copyOf(filters);
+        sort = List.copyOf(sort);
+    }
+
+    public boolean isEmpty() {
+        return filters.isEmpty() && sort.isEmpty();
+    }
+
+    /**
+     * Поле записи истории; месяц и год берутся из периода.
+     */
+    public enum Field {
+        ACCOUNT, PERIOD, YEAR, MONTH, COLD, HOT, SEWER, ELECTRICITY_DAY, ELECTRICITY_NIGHT, TOTAL;
+
+        double value(HistoryColumns rows, int row) {
+            return switch (this) {
+                case ACCOUNT -> rows.accountId(row);
+                case PERIOD -> rows.period(row);
+                case YEAR -> rows.period(row) / 100;
+                case MONTH -> rows.period(row) % 100;
+                case COLD -> rows.coldWater(row);
+                case HOT -> rows.hotWater(row);
+                case SEWER -> rows.sewer(row);
+                case ELECTRICITY_DAY -> rows.electricityDay(row);
+                case ELECTRICITY_NIGHT -> rows.electricityNight(row);
+                case TOTAL -> rows.total(row);
+            };
+        }
+    }
+
+    public record SortKey(Field field, boolean descending) {
+    }
+
+    /**
+     * Условие отбора записей.
+     */
+    public sealed interface Filter permits Months, Range, Text {
+    }
+
+    /**
+     * Записи за месяцы из маски, например {@link #WINTER}.
+     */
+    public record Months(int mask) implements Filter {
+    }
+
+    /**
+     * Значение поля в [min, max]; открытая граница — бесконечность.
+     */
+    public record Range(Field field, double min, double max) implements Filter {
+    }
+
+    /**
+     * Текст без учета регистра в подписи периода ("Январь 2024") или в номере счета.
+     */
+    public record Text(String text) implements Filter {
+    }
+}
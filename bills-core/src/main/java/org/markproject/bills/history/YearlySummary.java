@@ -0,0 +1,21 @@
+package org.markproject.bills.history;
+
+/**
+ * Годовой итог по одной услуге: по одному счету или по всем счетам.
+ *
+ * @param utility номер услуги: 0–4 — показания в порядке столбцов истории, {@link #TOTAL} — сумма в рублях
+ * @param months  число месячных записей, вошедших в итог
+ */
+public record YearlySummary(int year, int utility, long months, double total, double minimum, double maximum) {
+    public static final int COLD = 0;
+    public static final int HOT = 1;
+    public static final int SEWER = 2;
+    public static final int ELECTRICITY_DAY = 3;
+    public static final int ELECTRICITY_NIGHT = 4;
+    public static final int TOTAL = 5;
+    public static final int UTILITIES = 6;
+
+    public double monthlyAverage() {
+        return months == 0 ? 0 : total / months;
+    }
+}
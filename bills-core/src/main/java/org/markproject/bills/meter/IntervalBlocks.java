@@ -0,0 +1,159 @@
+package org.markproject.bills.meter;
+
+import java.util.Arrays;
+
+/**
+ * Сжатие показаний одного счетчика за одни сутки в блок байтов.
+ * <p>
+ * Формат блока — последовательность чисел переменной длины (по 7 бит в байте, старший бит —
+ * признак продолжения):
+ * <ol>
+ *     <li>число показаний;</li>
+ *     <li>минута суток первого показания;</li>
+ *     <li>шаг в минутах, если показания идут ровно через него, иначе 0 и далее разности
+ *         минут соседних показаний;</li>
+ *     <li>первый расход и разности соседних расходов в зигзаг-кодировке (0, -1, 1, -2 → 0, 1, 2, 3).</li>
+ * </ol>
+ * Четвертьчасовой расход соседних интервалов различается на единицы и десятки ватт-часов,
+ * поэтому показание занимает один-два байта, а время у регулярного ряда — ни одного.
+ */
+public final class IntervalBlocks {
+    /** Наибольший размер числа переменной длины в байтах. */
+    private static final int MAX_VARINT = 10;
+
+    private IntervalBlocks() {
+    }
+
+    /**
+     * Кодирует показания [from, to) одних суток; показания упорядочены по времени без повторов.
+     */
+    public static byte[] encode(IntervalSeries series, int from, int to) {
+        int count = to - from;
+        byte[] out = new byte[(3 + 2 * count) * MAX_VARINT];
+        int pos = putVarint(out, 0, count);
+        if (count == 0) {
+            return Arrays.copyOf(out, pos);
+        }
+        pos = putVarint(out, pos, IntervalSeries.minuteOfDay(series.minute(from)));
+        int step = count > 1 ? series.minute(from + 1) - series.minute(from) : 1;
+        for (int i = from + 2; i < to && step > 0; i++) {
+            if (series.minute(i) - series.minute(i - 1) != step) {
+                step = 0;
+            }
+        }
+        pos = putVarint(out, pos, step);
+        if (step == 0) {
+            for (int i = from + 1; i < to; i++) {
+                pos = putVarint(out, pos, series.minute(i) - series.minute(i - 1));
+            }
+        }
+        long previous = 0;
+        for (int i = from; i < to; i++) {
+            long quantity = series.quantity(i);
+            pos = putVarint(out, pos, zigzag(quantity - previous));
+            previous = quantity;
+        }
+        return Arrays.copyOf(out, pos);
+    }
+
+    /**
+     * Дописывает показания блока суток day в into.
+     */
+    public static void decode(byte[] block, int day, IntervalSeries into) {
+        Reader in = new Reader(block);
+        int count = (int) in.varint();
+        if (count == 0) {
+            return;
+        }
+        int minute = day * IntervalSeries.MINUTES_PER_DAY + (int) in.varint();
+        int step = (int) in.varint();
+        int[] minutes = null;
+        if (step == 0) {
+            minutes = new int[count];
+            minutes[0] = minute;
+            for (int i = 1; i < count; i++) {
+                minutes[i] = minutes[i - 1] + (int) in.varint();
+            }
+        }
+        long quantity = 0;
+        for (int i = 0; i < count; i++) {
+            quantity += unzigzag(in.varint());
+            into.add(minutes != null ? minutes[i] : minute + i * step, quantity);
+        }
+    }
+
+    /**
+     * Прибавляет расход блока к totals: дневная зона в totals[0], ночная в totals[1].
+     * Показания не распаковываются в отдельный ряд. Возвращает число показаний.
+     */
+    public static int addZoneTotals(byte[] block, long[] totals) {
+        Reader in = new Reader(block);
+        int count = (int) in.varint();
+        if (count == 0) {
+            return 0;
+        }
+        int minute = (int) in.varint();
+        int step = (int) in.varint();
+        if (step == 0) {
+            // Разности минут идут перед расходами: сначала отмечаем зону каждого показания
+            boolean[] day = new boolean[count];
+            day[0] = TariffZones.isDay(minute);
+            for (int i = 1; i < count; i++) {
+                minute += (int) in.varint();
+                day[i] = TariffZones.isDay(minute);
+            }
+            long quantity = 0;
+            for (int i = 0; i < count; i++) {
+                quantity += unzigzag(in.varint());
+                totals[day[i] ? 0 : 1] += quantity;
+            }
+            return count;
+        }
+        long quantity = 0;
+        for (int i = 0; i < count; i++, minute += step) {
+            quantity += unzigzag(in.varint());
+            totals[TariffZones.isDay(minute) ? 0 : 1] += quantity;
+        }
+        return count;
+    }
+
+    private static int putVarint(byte[] out, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out[pos++] = (byte) (value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long zigzag(long value) {
+        return value << 1 ^ value >> 63;
+    }
+
+    private static long unzigzag(long value) {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    private static final class Reader {
+        private final byte[] block;
+        private int pos;
+
+        Reader(byte[] block) {
+            this.block = block;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (pos == block.length || shift >= 64) {
+                    throw new IllegalStateException("Поврежденный блок показаний");
+                }
+                byte b = block[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
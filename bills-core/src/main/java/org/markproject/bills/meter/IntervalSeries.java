@@ -0,0 +1,145 @@
+package org.markproject.bills.meter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+/**
+ * Интервальные показания одного счетчика в столбцовом виде: минута начала интервала
+ * и расход за интервал в тысячных долях единицы.
+ * <p>
+ * Минуты отсчитываются от 1970-01-01 00:00 по местному времени счетчика, без часового пояса:
+ * так сутки всегда состоят из 1440 минут, а зона суток определяется остатком от деления.
+ * Не синхронизирован.
+ */
+public final class IntervalSeries {
+    public static final int MINUTES_PER_DAY = 1_440;
+
+    private int size;
+    private int[] minutes;
+    private long[] quantities;
+
+    public IntervalSeries(int capacity) {
+        minutes = new int[Math.max(capacity, 1)];
+        quantities = new long[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Очищает показания, сохраняя выделенные массивы.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public void add(int minute, long quantity) {
+        if (size == minutes.length) {
+            minutes = Arrays.copyOf(minutes, size * 2);
+            quantities = Arrays.copyOf(quantities, size * 2);
+        }
+        minutes[size] = minute;
+        quantities[size] = quantity;
+        size++;
+    }
+
+    public int minute(int index) {
+        return minutes[index];
+    }
+
+    public long quantity(int index) {
+        return quantities[index];
+    }
+
+    /**
+     * Позиция первого показания с минутой не меньше minute или size(), если таких нет.
+     * Показания должны быть упорядочены по времени.
+     */
+    public int lowerBound(int minute) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (minutes[middle] < minute) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Оставляет среди показаний, начиная с позиции from, только попадающие в [fromMinute, toMinute).
+     */
+    public void retain(int from, int fromMinute, int toMinute) {
+        int count = from;
+        for (int i = from; i < size; i++) {
+            if (minutes[i] >= fromMinute && minutes[i] < toMinute) {
+                minutes[count] = minutes[i];
+                quantities[count] = quantities[i];
+                count++;
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Упорядочивает показания по времени; из показаний за одну и ту же минуту остается
+     * добавленное последним.
+     */
+    public void normalize() {
+        boolean ordered = true;
+        for (int i = 1; i < size && ordered; i++) {
+            ordered = minutes[i - 1] < minutes[i];
+        }
+        if (ordered) {
+            return;
+        }
+        // Минута в старших разрядах, номер добавления в младших: одинаковые минуты идут в порядке добавления
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = (long) minutes[i] << 32 | i;
+        }
+        Arrays.sort(keys);
+        int[] sortedMinutes = new int[minutes.length];
+        long[] sortedQuantities = new long[quantities.length];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int index = (int) keys[i];
+            if (i + 1 < size && (int) (keys[i + 1] >> 32) == minutes[index]) {
+                continue;
+            }
+            sortedMinutes[count] = minutes[index];
+            sortedQuantities[count] = quantities[index];
+            count++;
+        }
+        minutes = sortedMinutes;
+        quantities = sortedQuantities;
+        size = count;
+    }
+
+    public static int minute(LocalDateTime time) {
+        return Math.toIntExact(time.toLocalDate().toEpochDay() * MINUTES_PER_DAY
+                               + time.getHour() * 60L + time.getMinute());
+    }
+
+    public static LocalDateTime dateTime(int minute) {
+        return LocalDate.ofEpochDay(day(minute)).atStartOfDay().plusMinutes(minuteOfDay(minute));
+    }
+
+    /** Номер суток от 1970-01-01. */
+    public static int day(int minute) {
+        return Math.floorDiv(minute, MINUTES_PER_DAY);
+    }
+
+    public static int minuteOfDay(int minute) {
+        return Math.floorMod(minute, MINUTES_PER_DAY);
+    }
+}
@@ -0,0 +1,31 @@
+package org.markproject.bills.meter;
+
+/**
+ * Вид счетчика с интервальными показаниями. В базе хранится порядковый номер,
+ * поэтому новые виды добавляются только в конец.
+ */
+public enum MeterKind {
+    COLD_WATER("cold"),
+    HOT_WATER("hot"),
+    ELECTRICITY("electricity");
+
+    private final String key;
+
+    MeterKind(String key) {
+        this.key = key;
+    }
+
+    /** Имя вида в параметрах и файлах: {@code cold}, {@code hot}, {@code electricity}. */
+    public String key() {
+        return key;
+    }
+
+    public static MeterKind forKey(String key) {
+        for (MeterKind kind : values()) {
+            if (kind.key.equals(key)) {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный вид счетчика: " + key);
+    }
+}
@@ -0,0 +1,14 @@
+package org.markproject.bills.meter;
+
+/**
+ * Месячный итог счетчика по зонам суток.
+ *
+ * @param readings  число интервальных показаний за месяц
+ * @param dayZone   расход в дневной зоне в тысячных долях единицы
+ * @param nightZone расход в ночной зоне в тысячных долях единицы
+ */
+public record MeterMonth(int accountId, MeterKind kind, int period, int readings, long dayZone, long nightZone) {
+    public long total() {
+        return dayZone + nightZone;
+    }
+}
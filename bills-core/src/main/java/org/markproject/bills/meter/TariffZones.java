@@ -0,0 +1,17 @@
+package org.markproject.bills.meter;
+
+/**
+ * Зоны суток двухтарифного учета электроэнергии: дневная с 7:00 до 23:00, ночная — остальное время.
+ * Интервал относится к зоне, в которую попадает его начало.
+ */
+public final class TariffZones {
+    public static final int DAY_FROM = 7 * 60;
+    public static final int DAY_UNTIL = 23 * 60;
+
+    private TariffZones() {
+    }
+
+    public static boolean isDay(int minuteOfDay) {
+        return minuteOfDay >= DAY_FROM && minuteOfDay < DAY_UNTIL;
+    }
+}
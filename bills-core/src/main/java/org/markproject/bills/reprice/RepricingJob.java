@@ -0,0 +1,250 @@
+package org.markproject.bills.reprice;
+
+import org.markproject.bills.billing.BillingEngine;
+import org.markproject.bills.billing.MeterColumns;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffSnapshot;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Пересчет сохраненных сумм истории по текущему снимку тарифов.
+ * <p>
+ * Записи с периодами из [fromPeriod, toPeriod) читаются порциями по {@link #CHUNK_SIZE}
+ * в порядке первичного ключа (account_id, period), поэтому в памяти не больше двух порций.
+ * Строки порции группируются по версии тарифов, каждая группа оценивается пакетом параллельно
+ * в общем fork-join пуле, а порция пишется отдельным потоком короткими транзакциями
+ * по {@link #WRITE_BATCH} строк, пока читается и считается следующая. Между транзакциями пишущее
+ * подключение свободно для остальных записей. Сумма обновляется, только если показания
+ * строки не менялись с момента чтения: правка, сделанная во время пересчета, уже посчитана
+ * по новым тарифам и не перезаписывается.
+ */
+public final class RepricingJob {
+    public static final int CHUNK_SIZE = 65_536;
+    static final int WRITE_BATCH = 4_096;
+
+    private final HistoryRepository repository;
+    private final TariffSnapshot tariffs;
+    private final int fromPeriod;
+    private final int toPeriod;
+    private volatile boolean cancelled;
+
+    private HistoryColumns batch = new HistoryColumns(CHUNK_SIZE);
+    private HistoryColumns spare = new HistoryColumns(CHUNK_SIZE);
+    private final MeterColumns readings = new MeterColumns(CHUNK_SIZE);
+    private final long[] totals = new long[CHUNK_SIZE];
+    // Строка порции, к которой относится i-я позиция readings
+    private final int[] source = new int[CHUNK_SIZE];
+    // Группа тарифа для каждой строки порции; -1 — строка пропущена
+    private final int[] groupOf = new int[CHUNK_SIZE];
+    private final Map<CompiledTariff, Integer> groupIndex = new IdentityHashMap<>();
+    private final List<CompiledTariff> groupTariffs = new ArrayList<>();
+    // Действующий тариф каждого встреченного периода; null — тарифа нет или он некорректен
+    private final Map<Integer, CompiledTariff> periodTariffs = new HashMap<>();
+
+    /**
+     * @param toPeriod первый период, который не пересчитывается, или {@link Integer#MAX_VALUE}
+     */
+    public RepricingJob(HistoryRepository repository, TariffSnapshot tariffs, int fromPeriod, int toPeriod) {
+        this.repository = repository;
+        this.tariffs = tariffs;
+        this.fromPeriod = fromPeriod;
+        this.toPeriod = toPeriod;
+    }
+
+    /**
+     * Пересчет периодов, на которые действует версия тарифов, начавшая действовать с effectiveFrom.
+     */
+    public static RepricingJob forVersion(HistoryRepository repository, TariffSnapshot tariffs, int effectiveFrom) {
+        return new RepricingJob(repository, tariffs, effectiveFrom, tariffs.effectiveUntil(effectiveFrom));
+    }
+
+    /**
+     * Запускает пересчет в отдельном виртуальном потоке. Экземпляр выполняется один раз.
+     */
+    public CompletableFuture<RepricingReport> start(RepricingListener listener) {
+        CompletableFuture<RepricingReport> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("bills-reprice").start(() -> {
+            try {
+                result.complete(run(listener));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Останавливает пересчет после текущей транзакции записи.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public RepricingReport run(RepricingListener listener) throws SQLException {
+        long started = System.nanoTime();
+        // Суммы из очереди записи посчитаны по прежнему снимку и тоже должны быть пересчитаны
+        await(repository.flush());
+        long total = repository.countRange(fromPeriod, toPeriod);
+        listener.progress(0, total);
+
+        long processed = 0;
+        long changed = 0;
+        long skipped = 0;
+        try (ExecutorService writer = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("bills-reprice-writer").factory())) {
+            Future<Written> pendingWrite = CompletableFuture.completedFuture(Written.NONE);
+            HistoryKey after = new HistoryKey(Integer.MIN_VALUE, fromPeriod);
+            while (!cancelled) {
+                batch.clear();
+                repository.readRange(fromPeriod, toPeriod, after, CHUNK_SIZE, batch);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                int last = batch.size() - 1;
+                after = new HistoryKey(batch.accountId(last), batch.period(last));
+                skipped += price(batch);
+
+                // Второй буфер освобождается только после записи предыдущей порции
+                Written written = await(pendingWrite);
+                processed += written.rows;
+                changed += written.changed;
+                listener.progress(processed, total);
+                HistoryColumns full = batch;
+                batch = spare;
+                spare = full;
+                pendingWrite = writer.submit(() -> write(full));
+            }
+            Written written = await(pendingWrite);
+            processed += written.rows;
+            changed += written.changed;
+            listener.progress(processed, total);
+        }
+        return new RepricingReport(processed, changed, skipped, System.nanoTime() - started, cancelled);
+    }
+
+    /**
+     * Записывает новые суммы порции; возвращает, сколько строк записано до отмены.
+     */
+    private Written write(HistoryColumns rows) throws SQLException {
+        int written = 0;
+        int changed = 0;
+        while (written < rows.size() && !cancelled) {
+            int to = Math.min(rows.size(), written + WRITE_BATCH);
+            changed += repository.updateTotals(rows, written, to);
+            written = to;
+        }
+        return new Written(written, changed);
+    }
+
+    /**
+     * Заменяет суммы строк порции пересчитанными. Строки идут по счетам, и период, а с ним
+     * и тариф, меняется почти на каждой строке, поэтому строки сначала раскладываются по версиям
+     * тарифов (с сохранением порядка внутри версии), и каждая версия считается одним пакетом.
+     * Возвращает число пропущенных строк, их суммы остаются прежними.
+     */
+    private int price(HistoryColumns rows) {
+        groupIndex.clear();
+        groupTariffs.clear();
+        int skipped = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            CompiledTariff tariff = tariffFor(rows.period(row));
+            if (tariff == null || !inRange(FixedPoint.quantity(rows.coldWater(row)))
+                    || !inRange(FixedPoint.quantity(rows.hotWater(row))) || !inRange(FixedPoint.quantity(rows.sewer(row)))
+                    || !inRange(FixedPoint.quantity(rows.electricityDay(row)))
+                    || !inRange(FixedPoint.quantity(rows.electricityNight(row)))) {
+                groupOf[row] = -1;
+                skipped++;
+                continue;
+            }
+            Integer group = groupIndex.get(tariff);
+            if (group == null) {
+                group = groupTariffs.size();
+                groupIndex.put(tariff, group);
+                groupTariffs.add(tariff);
+            }
+            groupOf[row] = group;
+        }
+
+        // Начало каждой группы в readings: подсчет строк и накопленные суммы
+        int groups = groupTariffs.size();
+        int[] start = new int[groups + 1];
+        for (int row = 0; row < rows.size(); row++) {
+            if (groupOf[row] >= 0) {
+                start[groupOf[row] + 1]++;
+            }
+        }
+        for (int group = 0; group < groups; group++) {
+            start[group + 1] += start[group];
+        }
+        int[] next = Arrays.copyOf(start, groups);
+        for (int row = 0; row < rows.size(); row++) {
+            int group = groupOf[row];
+            if (group < 0) {
+                continue;
+            }
+            int position = next[group]++;
+            readings.set(position, FixedPoint.quantity(rows.coldWater(row)), FixedPoint.quantity(rows.hotWater(row)),
+                    FixedPoint.quantity(rows.sewer(row)), FixedPoint.quantity(rows.electricityDay(row)),
+                    FixedPoint.quantity(rows.electricityNight(row)));
+            source[position] = row;
+        }
+        for (int group = 0; group < groups; group++) {
+            if (start[group] < start[group + 1]) {
+                BillingEngine.totals(groupTariffs.get(group), readings, totals, start[group], start[group + 1],
+                        ForkJoinPool.commonPool());
+            }
+        }
+        for (int i = 0; i < start[groups]; i++) {
+            rows.setTotal(source[i], FixedPoint.rubles(totals[i]));
+        }
+        return skipped;
+    }
+
+    /**
+     * Действующий тариф периода или {@code null}, если тарифа нет или он некорректен.
+     */
+    private CompiledTariff tariffFor(int period) {
+        CompiledTariff tariff = periodTariffs.get(period);
+        if (tariff == null && !periodTariffs.containsKey(period)) {
+            tariff = tariffs.find(period);
+            if (tariff != null && !tariff.isValid()) {
+                tariff = null;
+            }
+            periodTariffs.put(period, tariff);
+        }
+        return tariff;
+    }
+
+    private static boolean inRange(long quantity) {
+        return quantity <= FixedPoint.MAX_QUANTITY && quantity >= -FixedPoint.MAX_QUANTITY;
+    }
+
+    private static <T> T await(Future<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Пересчет прерван", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new SQLException("Ошибка записи пересчитанных сумм", e.getCause());
+        }
+    }
+
+    private record Written(int rows, int changed) {
+        static final Written NONE = new Written(0, 0);
+    }
+}
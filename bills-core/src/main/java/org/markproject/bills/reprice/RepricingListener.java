@@ -0,0 +1,9 @@
+package org.markproject.bills.reprice;
+
+/**
+ * Получает ход пересчета. Вызывается из фонового потока пересчета.
+ */
+@FunctionalInterface
+public interface RepricingListener {
+    void progress(long processed, long total);
+}
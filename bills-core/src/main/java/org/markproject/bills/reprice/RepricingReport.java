@@ -0,0 +1,18 @@
+package org.markproject.bills.reprice;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Итог пересчета.
+ *
+ * @param processed просмотрено записей
+ * @param changed   записей, у которых изменилась сумма
+ * @param skipped   записей без действующего тарифа или с показаниями вне допустимого диапазона
+ * @param cancelled пересчет остановлен до конца; уже записанные суммы остаются пересчитанными
+ */
+public record RepricingReport(long processed, long changed, long skipped, long elapsedNanos, boolean cancelled) {
+
+    public long rowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : processed * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
@@ -0,0 +1,495 @@
+package org.markproject.bills.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.csv.CsvHistoryImporter;
+import org.markproject.bills.csv.ImportReport;
+import org.markproject.bills.db.Database;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.db.MeterRepository;
+import org.markproject.bills.db.TariffRepository;
+import org.markproject.bills.diag.LatencyHistogram;
+import org.markproject.bills.diag.Log;
+import org.markproject.bills.diag.Metrics;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.meter.IntervalSeries;
+import org.markproject.bills.meter.MeterKind;
+import org.markproject.bills.meter.MeterMonth;
+import org.markproject.bills.service.Bill;
+import org.markproject.bills.service.BillingService;
+import org.markproject.bills.service.MeterReport;
+import org.markproject.bills.service.MeterService;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.text.Decimals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless-режим: HTTP-сервис расчета, истории и импорта без окна и без запуска JavaFX.
+ * <p>
+ * Сервер построен на {@code com.sun.net.httpserver} из JDK; каждый запрос выполняется
+ * в собственном виртуальном потоке и обращается к базе синхронно, через те же пулы
+ * подключений и очередь записи истории, что и окно приложения. Пока один запрос ждет
+ * подключения или фиксации, поток-носитель обслуживает остальные.
+ * <p>
+ * Запросы:
+ * <ul>
+ *     <li>{@code GET /api/health} — проверка готовности;</li>
+ *     <li>{@code GET /api/bill?account=1&period=2024-01&cold=..&hot=..&sewer=..&day=..&night=..} —
+ *     расчет без сохранения, {@code POST} с теми же параметрами (в строке запроса или телом формы) —
+ *     расчет с сохранением в историю;</li>
+ *     <li>{@code GET /api/history?account=1&from=2024-01&to=2024-12&limit=100} — записи счета,
+ *     {@code to} не включается;</li>
+ *     <li>{@code POST /api/import} — импорт CSV из тела запроса в формате импорта из окна;</li>
+ *     <li>{@code POST /api/meter?account=1&kind=electricity} — интервальные показания счетчика
+ *     (cold, hot или electricity) строками {@code 2024-01-15T07:15,0.250}: начало интервала
+ *     по местному времени и расход за интервал; затронутые месяцы истории пересчитываются;</li>
+ *     <li>{@code GET /api/meter?account=1&from=2024-01&to=2025-01} — месячные итоги счетчиков по зонам суток.</li>
+ * </ul>
+ * Ответы — JSON; ошибки ввода возвращаются с кодом 400 и полем {@code error}.
+ */
+public final class BillsServer implements AutoCloseable {
+    public static final int DEFAULT_PORT = 8077;
+    static final int DEFAULT_HISTORY_LIMIT = 1_000;
+    static final int MAX_HISTORY_LIMIT = 10_000;
+
+    private static final String[] LINE_KEYS = {"cold_water", "hot_water", "sewer", "electricity_day", "electricity_night"};
+    private static final String[] LINE_PARAMETERS = {"cold", "hot", "sewer", "day", "night"};
+
+    private final HistoryRepository history;
+    private final TariffRepository tariffs;
+    private final BillingService billing;
+    private final MeterRepository meters;
+    private final MeterService meterService;
+    private HttpServer server;
+    private ExecutorService requests;
+
+    public BillsServer(HistoryRepository history, TariffRepository tariffs, MeterRepository meters) {
+        this.history = history;
+        this.tariffs = tariffs;
+        this.billing = new BillingService(tariffs, history);
+        this.meters = meters;
+        this.meterService = new MeterService(meters, history, tariffs);
+    }
+
+    /**
+     * Начинает принимать запросы; возвращает фактический адрес (при порте 0 — выбранный системой).
+     * Встроенный HTTP-сервер читает {@code -Dsun.net.httpserver.nodelay=true} один раз, при создании
+     * первого сервера в JVM; {@link #main} задает его сам, при встраивании его нужно указать при запуске.
+     */
+    public InetSocketAddress start(InetSocketAddress address) throws IOException {
+        requests = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bills-http-", 0).factory());
+        server = HttpServer.create(address, 0);
+        server.setExecutor(requests);
+        route("/api/health", this::health);
+        route("/api/bill", this::bill);
+        route("/api/history", this::history);
+        route("/api/import", this::importCsv);
+        route("/api/meter", this::meter);
+        server.start();
+        return server.getAddress();
+    }
+
+    /**
+     * Перестает принимать запросы и ждет завершения начатых.
+     */
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(1);
+            requests.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        String handle(HttpExchange exchange) throws Exception;
+    }
+
+    /**
+     * Регистрирует обработчик точного пути: замер времени, ответ JSON и коды ошибок.
+     */
+    private void route(String path, Handler handler) {
+        LatencyHistogram timer = Metrics.timer("HTTP " + path);
+        server.createContext(path, exchange -> {
+            long started = System.nanoTime();
+            try (exchange) {
+                int status = 200;
+                String body;
+                if (!exchange.getRequestURI().getPath().equals(path)) {
+                    status = 404;
+                    body = Json.error("Неизвестный адрес: " + exchange.getRequestURI().getPath());
+                } else {
+                    try {
+                        body = handler.handle(exchange);
+                    } catch (MethodNotAllowed e) {
+                        status = 405;
+                        body = Json.error("Метод не поддерживается: " + exchange.getRequestMethod());
+                    } catch (IllegalArgumentException | IllegalStateException | DateTimeException e) {
+                        status = 400;
+                        body = Json.error(e.getMessage());
+                    } catch (Exception e) {
+                        Log.error("Ошибка обработки запроса " + path, e);
+                        status = 500;
+                        body = Json.error("Внутренняя ошибка сервера");
+                    }
+                }
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(status, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            } finally {
+                timer.recordSince(started);
+            }
+        });
+    }
+
+    private static final class MethodNotAllowed extends Exception {
+        MethodNotAllowed() {
+            super(null, null, false, false);
+        }
+    }
+
+    private String health(HttpExchange exchange) throws MethodNotAllowed {
+        requireMethod(exchange, "GET");
+        return "{\"status\":\"ok\"}";
+    }
+
+    private String bill(HttpExchange exchange) throws IOException, MethodNotAllowed {
+        boolean save = exchange.getRequestMethod().equals("POST");
+        if (!save) {
+            requireMethod(exchange, "GET");
+        }
+        Map<String, String> parameters = parameters(exchange);
+        int accountId = positiveInt(parameters, "account", null);
+        int period = period(parameters, "period", null);
+        long[] quantities = new long[TariffPlan.STANDARD_LINES];
+        for (int line = 0; line < quantities.length; line++) {
+            String value = required(parameters, LINE_PARAMETERS[line]);
+            try {
+                quantities[line] = Decimals.parseFixed(value, FixedPoint.QUANTITY_SCALE);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Неверный формат числа в параметре " + LINE_PARAMETERS[line]);
+            }
+        }
+        Bill bill = await(save ? billing.calculate(accountId, period, quantities)
+                : billing.quote(accountId, period, quantities));
+
+        StringBuilder json = new StringBuilder(256).append("{\"account_id\":").append(bill.accountId())
+                .append(",\"period\":");
+        Json.period(json, bill.period()).append(",\"quantities\":{");
+        for (int line = 0; line < LINE_KEYS.length; line++) {
+            json.append(line == 0 ? "\"" : ",\"").append(LINE_KEYS[line]).append("\":");
+            Json.decimal(json, bill.quantities()[line], FixedPoint.QUANTITY_SCALE);
+        }
+        json.append("},\"charges\":{");
+        for (int line = 0; line < LINE_KEYS.length; line++) {
+            json.append(line == 0 ? "\"" : ",\"").append(LINE_KEYS[line]).append("\":");
+            Json.decimal(json, bill.charges()[line], 2);
+        }
+        json.append("},\"total\":");
+        Json.decimal(json, bill.total(), 2);
+        return json.append(",\"saved\":").append(save).append('}').toString();
+    }
+
+    private String history(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "GET");
+        Map<String, String> parameters = parameters(exchange);
+        int accountId = positiveInt(parameters, "account", null);
+        int from = period(parameters, "from", BillingPeriod.BEGINNING);
+        int to = period(parameters, "to", Integer.MAX_VALUE);
+        int limit = positiveInt(parameters, "limit", DEFAULT_HISTORY_LIMIT);
+        if (limit > MAX_HISTORY_LIMIT) {
+            throw new IllegalArgumentException("Параметр limit не больше " + MAX_HISTORY_LIMIT);
+        }
+        HistoryColumns rows = new HistoryColumns(Math.min(limit, 256));
+        history.readAccount(accountId, from, to, limit, rows);
+
+        StringBuilder json = new StringBuilder(64 + rows.size() * 160)
+                .append("{\"account_id\":").append(accountId).append(",\"rows\":[");
+        for (int row = 0; row < rows.size(); row++) {
+            json.append(row == 0 ? "{\"period\":" : ",{\"period\":");
+            Json.period(json, rows.period(row));
+            quantity(json, "cold_water", rows.coldWater(row));
+            quantity(json, "hot_water", rows.hotWater(row));
+            quantity(json, "sewer", rows.sewer(row));
+            quantity(json, "electricity_day", rows.electricityDay(row));
+            quantity(json, "electricity_night", rows.electricityNight(row));
+            json.append(",\"total\":");
+            Json.decimal(json, Math.round(rows.total(row) * FixedPoint.KOPECKS_PER_RUBLE), 2).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void quantity(StringBuilder json, String key, double value) {
+        json.append(",\"").append(key).append("\":");
+        Json.decimal(json, FixedPoint.quantity(value), FixedPoint.QUANTITY_SCALE);
+    }
+
+    /**
+     * Тело запроса сохраняется во временный файл: импорт читает файл блоками через FileChannel.
+     */
+    private String importCsv(HttpExchange exchange) throws Exception {
+        requireMethod(exchange, "POST");
+        Path csv = Files.createTempFile("bills-import-", ".csv");
+        ImportReport report = null;
+        try {
+            try (InputStream body = exchange.getRequestBody()) {
+                Files.copy(body, csv, StandardCopyOption.REPLACE_EXISTING);
+            }
+            report = new CsvHistoryImporter(history, await(tariffs.snapshot()))
+                    .importFile(csv, (accepted, rejected, bytesRead, totalBytes) -> { });
+        } finally {
+            Files.deleteIfExists(csv);
+            if (report != null && report.rejectedFile() != null) {
+                Files.deleteIfExists(report.rejectedFile());
+            }
+        }
+
+        StringBuilder json = new StringBuilder(256).append("{\"accepted\":").append(report.accepted())
+                .append(",\"rejected\":").append(report.rejected())
+                .append(",\"rows_per_second\":").append(report.rowsPerSecond())
+                .append(",\"rejections\":[");
+        int shown = 0;
+        for (ImportReport.Rejection rejection : report.rejections()) {
+            if (shown == 100) {
+                break;
+            }
+            json.append(shown++ == 0 ? "{\"line\":" : ",{\"line\":").append(rejection.line()).append(",\"reason\":");
+            Json.string(json, rejection.reason()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String meter(HttpExchange exchange) throws Exception {
+        boolean save = exchange.getRequestMethod().equals("POST");
+        if (!save) {
+            requireMethod(exchange, "GET");
+        }
+        Map<String, String> parameters = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), parameters);
+        int accountId = positiveInt(parameters, "account", null);
+        if (!save) {
+            int from = period(parameters, "from", BillingPeriod.BEGINNING);
+            int to = period(parameters, "to", Integer.MAX_VALUE);
+            List<MeterMonth> months = meters.monthly(accountId, from, to);
+            StringBuilder json = new StringBuilder(64 + months.size() * 120)
+                    .append("{\"account_id\":").append(accountId).append(",\"months\":[");
+            for (int i = 0; i < months.size(); i++) {
+                MeterMonth month = months.get(i);
+                json.append(i == 0 ? "{\"period\":" : ",{\"period\":");
+                Json.period(json, month.period()).append(",\"kind\":");
+                Json.string(json, month.kind().key()).append(",\"readings\":").append(month.readings())
+                        .append(",\"day\":");
+                Json.decimal(json, month.dayZone(), FixedPoint.QUANTITY_SCALE).append(",\"night\":");
+                Json.decimal(json, month.nightZone(), FixedPoint.QUANTITY_SCALE).append('}');
+            }
+            return json.append("]}").toString();
+        }
+
+        MeterKind kind = MeterKind.forKey(required(parameters, "kind"));
+        IntervalSeries readings = new IntervalSeries(1024);
+        try (BufferedReader body = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            int number = 0;
+            while ((line = body.readLine()) != null) {
+                number++;
+                if (line.isBlank() || addReading(line, readings)) {
+                    continue;
+                }
+                if (number > 1) {
+                    throw new IllegalArgumentException("Строка " + number + ": ожидалось «2024-01-15T07:15,0.250»");
+                }
+                // Первая строка, которая не разбирается, считается заголовком
+            }
+        }
+        MeterReport report = await(meterService.record(accountId, kind, readings));
+        StringBuilder json = new StringBuilder(128).append("{\"readings\":").append(report.readings())
+                .append(",\"periods\":[");
+        for (int i = 0; i < report.periods().length; i++) {
+            Json.period(i == 0 ? json : json.append(','), report.periods()[i]);
+        }
+        return json.append("],\"skipped_periods\":").append(report.skippedPeriods()).append('}').toString();
+    }
+
+    /**
+     * Разбирает строку «начало интервала,расход»; возвращает {@code false}, если формат неверен.
+     */
+    private static boolean addReading(String line, IntervalSeries into) {
+        int comma = line.indexOf(',');
+        if (comma < 0) {
+            return false;
+        }
+        try {
+            LocalDateTime start = LocalDateTime.parse(line.substring(0, comma).trim().replace(' ', 'T'));
+            into.add(IntervalSeries.minute(start), Decimals.parseFixed(line.substring(comma + 1), FixedPoint.QUANTITY_SCALE));
+            return true;
+        } catch (DateTimeException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) throws MethodNotAllowed {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new MethodNotAllowed();
+        }
+    }
+
+    /**
+     * Параметры строки запроса и, для форм, тела запроса.
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parse(exchange.getRequestURI().getRawQuery(), parameters);
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            try (InputStream body = exchange.getRequestBody()) {
+                parse(new String(body.readAllBytes(), StandardCharsets.UTF_8), parameters);
+            }
+        }
+        return parameters;
+    }
+
+    private static void parse(String query, Map<String, String> into) {
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            into.put(name, value);
+        }
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Не указан параметр " + name);
+        }
+        return value.trim();
+    }
+
+    private static int positiveInt(Map<String, String> parameters, String name, Integer defaultValue) {
+        if (defaultValue != null && !parameters.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(required(parameters, name));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // сообщение ниже
+        }
+        throw new IllegalArgumentException("Параметр " + name + " должен быть положительным целым числом");
+    }
+
+    /** Период вида {@code 2024-01}. */
+    private static int period(Map<String, String> parameters, String name, Integer defaultValue) {
+        if (defaultValue != null && !parameters.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            return BillingPeriod.key(YearMonth.parse(required(parameters, name)));
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Параметр " + name + " должен быть периодом вида 2024-01");
+        }
+    }
+
+    /**
+     * Ожидает будущее в потоке запроса; ошибки расчета передаются как есть.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Запуск: {@code BillsServer [--port 8077] [--bind 127.0.0.1] [--db путь_к_базе]}.
+     * По умолчанию сервер слушает только локальный адрес и работает с базой окна приложения.
+     */
+    public static void main(String[] args) throws IOException {
+        // Заголовки и тело ответа уходят отдельными пакетами; с алгоритмом Нейгла и отложенным
+        // подтверждением на клиенте каждый ответ задерживался на 40 мс. Свойство читается один раз
+        // при создании первого HttpServer, поэтому задается до него
+        System.getProperties().putIfAbsent("sun.net.httpserver.nodelay", "true");
+        int port = DEFAULT_PORT;
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        File file = null;
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "--port" -> port = Integer.parseInt(argument(args[i], value));
+                case "--bind" -> bind = InetAddress.getByName(argument(args[i], value));
+                case "--db" -> file = new File(argument(args[i], value));
+                default -> throw new IllegalArgumentException("Неизвестный параметр: " + args[i]);
+            }
+            i++;
+        }
+
+        Database database = file == null ? new Database() : new Database(file);
+        try {
+            database.open().join();
+        } catch (CompletionException e) {
+            // Причина уже записана в журнал; без базы каждый запрос закончился бы ошибкой 500
+            Log.error("Сервер не запущен: база данных недоступна.");
+            System.exit(1);
+        }
+        DbExecutor executor = new DbExecutor();
+        HistoryRepository history = new HistoryRepository(database, executor);
+        BillsServer server = new BillsServer(history, new TariffRepository(database, executor),
+                new MeterRepository(database, executor));
+        InetSocketAddress address = server.start(new InetSocketAddress(bind, port));
+        Log.info("Сервер запущен: http://" + address.getHostString() + ":" + address.getPort() + "/api/health");
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            history.close(); // Сбрасываем отложенные записи истории
+            executor.close();
+            database.close();
+            Log.info("Замеры:\n" + Metrics.dump());
+        }, "bills-server-shutdown"));
+    }
+
+    private static String argument(String name, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Не указано значение параметра " + name);
+        }
+        return value;
+    }
+}
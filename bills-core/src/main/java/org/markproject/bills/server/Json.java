@@ -0,0 +1,49 @@
+package org.markproject.bills.server;
+
+import java.math.BigDecimal;
+
+/**
+ * Запись ответов JSON в {@link StringBuilder}. Ответы сервера небольшие и плоские,
+ * поэтому отдельная библиотека не нужна.
+ */
+final class Json {
+    private Json() {
+    }
+
+    static StringBuilder string(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        return out.append('"');
+    }
+
+    /** Число с фиксированной точкой {@code value / 10^scale} без незначащих нулей. */
+    static StringBuilder decimal(StringBuilder out, long value, int scale) {
+        return out.append(BigDecimal.valueOf(value, scale).stripTrailingZeros().toPlainString());
+    }
+
+    /** Период в виде строки {@code "2024-01"}. */
+    static StringBuilder period(StringBuilder out, int period) {
+        return out.append('"').append(period / 100).append('-')
+                .append(period % 100 < 10 ? "0" : "").append(period % 100).append('"');
+    }
+
+    static String error(String message) {
+        return string(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+}
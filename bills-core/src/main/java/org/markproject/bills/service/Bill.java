@@ -0,0 +1,11 @@
+package org.markproject.bills.service;
+
+/**
+ * Рассчитанный счет за период.
+ *
+ * @param quantities показания по строкам стандартной раскладки в тысячных долях единицы
+ * @param charges    начисления по тем же строкам в копейках
+ * @param total      итог в копейках
+ */
+public record Bill(int accountId, int period, long[] quantities, long[] charges, long total) {
+}
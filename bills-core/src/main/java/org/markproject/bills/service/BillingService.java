@@ -0,0 +1,61 @@
+package org.markproject.bills.service;
+
+import org.markproject.bills.billing.BillingEngine;
+import org.markproject.bills.db.HistoryEntry;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.db.TariffRepository;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Расчет счета по тарифам периода и его сохранение в историю. Общий для окна приложения
+ * и headless-сервера, чтобы оба считали одинаково.
+ */
+public final class BillingService {
+    private final TariffRepository tariffs;
+    private final HistoryRepository history;
+
+    public BillingService(TariffRepository tariffs, HistoryRepository history) {
+        this.tariffs = tariffs;
+        this.history = history;
+    }
+
+    /**
+     * Расчет без сохранения. Будущее завершается с {@link IllegalStateException}, если тарифы
+     * на период не установлены или некорректны, и с {@link IllegalArgumentException},
+     * если показание вне допустимого диапазона.
+     *
+     * @param quantities показания по строкам стандартной раскладки в тысячных долях единицы
+     */
+    public CompletableFuture<Bill> quote(int accountId, int period, long[] quantities) {
+        if (quantities.length != TariffPlan.STANDARD_LINES) {
+            throw new IllegalArgumentException("Ожидалось показаний: " + TariffPlan.STANDARD_LINES
+                                               + ", передано: " + quantities.length);
+        }
+        return tariffs.snapshot().thenApply(snapshot -> {
+            CompiledTariff tariff = snapshot.forPeriod(period).requireValid();
+            long[] charges = new long[quantities.length];
+            long total = BillingEngine.charges(tariff, quantities, charges);
+            return new Bill(accountId, period, quantities.clone(), charges, total);
+        });
+    }
+
+    /**
+     * Расчет с сохранением в историю; будущее завершается, когда запись зафиксирована.
+     */
+    public CompletableFuture<Bill> calculate(int accountId, int period, long[] quantities) {
+        return quote(accountId, period, quantities).thenCompose(bill -> history.save(toEntry(bill))
+                .thenApply(ignored -> bill));
+    }
+
+    private static HistoryEntry toEntry(Bill bill) {
+        long[] q = bill.quantities();
+        return new HistoryEntry(bill.accountId(), bill.period(),
+                FixedPoint.quantityValue(q[TariffPlan.COLD]), FixedPoint.quantityValue(q[TariffPlan.HOT]),
+                FixedPoint.quantityValue(q[TariffPlan.SEWER]), FixedPoint.quantityValue(q[TariffPlan.ELECTRICITY_DAY]),
+                FixedPoint.quantityValue(q[TariffPlan.ELECTRICITY_NIGHT]), FixedPoint.rubles(bill.total()));
+    }
+}
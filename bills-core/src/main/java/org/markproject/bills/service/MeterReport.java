@@ -0,0 +1,12 @@
+package org.markproject.bills.service;
+
+/**
+ * Итог записи интервальных показаний.
+ *
+ * @param readings       записано показаний после удаления повторов
+ * @param periods        периоды, обновленные в истории
+ * @param skippedPeriods затронутые периоды без действующих тарифов или с объемами вне допустимого
+ *                       диапазона; показания сохранены, но в историю не попали
+ */
+public record MeterReport(int readings, int[] periods, int skippedPeriods, long elapsedNanos) {
+}
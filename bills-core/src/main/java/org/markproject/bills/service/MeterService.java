@@ -0,0 +1,161 @@
+package org.markproject.bills.service;
+
+import org.markproject.bills.billing.BillingEngine;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.db.MeterRepository;
+import org.markproject.bills.db.TariffRepository;
+import org.markproject.bills.diag.Log;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.meter.IntervalSeries;
+import org.markproject.bills.meter.MeterKind;
+import org.markproject.bills.meter.MeterMonth;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.TariffSnapshot;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Запись интервальных показаний и перенос месячных итогов счетчиков в историю.
+ * <p>
+ * Месяц истории, затронутый показаниями, получает объемы из итогов счетчиков: холодная и горячая
+ * вода — расход за месяц, электроэнергия — расход дневной и ночной зон, водоотведение — сумма
+ * холодной и горячей воды. Строки без счетчиков берутся из уже сохраненной записи месяца.
+ * Сумма пересчитывается по тарифам периода, как на вкладке расчета. Чтение записи месяца,
+ * расчет и запись идут одной транзакцией ({@link HistoryRepository#updateAccount}), а запросы
+ * одного счета выполняются по очереди, чтобы показания разных счетчиков не затирали друг друга.
+ */
+public final class MeterService {
+    // Запросы одного счета выполняются по очереди; счета распределяются по блокировкам по остатку
+    private static final ReentrantLock[] ACCOUNT_LOCKS = new ReentrantLock[64];
+
+    static {
+        for (int i = 0; i < ACCOUNT_LOCKS.length; i++) {
+            ACCOUNT_LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private final MeterRepository meters;
+    private final HistoryRepository history;
+    private final TariffRepository tariffs;
+
+    public MeterService(MeterRepository meters, HistoryRepository history, TariffRepository tariffs) {
+        this.meters = meters;
+        this.history = history;
+        this.tariffs = tariffs;
+    }
+
+    /**
+     * Записывает показания в отдельном виртуальном потоке и обновляет историю затронутых месяцев.
+     */
+    public CompletableFuture<MeterReport> record(int accountId, MeterKind kind, IntervalSeries readings) {
+        CompletableFuture<MeterReport> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("bills-meter").start(() -> {
+            try {
+                result.complete(write(accountId, kind, readings));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private MeterReport write(int accountId, MeterKind kind, IntervalSeries readings) throws SQLException {
+        long started = System.nanoTime();
+        // Показания разных счетчиков одного счета пишутся в одну запись истории: пока один запрос
+        // переносит итоги, другой не должен прочитать ее прежнее состояние
+        ReentrantLock lock = ACCOUNT_LOCKS[Math.floorMod(accountId, ACCOUNT_LOCKS.length)];
+        lock.lock();
+        try {
+            int[] periods = meters.write(accountId, kind, readings);
+            if (periods.length == 0) {
+                return new MeterReport(0, periods, 0, System.nanoTime() - started);
+            }
+            int fromPeriod = periods[0];
+            int toPeriod = periods[periods.length - 1] + 1;
+            List<MeterMonth> months = meters.monthly(accountId, fromPeriod, toPeriod);
+            TariffSnapshot snapshot = tariffs.snapshot().join();
+            HistoryColumns batch = history.updateAccount(accountId, fromPeriod, toPeriod,
+                    (stored, rows) -> fill(accountId, periods, months, snapshot, stored, rows));
+            int[] fed = new int[batch.size()];
+            for (int row = 0; row < fed.length; row++) {
+                fed[row] = batch.period(row);
+            }
+            int skipped = periods.length - fed.length;
+            if (skipped > 0) {
+                Log.warn("Показания счетчика сохранены, но для периодов без тарифов или с недопустимыми объемами "
+                         + "история не обновлена: " + skipped);
+            }
+            return new MeterReport(readings.size(), fed, skipped, System.nanoTime() - started);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Дописывает в batch записи затронутых периодов: сохраненные показания stored, замененные
+     * итогами счетчиков months, и сумму по тарифам. Периоды без действующего тарифа или с показаниями
+     * вне допустимого диапазона (водоотведение как сумма воды может его превысить) пропускаются.
+     */
+    private static void fill(int accountId, int[] periods, List<MeterMonth> months, TariffSnapshot snapshot,
+                             HistoryColumns stored, HistoryColumns batch) {
+        long[] quantities = new long[TariffPlan.STANDARD_LINES];
+        long[] charges = new long[TariffPlan.STANDARD_LINES];
+        int storedRow = 0;
+        int month = 0;
+        for (int period : periods) {
+            while (storedRow < stored.size() && stored.period(storedRow) < period) {
+                storedRow++;
+            }
+            if (storedRow < stored.size() && stored.period(storedRow) == period) {
+                quantities[TariffPlan.COLD] = FixedPoint.quantity(stored.coldWater(storedRow));
+                quantities[TariffPlan.HOT] = FixedPoint.quantity(stored.hotWater(storedRow));
+                quantities[TariffPlan.SEWER] = FixedPoint.quantity(stored.sewer(storedRow));
+                quantities[TariffPlan.ELECTRICITY_DAY] = FixedPoint.quantity(stored.electricityDay(storedRow));
+                quantities[TariffPlan.ELECTRICITY_NIGHT] = FixedPoint.quantity(stored.electricityNight(storedRow));
+            } else {
+                Arrays.fill(quantities, 0);
+            }
+            boolean water = false;
+            while (month < months.size() && months.get(month).period() < period) {
+                month++;
+            }
+            for (; month < months.size() && months.get(month).period() == period; month++) {
+                MeterMonth totals = months.get(month);
+                switch (totals.kind()) {
+                    case COLD_WATER -> {
+                        quantities[TariffPlan.COLD] = totals.total();
+                        water = true;
+                    }
+                    case HOT_WATER -> {
+                        quantities[TariffPlan.HOT] = totals.total();
+                        water = true;
+                    }
+                    case ELECTRICITY -> {
+                        quantities[TariffPlan.ELECTRICITY_DAY] = totals.dayZone();
+                        quantities[TariffPlan.ELECTRICITY_NIGHT] = totals.nightZone();
+                    }
+                }
+            }
+            if (water) {
+                quantities[TariffPlan.SEWER] = quantities[TariffPlan.COLD] + quantities[TariffPlan.HOT];
+            }
+
+            CompiledTariff tariff = snapshot.find(period);
+            if (tariff == null || !tariff.isValid() || !BillingEngine.inRange(quantities)) {
+                continue;
+            }
+            long total = BillingEngine.charges(tariff, quantities, charges);
+            batch.add(accountId, period,
+                    FixedPoint.quantityValue(quantities[TariffPlan.COLD]), FixedPoint.quantityValue(quantities[TariffPlan.HOT]),
+                    FixedPoint.quantityValue(quantities[TariffPlan.SEWER]),
+                    FixedPoint.quantityValue(quantities[TariffPlan.ELECTRICITY_DAY]),
+                    FixedPoint.quantityValue(quantities[TariffPlan.ELECTRICITY_NIGHT]), FixedPoint.rubles(total));
+        }
+    }
+}
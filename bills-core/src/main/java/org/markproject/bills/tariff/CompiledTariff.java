@@ -0,0 +1,118 @@
+package org.markproject.bills.tariff;
+
+/**
+ * Тариф, развернутый в плоские массивы порогов и цен для расчета в копейках.
+ * Расчет не выделяет память и не использует BigDecimal: строка начисления считается
+ * точно в стотысячных долях копейки и округляется до копейки половиной от нуля,
+ * итог — сумма округленных строк.
+ */
+public final class CompiledTariff {
+    private final long[] limits;
+    private final long[] prices;
+    // Ступени строки line лежат в [offsets[line], offsets[line + 1])
+    private final int[] offsets;
+    // Первая строка с неположительной ценой или -1
+    private final int invalidLine;
+
+    CompiledTariff(TariffPlan.Tier[][] lines) {
+        int tiers = 0;
+        for (TariffPlan.Tier[] line : lines) {
+            tiers += line.length;
+        }
+        limits = new long[tiers];
+        prices = new long[tiers];
+        offsets = new int[lines.length + 1];
+        int invalid = -1;
+        int position = 0;
+        for (int line = 0; line < lines.length; line++) {
+            offsets[line] = position;
+            for (TariffPlan.Tier tier : lines[line]) {
+                limits[position] = tier.upTo();
+                prices[position] = tier.price();
+                if (tier.price() <= 0 && invalid < 0) {
+                    invalid = line;
+                }
+                position++;
+            }
+        }
+        offsets[lines.length] = position;
+        invalidLine = invalid;
+    }
+
+    public int lines() {
+        return offsets.length - 1;
+    }
+
+    /** Все цены положительны. */
+    public boolean isValid() {
+        return invalidLine < 0;
+    }
+
+    /**
+     * @throws IllegalStateException если какой-либо тариф не положителен
+     */
+    public CompiledTariff requireValid() {
+        if (invalidLine >= 0) {
+            throw new IllegalStateException(invalidReason());
+        }
+        return this;
+    }
+
+    /**
+     * Описание первого неположительного тарифа или {@code null}, если все цены положительны.
+     */
+    public String invalidReason() {
+        return invalidLine < 0 ? null : "Некорректное значение тарифа для типа: " + TariffPlan.lineName(invalidLine);
+    }
+
+    /**
+     * Начисление по строке в копейках.
+     *
+     * @param quantity потребление в тысячных долях единицы
+     * @throws IllegalArgumentException если потребление больше {@link FixedPoint#MAX_QUANTITY} по модулю
+     */
+    public long lineKopecks(int line, long quantity) {
+        if (quantity > FixedPoint.MAX_QUANTITY || quantity < -FixedPoint.MAX_QUANTITY) {
+            throw new IllegalArgumentException("Показание вне допустимого диапазона: " + FixedPoint.quantityValue(quantity));
+        }
+        long amount = 0;
+        long previous = 0;
+        for (int i = offsets[line]; ; i++) {
+            long limit = limits[i];
+            if (quantity <= limit) {
+                amount += (quantity - previous) * prices[i];
+                break;
+            }
+            amount += (limit - previous) * prices[i];
+            previous = limit;
+        }
+        return FixedPoint.divideHalfUp(amount, FixedPoint.AMOUNT_PER_KOPECK);
+    }
+
+    /**
+     * Итог в копейках по стандартной раскладке.
+     */
+    public long totalKopecks(long cold, long hot, long sewer, long electricityDay, long electricityNight) {
+        return lineKopecks(TariffPlan.COLD, cold) +
+               lineKopecks(TariffPlan.HOT, hot) +
+               lineKopecks(TariffPlan.SEWER, sewer) +
+               lineKopecks(TariffPlan.ELECTRICITY_DAY, electricityDay) +
+               lineKopecks(TariffPlan.ELECTRICITY_NIGHT, electricityNight);
+    }
+
+    /**
+     * Итог в копейках по всем строкам тарифа.
+     *
+     * @param quantities потребление по строкам в тысячных долях единицы
+     */
+    public long totalKopecks(long[] quantities) {
+        if (quantities.length != lines()) {
+            throw new IllegalArgumentException("Ожидалось показаний: " + lines() + ", передано: " + quantities.length);
+        }
+        long total = 0;
+        for (int line = 0; line < quantities.length; line++) {
+            total += lineKopecks(line, quantities[line]);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,94 @@
+package org.markproject.bills.tariff;
+
+/**
+ * Единицы расчета в целых числах. Показания хранятся в тысячных долях м3 или кВт*ч,
+ * цены — в десятитысячных долях рубля (сотых долях копейки), суммы — в копейках.
+ * Произведение показания на цену выражено в стотысячных долях копейки и при
+ * допустимых пределах помещается в long без переполнения.
+ */
+public final class FixedPoint {
+    /** Знаков после запятой у показаний. */
+    public static final int QUANTITY_SCALE = 3;
+    public static final long QUANTITY_UNIT = 1_000;
+    /** Знаков после запятой у цены в рублях. */
+    public static final int PRICE_SCALE = 4;
+    public static final long PRICE_UNIT = 10_000;
+    public static final long KOPECKS_PER_RUBLE = 100;
+
+    /** Наибольшее показание по модулю: 10 млн м3 или кВт*ч. */
+    public static final long MAX_QUANTITY = 10_000_000L * QUANTITY_UNIT;
+    /** Наибольшая цена: 10 000 руб. за единицу. */
+    public static final long MAX_PRICE = 10_000L * PRICE_UNIT;
+
+    /** Единиц произведения показания на цену в одной копейке. */
+    static final long AMOUNT_PER_KOPECK = QUANTITY_UNIT * PRICE_UNIT / KOPECKS_PER_RUBLE;
+
+    private FixedPoint() {
+    }
+
+    /** Показание из числа с плавающей точкой, округленное до тысячных. */
+    public static long quantity(double value) {
+        return Math.round(value * QUANTITY_UNIT);
+    }
+
+    public static double quantityValue(long quantity) {
+        return (double) quantity / QUANTITY_UNIT;
+    }
+
+    /** Цена из рублей с плавающей точкой, округленная до сотых долей копейки. */
+    public static long price(double rubles) {
+        return Math.round(rubles * PRICE_UNIT);
+    }
+
+    public static double rubles(long kopecks) {
+        return (double) kopecks / KOPECKS_PER_RUBLE;
+    }
+
+    /**
+     * Деление с округлением половины от нуля, как {@code RoundingMode.HALF_UP} у BigDecimal.
+     */
+    public static long divideHalfUp(long value, long divisor) {
+        long half = divisor / 2;
+        return value >= 0 ? (value + half) / divisor : -((-value + half) / divisor);
+    }
+
+    /**
+     * Сумма в рублях с разделением разрядов и двумя знаками копеек: {@code 1 234,50}.
+     */
+    public static String formatRubles(long kopecks) {
+        StringBuilder text = new StringBuilder();
+        long rubles = Math.abs(kopecks / KOPECKS_PER_RUBLE);
+        String digits = Long.toString(rubles);
+        for (int i = 0; i < digits.length(); i++) {
+            if (i > 0 && (digits.length() - i) % 3 == 0) {
+                text.append(' ');
+            }
+            text.append(digits.charAt(i));
+        }
+        long cents = Math.abs(kopecks % KOPECKS_PER_RUBLE);
+        text.append(',').append(cents < 10 ? "0" : "").append(cents);
+        return kopecks < 0 ? "-" + text : text.toString();
+    }
+
+    /**
+     * Число с фиксированным числом знаков без лишних нулей в дробной части: {@code 4,5}.
+     */
+    public static String formatDecimal(long value, int scale) {
+        long unit = 1;
+        for (int i = 0; i < scale; i++) {
+            unit *= 10;
+        }
+        long whole = Math.abs(value / unit);
+        long fraction = Math.abs(value % unit);
+        StringBuilder text = new StringBuilder(value < 0 ? "-" : "").append(whole);
+        if (fraction != 0) {
+            String digits = Long.toString(fraction + unit).substring(1);
+            int end = digits.length();
+            while (digits.charAt(end - 1) == '0') {
+                end--;
+            }
+            text.append(',').append(digits, 0, end);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,179 @@
+package org.markproject.bills.tariff;
+
+import org.markproject.bills.text.Decimals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Описание тарифов одной версии: для каждой строки начисления (услуги или зоны суток)
+ * лестница ступеней. Ступень действует до своего порога потребления включительно,
+ * потребление сверх порога оплачивается по следующей ступени; последняя ступень без порога.
+ * Плоский тариф — одна ступень.
+ * <p>
+ * Стандартная раскладка — пять строк в порядке полей счетчиков; движок
+ * ({@link CompiledTariff}) не ограничен этим числом, поэтому дополнительные зоны суток
+ * описываются дополнительными строками.
+ */
+public final class TariffPlan {
+    public static final int COLD = 0;
+    public static final int HOT = 1;
+    public static final int SEWER = 2;
+    public static final int ELECTRICITY_DAY = 3;
+    public static final int ELECTRICITY_NIGHT = 4;
+    public static final int STANDARD_LINES = 5;
+
+    /** Порог последней ступени. */
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final String[] STANDARD_NAMES = {"cold", "hot", "sewer", "electricity_day", "electricity_night"};
+    private static final String LIMIT_WORD = "до";
+
+    /**
+     * Ступень тарифа.
+     *
+     * @param upTo  порог потребления в тысячных долях единицы включительно или {@link #UNLIMITED}
+     * @param price цена единицы в десятитысячных долях рубля
+     */
+    public record Tier(long upTo, long price) {
+    }
+
+    private final Tier[][] lines;
+
+    /**
+     * @throws IllegalArgumentException если лестница какой-либо строки составлена неверно
+     */
+    public TariffPlan(List<List<Tier>> lines) {
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("Тариф без строк начисления");
+        }
+        this.lines = new Tier[lines.size()][];
+        for (int line = 0; line < lines.size(); line++) {
+            Tier[] tiers = lines.get(line).toArray(new Tier[0]);
+            validate(line, tiers);
+            this.lines[line] = tiers;
+        }
+    }
+
+    /**
+     * Плоский тариф из цен в рублях в стандартной раскладке.
+     */
+    public static TariffPlan flat(Tariffs tariffs) {
+        return new TariffPlan(List.of(
+                flatLine(tariffs.cold()), flatLine(tariffs.hot()), flatLine(tariffs.sewer()),
+                flatLine(tariffs.electricityDay()), flatLine(tariffs.electricityNight())));
+    }
+
+    private static List<Tier> flatLine(double rubles) {
+        return List.of(new Tier(UNLIMITED, FixedPoint.price(rubles)));
+    }
+
+    public int lines() {
+        return lines.length;
+    }
+
+    public List<Tier> tiers(int line) {
+        return List.of(lines[line]);
+    }
+
+    public boolean isTiered(int line) {
+        return lines[line].length > 1;
+    }
+
+    /** Название строки для сообщений: стандартные строки называются как столбцы таблицы. */
+    public static String lineName(int line) {
+        return line < STANDARD_NAMES.length ? STANDARD_NAMES[line] : "line_" + line;
+    }
+
+    /**
+     * Цены первых ступеней стандартных строк в рублях (то, что хранится в tariff_versions).
+     */
+    public Tariffs basePrices() {
+        if (lines.length < STANDARD_LINES) {
+            throw new IllegalStateException("Тариф не в стандартной раскладке");
+        }
+        return new Tariffs(basePrice(COLD), basePrice(HOT), basePrice(SEWER),
+                basePrice(ELECTRICITY_DAY), basePrice(ELECTRICITY_NIGHT));
+    }
+
+    private double basePrice(int line) {
+        return (double) lines[line][0].price() / FixedPoint.PRICE_UNIT;
+    }
+
+    public CompiledTariff compile() {
+        return new CompiledTariff(lines);
+    }
+
+    /**
+     * Разбирает лестницу строки из текста вида {@code 4,5} или {@code 4,5 до 150; 6,2}:
+     * ступени через точку с запятой, у всех кроме последней порог после «до».
+     *
+     * @throws IllegalArgumentException с понятным пользователю сообщением
+     */
+    public static List<Tier> parseLine(String text) {
+        if (text == null || text.isBlank()) {
+            throw new IllegalArgumentException("Тариф не указан");
+        }
+        List<Tier> tiers = new ArrayList<>();
+        for (String part : text.split(";")) {
+            String tier = part.trim();
+            int separator = tier.indexOf(LIMIT_WORD);
+            try {
+                if (separator < 0) {
+                    tiers.add(new Tier(UNLIMITED, Decimals.parseFixed(tier, FixedPoint.PRICE_SCALE)));
+                } else {
+                    long price = Decimals.parseFixed(tier.substring(0, separator), FixedPoint.PRICE_SCALE);
+                    long upTo = Decimals.parseFixed(tier.substring(separator + LIMIT_WORD.length()),
+                            FixedPoint.QUANTITY_SCALE);
+                    tiers.add(new Tier(upTo, price));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Неверный формат тарифа: «" + tier + "». " +
+                                                   "Пример ступенчатого тарифа: 4,5 до 150; 6,2");
+            }
+        }
+        return tiers;
+    }
+
+    /**
+     * Текст лестницы строки в том же формате, что принимает {@link #parseLine}.
+     */
+    public String formatLine(int line) {
+        StringBuilder text = new StringBuilder();
+        for (Tier tier : lines[line]) {
+            if (!text.isEmpty()) {
+                text.append("; ");
+            }
+            text.append(FixedPoint.formatDecimal(tier.price(), FixedPoint.PRICE_SCALE));
+            if (tier.upTo() != UNLIMITED) {
+                text.append(' ').append(LIMIT_WORD).append(' ')
+                        .append(FixedPoint.formatDecimal(tier.upTo(), FixedPoint.QUANTITY_SCALE));
+            }
+        }
+        return text.toString();
+    }
+
+    private static void validate(int line, Tier[] tiers) {
+        String name = lineName(line);
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("Нет ступеней тарифа для типа: " + name);
+        }
+        long previous = 0;
+        for (int i = 0; i < tiers.length; i++) {
+            Tier tier = tiers[i];
+            boolean last = i == tiers.length - 1;
+            if (last != (tier.upTo() == UNLIMITED)) {
+                throw new IllegalArgumentException(last
+                        ? "У последней ступени тарифа не должно быть порога: " + name
+                        : "У ступени тарифа должен быть порог: " + name);
+            }
+            if (!last && (tier.upTo() <= previous || tier.upTo() > FixedPoint.MAX_QUANTITY)) {
+                throw new IllegalArgumentException("Пороги ступеней тарифа должны возрастать: " + name);
+            }
+            if (Math.abs(tier.price()) > FixedPoint.MAX_PRICE) {
+                throw new IllegalArgumentException("Некорректное значение тарифа для типа: " + name);
+            }
+            previous = tier.upTo();
+        }
+    }
+}
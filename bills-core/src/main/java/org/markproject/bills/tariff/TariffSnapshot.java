@@ -0,0 +1,87 @@
+package org.markproject.bills.tariff;
+
+import java.util.Arrays;
+
+/**
+ * Неизменяемый снимок всех версий тарифов, отсортированных по дате начала действия.
+ * Тариф для периода находится двоичным поиском без обращения к базе данных;
+ * все версии компилируются при создании снимка.
+ */
+public final class TariffSnapshot {
+    /** Сообщение об отсутствии тарифов на период. */
+    public static final String NOT_FOUND = "Тарифы не найдены. Пожалуйста, установите тарифы.";
+
+    private final int[] effectiveFrom;
+    private final TariffPlan[] plans;
+    private final CompiledTariff[] compiled;
+
+    /**
+     * @param effectiveFrom ключи периодов начала действия, строго по возрастанию
+     * @param plans         тарифы, соответствующие ключам
+     */
+    public TariffSnapshot(int[] effectiveFrom, TariffPlan[] plans) {
+        if (effectiveFrom.length != plans.length) {
+            throw new IllegalArgumentException("Количество дат и версий тарифов не совпадает");
+        }
+        this.effectiveFrom = effectiveFrom.clone();
+        this.plans = plans.clone();
+        this.compiled = new CompiledTariff[plans.length];
+        for (int i = 0; i < plans.length; i++) {
+            compiled[i] = plans[i].compile();
+        }
+    }
+
+    public int size() {
+        return plans.length;
+    }
+
+    public int effectiveFrom(int index) {
+        return effectiveFrom[index];
+    }
+
+    public TariffPlan plan(int index) {
+        return plans[index];
+    }
+
+    /**
+     * Возвращает тариф, действовавший в указанном периоде.
+     *
+     * @throws IllegalStateException если тарифы на этот период не установлены
+     */
+    public CompiledTariff forPeriod(int periodKey) {
+        CompiledTariff tariff = find(periodKey);
+        if (tariff == null) {
+            throw new IllegalStateException(NOT_FOUND);
+        }
+        return tariff;
+    }
+
+    /**
+     * Тариф, действовавший в указанном периоде, или {@code null}, если тарифы на этот период не установлены.
+     */
+    public CompiledTariff find(int periodKey) {
+        int index = Arrays.binarySearch(effectiveFrom, periodKey);
+        if (index < 0) {
+            // Ближайшая версия, начавшая действовать раньше указанного периода
+            index = -index - 2;
+        }
+        return index < 0 ? null : compiled[index];
+    }
+
+    /**
+     * Первый период следующей версии после версии, начавшей действовать с effectiveFrom,
+     * или {@link Integer#MAX_VALUE}, если более поздних версий нет.
+     */
+    public int effectiveUntil(int effectiveFrom) {
+        int index = Arrays.binarySearch(this.effectiveFrom, effectiveFrom);
+        int next = index < 0 ? -index - 1 : index + 1;
+        return next < this.effectiveFrom.length ? this.effectiveFrom[next] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Последняя версия тарифов или {@code null}, если тарифов нет.
+     */
+    public TariffPlan latest() {
+        return plans.length == 0 ? null : plans[plans.length - 1];
+    }
+}
@@ -0,0 +1,25 @@
+package org.markproject.bills.tariff;
+
+/**
+ * Набор тарифов: руб/м3 для воды и водоотведения, руб/кВт*ч для электроэнергии.
+ */
+public record Tariffs(double cold, double hot, double sewer, double electricityDay, double electricityNight) {
+
+    /**
+     * @throws IllegalStateException если какой-либо тариф не положителен
+     */
+    public Tariffs requireValid() {
+        requirePositive(cold, "cold");
+        requirePositive(hot, "hot");
+        requirePositive(sewer, "sewer");
+        requirePositive(electricityDay, "electricity_day");
+        requirePositive(electricityNight, "electricity_night");
+        return this;
+    }
+
+    private static void requirePositive(double tariff, String type) {
+        if (tariff <= 0) {
+            throw new IllegalStateException("Некорректное значение тарифа для типа: " + type);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.markproject.bills.text;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Разбор десятичных чисел с точкой или запятой в качестве разделителя без создания объектов.
+ * <p>
+ * Экземпляр хранит результат последнего разбора и переиспользуется; он не потокобезопасен.
+ * Число до 18 цифр собирается в long и делится на степень десяти одной операцией;
+ * для чисел до 15 значащих цифр (все реальные показания и тарифы) это дает корректно
+ * округленный double, такой же, как {@link Double#parseDouble}.
+ */
+public final class DecimalParser {
+    /**
+     * Итог разбора поля ввода в {@link #parseFixed(CharSequence, int)}.
+     */
+    public enum Status {
+        /** Число разобрано, значение в {@link #fixed()}. */
+        VALID,
+        /** Поле пусто или содержит только пробелы. */
+        EMPTY,
+        /** Текст не является числом. */
+        MALFORMED,
+        /** Больше 18 цифр или число не помещается в long в запрошенном масштабе. */
+        OVERFLOW
+    }
+
+    private static final int MAX_DIGITS = 18;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final ByteChars byteChars = new ByteChars();
+    private double value;
+    private boolean negative;
+    private long mantissa;
+    private int scale;
+    private long fixed;
+
+    /**
+     * Разбирает байты ASCII [from, to). Пробелы по краям игнорируются.
+     *
+     * @return {@code true}, если диапазон содержит число; значение доступно через {@link #value()}
+     */
+    public boolean parse(byte[] bytes, int from, int to) {
+        return read(byteChars.wrap(bytes), from, to) == Status.VALID;
+    }
+
+    /**
+     * Разбирает текст, например содержимое поля ввода. Пробелы по краям игнорируются.
+     *
+     * @return {@code true}, если текст содержит число
+     */
+    public boolean parse(CharSequence text) {
+        return read(text, 0, text.length()) == Status.VALID;
+    }
+
+    /**
+     * Разбирает текст в целые единицы с targetScale знаками после запятой, как {@link #scaled(int)}.
+     * Не создает объектов и не бросает исключений, поэтому подходит для проверки ввода на каждое
+     * нажатие клавиши.
+     */
+    public Status parseFixed(CharSequence text, int targetScale) {
+        return fix(read(text, 0, text.length()), targetScale);
+    }
+
+    /**
+     * Разбирает байты ASCII [from, to) так же, как {@link #parseFixed(CharSequence, int)}.
+     */
+    public Status parseFixed(byte[] bytes, int from, int to, int targetScale) {
+        return fix(read(byteChars.wrap(bytes), from, to), targetScale);
+    }
+
+    /** Значение последнего успешного {@link #parseFixed(CharSequence, int)}. */
+    public long fixed() {
+        return fixed;
+    }
+
+    private Status fix(Status status, int targetScale) {
+        if (status != Status.VALID) {
+            return status;
+        }
+        fixed = scaled(targetScale);
+        return fixed == Long.MIN_VALUE ? Status.OVERFLOW : Status.VALID;
+    }
+
+    /**
+     * Общий разбор байтов и текста: одни и те же пробелы по краям, знак, цифры и разделитель.
+     * Число, отличающееся от допустимого только количеством цифр, — {@link Status#OVERFLOW}.
+     */
+    private Status read(CharSequence text, int from, int to) {
+        while (from < to && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            return Status.EMPTY;
+        }
+        boolean negative = false;
+        char sign = text.charAt(from);
+        if (sign == '-' || sign == '+') {
+            negative = sign == '-';
+            from++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1; // -1: разделитель еще не встречен
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Лишние цифры не собираются, но строка дочитывается, чтобы отличить длинное число от не числа
+                if (++digits <= MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                }
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if ((c == '.' || c == ',') && scale < 0) {
+                scale = 0;
+            } else {
+                return Status.MALFORMED;
+            }
+        }
+        if (digits == 0) {
+            return Status.MALFORMED;
+        }
+        if (digits > MAX_DIGITS) {
+            return Status.OVERFLOW;
+        }
+        this.negative = negative;
+        this.mantissa = mantissa;
+        this.scale = Math.max(scale, 0);
+        double result = this.scale > 0 ? mantissa / POWERS_OF_TEN[this.scale] : mantissa;
+        value = negative ? -result : result;
+        return Status.VALID;
+    }
+
+    public double value() {
+        return value;
+    }
+
+    /**
+     * Последнее разобранное число в целых единицах с указанным числом знаков после запятой;
+     * лишние знаки округляются половиной от нуля. Вычисляется точно, без double.
+     *
+     * @return значение или {@link Long#MIN_VALUE}, если оно не помещается в long
+     */
+    public long scaled(int targetScale) {
+        long result;
+        if (scale > targetScale) {
+            long divisor = (long) POWERS_OF_TEN[scale - targetScale];
+            result = (mantissa + divisor / 2) / divisor;
+        } else {
+            long factor = (long) POWERS_OF_TEN[targetScale - scale];
+            result = mantissa * factor;
+            if (factor != 0 && result / factor != mantissa) {
+                return Long.MIN_VALUE;
+            }
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Байты ASCII как текст без копирования; переиспользуется между вызовами.
+     */
+    private static final class ByteChars implements CharSequence {
+        private byte[] bytes;
+
+        ByteChars wrap(byte[] bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return bytes.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.markproject.bills.text;
+
+/**
+ * Разбор чисел, введенных пользователем.
+ */
+public final class Decimals {
+    private static final String INVALID = "Неверный формат числа. Используйте точку или запятую как разделитель.";
+
+    private Decimals() {
+    }
+
+    /**
+     * Число с точкой или запятой в качестве разделителя.
+     *
+     * @throws NumberFormatException с понятным пользователю сообщением
+     */
+    public static double parse(String value) {
+        DecimalParser parser = new DecimalParser();
+        if (value == null || !parser.parse(value)) {
+            throw new NumberFormatException(INVALID);
+        }
+        return parser.value();
+    }
+
+    /**
+     * Число в целых единицах с указанным числом знаков после запятой, без промежуточного double:
+     * {@code parseFixed("12,5", 3) == 12500}.
+     *
+     * @throws NumberFormatException с понятным пользователю сообщением
+     */
+    public static long parseFixed(String value, int scale) {
+        DecimalParser parser = new DecimalParser();
+        return switch (value == null ? DecimalParser.Status.EMPTY : parser.parseFixed(value, scale)) {
+            case VALID -> parser.fixed();
+            case OVERFLOW -> throw new NumberFormatException("Слишком большое число: " + value.trim());
+            case EMPTY, MALFORMED -> throw new NumberFormatException(INVALID);
+        };
+    }
+}
@@ -0,0 +1,134 @@
+package org.markproject.bills.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.markproject.bills.history.HistoryColumns;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Удаление истории в корзину, отмена и повтор: запись, снова введенная после удаления,
+ * не затирается ни отменой, ни повтором, а очистка корзины стирает только старые удаления.
+ */
+class HistoryRepositoryTest {
+    private static final HistoryKey JANUARY = new HistoryKey(1, 202401);
+    private static final HistoryKey FEBRUARY = new HistoryKey(1, 202402);
+    private static final HistoryKey MARCH = new HistoryKey(2, 202403);
+
+    @TempDir
+    Path directory;
+
+    private Database database;
+    private DbExecutor executor;
+    private HistoryRepository history;
+
+    @BeforeEach
+    void open() {
+        database = new Database(directory.resolve("bills.db").toFile());
+        database.connect();
+        executor = new DbExecutor();
+        history = new HistoryRepository(database, executor);
+    }
+
+    @AfterEach
+    void close() {
+        history.close();
+        executor.close();
+        database.close();
+    }
+
+    @Test
+    void undoAndRedoKeepReenteredRecord() {
+        save(JANUARY, 100);
+        save(FEBRUARY, 200);
+        save(MARCH, 300);
+
+        HistoryDeletion deletion = history.deleteBatch(List.of(JANUARY, FEBRUARY, MARCH)).join();
+        assertEquals(List.of(JANUARY, FEBRUARY, MARCH), deletion.keys());
+        assertTrue(totals().isEmpty());
+
+        // Пока удаление можно отменить, январь вводится заново; сохранение еще стоит в очереди
+        history.save(entry(JANUARY, 111));
+
+        HistoryDeletion undo = history.restore(deletion.batch()).join();
+        assertEquals(List.of(FEBRUARY, MARCH), undo.keys());
+        assertEquals(Map.of(JANUARY, 111.0, FEBRUARY, 200.0, MARCH, 300.0), totals());
+
+        // Повтор удаляет только восстановленные записи
+        HistoryDeletion redo = history.deleteBatch(undo.keys()).join();
+        assertEquals(List.of(FEBRUARY, MARCH), redo.keys());
+        assertEquals(Map.of(JANUARY, 111.0), totals());
+
+        // Повторная отмена возвращает их снова, а пустая корзина ничего не возвращает
+        assertEquals(List.of(FEBRUARY, MARCH), history.restore(redo.batch()).join().keys());
+        assertTrue(history.restore(redo.batch()).join().keys().isEmpty());
+        assertTrue(history.restore(deletion.batch()).join().keys().isEmpty());
+        assertEquals(Map.of(JANUARY, 111.0, FEBRUARY, 200.0, MARCH, 300.0), totals());
+    }
+
+    @Test
+    void deletionNumbersAreNotReused() {
+        save(JANUARY, 100);
+        HistoryDeletion first = history.deleteBatch(List.of(JANUARY)).join();
+        history.restore(first.batch()).join();
+        HistoryDeletion second = history.deleteBatch(List.of(JANUARY)).join();
+        assertTrue(second.batch() > first.batch());
+        // Ключ, которого нет в истории, не попадает в корзину
+        assertTrue(history.deleteBatch(List.of(FEBRUARY)).join().keys().isEmpty());
+    }
+
+    @Test
+    void purgeRemovesOnlyOlderDeletions() throws SQLException, InterruptedException {
+        save(JANUARY, 100);
+        save(FEBRUARY, 200);
+        HistoryDeletion older = history.deleteBatch(List.of(JANUARY)).join();
+        long cutoff = nextMillisecond();
+        nextMillisecond();
+        HistoryDeletion newer = history.deleteBatch(List.of(FEBRUARY)).join();
+
+        assertEquals(1, history.purgeDeleted(cutoff, () -> false));
+        assertEquals(0, history.purgeDeleted(cutoff, () -> false));
+        // Остановленная очистка ничего не стирает
+        assertEquals(0, history.purgeDeleted(Long.MAX_VALUE, () -> true));
+
+        assertTrue(history.restore(older.batch()).join().keys().isEmpty());
+        assertEquals(List.of(FEBRUARY), history.restore(newer.batch()).join().keys());
+        assertEquals(Map.of(FEBRUARY, 200.0), totals());
+    }
+
+    private void save(HistoryKey key, double total) {
+        history.save(entry(key, total)).join();
+    }
+
+    private static HistoryEntry entry(HistoryKey key, double total) {
+        return new HistoryEntry(key.accountId(), key.period(), 1, 2, 3, 100, 50, total);
+    }
+
+    /** Суммы всех записей истории по ключам. */
+    private Map<HistoryKey, Double> totals() {
+        HistoryColumns rows = history.loadAll().join();
+        Map<HistoryKey, Double> totals = new HashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            totals.put(new HistoryKey(rows.accountId(row), rows.period(row)), rows.total(row));
+        }
+        return totals;
+    }
+
+    /** Ждет начала следующей миллисекунды и возвращает ее: отметки удалений до и после нее различаются. */
+    private static long nextMillisecond() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        while (System.currentTimeMillis() == now) {
+            Thread.sleep(1);
+        }
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,223 @@
+package org.markproject.bills.db;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.history.YearlySummary;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Годовые итоги и итоги по всем счетам после смешанной записи истории через все пути:
+ * очередь, пакетную запись, перезапись счета, обновление сумм, удаление и восстановление.
+ * После каждого шага сверка не находит расхождений, а итоги совпадают с пересчитанными из history.
+ */
+class YearlyAggregatesTest {
+    private static final long SEED = 20_240_417L;
+    private static final int STEPS = 60;
+    private static final int ACCOUNTS = 8;
+    private static final int FIRST_YEAR = 2019;
+    private static final int YEARS = 4;
+    private static final double TOLERANCE = 1e-6;
+
+    @TempDir
+    Path directory;
+
+    private Database database;
+    private DbExecutor executor;
+    private HistoryRepository history;
+    private AnalyticsRepository analytics;
+
+    @BeforeEach
+    void open() {
+        database = new Database(directory.resolve("bills.db").toFile());
+        database.connect();
+        executor = new DbExecutor();
+        history = new HistoryRepository(database, executor);
+        analytics = new AnalyticsRepository(database, executor);
+    }
+
+    @AfterEach
+    void close() {
+        history.close();
+        executor.close();
+        database.close();
+    }
+
+    @Test
+    void staysConsistentAcrossWritePaths() throws SQLException {
+        SplittableRandom random = new SplittableRandom(SEED);
+        Deque<HistoryDeletion> deletions = new ArrayDeque<>();
+        for (int step = 0; step < STEPS; step++) {
+            switch (random.nextInt(6)) {
+                case 0 -> {
+                    List<CompletableFuture<Void>> saved = new ArrayList<>();
+                    for (int i = 0, count = 1 + random.nextInt(30); i < count; i++) {
+                        saved.add(history.save(randomEntry(random)));
+                    }
+                    history.flush().join();
+                    saved.forEach(CompletableFuture::join);
+                }
+                case 1 -> {
+                    HistoryColumns batch = new HistoryColumns(64);
+                    for (int i = 0, count = 1 + random.nextInt(60); i < count; i++) {
+                        HistoryEntry entry = randomEntry(random);
+                        batch.add(entry.accountId(), entry.period(), entry.coldWater(), entry.hotWater(), entry.sewer(),
+                                entry.electricityDay(), entry.electricityNight(), entry.total());
+                    }
+                    history.upsertBatch(batch);
+                }
+                case 2 -> {
+                    int accountId = 1 + random.nextInt(ACCOUNTS);
+                    int year = FIRST_YEAR + random.nextInt(YEARS);
+                    history.updateAccount(accountId, year * 100, year * 100 + 100, (stored, rows) -> {
+                        for (int row = 0; row < stored.size(); row++) {
+                            rows.add(accountId, stored.period(row), stored.coldWater(row) + 1, stored.hotWater(row),
+                                    stored.sewer(row), stored.electricityDay(row), stored.electricityNight(row),
+                                    stored.total(row) + 10);
+                        }
+                        rows.add(accountId, year * 100 + 1 + random.nextInt(12), 5, 5, 10, 100, 50, 321.5);
+                    });
+                }
+                case 3 -> {
+                    HistoryColumns rows = history.loadAll().join();
+                    for (int row = 0; row < rows.size(); row++) {
+                        if (random.nextInt(3) == 0) {
+                            rows.setTotal(row, rows.total(row) + random.nextInt(100) / 4.0);
+                        }
+                    }
+                    history.updateTotals(rows, 0, rows.size());
+                }
+                case 4 -> {
+                    HistoryColumns rows = history.loadAll().join();
+                    List<HistoryKey> keys = new ArrayList<>();
+                    for (int row = 0; row < rows.size(); row++) {
+                        if (random.nextInt(5) == 0) {
+                            keys.add(new HistoryKey(rows.accountId(row), rows.period(row)));
+                        }
+                    }
+                    // Ключ, которого нет в истории, пропускается
+                    keys.add(new HistoryKey(ACCOUNTS + 1, FIRST_YEAR * 100 + 1));
+                    deletions.push(history.deleteBatch(keys).join());
+                }
+                default -> {
+                    if (!deletions.isEmpty()) {
+                        history.restore(deletions.pop().batch()).join();
+                    }
+                }
+            }
+            assertConsistent(step);
+        }
+    }
+
+    @Test
+    void repairsDamagedAggregates() throws SQLException {
+        HistoryColumns batch = new HistoryColumns(ACCOUNTS * 12);
+        for (int accountId = 1; accountId <= ACCOUNTS; accountId++) {
+            for (int month = 1; month <= 12; month++) {
+                batch.add(accountId, FIRST_YEAR * 100 + month, month, 2, 3, 100, 50, 1_000 + month);
+            }
+        }
+        history.upsertBatch(batch);
+        database.connections().transaction(session -> {
+            session.prepare("UPDATE history_yearly SET total = total + 1 WHERE account_id = 3").executeUpdate();
+            session.prepare("UPDATE history_totals SET months = months + 1").executeUpdate();
+            return null;
+        });
+
+        AggregateCheck broken = analytics.check(false).join();
+        assertEquals(1, broken.mismatched());
+        assertEquals(YearlySummary.UTILITIES, broken.totalsMismatched());
+        assertTrue(analytics.check(true).join().repaired());
+        assertConsistent(-1);
+    }
+
+    private void assertConsistent(int step) {
+        AggregateCheck check = analytics.check(false).join();
+        assertEquals(0, check.mismatched(), () -> "Расхождение итогов счетов на шаге " + step + " (seed " + SEED + ")");
+        assertEquals(0, check.totalsMismatched(), () -> "Расхождение итогов по всем счетам на шаге " + step);
+
+        // Итоги, пересчитанные из строк истории: счет -> год -> услуга
+        HistoryColumns rows = history.loadAll().join();
+        Map<Integer, Map<Integer, Expected[]>> expected = new HashMap<>();
+        Map<Integer, Expected[]> expectedAll = new HashMap<>();
+        for (int row = 0; row < rows.size(); row++) {
+            int year = rows.period(row) / 100;
+            double[] values = {rows.coldWater(row), rows.hotWater(row), rows.sewer(row), rows.electricityDay(row),
+                    rows.electricityNight(row), rows.total(row)};
+            Expected[] account = expected.computeIfAbsent(rows.accountId(row), id -> new HashMap<>())
+                    .computeIfAbsent(year, y -> Expected.row());
+            Expected[] all = expectedAll.computeIfAbsent(year, y -> Expected.row());
+            for (int utility = 0; utility < YearlySummary.UTILITIES; utility++) {
+                account[utility].add(values[utility]);
+                all[utility].add(values[utility]);
+            }
+        }
+
+        for (int accountId = 1; accountId <= ACCOUNTS + 1; accountId++) {
+            List<YearlySummary> stored = analytics.yearly(accountId).join();
+            Map<Integer, Expected[]> years = expected.getOrDefault(accountId, Map.of());
+            assertEquals(years.size() * YearlySummary.UTILITIES, stored.size(), "Число итогов счета " + accountId);
+            for (YearlySummary summary : stored) {
+                Expected sum = years.get(summary.year())[summary.utility()];
+                String where = "счет " + accountId + ", " + summary.year() + ", услуга " + summary.utility() + ", шаг " + step;
+                assertEquals(sum.months, summary.months(), where);
+                assertEquals(sum.total, summary.total(), TOLERANCE, where);
+                assertEquals(sum.minimum, summary.minimum(), TOLERANCE, where);
+                assertEquals(sum.maximum, summary.maximum(), TOLERANCE, where);
+            }
+        }
+
+        List<YearlySummary> totals = analytics.yearlyAll().join();
+        assertEquals(expectedAll.size() * YearlySummary.UTILITIES, totals.size(), "Число итогов по всем счетам");
+        for (YearlySummary summary : totals) {
+            Expected sum = expectedAll.get(summary.year())[summary.utility()];
+            assertEquals(sum.months, summary.months());
+            assertEquals(sum.total, summary.total(), TOLERANCE);
+        }
+    }
+
+    private static HistoryEntry randomEntry(SplittableRandom random) {
+        int period = (FIRST_YEAR + random.nextInt(YEARS)) * 100 + 1 + random.nextInt(12);
+        // Значения с четвертями, чтобы суммы в double были точными
+        return new HistoryEntry(1 + random.nextInt(ACCOUNTS), period, random.nextInt(40) / 4.0,
+                random.nextInt(40) / 4.0, random.nextInt(80) / 4.0, random.nextInt(800) / 4.0,
+                random.nextInt(400) / 4.0, random.nextInt(40_000) / 4.0);
+    }
+
+    private static final class Expected {
+        long months;
+        double total;
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+
+        static Expected[] row() {
+            Expected[] row = new Expected[YearlySummary.UTILITIES];
+            for (int utility = 0; utility < row.length; utility++) {
+                row[utility] = new Expected();
+            }
+            return row;
+        }
+
+        void add(double value) {
+            months++;
+            total += value;
+            minimum = Math.min(minimum, value);
+            maximum = Math.max(maximum, value);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.markproject.bills.meter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Сжатие суточных блоков {@link IntervalBlocks}: распаковка возвращает те же показания,
+ * а зонные итоги совпадают с прямым суммированием. Случайные ряды строятся с фиксированным seed.
+ */
+class IntervalBlocksTest {
+    private static final long SEED = 20_240_315L;
+    private static final int CHECKS = 20_000;
+    private static final int DAY = 19_800;
+
+    @Test
+    void roundTripsEdgeCases() {
+        assertRoundTrip(series());
+        assertRoundTrip(series(0, 0L));
+        assertRoundTrip(series(IntervalSeries.MINUTES_PER_DAY - 1, Long.MAX_VALUE));
+        // Соседние крайние значения дают разность, переполняющую long
+        assertRoundTrip(series(0, Long.MIN_VALUE, 15, Long.MAX_VALUE, 30, Long.MIN_VALUE, 45, -1L));
+        // Два показания всегда регулярны, неравный шаг переключает на разности минут
+        assertRoundTrip(series(100, 5L, 101, 6L));
+        assertRoundTrip(series(0, 1L, 15, 2L, 45, 3L));
+    }
+
+    @Test
+    void roundTripsRandomDays() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int check = 0; check < CHECKS; check++) {
+            IntervalSeries series = randomDay(random);
+            assertRoundTrip(series);
+        }
+    }
+
+    @Test
+    void encodesSlice() {
+        IntervalSeries series = series(0, 10L, 15, 20L, 30, 30L, 45, 40L);
+        IntervalSeries decoded = new IntervalSeries(4);
+        IntervalBlocks.decode(IntervalBlocks.encode(series, 1, 3), DAY, decoded);
+        assertEquals(2, decoded.size());
+        assertEquals(DAY * IntervalSeries.MINUTES_PER_DAY + 15, decoded.minute(0));
+        assertEquals(20L, decoded.quantity(0));
+        assertEquals(DAY * IntervalSeries.MINUTES_PER_DAY + 30, decoded.minute(1));
+        assertEquals(30L, decoded.quantity(1));
+    }
+
+    @Test
+    void rejectsTruncatedBlock() {
+        byte[] block = IntervalBlocks.encode(series(0, 1_000L, 15, -1_000L), 0, 2);
+        byte[] truncated = Arrays.copyOf(block, block.length - 1);
+        assertThrows(IllegalStateException.class, () -> IntervalBlocks.decode(truncated, DAY, new IntervalSeries(2)));
+    }
+
+    private static void assertRoundTrip(IntervalSeries series) {
+        byte[] block = IntervalBlocks.encode(series, 0, series.size());
+        IntervalSeries decoded = new IntervalSeries(Math.max(1, series.size()));
+        IntervalBlocks.decode(block, DAY, decoded);
+        assertEquals(series.size(), decoded.size());
+        long[] expected = new long[2];
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(DAY * IntervalSeries.MINUTES_PER_DAY + series.minute(i), decoded.minute(i));
+            assertEquals(series.quantity(i), decoded.quantity(i));
+            expected[TariffZones.isDay(series.minute(i)) ? 0 : 1] += series.quantity(i);
+        }
+        long[] totals = new long[2];
+        assertEquals(series.size(), IntervalBlocks.addZoneTotals(block, totals));
+        assertArrayEquals(expected, totals);
+    }
+
+    private static IntervalSeries randomDay(SplittableRandom random) {
+        IntervalSeries series = new IntervalSeries(96);
+        int step = new int[]{1, 5, 15, 30, 60}[random.nextInt(5)];
+        int minute = random.nextInt(step);
+        boolean gaps = random.nextBoolean();
+        long quantity = random.nextLong(0, 2_000);
+        while (minute < IntervalSeries.MINUTES_PER_DAY) {
+            series.add(minute, quantity);
+            minute += gaps ? step * (1 + random.nextInt(3)) : step;
+            // Обычно расход меняется на десятки ватт-часов, изредка — на произвольную величину
+            quantity = random.nextInt(50) == 0 ? random.nextLong() : quantity + random.nextLong(-50, 51);
+        }
+        return series;
+    }
+
+    private static IntervalSeries series(Object... minutesAndQuantities) {
+        IntervalSeries series = new IntervalSeries(Math.max(1, minutesAndQuantities.length / 2));
+        for (int i = 0; i < minutesAndQuantities.length; i += 2) {
+            series.add((Integer) minutesAndQuantities[i], (Long) minutesAndQuantities[i + 1]);
+        }
+        return series;
+    }
+}
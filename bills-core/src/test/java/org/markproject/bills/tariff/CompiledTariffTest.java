@@ -0,0 +1,126 @@
+package org.markproject.bills.tariff;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Сверка скомпилированного тарифа с эталоном на BigDecimal ({@link ReferenceBilling})
+ * на случайных ступенчатых тарифах и показаниях, включая отрицательные (корректировки) и крайние
+ * значения {@link FixedPoint#MAX_QUANTITY} и {@link FixedPoint#MAX_PRICE}. Seed фиксирован,
+ * чтобы расхождение повторялось.
+ */
+class CompiledTariffTest {
+    private static final long SEED = 20_240_115L;
+    private static final int CHECKS = 200_000;
+    private static final int CHECKS_PER_PLAN = 1_000;
+    private static final int BOUND_CHECKS = 20_000;
+
+    @Test
+    void matchesBigDecimalReference() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        TariffPlan plan = null;
+        CompiledTariff compiled = null;
+        long[] quantities = null;
+        for (int check = 0; check < CHECKS; check++) {
+            if (check % CHECKS_PER_PLAN == 0) {
+                // Стандартная раскладка или с дополнительными зонами суток
+                int lines = TariffPlan.STANDARD_LINES + random.nextInt(3);
+                plan = randomPlan(random, lines, 4, 100 * FixedPoint.PRICE_UNIT, 500 * FixedPoint.QUANTITY_UNIT);
+                compiled = plan.compile();
+                quantities = new long[lines];
+            }
+            for (int line = 0; line < quantities.length; line++) {
+                quantities[line] = random.nextLong(-500 * FixedPoint.QUANTITY_UNIT, 2_000 * FixedPoint.QUANTITY_UNIT);
+            }
+            assertMatches(plan, compiled, quantities, check);
+        }
+    }
+
+    @Test
+    void matchesReferenceAtBounds() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        TariffPlan plan = null;
+        CompiledTariff compiled = null;
+        long[] quantities = new long[TariffPlan.STANDARD_LINES];
+        for (int check = 0; check < BOUND_CHECKS; check++) {
+            if (check % CHECKS_PER_PLAN == 0) {
+                // Пороги ступеней во всем допустимом диапазоне, цены до наибольшей
+                plan = randomPlan(random, TariffPlan.STANDARD_LINES, 4, FixedPoint.MAX_PRICE, FixedPoint.MAX_QUANTITY / 4);
+                compiled = plan.compile();
+            }
+            for (int line = 0; line < quantities.length; line++) {
+                quantities[line] = switch (random.nextInt(4)) {
+                    case 0 -> FixedPoint.MAX_QUANTITY;
+                    case 1 -> -FixedPoint.MAX_QUANTITY;
+                    case 2 -> random.nextLong(-1_000, 1_001);
+                    default -> random.nextLong(-FixedPoint.MAX_QUANTITY, FixedPoint.MAX_QUANTITY + 1);
+                };
+            }
+            assertMatches(plan, compiled, quantities, check);
+        }
+    }
+
+    @Test
+    void chargesExtremeSingleTier() {
+        List<List<TariffPlan.Tier>> lines = new ArrayList<>();
+        for (int line = 0; line < TariffPlan.STANDARD_LINES; line++) {
+            lines.add(List.of(new TariffPlan.Tier(TariffPlan.UNLIMITED, FixedPoint.MAX_PRICE)));
+        }
+        CompiledTariff compiled = new TariffPlan(lines).compile();
+        // 10 млн единиц по 10 000 руб. — 100 млрд руб. на строку
+        long lineKopecks = 100_000_000_000L * FixedPoint.KOPECKS_PER_RUBLE;
+        assertEquals(lineKopecks, compiled.lineKopecks(TariffPlan.COLD, FixedPoint.MAX_QUANTITY));
+        assertEquals(-lineKopecks, compiled.lineKopecks(TariffPlan.COLD, -FixedPoint.MAX_QUANTITY));
+        // Половина копейки округляется от нуля в обе стороны: 0,001 единицы по 5 руб. — 0,5 коп.
+        CompiledTariff half = new TariffPlan(List.of(List.of(new TariffPlan.Tier(TariffPlan.UNLIMITED, 5 * FixedPoint.PRICE_UNIT))))
+                .compile();
+        assertEquals(1, half.lineKopecks(0, 1));
+        assertEquals(-1, half.lineKopecks(0, -1));
+    }
+
+    @Test
+    void rejectsQuantityOutOfRange() {
+        CompiledTariff compiled = randomPlan(new SplittableRandom(SEED), TariffPlan.STANDARD_LINES, 3,
+                FixedPoint.MAX_PRICE, FixedPoint.MAX_QUANTITY / 3).compile();
+        assertThrows(IllegalArgumentException.class, () -> compiled.lineKopecks(TariffPlan.COLD, FixedPoint.MAX_QUANTITY + 1));
+        assertThrows(IllegalArgumentException.class, () -> compiled.lineKopecks(TariffPlan.COLD, -FixedPoint.MAX_QUANTITY - 1));
+        assertThrows(IllegalArgumentException.class, () -> compiled.lineKopecks(TariffPlan.HOT, Long.MIN_VALUE));
+    }
+
+    private static void assertMatches(TariffPlan plan, CompiledTariff compiled, long[] quantities, int check) {
+        BigDecimal expected = ReferenceBilling.total(plan, quantities);
+        assertEquals(expected.movePointRight(2).longValueExact(), compiled.totalKopecks(quantities),
+                () -> "Расхождение на проверке " + check + " (seed " + SEED + ")");
+    }
+
+    /**
+     * Тариф из lines строк, в каждой от 1 до maxTiers ступеней с ценами до maxPrice
+     * и порогами, растущими не больше чем на maxStep.
+     */
+    private static TariffPlan randomPlan(SplittableRandom random, int lines, int maxTiers, long maxPrice, long maxStep) {
+        List<List<TariffPlan.Tier>> plan = new ArrayList<>();
+        for (int line = 0; line < lines; line++) {
+            int tiers = 1 + random.nextInt(maxTiers);
+            List<TariffPlan.Tier> ladder = new ArrayList<>();
+            long limit = 0;
+            for (int tier = 0; tier < tiers; tier++) {
+                long price = 1 + random.nextLong(maxPrice);
+                if (tier == tiers - 1) {
+                    ladder.add(new TariffPlan.Tier(TariffPlan.UNLIMITED, price));
+                } else {
+                    limit += 1 + random.nextLong(maxStep);
+                    ladder.add(new TariffPlan.Tier(limit, price));
+                }
+            }
+            plan.add(ladder);
+        }
+        return new TariffPlan(plan);
+    }
+}
@@ -0,0 +1,48 @@
+package org.markproject.bills.tariff;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+/**
+ * Эталонный расчет на BigDecimal по тем же правилам, что {@link CompiledTariff}:
+ * строка начисления считается точно и округляется до копейки половиной от нуля,
+ * итог — сумма округленных строк. Публикуется в test-jar и служит эталоном и в benchmarks.
+ */
+public final class ReferenceBilling {
+    private ReferenceBilling() {
+    }
+
+    /**
+     * Итог в рублях с двумя знаками.
+     *
+     * @param quantities потребление по строкам в тысячных долях единицы
+     */
+    public static BigDecimal total(TariffPlan plan, long[] quantities) {
+        BigDecimal total = BigDecimal.ZERO.setScale(2);
+        for (int line = 0; line < plan.lines(); line++) {
+            total = total.add(line(plan.tiers(line), BigDecimal.valueOf(quantities[line], FixedPoint.QUANTITY_SCALE)));
+        }
+        return total;
+    }
+
+    private static BigDecimal line(List<TariffPlan.Tier> tiers, BigDecimal quantity) {
+        BigDecimal amount = BigDecimal.ZERO;
+        BigDecimal previous = BigDecimal.ZERO;
+        for (TariffPlan.Tier tier : tiers) {
+            BigDecimal price = BigDecimal.valueOf(tier.price(), FixedPoint.PRICE_SCALE);
+            if (tier.upTo() == TariffPlan.UNLIMITED) {
+                amount = amount.add(quantity.subtract(previous).multiply(price));
+                break;
+            }
+            BigDecimal limit = BigDecimal.valueOf(tier.upTo(), FixedPoint.QUANTITY_SCALE);
+            if (quantity.compareTo(limit) <= 0) {
+                amount = amount.add(quantity.subtract(previous).multiply(price));
+                break;
+            }
+            amount = amount.add(limit.subtract(previous).multiply(price));
+            previous = limit;
+        }
+        return amount.setScale(2, RoundingMode.HALF_UP);
+    }
+}
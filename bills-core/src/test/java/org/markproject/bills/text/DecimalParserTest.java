@@ -0,0 +1,123 @@
+package org.markproject.bills.text;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Точный разбор {@link DecimalParser#parseFixed}: итоги для особых случаев и сверка
+ * со строгим разбором BigDecimal на случайных числах с фиксированным seed.
+ */
+class DecimalParserTest {
+    private static final long SEED = 20_240_201L;
+    private static final int CHECKS = 200_000;
+    private static final int SCALE = 3;
+
+    private final DecimalParser parser = new DecimalParser();
+
+    @Test
+    void reportsStatus() {
+        assertStatus(DecimalParser.Status.EMPTY, "");
+        assertStatus(DecimalParser.Status.EMPTY, "  \t");
+        assertStatus(DecimalParser.Status.MALFORMED, "abc");
+        assertStatus(DecimalParser.Status.MALFORMED, "1.2.3");
+        assertStatus(DecimalParser.Status.MALFORMED, "1,2.3");
+        assertStatus(DecimalParser.Status.MALFORMED, "-");
+        assertStatus(DecimalParser.Status.MALFORMED, ".");
+        assertStatus(DecimalParser.Status.MALFORMED, "1e3");
+        assertStatus(DecimalParser.Status.MALFORMED, "1 000");
+        // Больше 18 цифр в long не собираются
+        assertStatus(DecimalParser.Status.OVERFLOW, "1234567890123456789");
+        assertStatus(DecimalParser.Status.OVERFLOW, "-12345678901234567,89");
+        assertStatus(DecimalParser.Status.MALFORMED, "1234567890123456789x");
+        assertStatus(DecimalParser.Status.OVERFLOW, "999999999999999999");
+    }
+
+    @Test
+    void bytesMatchText() {
+        String[] inputs = {"\t12.5", "12,5\t", " \t-7 ", "", " \t ", "1.2.3", "+.5", "1234567890123456789",
+                "999999999999999999", "0.0005", "12 5"};
+        for (String text : inputs) {
+            byte[] bytes = ("[" + text + "]").getBytes(StandardCharsets.US_ASCII);
+            DecimalParser.Status expected = parser.parseFixed(text, SCALE);
+            long expectedFixed = parser.fixed();
+            boolean expectedParsed = parser.parse(text);
+            double expectedValue = parser.value();
+            assertEquals(expected, parser.parseFixed(bytes, 1, bytes.length - 1, SCALE), text);
+            if (expected == DecimalParser.Status.VALID) {
+                assertEquals(expectedFixed, parser.fixed(), text);
+            }
+            assertEquals(expectedParsed, parser.parse(bytes, 1, bytes.length - 1), text);
+            if (expectedParsed) {
+                assertEquals(expectedValue, parser.value(), text);
+            }
+        }
+        assertFixed(12_500, "\t12.5");
+    }
+
+    @Test
+    void parsesFixedPoint() {
+        assertFixed(12_500, "12,5");
+        assertFixed(12_500, " 12.5 ");
+        assertFixed(7_000, "+7");
+        assertFixed(500, ".5");
+        assertFixed(5_000, "5.");
+        assertFixed(0, "-0");
+        assertFixed(0, "0.0004");
+        // Лишние знаки округляются половиной от нуля
+        assertFixed(1, "0.0005");
+        assertFixed(-1, "-0.0005");
+        assertFixed(-1_235, "-1.2345");
+    }
+
+    @Test
+    void matchesBigDecimal() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int check = 0; check < CHECKS; check++) {
+            String text = randomDecimal(random);
+            BigDecimal exact = new BigDecimal(text.replace(',', '.'));
+            assertEquals(DecimalParser.Status.VALID, parser.parseFixed(text, SCALE), text);
+            assertEquals(exact.setScale(SCALE, RoundingMode.HALF_UP).movePointRight(SCALE).longValueExact(), parser.fixed(), text);
+            // До 15 значащих цифр double совпадает с Double.parseDouble
+            if (exact.unscaledValue().abs().bitLength() < 50) {
+                assertEquals(Double.parseDouble(text.replace(',', '.')), parser.value(), text);
+            }
+        }
+    }
+
+    /**
+     * Число до 15 цифр, до 6 из них после точки или запятой, со знаком или без.
+     */
+    private static String randomDecimal(SplittableRandom random) {
+        int digits = 1 + random.nextInt(15);
+        int fraction = random.nextInt(Math.min(digits, 6) + 1);
+        StringBuilder text = new StringBuilder(20);
+        int sign = random.nextInt(3);
+        if (sign == 1) {
+            text.append('-');
+        } else if (sign == 2) {
+            text.append('+');
+        }
+        for (int i = 0; i < digits; i++) {
+            if (i == digits - fraction && fraction > 0) {
+                text.append(random.nextBoolean() ? '.' : ',');
+            }
+            text.append((char) ('0' + random.nextInt(10)));
+        }
+        return text.toString();
+    }
+
+    private void assertStatus(DecimalParser.Status expected, String text) {
+        assertEquals(expected, parser.parseFixed(text, SCALE), text);
+    }
+
+    private void assertFixed(long expected, String text) {
+        assertEquals(DecimalParser.Status.VALID, parser.parseFixed(text, SCALE), text);
+        assertEquals(expected, parser.fixed(), text);
+    }
+}
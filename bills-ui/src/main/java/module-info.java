@@ -0,0 +1,6 @@
+module org.markproject.bills {
+    requires javafx.controls;
+    requires org.markproject.bills.core;
+
+    exports org.markproject.bills;
+}
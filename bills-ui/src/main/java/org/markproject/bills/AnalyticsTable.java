@@ -0,0 +1,112 @@
+package org.markproject.bills;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.markproject.bills.db.AnalyticsRepository;
+import org.markproject.bills.db.HistoryChange;
+import org.markproject.bills.db.HistoryListener;
+import org.markproject.bills.history.YearlySummary;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Строки вкладки аналитики: годовые итоги одного счета или всех счетов с изменением к прошлому году.
+ * Итоги читаются из готовых таблиц, поэтому таблица просто перечитывается после каждого изменения
+ * истории; пока идет чтение, новые изменения сводятся к одному повторному чтению.
+ * Все методы, кроме методов {@link HistoryListener}, вызываются в потоке FX.
+ */
+final class AnalyticsTable implements HistoryListener {
+    /**
+     * Итог года по услуге и сумма той же услуги за предыдущий год ({@link Double#NaN}, если его нет).
+     */
+    record Row(YearlySummary summary, double previousTotal) {
+        /** Изменение к прошлому году в процентах или {@link Double#NaN}. */
+        double change() {
+            return previousTotal > 0 ? (summary.total() - previousTotal) * 100 / previousTotal : Double.NaN;
+        }
+    }
+
+    private final AnalyticsRepository repository;
+    private final Consumer<Throwable> errorHandler;
+    private final ObservableList<Row> rows = FXCollections.observableArrayList();
+    // Счет, итоги которого показываются; 0 — все счета
+    private int accountId;
+    private boolean loading;
+    private boolean loadAgain;
+
+    AnalyticsTable(AnalyticsRepository repository, Consumer<Throwable> errorHandler) {
+        this.repository = repository;
+        this.errorHandler = errorHandler;
+    }
+
+    ObservableList<Row> rows() {
+        return rows;
+    }
+
+    /**
+     * Показывает итоги счета {@code accountId} или, при 0, всех счетов.
+     */
+    void show(int accountId) {
+        this.accountId = accountId;
+        reload();
+    }
+
+    void reload() {
+        if (loading) {
+            loadAgain = true;
+            return;
+        }
+        loading = true;
+        int requested = accountId;
+        CompletableFuture<List<YearlySummary>> query =
+                requested == 0 ? repository.yearlyAll() : repository.yearly(requested);
+        query.whenComplete((summaries, error) -> Platform.runLater(() -> {
+            loading = false;
+            if (loadAgain || requested != accountId) {
+                loadAgain = false;
+                reload();
+                return;
+            }
+            if (error != null) {
+                errorHandler.accept(error);
+                return;
+            }
+            rows.setAll(withChanges(summaries));
+        }));
+    }
+
+    /**
+     * Новые годы сверху; к каждому итогу добавляется сумма той же услуги за предыдущий год.
+     */
+    private static List<Row> withChanges(List<YearlySummary> summaries) {
+        Map<Integer, Double> totals = new HashMap<>();
+        for (YearlySummary summary : summaries) {
+            totals.put(summary.year() * YearlySummary.UTILITIES + summary.utility(), summary.total());
+        }
+        List<Row> result = new ArrayList<>(summaries.size());
+        for (YearlySummary summary : summaries) {
+            Double previous = totals.get((summary.year() - 1) * YearlySummary.UTILITIES + summary.utility());
+            result.add(new Row(summary, previous == null ? Double.NaN : previous));
+        }
+        result.sort((a, b) -> a.summary().year() != b.summary().year()
+                ? Integer.compare(b.summary().year(), a.summary().year())
+                : Integer.compare(a.summary().utility(), b.summary().utility()));
+        return result;
+    }
+
+    @Override
+    public void changed(List<HistoryChange> changes) {
+        Platform.runLater(this::reload);
+    }
+
+    @Override
+    public void invalidated() {
+        Platform.runLater(this::reload);
+    }
+}
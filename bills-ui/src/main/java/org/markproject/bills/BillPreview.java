@@ -0,0 +1,150 @@
+package org.markproject.bills;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.TextField;
+import javafx.util.Duration;
+import org.markproject.bills.billing.BillingEngine;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.db.TariffRepository;
+import org.markproject.bills.tariff.CompiledTariff;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.TariffSnapshot;
+import org.markproject.bills.text.DecimalParser;
+
+import java.time.Month;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Предварительная сумма на вкладке расчета, обновляемая по мере ввода показаний.
+ * <p>
+ * Пересчет откладывается до паузы в наборе и идет в потоке FX по снимку тарифов в памяти:
+ * разбор полей не создает объектов и не бросает исключений, а расчет по скомпилированному тарифу
+ * занимает микросекунды. Незаполненные поля считаются нулевыми, неверные подсвечиваются.
+ * Все методы вызываются в потоке FX.
+ */
+final class BillPreview {
+    // Пауза в наборе, после которой сумма пересчитывается
+    private static final Duration DELAY = Duration.millis(150);
+    private static final String INVALID_STYLE = "-fx-text-fill: firebrick;";
+
+    private final TariffRepository tariffs;
+    private final ComboBox<Month> month;
+    private final Spinner<Integer> year;
+    // Поля показаний в порядке строк стандартной раскладки тарифа
+    private final TextField[] fields;
+    private final String[] names;
+    private final Label label = new Label();
+    private final DecimalParser parser = new DecimalParser();
+    private final long[] quantities = new long[TariffPlan.STANDARD_LINES];
+    private final long[] charges = new long[TariffPlan.STANDARD_LINES];
+    private final PauseTransition delay = new PauseTransition(DELAY);
+    private boolean snapshotRequested;
+
+    /**
+     * @param fields поля показаний в порядке строк {@link TariffPlan}
+     * @param names  названия полей для сообщений об ошибках ввода
+     */
+    BillPreview(TariffRepository tariffs, ComboBox<Month> month, Spinner<Integer> year, TextField[] fields,
+                String[] names) {
+        this.tariffs = tariffs;
+        this.month = month;
+        this.year = year;
+        this.fields = fields;
+        this.names = names;
+        delay.setOnFinished(e -> update());
+        for (TextField field : fields) {
+            field.textProperty().addListener((obs, oldText, newText) -> delay.playFromStart());
+        }
+        month.valueProperty().addListener((obs, oldValue, newValue) -> delay.playFromStart());
+        year.valueProperty().addListener((obs, oldValue, newValue) -> delay.playFromStart());
+    }
+
+    Label label() {
+        return label;
+    }
+
+    /**
+     * Разбирает поля в {@link #quantities()} и подсвечивает неверные.
+     *
+     * @param allowEmpty считать пустые поля нулевыми, иначе они тоже ошибка
+     * @return описание первой ошибки ввода или {@code null}, если все поля верны
+     */
+    String validate(boolean allowEmpty) {
+        String error = null;
+        for (int line = 0; line < fields.length; line++) {
+            String problem = switch (parser.parseFixed(fields[line].getText(), FixedPoint.QUANTITY_SCALE)) {
+                case VALID -> {
+                    quantities[line] = parser.fixed();
+                    yield Math.abs(quantities[line]) > FixedPoint.MAX_QUANTITY ? "слишком большое значение" : null;
+                }
+                case EMPTY -> {
+                    quantities[line] = 0;
+                    yield allowEmpty ? null : "введите значение";
+                }
+                case MALFORMED -> "неверный формат числа";
+                case OVERFLOW -> "слишком большое значение";
+            };
+            // Пустые поля не подсвечиваются: их просто еще не заполнили
+            boolean invalid = problem != null && !fields[line].getText().isBlank();
+            String style = invalid ? INVALID_STYLE : "";
+            if (!style.equals(fields[line].getStyle())) {
+                fields[line].setStyle(style);
+            }
+            if (error == null && problem != null) {
+                error = names[line] + ": " + problem;
+            }
+        }
+        return error;
+    }
+
+    /** Показания последней успешной проверки в тысячных долях единицы; массив переиспользуется. */
+    long[] quantities() {
+        return quantities;
+    }
+
+    private void update() {
+        String error = validate(true);
+        if (error != null) {
+            label.setText(error);
+            return;
+        }
+        if (month.getValue() == null) {
+            label.setText("Выберите месяц для предварительного расчета");
+            return;
+        }
+        CompletableFuture<TariffSnapshot> loading = tariffs.snapshot();
+        TariffSnapshot snapshot = loading.getNow(null);
+        if (snapshot == null) {
+            // Снимок тарифов еще читается; пересчитаем, когда он появится
+            if (!snapshotRequested) {
+                snapshotRequested = true;
+                label.setText("Загрузка тарифов...");
+                loading.whenComplete((loaded, failure) -> Platform.runLater(() -> {
+                    snapshotRequested = false;
+                    if (failure != null) {
+                        label.setText("Не удалось загрузить тарифы");
+                    } else {
+                        update();
+                    }
+                }));
+            }
+            return;
+        }
+        CompiledTariff tariff = snapshot.find(BillingPeriod.key(year.getValue(), month.getValue().getValue()));
+        if (tariff == null) {
+            label.setText("Тарифы на этот период не установлены");
+            return;
+        }
+        if (!tariff.isValid()) {
+            label.setText("Тарифы на этот период некорректны");
+            return;
+        }
+        long total = BillingEngine.charges(tariff, quantities, charges);
+        label.setText("Предварительно: " + FixedPoint.formatRubles(total) + " руб.");
+    }
+}
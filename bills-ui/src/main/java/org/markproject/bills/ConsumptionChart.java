@@ -0,0 +1,356 @@
+package org.markproject.bills;
+
+import javafx.application.Platform;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Label;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.util.StringConverter;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.chart.SampledSeries;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.HistoryChange;
+import org.markproject.bills.db.HistoryListener;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.db.MeterRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.history.YearlySummary;
+import org.markproject.bills.meter.IntervalSeries;
+import org.markproject.bills.meter.MeterKind;
+import org.markproject.bills.tariff.FixedPoint;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * График расхода по истории или по интервальным показаниям счетчика.
+ * <p>
+ * Ряд целиком читается один раз, а на график попадает только прореженный под его ширину
+ * ({@link SampledSeries}): прореживание идет в виртуальном потоке, поток FX лишь заменяет
+ * пару тысяч точек. Колесо мыши меняет масштаб вокруг указателя, перетаскивание сдвигает окно,
+ * двойной щелчок показывает весь ряд. Пока идет прореживание, новые окна сводятся к одному
+ * повторному запросу. Все методы, кроме методов {@link HistoryListener}, вызываются в потоке FX.
+ */
+final class ConsumptionChart implements HistoryListener {
+    /**
+     * Ряд графика: столбец истории по месяцам или показания счетчика.
+     */
+    enum Source {
+        COLD("ХВС, м³ в месяц", YearlySummary.COLD, null, false),
+        HOT("ГВС, м³ в месяц", YearlySummary.HOT, null, false),
+        SEWER("Водоотведение, м³ в месяц", YearlySummary.SEWER, null, false),
+        ELECTRICITY_DAY("Электроэнергия Дн., кВт⋅ч в месяц", YearlySummary.ELECTRICITY_DAY, null, false),
+        ELECTRICITY_NIGHT("Электроэнергия Ноч., кВт⋅ч в месяц", YearlySummary.ELECTRICITY_NIGHT, null, false),
+        TOTAL("Начислено, руб. в месяц", YearlySummary.TOTAL, null, false),
+        METER_COLD("Счетчик ХВС, м³ за интервал", -1, MeterKind.COLD_WATER, false),
+        METER_COLD_DAILY("Счетчик ХВС, м³ в сутки", -1, MeterKind.COLD_WATER, true),
+        METER_HOT("Счетчик ГВС, м³ за интервал", -1, MeterKind.HOT_WATER, false),
+        METER_HOT_DAILY("Счетчик ГВС, м³ в сутки", -1, MeterKind.HOT_WATER, true),
+        METER_ELECTRICITY("Счетчик электроэнергии, кВт⋅ч за интервал", -1, MeterKind.ELECTRICITY, false),
+        METER_ELECTRICITY_DAILY("Счетчик электроэнергии, кВт⋅ч в сутки", -1, MeterKind.ELECTRICITY, true);
+
+        private final String title;
+        private final int utility;
+        private final MeterKind kind;
+        private final boolean daily;
+
+        Source(String title, int utility, MeterKind kind, boolean daily) {
+            this.title = title;
+            this.utility = utility;
+            this.kind = kind;
+            this.daily = daily;
+        }
+
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+
+    /** Точки окна для графика и число плиток, прореженных для него заново. */
+    private record Sample(List<XYChart.Data<Number, Number>> data, int tiles) {
+    }
+
+    private static final DateTimeFormatter MONTHS = DateTimeFormatter.ofPattern("MM.yyyy");
+    private static final DateTimeFormatter DAYS = DateTimeFormatter.ofPattern("dd.MM.yyyy");
+    private static final DateTimeFormatter HOURS = DateTimeFormatter.ofPattern("dd.MM HH:mm");
+    // Не ближе часа и не дальше всего ряда
+    private static final int MIN_SPAN = 60;
+    // Ширина для прореживания округляется вверх, чтобы мелкие изменения размера окна не сбрасывали кэш
+    private static final int WIDTH_STEP = 100;
+
+    private final HistoryRepository history;
+    private final MeterRepository meters;
+    private final DbExecutor executor;
+    private final Consumer<Throwable> errorHandler;
+    private final NumberAxis timeAxis = new NumberAxis();
+    private final NumberAxis valueAxis = new NumberAxis();
+    private final LineChart<Number, Number> chart = new LineChart<>(timeAxis, valueAxis);
+    private final XYChart.Series<Number, Number> series = new XYChart.Series<>();
+    private final Label info = new Label();
+
+    private int accountId;
+    private Source source = Source.COLD;
+    private SampledSeries sampled;
+    // Счет и ряд, которые сейчас на графике
+    private int shownAccount;
+    private Source shownSource;
+    private boolean loading;
+    private boolean loadAgain;
+    private boolean sampling;
+    private boolean sampleAgain;
+    // Показываемое окно [from, to) в минутах
+    private int from;
+    private int to;
+    private double dragX;
+    private int dragFrom;
+
+    ConsumptionChart(HistoryRepository history, MeterRepository meters, DbExecutor executor,
+                     Consumer<Throwable> errorHandler) {
+        this.history = history;
+        this.meters = meters;
+        this.executor = executor;
+        this.errorHandler = errorHandler;
+
+        chart.setAnimated(false);
+        chart.setCreateSymbols(false);
+        chart.setLegendVisible(false);
+        chart.getData().add(series);
+        timeAxis.setAutoRanging(false);
+        timeAxis.setForceZeroInRange(false);
+        timeAxis.setMinorTickVisible(false);
+        timeAxis.setTickLabelFormatter(new StringConverter<>() {
+            @Override
+            public String toString(Number minute) {
+                LocalDateTime time = IntervalSeries.dateTime(minute.intValue());
+                int span = to - from;
+                return (span > 120 * IntervalSeries.MINUTES_PER_DAY ? MONTHS
+                        : span > 3 * IntervalSeries.MINUTES_PER_DAY ? DAYS : HOURS).format(time);
+            }
+
+            @Override
+            public Number fromString(String text) {
+                throw new UnsupportedOperationException();
+            }
+        });
+        valueAxis.setForceZeroInRange(true);
+
+        chart.addEventHandler(ScrollEvent.SCROLL, this::zoom);
+        chart.addEventHandler(MouseEvent.MOUSE_PRESSED, e -> {
+            dragX = e.getX();
+            dragFrom = from;
+        });
+        chart.addEventHandler(MouseEvent.MOUSE_DRAGGED, this::pan);
+        chart.addEventHandler(MouseEvent.MOUSE_CLICKED, e -> {
+            if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) {
+                showAll();
+            }
+        });
+        timeAxis.widthProperty().addListener((obs, oldWidth, newWidth) -> resample());
+    }
+
+    LineChart<Number, Number> chart() {
+        return chart;
+    }
+
+    /** Число точек ряда и показанных на графике. */
+    Label info() {
+        return info;
+    }
+
+    /**
+     * Показывает ряд source счета accountId целиком.
+     */
+    void show(int accountId, Source source) {
+        this.accountId = accountId;
+        this.source = source;
+        reload();
+    }
+
+    void reload() {
+        if (loading) {
+            loadAgain = true;
+            return;
+        }
+        loading = true;
+        int requestedAccount = accountId;
+        Source requestedSource = source;
+        executor.submit(() -> load(requestedAccount, requestedSource)).whenComplete((points, error) ->
+                Platform.runLater(() -> {
+                    loading = false;
+                    if (loadAgain || requestedAccount != accountId || requestedSource != source) {
+                        loadAgain = false;
+                        reload();
+                        return;
+                    }
+                    if (error != null) {
+                        errorHandler.accept(error);
+                        return;
+                    }
+                    // После изменения истории тот же ряд остается в прежнем окне
+                    boolean keepWindow = sampled != null && requestedAccount == shownAccount
+                                         && requestedSource == shownSource;
+                    shownAccount = requestedAccount;
+                    shownSource = requestedSource;
+                    sampled = points.isEmpty() ? null : new SampledSeries(points);
+                    if (sampled == null) {
+                        series.getData().clear();
+                        info.setText("Нет данных");
+                    } else if (keepWindow) {
+                        setWindow(from, to);
+                    } else {
+                        showAll();
+                    }
+                }));
+    }
+
+    /**
+     * Читает ряд целиком в потоке базы данных.
+     */
+    private IntervalSeries load(int accountId, Source source) throws SQLException {
+        if (source.kind == null) {
+            HistoryColumns rows = new HistoryColumns(256);
+            history.readAccount(accountId, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, rows);
+            IntervalSeries points = new IntervalSeries(rows.size());
+            for (int row = 0; row < rows.size(); row++) {
+                double value = switch (source.utility) {
+                    case YearlySummary.COLD -> rows.coldWater(row);
+                    case YearlySummary.HOT -> rows.hotWater(row);
+                    case YearlySummary.SEWER -> rows.sewer(row);
+                    case YearlySummary.ELECTRICITY_DAY -> rows.electricityDay(row);
+                    case YearlySummary.ELECTRICITY_NIGHT -> rows.electricityNight(row);
+                    default -> rows.total(row);
+                };
+                LocalDateTime month = BillingPeriod.toYearMonth(rows.period(row)).atDay(1).atStartOfDay();
+                points.add(IntervalSeries.minute(month), FixedPoint.quantity(value));
+            }
+            return points;
+        }
+        IntervalSeries points = new IntervalSeries(1024);
+        if (source.daily) {
+            meters.daily(accountId, source.kind, 0, Integer.MAX_VALUE, points);
+        } else {
+            meters.read(accountId, source.kind, 0, Integer.MAX_VALUE, points);
+        }
+        return points;
+    }
+
+    private void showAll() {
+        if (sampled != null) {
+            setWindow(sampled.firstMinute(), sampled.endMinute());
+        }
+    }
+
+    private void zoom(ScrollEvent e) {
+        if (sampled == null || e.getDeltaY() == 0) {
+            return;
+        }
+        double anchor = timeAxis.getValueForDisplay(timeAxis.sceneToLocal(e.getSceneX(), e.getSceneY()).getX())
+                .doubleValue();
+        double factor = e.getDeltaY() > 0 ? 0.8 : 1.25;
+        long span = Math.max(Math.round((to - from) * factor), MIN_SPAN);
+        long newFrom = Math.round(anchor - (anchor - from) * factor);
+        setWindow(newFrom, newFrom + span);
+        e.consume();
+    }
+
+    private void pan(MouseEvent e) {
+        if (sampled == null || e.getButton() != MouseButton.PRIMARY || timeAxis.getWidth() <= 0) {
+            return;
+        }
+        long shift = Math.round((dragX - e.getX()) * (to - from) / timeAxis.getWidth());
+        setWindow(dragFrom + shift, dragFrom + shift + (to - from));
+    }
+
+    /**
+     * Ставит окно [newFrom, newTo), не выходя за пределы ряда, и запрашивает точки для него.
+     * Ось меняется сразу, точки приходят после прореживания.
+     */
+    private void setWindow(long newFrom, long newTo) {
+        long first = sampled.firstMinute();
+        long end = Math.max(sampled.endMinute(), first + MIN_SPAN);
+        long span = Math.min(newTo - newFrom, end - first);
+        newFrom = Math.max(first, Math.min(newFrom, end - span));
+        from = (int) newFrom;
+        to = (int) (newFrom + span);
+        timeAxis.setLowerBound(from);
+        timeAxis.setUpperBound(to);
+        timeAxis.setTickUnit(Math.max(span / 8.0, 1));
+        resample();
+    }
+
+    private void resample() {
+        if (sampled == null || from >= to) {
+            return;
+        }
+        if (sampling) {
+            sampleAgain = true;
+            return;
+        }
+        sampling = true;
+        SampledSeries requested = sampled;
+        int windowFrom = from;
+        int windowTo = to;
+        int width = (int) Math.ceil(Math.max(timeAxis.getWidth(), 1) / WIDTH_STEP) * WIDTH_STEP;
+        CompletableFuture<Sample> result = new CompletableFuture<>();
+        Thread.ofVirtual().name("bills-chart").start(() -> {
+            try {
+                IntervalSeries points = new IntervalSeries(2 * width);
+                int tiles = requested.window(windowFrom, windowTo, width, points);
+                List<XYChart.Data<Number, Number>> data = new ArrayList<>(points.size());
+                for (int i = 0; i < points.size(); i++) {
+                    data.add(new XYChart.Data<>(points.minute(i), FixedPoint.quantityValue(points.quantity(i))));
+                }
+                result.complete(new Sample(data, tiles));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((sample, error) -> Platform.runLater(() -> {
+            sampling = false;
+            if (error != null) {
+                errorHandler.accept(error);
+            } else if (requested == sampled) {
+                series.getData().setAll(sample.data());
+                info.setText("Точек в ряду: " + requested.size() + ", на графике: " + sample.data().size()
+                             + (sample.tiles() > 0 ? ", прорежено плиток: " + sample.tiles() : ""));
+            }
+            if (sampleAgain) {
+                sampleAgain = false;
+                resample();
+            }
+        }));
+    }
+
+    @Override
+    public void changed(List<HistoryChange> changes) {
+        Platform.runLater(() -> {
+            // Записи других счетов, в том числе каждый сброс очереди записи, показанный ряд не меняют
+            for (HistoryChange change : changes) {
+                if (change.key().accountId() == accountId) {
+                    reloadHistory();
+                    return;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void invalidated() {
+        Platform.runLater(this::reloadHistory);
+    }
+
+    private void reloadHistory() {
+        if (source.kind == null) {
+            reload();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.markproject.bills;
+
+import javafx.application.Platform;
+import org.markproject.bills.diag.FxStallEvent;
+import org.markproject.bills.diag.LatencyHistogram;
+import org.markproject.bills.diag.Log;
+import org.markproject.bills.diag.Metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сторож потока JavaFX. Периодически ставит в очередь FX короткую задачу-отметку;
+ * если отметка не выполнена дольше порога, поток считается зависшим и в журнал
+ * пишется его стек. Задержка каждой отметки попадает в гистограмму fx.lag.
+ * Порог задается свойством {@code bills.fx.stallMs} (по умолчанию 500 мс).
+ */
+final class FxWatchdog implements AutoCloseable {
+    private static final long TICK_MS = 100;
+    private static final int STACK_DEPTH = 12;
+    private static final LatencyHistogram LAG = Metrics.timer("fx.lag");
+
+    private final long thresholdNanos;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bills-fx-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Thread fxThread;
+    // Время постановки отметки, которая еще не выполнена; 0 — отметок в очереди нет
+    private volatile long pendingSince;
+    private volatile boolean stallReported;
+    private volatile String stallStack;
+
+    FxWatchdog() {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("bills.fx.stallMs", 500));
+    }
+
+    void start() {
+        Platform.runLater(() -> fxThread = Thread.currentThread());
+        timer.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        long since = pendingSince;
+        long now = System.nanoTime();
+        if (since == 0) {
+            pendingSince = now;
+            Platform.runLater(this::beat);
+        } else if (!stallReported && now - since > thresholdNanos) {
+            stallReported = true;
+            stallStack = stack(fxThread);
+            Log.warn("Поток FX не отвечает " + TimeUnit.NANOSECONDS.toMillis(now - since) + " мс:\n" + stallStack);
+        }
+    }
+
+    private void beat() {
+        long lag = System.nanoTime() - pendingSince;
+        LAG.record(lag);
+        if (stallReported) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(lag);
+            Log.warn("Поток FX освободился через " + millis + " мс");
+            FxStallEvent event = new FxStallEvent();
+            if (event.shouldCommit()) {
+                event.stallMillis = millis;
+                event.stackTrace = stallStack;
+                event.commit();
+            }
+            stallReported = false;
+            stallStack = null;
+        }
+        pendingSince = 0;
+    }
+
+    private static String stack(Thread thread) {
+        if (thread == null) {
+            return "(поток FX еще не запущен)";
+        }
+        StringBuilder text = new StringBuilder();
+        StackTraceElement[] frames = thread.getStackTrace();
+        for (int i = 0; i < Math.min(frames.length, STACK_DEPTH); i++) {
+            text.append("    at ").append(frames[i]).append('\n');
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+}
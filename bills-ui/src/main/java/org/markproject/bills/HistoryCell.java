@@ -0,0 +1,22 @@
+package org.markproject.bills;
+
+import javafx.scene.control.TableCell;
+
+import java.util.function.Function;
+
+/**
+ * Ячейка таблицы истории, которая берет текст прямо из строки, минуя JavaFX-свойства.
+ */
+final class HistoryCell extends TableCell<HistoryRecord, HistoryRecord> {
+    private final Function<HistoryRecord, String> text;
+
+    HistoryCell(Function<HistoryRecord, String> text) {
+        this.text = text;
+    }
+
+    @Override
+    protected void updateItem(HistoryRecord record, boolean empty) {
+        super.updateItem(record, empty);
+        setText(empty || record == null ? null : text.apply(record));
+    }
+}
@@ -0,0 +1,170 @@
+package org.markproject.bills;
+
+import javafx.animation.PauseTransition;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.HBox;
+import javafx.util.Duration;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.history.HistoryQuery;
+import org.markproject.bills.text.DecimalParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Панель фильтров истории: месяцы или сезон, диапазон значений поля и поиск по тексту.
+ * Изменения текстовых полей сообщаются после паузы в наборе, неверные границы подсвечиваются
+ * и не учитываются. Все методы вызываются в потоке FX.
+ */
+final class HistoryFilterBar {
+    // Пауза в наборе, после которой фильтр применяется
+    private static final Duration DELAY = Duration.millis(250);
+    private static final String INVALID_STYLE = "-fx-text-fill: firebrick;";
+    // Границы диапазона разбираются с точностью до тысячных
+    private static final int BOUND_SCALE = 3;
+
+    private record MonthChoice(String title, int mask) {
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+
+    private record FieldChoice(String title, HistoryQuery.Field field) {
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+
+    private final ComboBox<MonthChoice> months = new ComboBox<>();
+    private final ComboBox<FieldChoice> rangeField = new ComboBox<>();
+    private final TextField min = new TextField();
+    private final TextField max = new TextField();
+    private final TextField search = new TextField();
+    private final DecimalParser parser = new DecimalParser();
+    private final PauseTransition delay = new PauseTransition(DELAY);
+    private final HBox view;
+    private Runnable onChange = () -> {
+    };
+    private boolean clearing;
+
+    HistoryFilterBar() {
+        months.getItems().addAll(
+                new MonthChoice("Все месяцы", 0),
+                new MonthChoice("Зима", HistoryQuery.WINTER),
+                new MonthChoice("Весна", HistoryQuery.SPRING),
+                new MonthChoice("Лето", HistoryQuery.SUMMER),
+                new MonthChoice("Осень", HistoryQuery.AUTUMN));
+        for (int month = 1; month <= 12; month++) {
+            months.getItems().add(new MonthChoice(BillingPeriod.monthName(month), 1 << month));
+        }
+        months.getSelectionModel().selectFirst();
+
+        rangeField.getItems().addAll(
+                new FieldChoice("Сумма", HistoryQuery.Field.TOTAL),
+                new FieldChoice("ХВС", HistoryQuery.Field.COLD),
+                new FieldChoice("ГВС", HistoryQuery.Field.HOT),
+                new FieldChoice("Водоотведение", HistoryQuery.Field.SEWER),
+                new FieldChoice("Эл. день", HistoryQuery.Field.ELECTRICITY_DAY),
+                new FieldChoice("Эл. ночь", HistoryQuery.Field.ELECTRICITY_NIGHT),
+                new FieldChoice("Счет", HistoryQuery.Field.ACCOUNT),
+                new FieldChoice("Год", HistoryQuery.Field.YEAR));
+        rangeField.getSelectionModel().selectFirst();
+
+        min.setPromptText("от");
+        min.setPrefColumnCount(6);
+        max.setPromptText("до");
+        max.setPrefColumnCount(6);
+        search.setPromptText("Поиск: период или счет");
+        search.setPrefColumnCount(16);
+
+        delay.setOnFinished(e -> changed());
+        months.valueProperty().addListener((obs, oldValue, newValue) -> changed());
+        rangeField.valueProperty().addListener((obs, oldValue, newValue) -> changed());
+        for (TextField field : List.of(min, max, search)) {
+            field.textProperty().addListener((obs, oldText, newText) -> {
+                if (!clearing) {
+                    delay.playFromStart();
+                }
+            });
+        }
+
+        Button reset = new Button("Сбросить");
+        reset.setOnAction(e -> {
+            clear();
+            onChange.run();
+        });
+        view = new HBox(10, new Label("Месяцы:"), months, new Label("Диапазон:"), rangeField, min, max,
+                search, reset);
+        view.setAlignment(Pos.CENTER_LEFT);
+    }
+
+    Node view() {
+        return view;
+    }
+
+    /**
+     * @param onChange вызывается после изменения любого фильтра
+     */
+    void setOnChange(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    /**
+     * Фильтры по текущему состоянию панели; неверные границы подсвечиваются и пропускаются.
+     */
+    List<HistoryQuery.Filter> filters() {
+        List<HistoryQuery.Filter> filters = new ArrayList<>();
+        MonthChoice month = months.getValue();
+        if (month != null && month.mask() != 0) {
+            filters.add(new HistoryQuery.Months(month.mask()));
+        }
+        double from = bound(min, Double.NEGATIVE_INFINITY);
+        double to = bound(max, Double.POSITIVE_INFINITY);
+        if (rangeField.getValue() != null && (from != Double.NEGATIVE_INFINITY || to != Double.POSITIVE_INFINITY)) {
+            filters.add(new HistoryQuery.Range(rangeField.getValue().field(), from, to));
+        }
+        String text = search.getText().strip();
+        if (!text.isEmpty()) {
+            filters.add(new HistoryQuery.Text(text));
+        }
+        return filters;
+    }
+
+    /**
+     * Сбрасывает все фильтры, не сообщая об изменениях.
+     */
+    void clear() {
+        clearing = true;
+        try {
+            delay.stop();
+            months.getSelectionModel().selectFirst();
+            min.clear();
+            max.clear();
+            search.clear();
+        } finally {
+            clearing = false;
+        }
+    }
+
+    private void changed() {
+        if (!clearing) {
+            onChange.run();
+        }
+    }
+
+    private double bound(TextField field, double open) {
+        DecimalParser.Status status = parser.parseFixed(field.getText(), BOUND_SCALE);
+        String style = status == DecimalParser.Status.VALID || status == DecimalParser.Status.EMPTY ? "" : INVALID_STYLE;
+        if (!style.equals(field.getStyle())) {
+            field.setStyle(style);
+        }
+        return status == DecimalParser.Status.VALID ? parser.fixed() / 1000.0 : open;
+    }
+}
@@ -0,0 +1,262 @@
+package org.markproject.bills;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.Label;
+import org.markproject.bills.db.HistoryChange;
+import org.markproject.bills.db.HistoryEntry;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryListener;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+import org.markproject.bills.history.HistoryIndex;
+import org.markproject.bills.history.HistoryQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Список истории для TableView, когда заданы фильтры или сортировка.
+ * <p>
+ * История читается в память одним снимком ({@link HistoryRepository#loadAll()}) и оборачивается
+ * в {@link HistoryIndex}; запрос вычисляется в виртуальном потоке, а поток FX получает готовый порядок
+ * строк и подменяет его одним изменением списка, так что таблица никогда не видит частичный результат
+ * и ничего не сортирует сама. Пока идет вычисление, новые запросы сводятся к одному повторному.
+ * Изменения истории накладываются на снимок в памяти без перечитывания таблицы, и запрос вычисляется
+ * заново, если список показан, или при следующем показе. Целиком снимок перечитывается только
+ * после {@link #invalidated()} (например, после импорта).
+ * <p>
+ * Все методы, кроме методов {@link HistoryListener}, вызываются в потоке FX.
+ */
+final class HistoryQueryList extends ObservableListBase<HistoryRecord> implements HistoryListener {
+    /** Результат запроса: снимок, порядок его строк и время вычисления. */
+    private record Result(HistoryIndex index, int epoch, int generation, int[] order, long elapsedNanos) {
+    }
+
+    // Столько изменений копится для скрытого списка; дальше снимок сбрасывается и при показе перечитывается
+    private static final int MAX_PENDING_CHANGES = 100_000;
+    // Порядок ленты и снимка loadAll
+    private static final Comparator<HistoryKey> KEY_ORDER = Comparator.comparingInt(HistoryKey::period)
+            .thenComparingInt(HistoryKey::accountId).reversed();
+    private static final Comparator<HistoryChange> FEED_ORDER = Comparator.comparing(HistoryChange::key, KEY_ORDER);
+
+    private final HistoryRepository repository;
+    private final Consumer<Throwable> errorHandler;
+    private final Label info = new Label();
+
+    private HistoryQuery query = HistoryQuery.ALL;
+    // Снимок истории; null, пока не прочитан или после invalidated()
+    private HistoryIndex index;
+    // Изменения, еще не наложенные на снимок, по порядку фиксации
+    private List<HistoryChange> pendingChanges = new ArrayList<>();
+    // Увеличивается при каждом изменении истории, чтобы не показать результат, устаревший до публикации
+    private int generation;
+    // Увеличивается при invalidated(), чтобы не принять снимок, прочитанный или дополненный до него
+    private int epoch;
+    private boolean active;
+    private boolean running;
+    private boolean runAgain;
+
+    private HistoryColumns rows;
+    private int[] order = new int[0];
+    private HistoryRecord[] views = new HistoryRecord[0];
+
+    HistoryQueryList(HistoryRepository repository, Consumer<Throwable> errorHandler) {
+        this.repository = repository;
+        this.errorHandler = errorHandler;
+        repository.events().subscribe(this);
+    }
+
+    @Override
+    public int size() {
+        return order.length;
+    }
+
+    @Override
+    public HistoryRecord get(int index) {
+        Objects.checkIndex(index, order.length);
+        HistoryRecord view = views[index];
+        if (view == null) {
+            view = new HistoryRecord(rows, order[index]);
+            views[index] = view;
+        }
+        return view;
+    }
+
+    /** Число найденных записей и время запроса. */
+    Label info() {
+        return info;
+    }
+
+    /**
+     * Показывает результат запроса; повторный показ того же запроса ничего не делает.
+     */
+    void show(HistoryQuery query) {
+        if (active && query.equals(this.query)) {
+            return;
+        }
+        this.query = query;
+        active = true;
+        run();
+    }
+
+    /**
+     * Список больше не показан: изменения истории только сбрасывают снимок.
+     */
+    void suspend() {
+        active = false;
+        info.setText("");
+    }
+
+    private void run() {
+        if (running) {
+            runAgain = true;
+            return;
+        }
+        running = true;
+        HistoryQuery requested = query;
+        int requestedEpoch = epoch;
+        int requestedGeneration = generation;
+        List<HistoryChange> changes = pendingChanges;
+        pendingChanges = new ArrayList<>();
+        CompletableFuture<HistoryIndex> source = index != null
+                ? CompletableFuture.completedFuture(index)
+                : repository.loadAll().thenApply(HistoryIndex::new);
+        CompletableFuture<Result> result = source.thenCompose(loaded -> {
+            CompletableFuture<Result> evaluated = new CompletableFuture<>();
+            Thread.ofVirtual().name("bills-query").start(() -> {
+                try {
+                    long started = System.nanoTime();
+                    HistoryIndex snapshot = changes.isEmpty() ? loaded : new HistoryIndex(apply(loaded.rows(), changes));
+                    int[] rowOrder = snapshot.evaluate(requested);
+                    evaluated.complete(new Result(snapshot, requestedEpoch, requestedGeneration, rowOrder,
+                            System.nanoTime() - started));
+                } catch (Throwable e) {
+                    evaluated.completeExceptionally(e);
+                }
+            });
+            return evaluated;
+        });
+        result.whenComplete((evaluated, error) -> Platform.runLater(() -> {
+            running = false;
+            if (error != null) {
+                errorHandler.accept(error);
+                if (requestedEpoch == epoch) {
+                    // Снимок не продвинулся: изменения будут наложены при следующем запросе
+                    changes.addAll(pendingChanges);
+                    pendingChanges = changes;
+                }
+            } else if (evaluated.epoch() == epoch) {
+                // Изменения, пришедшие во время вычисления, остались в pendingChanges и лягут поверх
+                index = evaluated.index();
+                if (active && requested.equals(query) && evaluated.generation() == generation) {
+                    publish(evaluated);
+                }
+            }
+            // Запрос сменился или история изменилась, пока шло вычисление
+            if (runAgain) {
+                runAgain = false;
+                run();
+            }
+        }));
+    }
+
+    private void publish(Result result) {
+        int oldSize = order.length;
+        rows = result.index().rows();
+        order = result.order();
+        views = new HistoryRecord[order.length];
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(0, Collections.nCopies(oldSize, null));
+        }
+        if (order.length > 0) {
+            nextAdd(0, order.length);
+        }
+        endChange();
+        info.setText("Найдено: " + order.length + " из " + rows.size() + ", запрос "
+                     + result.elapsedNanos() / 1_000_000 + " мс");
+    }
+
+    private void historyChanged(List<HistoryChange> changes) {
+        generation++;
+        // Без снимка и без идущего чтения копить нечего: следующий запрос прочитает историю заново
+        if (index != null || running) {
+            pendingChanges.addAll(changes);
+            if (!active && !running && pendingChanges.size() > MAX_PENDING_CHANGES) {
+                index = null;
+                pendingChanges = new ArrayList<>();
+            }
+        }
+        if (active) {
+            run();
+        }
+    }
+
+    private void historyInvalidated() {
+        generation++;
+        epoch++;
+        index = null;
+        pendingChanges = new ArrayList<>();
+        if (active) {
+            run();
+        }
+    }
+
+    /**
+     * Новый снимок: строки rows с наложенными изменениями в том же порядке (period DESC, account_id DESC).
+     * Из нескольких изменений одной строки действует последнее.
+     */
+    static HistoryColumns apply(HistoryColumns rows, List<HistoryChange> changes) {
+        Map<HistoryKey, HistoryChange> latest = new HashMap<>();
+        for (HistoryChange change : changes) {
+            latest.put(change.key(), change);
+        }
+        List<HistoryChange> sorted = new ArrayList<>(latest.values());
+        sorted.sort(FEED_ORDER);
+        HistoryColumns result = new HistoryColumns(Math.max(1, rows.size() + sorted.size()));
+        int next = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            HistoryKey key = new HistoryKey(rows.accountId(row), rows.period(row));
+            while (next < sorted.size() && KEY_ORDER.compare(sorted.get(next).key(), key) < 0) {
+                add(result, sorted.get(next++));
+            }
+            if (next < sorted.size() && sorted.get(next).key().equals(key)) {
+                add(result, sorted.get(next++));
+            } else {
+                result.add(rows.accountId(row), rows.period(row), rows.coldWater(row), rows.hotWater(row),
+                        rows.sewer(row), rows.electricityDay(row), rows.electricityNight(row), rows.total(row));
+            }
+        }
+        while (next < sorted.size()) {
+            add(result, sorted.get(next++));
+        }
+        return result;
+    }
+
+    private static void add(HistoryColumns rows, HistoryChange change) {
+        HistoryEntry entry = change.entry();
+        // Удаление строки, которой нет в снимке, ничего не добавляет
+        if (entry != null) {
+            rows.add(entry.accountId(), entry.period(), entry.coldWater(), entry.hotWater(), entry.sewer(),
+                    entry.electricityDay(), entry.electricityNight(), entry.total());
+        }
+    }
+
+    @Override
+    public void changed(List<HistoryChange> changes) {
+        Platform.runLater(() -> historyChanged(changes));
+    }
+
+    @Override
+    public void invalidated() {
+        Platform.runLater(this::historyInvalidated);
+    }
+}
@@ -0,0 +1,150 @@
+package org.markproject.bills;
+
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.value.ObservableValue;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.history.HistoryColumns;
+
+/**
+ * Представление одной строки {@link HistoryColumns} для TableView.
+ * Значения читаются прямо из столбцов; JavaFX-свойства создаются только
+ * при первом обращении к ним, то есть для видимых или редактируемых строк.
+ */
+public class HistoryRecord {
+    private final HistoryColumns columns;
+    private final int row;
+
+    private ReadOnlyObjectWrapper<HistoryRecord> self;
+    private IntegerProperty accountId;
+    private IntegerProperty period;
+    private DoubleProperty coldWater;
+    private DoubleProperty hotWater;
+    private DoubleProperty sewer;
+    private DoubleProperty electricityDay;
+    private DoubleProperty electricityNight;
+    private DoubleProperty total;
+
+    public HistoryRecord(HistoryColumns columns, int row) {
+        this.columns = columns;
+        this.row = row;
+    }
+
+    public HistoryRecord(int accountId, int period, double coldWater, double hotWater, double sewer,
+                         double electricityDay, double electricityNight, double total) {
+        this(new HistoryColumns(1), 0);
+        columns.add(accountId, period, coldWater, hotWater, sewer, electricityDay, electricityNight, total);
+    }
+
+    /**
+     * Сама строка как значение ячейки; ячейки читают нужное поле без упаковки чисел.
+     */
+    public ObservableValue<HistoryRecord> asObservable() {
+        if (self == null) {
+            self = new ReadOnlyObjectWrapper<>(this);
+        }
+        return self.getReadOnlyProperty();
+    }
+
+    public int getAccountId() {
+        return accountId != null ? accountId.get() : columns.accountId(row);
+    }
+
+    public IntegerProperty accountIdProperty() {
+        if (accountId == null) {
+            accountId = new SimpleIntegerProperty(columns.accountId(row));
+        }
+        return accountId;
+    }
+
+    public int getPeriod() {
+        return period != null ? period.get() : columns.period(row);
+    }
+
+    public IntegerProperty periodProperty() {
+        if (period == null) {
+            period = new SimpleIntegerProperty(columns.period(row));
+        }
+        return period;
+    }
+
+    public String getLocalizedPeriod() {
+        return localizedPeriod(getPeriod());
+    }
+
+    /**
+     * Период yyyymm в виде "Январь 2024".
+     */
+    public static String localizedPeriod(int period) {
+        return BillingPeriod.displayName(period);
+    }
+
+    public double getColdWater() {
+        return coldWater != null ? coldWater.get() : columns.coldWater(row);
+    }
+
+    public DoubleProperty coldWaterProperty() {
+        if (coldWater == null) {
+            coldWater = new SimpleDoubleProperty(columns.coldWater(row));
+        }
+        return coldWater;
+    }
+
+    public double getHotWater() {
+        return hotWater != null ? hotWater.get() : columns.hotWater(row);
+    }
+
+    public DoubleProperty hotWaterProperty() {
+        if (hotWater == null) {
+            hotWater = new SimpleDoubleProperty(columns.hotWater(row));
+        }
+        return hotWater;
+    }
+
+    public double getSewer() {
+        return sewer != null ? sewer.get() : columns.sewer(row);
+    }
+
+    public DoubleProperty sewerProperty() {
+        if (sewer == null) {
+            sewer = new SimpleDoubleProperty(columns.sewer(row));
+        }
+        return sewer;
+    }
+
+    public double getElectricityDay() {
+        return electricityDay != null ? electricityDay.get() : columns.electricityDay(row);
+    }
+
+    public DoubleProperty electricityDayProperty() {
+        if (electricityDay == null) {
+            electricityDay = new SimpleDoubleProperty(columns.electricityDay(row));
+        }
+        return electricityDay;
+    }
+
+    public double getElectricityNight() {
+        return electricityNight != null ? electricityNight.get() : columns.electricityNight(row);
+    }
+
+    public DoubleProperty electricityNightProperty() {
+        if (electricityNight == null) {
+            electricityNight = new SimpleDoubleProperty(columns.electricityNight(row));
+        }
+        return electricityNight;
+    }
+
+    public double getTotal() {
+        return total != null ? total.get() : columns.total(row);
+    }
+
+    public DoubleProperty totalProperty() {
+        if (total == null) {
+            total = new SimpleDoubleProperty(columns.total(row));
+        }
+        return total;
+    }
+}
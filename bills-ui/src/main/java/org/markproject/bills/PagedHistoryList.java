@@ -0,0 +1,475 @@
+package org.markproject.bills;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import org.markproject.bills.db.HistoryChange;
+import org.markproject.bills.db.HistoryEntry;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryListener;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.history.HistoryColumns;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Список истории для TableView, который подгружает строки страницами по мере прокрутки.
+ * <p>
+ * Размер списка известен заранее, а строки запрашиваются только для тех страниц, к которым
+ * обращается таблица. Следующая страница читается keyset-запросом от последнего ключа
+ * предыдущей, а при переходе к произвольному месту начало страницы определяется по индексу.
+ * В памяти держится ограниченное число страниц, поэтому её расход не зависит от размера истории.
+ * Строки хранятся в {@link HistoryColumns}, а {@link HistoryRecord} создается только для строк,
+ * которые запросила таблица. Пока страница не загружена, {@link #get(int)} возвращает {@code null}.
+ * <p>
+ * Список подписан на {@link org.markproject.bills.db.HistoryEvents} и применяет изменения точечно:
+ * обновление правит строку загруженной страницы, вставка и удаление сдвигают размер и позиции.
+ * Если место строки видно по загруженным страницам, страница правится на месте; страницы после
+ * нее помечаются устаревшими и перечитываются при следующем обращении, продолжая показывать
+ * прежние строки. Полный пересчет размера нужен только после массовых изменений, таких как импорт.
+ * <p>
+ * Все методы, кроме обработчиков шины, вызываются только из JavaFX Application Thread.
+ */
+final class PagedHistoryList extends ObservableListBase<HistoryRecord> implements HistoryListener {
+    static final int PAGE_SIZE = 200;
+    private static final int MAX_PAGES = 16;
+    private static final int MAX_PAGE_ENDS = 1024;
+
+    private final HistoryRepository repository;
+    private final Consumer<Throwable> errorHandler;
+
+    private final Map<Integer, Page> pages = lruMap(MAX_PAGES);
+    // Последний ключ страницы: с него keyset-запросом читается следующая страница
+    private final Map<Integer, HistoryKey> pageEnds = lruMap(MAX_PAGE_ENDS);
+    private final Set<Integer> loading = new HashSet<>();
+    private int size;
+    // Увеличивается при каждом обновлении и сдвиге строк, чтобы отбросить ответы на устаревшие запросы
+    private int generation;
+    // Идет пересчет размера; изменения, пришедшие за это время, требуют еще одного пересчета
+    private boolean refreshing;
+    private boolean refreshAgain;
+
+    PagedHistoryList(HistoryRepository repository, Consumer<Throwable> errorHandler) {
+        this.repository = repository;
+        this.errorHandler = errorHandler;
+        repository.events().subscribe(this);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public HistoryRecord get(int index) {
+        Objects.checkIndex(index, size);
+        int page = index / PAGE_SIZE;
+        Page rows = pages.get(page);
+        if (rows == null || rows.stale) {
+            // Устаревшая страница видна, пока не придет свежая
+            requestPage(page, false);
+        }
+        return rows == null ? null : rows.view(index % PAGE_SIZE);
+    }
+
+    /**
+     * Перечитывает загруженные страницы, не пересчитывая размер истории.
+     */
+    void reload() {
+        generation++;
+        loading.clear();
+        beginChange();
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+            entry.getValue().stale = true;
+            int from = entry.getKey() * PAGE_SIZE;
+            int to = Math.min(size, from + PAGE_SIZE);
+            if (from < to) {
+                nextReplace(from, to, Collections.nCopies(to - from, null));
+            }
+        }
+        endChange();
+    }
+
+    /**
+     * Сбрасывает загруженные страницы и заново запрашивает размер истории.
+     */
+    void refresh() {
+        if (refreshing) {
+            refreshAgain = true;
+            return;
+        }
+        refreshing = true;
+        int requestGeneration = ++generation;
+        pages.clear();
+        pageEnds.clear();
+        loading.clear();
+        repository.count().whenComplete((count, error) -> Platform.runLater(() -> {
+            refreshing = false;
+            if (refreshAgain) {
+                refreshAgain = false;
+                refresh();
+                return;
+            }
+            if (requestGeneration != generation) {
+                return;
+            }
+            if (error != null) {
+                errorHandler.accept(error);
+                return;
+            }
+            int oldSize = size;
+            size = count;
+            beginChange();
+            if (oldSize > 0) {
+                nextRemove(0, Collections.nCopies(oldSize, null));
+            }
+            if (size > 0) {
+                nextAdd(0, size);
+            }
+            endChange();
+        }));
+    }
+
+    @Override
+    public void changed(List<HistoryChange> changes) {
+        Platform.runLater(() -> apply(changes));
+    }
+
+    @Override
+    public void invalidated() {
+        Platform.runLater(this::refresh);
+    }
+
+    private void apply(List<HistoryChange> changes) {
+        if (refreshing) {
+            // Неизвестно, учтет ли идущий пересчет эти изменения
+            refreshAgain = true;
+            return;
+        }
+        beginChange();
+        for (HistoryChange change : changes) {
+            switch (change.kind()) {
+                case UPDATED -> applyUpdate(change.key(), change.entry());
+                case INSERTED -> applyInsert(change.key(), change.entry());
+                case DELETED -> applyRemove(change.key());
+            }
+        }
+        endChange();
+    }
+
+    private void applyUpdate(HistoryKey key, HistoryEntry entry) {
+        // Устаревшие страницы могут повторять строки свежих, поэтому правятся все копии строки;
+        // строка, которой нет в загруженных страницах, будет прочитана уже с новыми значениями
+        for (Map.Entry<Integer, Page> loaded : pages.entrySet()) {
+            Page page = loaded.getValue();
+            int row = page.find(key);
+            if (row >= 0) {
+                HistoryRecord old = page.view(row);
+                page.update(row, entry);
+                if (!page.stale) {
+                    nextSet(loaded.getKey() * PAGE_SIZE + row, old);
+                }
+            }
+        }
+    }
+
+    private void applyInsert(HistoryKey key, HistoryEntry entry) {
+        if (locate(key) >= 0) {
+            // Страница прочитана уже после записи и содержит строку
+            applyUpdate(key, entry);
+            return;
+        }
+        int exact = exactInsertIndex(key);
+        int index = exact >= 0 ? exact : approximateIndex(key, size);
+        size++;
+        nextAdd(index, index + 1);
+        shift(index, exact >= 0, entry);
+    }
+
+    private void applyRemove(HistoryKey key) {
+        int exact = locate(key);
+        int index = exact >= 0 ? exact : approximateIndex(key, -1);
+        if (index < 0) {
+            return;
+        }
+        HistoryRecord removed = exact >= 0 ? get(index) : null;
+        size--;
+        nextRemove(index, removed);
+        shift(index, exact >= 0, null);
+    }
+
+    /**
+     * Сдвигает страницы после вставки (entry не {@code null}) или удаления строки на позиции index.
+     * Если позиция точная, страница с ней правится на месте, иначе тоже становится устаревшей.
+     */
+    private void shift(int index, boolean exact, HistoryEntry entry) {
+        // Ответы на запросы, отправленные до сдвига, относятся к прежним позициям
+        generation++;
+        loading.clear();
+        int first = index / PAGE_SIZE;
+        pageEnds.keySet().removeIf(page -> page >= first);
+        for (Map.Entry<Integer, Page> loaded : pages.entrySet()) {
+            int page = loaded.getKey();
+            if (page < first) {
+                continue;
+            }
+            if (page > first || !exact) {
+                loaded.getValue().stale = true;
+                continue;
+            }
+            Page patched = entry != null
+                    ? loaded.getValue().inserted(index % PAGE_SIZE, entry)
+                    : loaded.getValue().removed(index % PAGE_SIZE);
+            // Страница, потерявшая строку, дочитается: ее последняя строка теперь на следующей странице
+            patched.stale = patched.size() < PAGE_SIZE && (page + 1) * PAGE_SIZE < size;
+            if (!patched.stale && patched.size() == PAGE_SIZE) {
+                pageEnds.put(page, patched.key(PAGE_SIZE - 1));
+            }
+            loaded.setValue(patched);
+        }
+    }
+
+    /**
+     * Позиция строки с ключом в свежих загруженных страницах или -1.
+     */
+    private int locate(HistoryKey key) {
+        for (Map.Entry<Integer, Page> loaded : pages.entrySet()) {
+            Page page = loaded.getValue();
+            int row = page.find(key);
+            if (row >= 0 && !page.stale) {
+                return loaded.getKey() * PAGE_SIZE + row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Позиция новой строки, если ее соседи видны в свежих загруженных страницах, иначе -1.
+     */
+    private int exactInsertIndex(HistoryKey key) {
+        // Свежие страницы собираются заранее: get() меняет порядок LRU и ломает обход
+        Map<Integer, Page> fresh = new HashMap<>();
+        pages.forEach((number, page) -> {
+            if (!page.stale) {
+                fresh.put(number, page);
+            }
+        });
+        for (Map.Entry<Integer, Page> loaded : pages.entrySet()) {
+            Page page = loaded.getValue();
+            if (page.stale) {
+                continue;
+            }
+            int number = loaded.getKey();
+            int start = number * PAGE_SIZE;
+            int row = -page.find(key) - 1;
+            if (row > 0 && row < page.size()) {
+                return start + row;
+            }
+            if (row == 0 && (number == 0 || follows(key, fresh.get(number - 1)))) {
+                return start;
+            }
+            if (row == page.size() && start + page.size() == size) {
+                return size;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Позиция в незагруженной части списка, где может находиться строка с ключом: перед первой
+     * свежей страницей, целиком идущей после ключа, или fallback, если такой страницы нет.
+     * Строки незагруженной части неизвестны, поэтому точная позиция в ней не важна.
+     */
+    private int approximateIndex(HistoryKey key, int fallback) {
+        int index = -1;
+        for (Map.Entry<Integer, Page> loaded : pages.entrySet()) {
+            Page page = loaded.getValue();
+            if (!page.stale && page.size() > 0 && compare(key, page.key(0)) < 0) {
+                int start = loaded.getKey() * PAGE_SIZE;
+                index = index < 0 ? start : Math.min(index, start);
+            }
+        }
+        if (index < 0) {
+            return fallback < 0 ? size - 1 : fallback;
+        }
+        // Для удаления позиция берется перед страницей: строка была в незагруженной части
+        return fallback < 0 ? index - 1 : index;
+    }
+
+    /**
+     * Ключ идет после последней строки полной страницы previous.
+     */
+    private static boolean follows(HistoryKey key, Page previous) {
+        return previous != null && previous.size() == PAGE_SIZE && compare(key, previous.key(PAGE_SIZE - 1)) > 0;
+    }
+
+    private boolean isFresh(int page) {
+        Page rows = pages.get(page);
+        return rows != null && !rows.stale;
+    }
+
+    /**
+     * Порядок ленты: сначала новые периоды, внутри периода — большие номера счетов.
+     */
+    private static int compare(HistoryKey a, HistoryKey b) {
+        int byPeriod = Integer.compare(b.period(), a.period());
+        return byPeriod != 0 ? byPeriod : Integer.compare(b.accountId(), a.accountId());
+    }
+
+    private void requestPage(int page, boolean prefetch) {
+        if (!loading.add(page)) {
+            return;
+        }
+        int requestGeneration = generation;
+        CompletableFuture<HistoryKey> start;
+        if (page == 0) {
+            start = CompletableFuture.completedFuture(null);
+        } else if (pageEnds.containsKey(page - 1)) {
+            start = CompletableFuture.completedFuture(pageEnds.get(page - 1));
+        } else {
+            start = repository.keyAt(page * PAGE_SIZE - 1);
+        }
+        start.thenCompose(after -> page > 0 && after == null
+                        ? CompletableFuture.completedFuture(new HistoryColumns(0))
+                        : repository.loadPage(after, PAGE_SIZE))
+             .whenComplete((entries, error) -> Platform.runLater(() -> {
+                 if (requestGeneration != generation) {
+                     return;
+                 }
+                 loading.remove(page);
+                 if (error != null) {
+                     errorHandler.accept(error);
+                     return;
+                 }
+                 pageLoaded(page, entries);
+                 // Пока пользователь смотрит страницу, читаем следующую
+                 int next = page + 1;
+                 if (!prefetch && next * PAGE_SIZE < size && !isFresh(next)) {
+                     requestPage(next, true);
+                 }
+             }));
+    }
+
+    private void pageLoaded(int page, HistoryColumns rows) {
+        pages.put(page, new Page(rows));
+        if (!rows.isEmpty()) {
+            int last = rows.size() - 1;
+            pageEnds.put(page, new HistoryKey(rows.accountId(last), rows.period(last)));
+        }
+
+        int from = page * PAGE_SIZE;
+        int to = Math.min(size, from + PAGE_SIZE);
+        if (from < to) {
+            beginChange();
+            nextReplace(from, to, Collections.nCopies(to - from, null));
+            endChange();
+        }
+    }
+
+    /**
+     * Загруженная страница: данные в столбцах, представления строк создаются при первом обращении.
+     */
+    private static final class Page {
+        private final HistoryColumns rows;
+        private final HistoryRecord[] views;
+        // Позиции строк сдвинулись после вставки или удаления; страница показывается до перечитывания
+        boolean stale;
+
+        Page(HistoryColumns rows) {
+            this.rows = rows;
+            this.views = new HistoryRecord[rows.size()];
+        }
+
+        int size() {
+            return rows.size();
+        }
+
+        HistoryKey key(int row) {
+            return new HistoryKey(rows.accountId(row), rows.period(row));
+        }
+
+        /**
+         * Номер строки с ключом или {@code -(точка вставки) - 1}; строки упорядочены как лента.
+         */
+        int find(HistoryKey key) {
+            int low = 0;
+            int high = rows.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int order = compare(key(middle), key);
+                if (order < 0) {
+                    low = middle + 1;
+                } else if (order > 0) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void update(int row, HistoryEntry entry) {
+            set(rows, row, entry);
+            views[row] = null;
+        }
+
+        /**
+         * Копия страницы со вставленной строкой; строка, вышедшая за размер страницы, отбрасывается.
+         */
+        Page inserted(int row, HistoryEntry entry) {
+            int length = Math.min(PAGE_SIZE, rows.size() + 1);
+            HistoryColumns copy = new HistoryColumns(length);
+            for (int i = 0; i < length; i++) {
+                if (i == row) {
+                    copy.add(0, 0, 0, 0, 0, 0, 0, 0);
+                    set(copy, i, entry);
+                } else {
+                    copyRow(rows, i < row ? i : i - 1, copy);
+                }
+            }
+            return new Page(copy);
+        }
+
+        Page removed(int row) {
+            HistoryColumns copy = new HistoryColumns(rows.size() - 1);
+            for (int i = 0; i < rows.size(); i++) {
+                if (i != row) {
+                    copyRow(rows, i, copy);
+                }
+            }
+            return new Page(copy);
+        }
+
+        private static void set(HistoryColumns columns, int row, HistoryEntry entry) {
+            columns.set(row, entry.accountId(), entry.period(), entry.coldWater(), entry.hotWater(), entry.sewer(),
+                    entry.electricityDay(), entry.electricityNight(), entry.total());
+        }
+
+        private static void copyRow(HistoryColumns from, int row, HistoryColumns to) {
+            to.add(from.accountId(row), from.period(row), from.coldWater(row), from.hotWater(row), from.sewer(row),
+                    from.electricityDay(row), from.electricityNight(row), from.total(row));
+        }
+
+        HistoryRecord view(int row) {
+            if (row >= views.length) {
+                return null;
+            }
+            HistoryRecord view = views[row];
+            if (view == null) {
+                view = new HistoryRecord(rows, row);
+                views[row] = view;
+            }
+            return view;
+        }
+    }
+
+    private static <K, V> Map<K, V> lruMap(int capacity) {
+        return new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+}
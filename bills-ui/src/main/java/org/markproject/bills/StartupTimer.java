@@ -0,0 +1,43 @@
+package org.markproject.bills;
+
+import org.markproject.bills.diag.Log;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Замер времени запуска: от старта процесса до первого кадра и до готовности к работе.
+ */
+final class StartupTimer {
+    private final long origin;
+    private long firstFrame;
+    private long interactive;
+
+    StartupTimer() {
+        // Отсчет от старта JVM, если ОС сообщает его, иначе от создания таймера
+        long now = System.nanoTime();
+        this.origin = ProcessHandle.current().info().startInstant()
+                .map(start -> now - Duration.between(start, Instant.now()).toNanos())
+                .orElse(now);
+    }
+
+    /** Отмечает первый отрисованный кадр. Повторные вызовы игнорируются. */
+    void firstFrame() {
+        if (firstFrame == 0) {
+            firstFrame = System.nanoTime();
+            report("первый кадр", firstFrame);
+        }
+    }
+
+    /** Отмечает готовность к работе: база открыта и первая вкладка заполнена. */
+    void interactive() {
+        if (interactive == 0) {
+            interactive = System.nanoTime();
+            report("готов к работе", interactive);
+        }
+    }
+
+    private void report(String stage, long at) {
+        Log.info("Запуск: " + stage + " через " + (at - origin) / 1_000_000 + " мс");
+    }
+}
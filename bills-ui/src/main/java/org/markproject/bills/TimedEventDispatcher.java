@@ -0,0 +1,126 @@
+package org.markproject.bills;
+
+import javafx.event.Event;
+import javafx.event.EventDispatchChain;
+import javafx.event.EventDispatcher;
+import javafx.scene.Scene;
+import org.markproject.bills.diag.FxHandlerEvent;
+import org.markproject.bills.diag.LatencyHistogram;
+import org.markproject.bills.diag.Metrics;
+
+import java.util.function.Supplier;
+
+/**
+ * Замер времени обработки событий сцены: каждое событие, доставленное через сцену,
+ * попадает в гистограмму fx.event и, при включенной записи JFR, в {@link FxHandlerEvent}.
+ * Модальные диалоги открываются через {@link #untimed}, чтобы их показ не считался обработкой.
+ */
+final class TimedEventDispatcher implements EventDispatcher {
+    private static final LatencyHistogram EVENTS = Metrics.timer("fx.event");
+    private static final LatencyHistogram TASKS = Metrics.timer("fx.task");
+
+    // Идущий замер; события и задачи выполняются только в потоке FX
+    private static Measurement current;
+
+    private final EventDispatcher delegate;
+
+    private TimedEventDispatcher(EventDispatcher delegate) {
+        this.delegate = delegate;
+    }
+
+    static void install(Scene scene) {
+        scene.setEventDispatcher(new TimedEventDispatcher(scene.getEventDispatcher()));
+    }
+
+    @Override
+    public Event dispatchEvent(Event event, EventDispatchChain tail) {
+        Measurement measurement = new Measurement(EVENTS, event, null);
+        try {
+            return delegate.dispatchEvent(event, tail);
+        } finally {
+            measurement.finish();
+        }
+    }
+
+    /**
+     * Выполняет задачу, переданную в поток JavaFX, с тем же замером, что и обработку событий.
+     */
+    static void runTimed(String name, Runnable task) {
+        Measurement measurement = new Measurement(TASKS, null, name);
+        try {
+            task.run();
+        } finally {
+            measurement.finish();
+        }
+    }
+
+    /**
+     * Выполняет действие со вложенным циклом событий (модальный диалог, выбор файла) вне замера
+     * текущего обработчика: время, пока пользователь читает диалог, не считается временем обработки.
+     * События, пришедшие во вложенном цикле, замеряются сами по себе.
+     */
+    static <T> T untimed(Supplier<T> action) {
+        Measurement measurement = current;
+        if (measurement == null) {
+            return action.get();
+        }
+        measurement.pause();
+        current = null;
+        try {
+            return action.get();
+        } finally {
+            current = measurement;
+            measurement.resume();
+        }
+    }
+
+    /**
+     * Замер одного обработчика. Пауза на вложенный цикл событий закрывает событие JFR,
+     * продолжение открывает новое, а в гистограмму попадает сумма отрезков.
+     */
+    private static final class Measurement {
+        private final LatencyHistogram histogram;
+        private final Event event;
+        private final String task;
+        private final Measurement outer;
+        private long started;
+        private long elapsed;
+        private FxHandlerEvent jfrEvent;
+
+        Measurement(LatencyHistogram histogram, Event event, String task) {
+            this.histogram = histogram;
+            this.event = event;
+            this.task = task;
+            this.outer = current;
+            current = this;
+            resume();
+        }
+
+        void resume() {
+            started = System.nanoTime();
+            jfrEvent = new FxHandlerEvent();
+            jfrEvent.begin();
+        }
+
+        void pause() {
+            elapsed += System.nanoTime() - started;
+            jfrEvent.end();
+            if (jfrEvent.shouldCommit()) {
+                if (event != null) {
+                    jfrEvent.eventType = event.getEventType().getName();
+                    jfrEvent.target = event.getTarget() == null ? null : event.getTarget().getClass().getSimpleName();
+                } else {
+                    jfrEvent.eventType = "task";
+                    jfrEvent.target = task;
+                }
+                jfrEvent.commit();
+            }
+        }
+
+        void finish() {
+            pause();
+            histogram.record(elapsed);
+            current = outer;
+        }
+    }
+}
@@ -0,0 +1,1101 @@
+package org.markproject.bills;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.IntegerProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.control.*;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+import org.markproject.bills.billing.BillingPeriod;
+import org.markproject.bills.csv.CsvHistoryImporter;
+import org.markproject.bills.csv.ImportReport;
+import org.markproject.bills.db.AggregateCheck;
+import org.markproject.bills.db.AnalyticsRepository;
+import org.markproject.bills.db.Database;
+import org.markproject.bills.db.DbExecutor;
+import org.markproject.bills.db.HistoryDeletion;
+import org.markproject.bills.db.HistoryKey;
+import org.markproject.bills.db.HistoryRepository;
+import org.markproject.bills.db.MeterRepository;
+import org.markproject.bills.db.TariffRepository;
+import org.markproject.bills.db.TombstoneCompactor;
+import org.markproject.bills.diag.Log;
+import org.markproject.bills.export.ExportFormat;
+import org.markproject.bills.export.ExportListener;
+import org.markproject.bills.export.ExportReport;
+import org.markproject.bills.export.HistoryExporter;
+import org.markproject.bills.export.ReceiptExporter;
+import org.markproject.bills.diag.Metrics;
+import org.markproject.bills.history.HistoryQuery;
+import org.markproject.bills.history.YearlySummary;
+import org.markproject.bills.reprice.RepricingJob;
+import org.markproject.bills.reprice.RepricingReport;
+import org.markproject.bills.service.Bill;
+import org.markproject.bills.service.BillingService;
+import org.markproject.bills.tariff.FixedPoint;
+import org.markproject.bills.tariff.TariffPlan;
+import org.markproject.bills.tariff.TariffSnapshot;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Month;
+import java.time.Year;
+import java.time.YearMonth;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class UtilityBillApp extends Application {
+    // Диагностический вывод при запуске: -Dbills.debug=true
+    private static final boolean DEBUG = Boolean.getBoolean("bills.debug");
+    // Названия услуг вкладки аналитики в порядке номеров YearlySummary
+    private static final String[] UTILITY_NAMES = {
+            "ХВС (м³)", "ГВС (м³)", "Водоотведение (м³)",
+            "Электроэнергия Дн. (кВт⋅ч)", "Электроэнергия Ноч. (кВт⋅ч)", "Начислено (руб.)"};
+
+    private final Database database = new Database();
+    private final DbExecutor dbExecutor = new DbExecutor();
+    private final HistoryRepository historyRepository = new HistoryRepository(database, dbExecutor);
+    private final TariffRepository tariffRepository = new TariffRepository(database, dbExecutor);
+    private final AnalyticsRepository analyticsRepository = new AnalyticsRepository(database, dbExecutor);
+    private final MeterRepository meterRepository = new MeterRepository(database, dbExecutor);
+    private final BillingService billingService = new BillingService(tariffRepository, historyRepository);
+    private final TombstoneCompactor tombstoneCompactor = new TombstoneCompactor(historyRepository);
+
+    // Количество фоновых операций, результат которых ещё не вернулся в UI
+    private final IntegerProperty pendingOperations = new SimpleIntegerProperty();
+    private final Label statusLabel = new Label();
+    private final FxWatchdog fxWatchdog = new FxWatchdog();
+    private Tab diagnosticsTab;
+    // Идущий пересчет истории после смены тарифов; используется только в потоке FX
+    private RepricingJob repricing;
+    private CompletableFuture<RepricingReport> repricingRun;
+    // Отмена идущей выгрузки и ее результат; используются только в потоке FX
+    private Runnable cancelExport;
+    private CompletableFuture<ExportReport> exportRun;
+    // Идущий импорт; импортер создается в фоне после загрузки тарифов
+    private CompletableFuture<ImportReport> importing;
+    private volatile CsvHistoryImporter importer;
+    // Приложение закрывается: импорт, созданный после этого, сразу останавливается
+    private volatile boolean stopping;
+    // Удаления истории, которые можно отменить и вернуть; используются только в потоке FX
+    private final Deque<HistoryDeletion> undoDeletions = new ArrayDeque<>();
+    private final Deque<HistoryDeletion> redoDeletions = new ArrayDeque<>();
+    private final IntegerProperty undoDepth = new SimpleIntegerProperty();
+    private final IntegerProperty redoDepth = new SimpleIntegerProperty();
+    private final BooleanProperty deletionRunning = new SimpleBooleanProperty();
+
+    @Override
+    public void start(Stage primaryStage) {
+        StartupTimer startupTimer = new StartupTimer();
+
+        if (DEBUG) {
+            // Вывод переменных среды
+            StringBuilder environment = new StringBuilder("Environment Variables:");
+            System.getenv().forEach((key, value) -> environment.append('\n').append(key).append(" = ").append(value));
+            Log.info(environment.toString());
+
+            // Вывод системных свойств (например, рабочая директория)
+            StringBuilder properties = new StringBuilder("System Properties:");
+            System.getProperties().forEach((key, value) -> properties.append('\n').append(key).append(" = ").append(value));
+            Log.info(properties.toString());
+        }
+
+        // Подключение к базе данных идет в фоне, окно показывается сразу
+        CompletableFuture<Void> opening = database.open();
+
+        // Создание вкладок; содержимое строится при первом выборе вкладки
+        TabPane tabPane = new TabPane();
+        tabPane.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE); // Отключаем закрытие вкладок
+
+        Tab tariffsTab = lazyTab("Тарифы", this::createTariffsTab);
+        Tab calculationTab = lazyTab("Расчет", this::createCalculationTab);
+        Tab historyTab = lazyTab("История", this::createHistoryTab);
+        Tab analyticsTab = lazyTab("Аналитика", this::createAnalyticsTab);
+        Tab chartsTab = lazyTab("Графики", this::createChartsTab);
+
+        tabPane.getTabs().addAll(tariffsTab, calculationTab, historyTab, analyticsTab, chartsTab);
+        tabPane.getSelectionModel().selectedItemProperty().addListener((obs, oldTab, newTab) -> buildTab(newTab));
+
+        // Строка состояния с индикатором фоновых операций
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.visibleProperty().bind(pendingOperations.greaterThan(0));
+        HBox statusBar = new HBox(10, progressBar, statusLabel);
+        statusBar.setPadding(new Insets(5, 10, 5, 10));
+
+        BorderPane root = new BorderPane(tabPane);
+        root.setBottom(statusBar);
+
+        // Создание сцены
+        Scene scene = new Scene(root, 1000, 600); // Начальный размер окна
+        primaryStage.setScene(scene);
+        primaryStage.setTitle("Коммунальные платежи");
+
+        // Установка минимальных размеров окна
+        primaryStage.setMinWidth(800);
+        primaryStage.setMinHeight(600);
+
+        // Замер обработчиков событий и скрытая вкладка диагностики (Ctrl+Shift+D)
+        TimedEventDispatcher.install(scene);
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.D, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN),
+                () -> toggleDiagnosticsTab(tabPane));
+
+        // Первый импульс отрисовки после показа окна и есть первый кадр
+        Runnable firstPulse = new Runnable() {
+            @Override
+            public void run() {
+                scene.removePostLayoutPulseListener(this);
+                startupTimer.firstFrame();
+            }
+        };
+        scene.addPostLayoutPulseListener(firstPulse);
+
+        // Отображение окна
+        primaryStage.show();
+        fxWatchdog.start();
+
+        // Содержимое выбранной вкладки строим уже после первого кадра
+        Platform.runLater(() -> {
+            buildTab(tabPane.getSelectionModel().getSelectedItem());
+            runInBackground("Подключение к базе данных...", opening,
+                    ready -> {
+                        startupTimer.interactive();
+                        tombstoneCompactor.start();
+                    }, "Не удалось открыть базу данных.");
+        });
+    }
+
+    private void toggleDiagnosticsTab(TabPane tabPane) {
+        if (tabPane.getTabs().remove(diagnosticsTab)) {
+            return;
+        }
+        if (diagnosticsTab == null) {
+            diagnosticsTab = lazyTab("Диагностика", this::createDiagnosticsTab);
+        }
+        tabPane.getTabs().add(diagnosticsTab);
+        tabPane.getSelectionModel().select(diagnosticsTab);
+    }
+
+    private Tab lazyTab(String title, Supplier<Node> content) {
+        Tab tab = new Tab(title);
+        tab.setUserData(content);
+        return tab;
+    }
+
+    /**
+     * Строит содержимое вкладки при первом обращении к ней.
+     */
+    private void buildTab(Tab tab) {
+        if (tab != null && tab.getContent() == null && tab.getUserData() instanceof Supplier<?> content) {
+            tab.setUserData(null);
+            tab.setContent((Node) content.get());
+        }
+    }
+
+    private void calculateBill(Spinner<Integer> account, ComboBox<Month> month, Spinner<Integer> year,
+                               BillPreview preview, Label result) {
+        if (month.getValue() == null) {
+            showAlert("Пожалуйста, выберите месяц.");
+            return;
+        }
+        // Проверяем ввод на корректность; показания в тысячных долях единицы
+        String error = preview.validate(false);
+        if (error != null) {
+            showAlert("Пожалуйста, введите числовые значения для расчета.\n" + error);
+            return;
+        }
+        int accountId = account.getValue();
+        int period = BillingPeriod.key(year.getValue(), month.getValue().getValue());
+
+        // Тарифы берутся из снимка в памяти, расчет сохраняется в фоне
+        CompletableFuture<Long> calculation = billingService.calculate(accountId, period, preview.quantities().clone())
+                .thenApply(Bill::total);
+
+        runInBackground("Расчет...", calculation, total -> {
+            result.setText("Общая сумма: " + FixedPoint.formatRubles(total) + " руб.");
+            showAlert("Расчет выполнен успешно!");
+        }, "Ошибка при расчете платежей.");
+    }
+
+    private GridPane createTariffsTab() {
+        GridPane grid = new GridPane();
+        grid.setPadding(new Insets(10));
+        grid.setHgap(10);
+        grid.setVgap(10);
+
+        Label effectiveLabel = new Label("Действуют с:");
+        ComboBox<Month> effectiveMonth = new ComboBox<>();
+        effectiveMonth.getItems().addAll(Month.values());
+        effectiveMonth.setValue(YearMonth.now().getMonth());
+        Spinner<Integer> effectiveYear = createYearSpinner();
+        HBox effectiveBox = new HBox(10, effectiveMonth, effectiveYear);
+
+        Label coldLabel = new Label("ХВС (руб/м3):");
+        TextField coldField = new TextField();
+        Label hotLabel = new Label("ГВС (руб/м3):");
+        TextField hotField = new TextField();
+        Label sewerLabel = new Label("Водоотведение (руб/м3):");
+        TextField sewerField = new TextField();
+        Label electricityDayLabel = new Label("Электроэнергия (день, руб/кВт*ч):");
+        TextField electricityDayField = new TextField();
+        Label electricityNightLabel = new Label("Электроэнергия (ночь, руб/кВт*ч):");
+        TextField electricityNightField = new TextField();
+
+        // Пересчет сохраненных сумм истории после смены тарифов, с ходом выполнения и отменой
+        ProgressBar repricingProgress = new ProgressBar(0);
+        Label repricingStatus = new Label();
+        Button cancelRepricing = new Button("Остановить пересчет");
+        HBox repricingBox = new HBox(10, repricingProgress, repricingStatus, cancelRepricing);
+        repricingBox.setVisible(false);
+        cancelRepricing.setOnAction(e -> {
+            if (repricing != null) {
+                repricing.cancel();
+                cancelRepricing.setDisable(true);
+            }
+        });
+
+        Button saveButton = new Button("Сохранить");
+        saveButton.setOnAction(e -> {
+            int effectiveFrom = BillingPeriod.key(effectiveYear.getValue(), effectiveMonth.getValue().getValue());
+            saveTariffs(effectiveFrom, coldField, hotField, sewerField, electricityDayField, electricityNightField,
+                    snapshot -> offerRepricing(snapshot, effectiveFrom, saveButton, repricingBox,
+                            repricingProgress, repricingStatus, cancelRepricing));
+        });
+
+        // Ступенчатый тариф вводится как «4,5 до 150; 6,2»: цена до порога потребления, затем следующая цена
+        Tooltip tiersHint = new Tooltip("Цена или ступени через точку с запятой, например: 4,5 до 150; 6,2");
+        for (TextField field : List.of(coldField, hotField, sewerField, electricityDayField, electricityNightField)) {
+            field.setTooltip(tiersHint);
+        }
+
+        // Подставляем действующие тарифы, чтобы их можно было поправить
+        runInBackground("Загрузка тарифов...", tariffRepository.snapshot(), snapshot -> {
+            TariffPlan latest = snapshot.latest();
+            if (latest != null) {
+                coldField.setText(latest.formatLine(TariffPlan.COLD));
+                hotField.setText(latest.formatLine(TariffPlan.HOT));
+                sewerField.setText(latest.formatLine(TariffPlan.SEWER));
+                electricityDayField.setText(latest.formatLine(TariffPlan.ELECTRICITY_DAY));
+                electricityNightField.setText(latest.formatLine(TariffPlan.ELECTRICITY_NIGHT));
+            }
+        }, "Ошибка загрузки тарифов.");
+
+        grid.add(effectiveLabel, 0, 0);
+        grid.add(effectiveBox, 1, 0);
+        grid.add(coldLabel, 0, 1);
+        grid.add(coldField, 1, 1);
+        grid.add(hotLabel, 0, 2);
+        grid.add(hotField, 1, 2);
+        grid.add(sewerLabel, 0, 3);
+        grid.add(sewerField, 1, 3);
+        grid.add(electricityDayLabel, 0, 4);
+        grid.add(electricityDayField, 1, 4);
+        grid.add(electricityNightLabel, 0, 5);
+        grid.add(electricityNightField, 1, 5);
+        grid.add(saveButton, 1, 6);
+        grid.add(repricingBox, 1, 7);
+
+        return grid;
+    }
+
+    private Spinner<Integer> createYearSpinner() {
+        Spinner<Integer> spinner = new Spinner<>(2000, 2100, Year.now().getValue());
+        spinner.setEditable(true);
+        spinner.setPrefWidth(100);
+        return spinner;
+    }
+
+    private GridPane createCalculationTab() {
+        GridPane grid = new GridPane();
+        grid.setPadding(new Insets(10));
+        grid.setHgap(10);
+        grid.setVgap(10);
+
+        Label accountLabel = new Label("Лицевой счет:");
+        Spinner<Integer> accountSpinner = new Spinner<>(1, Integer.MAX_VALUE, Database.DEFAULT_ACCOUNT);
+        accountSpinner.setEditable(true);
+
+        Label monthLabel = new Label("Месяц:");
+        ComboBox<Month> monthComboBox = new ComboBox<>();
+        monthComboBox.getItems().addAll(Month.values());
+        Spinner<Integer> yearSpinner = createYearSpinner();
+        HBox periodBox = new HBox(10, monthComboBox, yearSpinner);
+
+        Label coldLabel = new Label("ХВС (м3):");
+        TextField coldField = new TextField();
+        Label hotLabel = new Label("ГВС (м3):");
+        TextField hotField = new TextField();
+        Label sewerLabel = new Label("Водоотведение (м3):");
+        TextField sewerField = new TextField();
+        Label electricityDayLabel = new Label("Электроэнергия (день, кВт*ч):");
+        TextField electricityDayField = new TextField();
+        Label electricityNightLabel = new Label("Электроэнергия (ночь, кВт*ч):");
+        TextField electricityNightField = new TextField();
+        Label resultLabel = new Label();
+
+        // Предварительная сумма по мере ввода; поля в порядке строк тарифа
+        BillPreview preview = new BillPreview(tariffRepository, monthComboBox, yearSpinner,
+                new TextField[]{coldField, hotField, sewerField, electricityDayField, electricityNightField},
+                new String[]{"ХВС", "ГВС", "Водоотведение", "Электроэнергия (день)", "Электроэнергия (ночь)"});
+
+        Button calculateButton = new Button("Рассчитать");
+        calculateButton.setOnAction(e ->
+                calculateBill(accountSpinner, monthComboBox, yearSpinner, preview, resultLabel));
+
+        grid.add(accountLabel, 0, 0);
+        grid.add(accountSpinner, 1, 0);
+        grid.add(monthLabel, 0, 1);
+        grid.add(periodBox, 1, 1);
+        grid.add(coldLabel, 0, 2);
+        grid.add(coldField, 1, 2);
+        grid.add(hotLabel, 0, 3);
+        grid.add(hotField, 1, 3);
+        grid.add(sewerLabel, 0, 4);
+        grid.add(sewerField, 1, 4);
+        grid.add(electricityDayLabel, 0, 5);
+        grid.add(electricityDayField, 1, 5);
+        grid.add(electricityNightLabel, 0, 6);
+        grid.add(electricityNightField, 1, 6);
+        grid.add(preview.label(), 1, 7);
+        grid.add(calculateButton, 1, 8);
+        grid.add(resultLabel, 1, 9);
+
+        return grid;
+    }
+
+    private Node createHistoryTab() {
+        // Строки подгружаются страницами по мере прокрутки; пока страница читается, ячейки пусты
+        PagedHistoryList historyItems = new PagedHistoryList(historyRepository, this::showBackgroundError);
+        TableView<HistoryRecord> tableView = new TableView<>(historyItems);
+        tableView.setStyle("-fx-font-size: 14px;");
+
+        // Ячейки читают значения прямо из столбцов истории, без свойств и упаковки чисел
+        TableColumn<HistoryRecord, HistoryRecord> accountColumn =
+                historyColumn("Счет", 70, r -> Integer.toString(r.getAccountId()));
+        TableColumn<HistoryRecord, HistoryRecord> periodColumn =
+                historyColumn("Период", 130, r -> HistoryRecord.localizedPeriod(r.getPeriod()));
+
+        // Остальные колонки
+        TableColumn<HistoryRecord, HistoryRecord> coldColumn =
+                historyColumn("ХВС (м³)", 100, r -> Double.toString(r.getColdWater()));
+        TableColumn<HistoryRecord, HistoryRecord> hotColumn =
+                historyColumn("ГВС (м³)", 100, r -> Double.toString(r.getHotWater()));
+        TableColumn<HistoryRecord, HistoryRecord> sewerColumn =
+                historyColumn("Водоотведение (м³)", 120, r -> Double.toString(r.getSewer()));
+        TableColumn<HistoryRecord, HistoryRecord> electricityDayColumn =
+                historyColumn("Электроэнергия (кВт⋅ч) Дн.", 150, r -> Double.toString(r.getElectricityDay()));
+        TableColumn<HistoryRecord, HistoryRecord> electricityNightColumn =
+                historyColumn("Электроэнергия (кВт⋅ч) Ноч.", 150, r -> Double.toString(r.getElectricityNight()));
+        TableColumn<HistoryRecord, HistoryRecord> totalColumn =
+                historyColumn("Сумма (руб.)", 100, r -> Double.toString(r.getTotal()));
+
+        // Колонка с кнопкой удаления
+        TableColumn<HistoryRecord, Void> actionColumn = new TableColumn<>("Действие");
+        actionColumn.setPrefWidth(100);
+        actionColumn.setCellFactory(param -> new TableCell<>() {
+            private final Button deleteButton = new Button("Удалить");
+
+            {
+                deleteButton.setOnAction(event -> {
+                    HistoryRecord r = getTableView().getItems().get(getIndex());
+                    if (r != null) {
+                        showDeleteConfirmation(List.of(r));
+                    }
+                });
+            }
+
+            @Override
+            protected void updateItem(Void item, boolean empty) {
+                super.updateItem(item, empty);
+                setGraphic(empty || getTableRow() == null || getTableRow().getItem() == null ? null : deleteButton);
+            }
+        });
+
+        tableView.getColumns().addAll(
+                accountColumn, periodColumn, coldColumn, hotColumn, sewerColumn,
+                electricityDayColumn, electricityNightColumn, totalColumn, actionColumn
+        );
+        // Сортировку и фильтры выполняет HistoryIndex вне потока FX: колонка хранит поле сортировки,
+        // а политика сортировки таблицы лишь передает порядок колонок в запрос
+        accountColumn.setUserData(HistoryQuery.Field.ACCOUNT);
+        periodColumn.setUserData(HistoryQuery.Field.PERIOD);
+        coldColumn.setUserData(HistoryQuery.Field.COLD);
+        hotColumn.setUserData(HistoryQuery.Field.HOT);
+        sewerColumn.setUserData(HistoryQuery.Field.SEWER);
+        electricityDayColumn.setUserData(HistoryQuery.Field.ELECTRICITY_DAY);
+        electricityNightColumn.setUserData(HistoryQuery.Field.ELECTRICITY_NIGHT);
+        totalColumn.setUserData(HistoryQuery.Field.TOTAL);
+        actionColumn.setSortable(false);
+
+        // Без фильтров и сортировки строки подгружаются страницами в порядке индекса (сначала новые периоды)
+        HistoryQueryList queryItems = new HistoryQueryList(historyRepository, this::showBackgroundError);
+        HistoryFilterBar filterBar = new HistoryFilterBar();
+        Runnable applyQuery = () -> {
+            List<HistoryQuery.SortKey> sort = new ArrayList<>();
+            for (TableColumn<HistoryRecord, ?> column : tableView.getSortOrder()) {
+                if (column.getUserData() instanceof HistoryQuery.Field field) {
+                    sort.add(new HistoryQuery.SortKey(field, column.getSortType() == TableColumn.SortType.DESCENDING));
+                }
+            }
+            HistoryQuery query = new HistoryQuery(filterBar.filters(), sort);
+            if (query.isEmpty()) {
+                queryItems.suspend();
+                if (tableView.getItems() != historyItems) {
+                    tableView.setItems(historyItems);
+                }
+            } else {
+                if (tableView.getItems() != queryItems) {
+                    tableView.setItems(queryItems);
+                }
+                queryItems.show(query);
+            }
+        };
+        filterBar.setOnChange(applyQuery);
+        tableView.setSortPolicy(table -> {
+            applyQuery.run();
+            return true;
+        });
+
+        // Выбранные строки удаляются одной транзакцией; удаление можно отменить и вернуть
+        tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        Button deleteSelectedButton = new Button("Удалить выбранные");
+        deleteSelectedButton.disableProperty().bind(Bindings.isEmpty(tableView.getSelectionModel().getSelectedItems()));
+        deleteSelectedButton.setOnAction(e -> showDeleteConfirmation(tableView.getSelectionModel().getSelectedItems()));
+        Button undoButton = new Button("Отменить удаление");
+        undoButton.disableProperty().bind(undoDepth.isEqualTo(0).or(deletionRunning));
+        undoButton.setOnAction(e -> undoDeletion());
+        Button redoButton = new Button("Повторить удаление");
+        redoButton.disableProperty().bind(redoDepth.isEqualTo(0).or(deletionRunning));
+        redoButton.setOnAction(e -> redoDeletion());
+        KeyCombination undoKey = new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN);
+        KeyCombination redoKey = new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN);
+        tableView.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+            if (e.getCode() == KeyCode.DELETE) {
+                showDeleteConfirmation(tableView.getSelectionModel().getSelectedItems());
+            } else if (undoKey.match(e)) {
+                undoDeletion();
+            } else if (redoKey.match(e)) {
+                redoDeletion();
+            } else {
+                return;
+            }
+            e.consume();
+        });
+
+        // Кнопка "Обновить"
+        Button refreshButton = new Button("Обновить");
+        // Таблица следит за изменениями сама, кнопка лишь перечитывает загруженные страницы
+        refreshButton.setOnAction(e -> historyItems.reload());
+        historyItems.refresh();
+
+        // Импорт и выгрузка с ходом выполнения и скоростью
+        ProgressBar transferProgress = new ProgressBar(0);
+        transferProgress.setVisible(false);
+        Label transferStatus = new Label();
+        Button importButton = new Button("Импорт CSV...");
+        importButton.setOnAction(e -> importCsv(tableView, importButton, transferProgress, transferStatus));
+        Button cancelExportButton = new Button("Отмена");
+        cancelExportButton.setVisible(false);
+        cancelExportButton.setOnAction(e -> {
+            if (cancelExport != null) {
+                cancelExport.run();
+            }
+        });
+        Button exportButton = new Button("Экспорт...");
+        Button receiptsButton = new Button("Квитанции...");
+        List<Node> exportControls = List.of(exportButton, receiptsButton);
+        exportButton.setOnAction(e -> exportHistory(tableView, exportControls, transferProgress, transferStatus,
+                cancelExportButton));
+        receiptsButton.setOnAction(e -> exportReceipts(tableView, exportControls, transferProgress, transferStatus,
+                cancelExportButton));
+
+        HBox buttons = new HBox(10, refreshButton, importButton, exportButton, receiptsButton,
+                transferProgress, transferStatus, cancelExportButton);
+        HBox deleteButtons = new HBox(10, deleteSelectedButton, undoButton, redoButton);
+        HBox filters = new HBox(20, filterBar.view(), queryItems.info());
+        filters.setAlignment(Pos.CENTER_LEFT);
+        VBox layout = new VBox(10, filters, tableView, deleteButtons, buttons);
+        VBox.setVgrow(tableView, Priority.ALWAYS);
+        layout.setPadding(new Insets(10));
+        return layout;
+    }
+
+    private void importCsv(Node owner, Button importButton, ProgressBar progress, Label status) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Импорт показаний");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV", "*.csv", "*.txt"));
+        File file = TimedEventDispatcher.untimed(() -> chooser.showOpenDialog(owner.getScene().getWindow()));
+        if (file == null) {
+            return;
+        }
+
+        importButton.setDisable(true);
+        progress.setProgress(0);
+        progress.setVisible(true);
+        long started = System.nanoTime();
+        CompletableFuture<ImportReport> running = tariffRepository.snapshot().thenCompose(snapshot -> {
+            CsvHistoryImporter csvImporter = new CsvHistoryImporter(historyRepository, snapshot);
+            importer = csvImporter;
+            if (stopping) {
+                csvImporter.cancel();
+            }
+            return csvImporter.start(file.toPath(), (accepted, rejected, bytesRead, totalBytes) -> Platform.runLater(() -> {
+                progress.setProgress(totalBytes == 0 ? 1 : (double) bytesRead / totalBytes);
+                long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+                status.setText("Загружено: " + accepted + ", отклонено: " + rejected
+                               + ", " + accepted * 1000 / elapsedMillis + " строк/с");
+            }));
+        });
+        importing = running;
+
+        running.whenComplete((report, error) -> Platform.runLater(() -> {
+            importing = null;
+            importer = null;
+            importButton.setDisable(false);
+            progress.setVisible(false);
+        }));
+        runInBackground("Импорт...", running, report -> {
+            status.setText((report.cancelled() ? "Импорт остановлен. " : "") + "Загружено: " + report.accepted()
+                           + ", отклонено: " + report.rejected() + ", " + report.rowsPerSecond() + " строк/с");
+            showImportReport(report);
+        }, "Ошибка импорта.");
+    }
+
+    /**
+     * Выгружает всю историю в CSV или JSON (по выбранному расширению) без загрузки в память.
+     */
+    private void exportHistory(Node owner, List<Node> controls, ProgressBar progress, Label status, Button cancel) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Экспорт истории");
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("CSV", "*.csv"),
+                new FileChooser.ExtensionFilter("JSON", "*.json"));
+        chooser.setInitialFileName("history.csv");
+        File file = TimedEventDispatcher.untimed(() -> chooser.showSaveDialog(owner.getScene().getWindow()));
+        if (file == null) {
+            return;
+        }
+        Path target = file.toPath();
+        ExportFormat format = chooser.getSelectedExtensionFilter() != null
+                && chooser.getSelectedExtensionFilter().getExtensions().contains("*.json")
+                ? ExportFormat.JSON : ExportFormat.forFile(target);
+        HistoryExporter exporter = new HistoryExporter(historyRepository, format);
+        runExport("Экспорт истории...", exporter::cancel,
+                exporter.start(target, exportProgress(progress, status)), controls, progress, status, cancel);
+    }
+
+    /**
+     * Выгружает квитанции за выбранный месяц в HTML-файл для печати.
+     */
+    private void exportReceipts(Node owner, List<Node> controls, ProgressBar progress, Label status, Button cancel) {
+        Optional<Integer> period = choosePeriod();
+        if (period.isEmpty()) {
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Квитанции");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("HTML", "*.html"));
+        chooser.setInitialFileName("receipts-" + BillingPeriod.toYearMonth(period.get()) + ".html");
+        File file = TimedEventDispatcher.untimed(() -> chooser.showSaveDialog(owner.getScene().getWindow()));
+        if (file == null) {
+            return;
+        }
+        CompletableFuture<ReceiptExporter> exporter = tariffRepository.snapshot()
+                .thenApply(snapshot -> new ReceiptExporter(historyRepository, snapshot));
+        CompletableFuture<ExportReport> exporting = exporter.thenCompose(receipts -> receipts.start(
+                file.toPath(), period.get(), period.get() + 1, exportProgress(progress, status)));
+        runExport("Оформление квитанций...", () -> exporter.thenAccept(ReceiptExporter::cancel),
+                exporting, controls, progress, status, cancel);
+    }
+
+    private static ExportListener exportProgress(ProgressBar progress, Label status) {
+        long started = System.nanoTime();
+        return (rows, totalRows, bytesWritten) -> Platform.runLater(() -> {
+            progress.setProgress(totalRows == 0 ? 1 : (double) rows / totalRows);
+            long elapsedMillis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+            status.setText("Выгружено: " + rows + " из " + totalRows + ", " + rows * 1000 / elapsedMillis + " строк/с");
+        });
+    }
+
+    private void runExport(String title, Runnable cancelAction, CompletableFuture<ExportReport> exporting,
+                           List<Node> controls, ProgressBar progress, Label status, Button cancel) {
+        controls.forEach(control -> control.setDisable(true));
+        progress.setProgress(0);
+        progress.setVisible(true);
+        cancel.setVisible(true);
+        cancelExport = cancelAction;
+        exportRun = exporting;
+        exporting.whenComplete((report, error) -> Platform.runLater(() -> {
+            cancelExport = null;
+            exportRun = null;
+            controls.forEach(control -> control.setDisable(false));
+            progress.setVisible(false);
+            cancel.setVisible(false);
+        }));
+        runInBackground(title, exporting, report -> {
+            status.setText(report.cancelled() ? "Выгрузка отменена." : "Выгружено: " + report.rows()
+                    + ", " + report.rowsPerSecond() + " строк/с, " + report.megabytesPerSecond() + " МБ/с");
+            if (!report.cancelled()) {
+                showAlert("Выгружено записей: " + report.rows() + "\nРазмер файла: "
+                          + report.bytesWritten() / 1024 + " КБ\nФайл: " + report.file());
+            }
+        }, "Ошибка выгрузки.");
+    }
+
+    /**
+     * Диалог выбора месяца и года; возвращает ключ периода.
+     */
+    private Optional<Integer> choosePeriod() {
+        ComboBox<Month> month = new ComboBox<>();
+        month.getItems().addAll(Month.values());
+        YearMonth previous = YearMonth.now().minusMonths(1);
+        month.setValue(previous.getMonth());
+        Spinner<Integer> year = createYearSpinner();
+        year.getValueFactory().setValue(previous.getYear());
+
+        Dialog<Integer> dialog = new Dialog<>();
+        dialog.setTitle("Квитанции");
+        dialog.setHeaderText("Выберите месяц, за который нужны квитанции");
+        dialog.getDialogPane().setContent(new HBox(10, month, year));
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> button == ButtonType.OK
+                ? BillingPeriod.key(year.getValue(), month.getValue().getValue()) : null);
+        return TimedEventDispatcher.untimed(dialog::showAndWait);
+    }
+
+    private void showImportReport(ImportReport report) {
+        StringBuilder text = new StringBuilder("Загружено строк: " + report.accepted()
+                                               + "\nОтклонено строк: " + report.rejected());
+        if (report.rejectedFile() != null) {
+            text.append("\n\nОтклоненные строки сохранены в файл:\n").append(report.rejectedFile());
+            report.rejections().stream().limit(10).forEach(rejection -> text.append("\nСтрока ")
+                    .append(rejection.line()).append(": ").append(rejection.reason()));
+        }
+        showAlert(text.toString());
+    }
+
+    private void showDeleteConfirmation(List<HistoryRecord> records) {
+        // Строки еще не прочитанных страниц пусты и не удаляются
+        List<HistoryKey> keys = records.stream().filter(Objects::nonNull)
+                .map(r -> new HistoryKey(r.getAccountId(), r.getPeriod())).distinct().toList();
+        if (keys.isEmpty() || deletionRunning.get()) {
+            return;
+        }
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("Подтверждение удаления");
+        StringBuilder content = new StringBuilder();
+        if (keys.size() == 1) {
+            alert.setHeaderText("Вы точно хотите удалить запись?");
+        } else {
+            alert.setHeaderText("Вы точно хотите удалить записи: " + keys.size() + "?");
+        }
+        keys.stream().limit(10).forEach(key -> content.append("Счет: ").append(key.accountId())
+                .append(", период: ").append(HistoryRecord.localizedPeriod(key.period())).append('\n'));
+        if (keys.size() > 10) {
+            content.append("и еще ").append(keys.size() - 10).append('\n');
+        }
+        content.append("\nУдаление можно отменить (Ctrl+Z).");
+        alert.setContentText(content.toString());
+
+        Optional<ButtonType> result = TimedEventDispatcher.untimed(alert::showAndWait);
+        if (result.isPresent() && result.get() == ButtonType.OK) {
+            // Таблица узнает об удалении из шины изменений
+            runDeletion("Удаление...", historyRepository.deleteBatch(keys), deletion -> {
+                undoDeletions.push(deletion);
+                redoDeletions.clear();
+                statusLabel.setText("Удалено записей: " + deletion.keys().size() + " за "
+                                    + deletion.elapsedNanos() / 1_000_000 + " мс");
+            }, () -> { }, "Ошибка удаления записей.");
+        }
+    }
+
+    /**
+     * Возвращает записи последнего удаления из корзины.
+     */
+    private void undoDeletion() {
+        if (deletionRunning.get() || undoDeletions.isEmpty()) {
+            return;
+        }
+        HistoryDeletion deletion = undoDeletions.pop();
+        runDeletion("Восстановление...", historyRepository.restore(deletion.batch()), restored -> {
+            // Повтор удалит только восстановленные записи, а не введенные заново после удаления
+            redoDeletions.push(restored);
+            statusLabel.setText("Восстановлено записей: " + restored.keys().size());
+        }, () -> undoDeletions.push(deletion), "Ошибка восстановления записей.");
+    }
+
+    /**
+     * Снова удаляет записи последнего отмененного удаления.
+     */
+    private void redoDeletion() {
+        if (deletionRunning.get() || redoDeletions.isEmpty()) {
+            return;
+        }
+        HistoryDeletion undone = redoDeletions.pop();
+        runDeletion("Удаление...", historyRepository.deleteBatch(undone.keys()), deletion -> {
+            undoDeletions.push(deletion);
+            statusLabel.setText("Удалено записей: " + deletion.keys().size());
+        }, () -> redoDeletions.push(undone), "Ошибка удаления записей.");
+    }
+
+    /**
+     * Удаления и восстановления идут по одному, чтобы отмена всегда относилась к завершенному удалению.
+     */
+    private <T> void runDeletion(String status, CompletableFuture<T> operation, Consumer<T> onSuccess,
+                                 Runnable onFailure, String errorMessage) {
+        deletionRunning.set(true);
+        runInBackground(status, operation.whenComplete((value, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                onFailure.run();
+            }
+            undoDepth.set(undoDeletions.size());
+            redoDepth.set(redoDeletions.size());
+            deletionRunning.set(false);
+        })), value -> {
+            onSuccess.accept(value);
+            undoDepth.set(undoDeletions.size());
+            redoDepth.set(redoDeletions.size());
+        }, errorMessage);
+    }
+
+    private static TableColumn<HistoryRecord, HistoryRecord> historyColumn(String title, double width,
+                                                                        Function<HistoryRecord, String> text) {
+        TableColumn<HistoryRecord, HistoryRecord> column = new TableColumn<>(title);
+        column.setCellValueFactory(data -> data.getValue() == null ? null : data.getValue().asObservable());
+        column.setCellFactory(c -> new HistoryCell(text));
+        column.setPrefWidth(width);
+        return column;
+    }
+
+    /**
+     * Годовые итоги по услугам из таблиц агрегатов: сумма, среднее в месяц, минимум, максимум
+     * и изменение к прошлому году. Таблица перечитывается при каждом изменении истории.
+     */
+    private Node createAnalyticsTab() {
+        AnalyticsTable analytics = new AnalyticsTable(analyticsRepository, this::showBackgroundError);
+        historyRepository.events().subscribe(analytics);
+
+        TableView<AnalyticsTable.Row> tableView = new TableView<>(analytics.rows());
+        tableView.setStyle("-fx-font-size: 14px;");
+        tableView.getColumns().addAll(List.of(
+                analyticsColumn("Год", 70, row -> Integer.toString(row.summary().year())),
+                analyticsColumn("Услуга", 220, row -> UTILITY_NAMES[row.summary().utility()]),
+                analyticsColumn("Месяцев", 90, row -> Long.toString(row.summary().months())),
+                analyticsColumn("Сумма", 130, row -> formatAmount(row.summary().total())),
+                analyticsColumn("Среднее в месяц", 130, row -> formatAmount(row.summary().monthlyAverage())),
+                analyticsColumn("Мин.", 100, row -> formatAmount(row.summary().minimum())),
+                analyticsColumn("Макс.", 100, row -> formatAmount(row.summary().maximum())),
+                analyticsColumn("К прошлому году", 130, row -> Double.isNaN(row.change())
+                        ? "—" : String.format("%+.1f %%", row.change()))));
+
+        Spinner<Integer> accountSpinner = new Spinner<>(1, Integer.MAX_VALUE, Database.DEFAULT_ACCOUNT);
+        accountSpinner.setEditable(true);
+        // По всем счетам минимум и максимум не хранятся
+        CheckBox allAccounts = new CheckBox("Все счета");
+        accountSpinner.disableProperty().bind(allAccounts.selectedProperty());
+        Runnable show = () -> analytics.show(allAccounts.isSelected() ? 0 : accountSpinner.getValue());
+        accountSpinner.valueProperty().addListener((obs, oldValue, newValue) -> show.run());
+        allAccounts.selectedProperty().addListener((obs, oldValue, newValue) -> show.run());
+        show.run();
+
+        // Сверка итогов с историей и исправление расхождений
+        Button checkButton = new Button("Проверить итоги");
+        checkButton.setOnAction(e -> {
+            checkButton.setDisable(true);
+            CompletableFuture<AggregateCheck> checking = analyticsRepository.check(true);
+            checking.whenComplete((check, error) -> Platform.runLater(() -> checkButton.setDisable(false)));
+            runInBackground("Проверка итогов...", checking, check -> {
+                analytics.reload();
+                showAlert("Проверено записей истории: " + check.rows()
+                          + "\nГрупп (счет, год): " + check.groups()
+                          + "\nРасхождений в итогах счетов: " + check.mismatched()
+                          + "\nРасхождений в итогах по всем счетам: " + check.totalsMismatched()
+                          + (check.repaired() ? "\nРасхождения исправлены." : "")
+                          + "\nВремя проверки: " + check.elapsedMillis() + " мс");
+            }, "Ошибка проверки итогов.");
+        });
+
+        HBox controls = new HBox(10, new Label("Лицевой счет:"), accountSpinner, allAccounts, checkButton);
+        controls.setAlignment(Pos.CENTER_LEFT);
+        VBox layout = new VBox(10, controls, tableView);
+        VBox.setVgrow(tableView, Priority.ALWAYS);
+        layout.setPadding(new Insets(10));
+        return layout;
+    }
+
+    /**
+     * График столбца истории или показаний счетчика, прореженный под ширину графика.
+     */
+    private Node createChartsTab() {
+        ConsumptionChart chart = new ConsumptionChart(historyRepository, meterRepository, dbExecutor,
+                this::showBackgroundError);
+        historyRepository.events().subscribe(chart);
+
+        Spinner<Integer> accountSpinner = new Spinner<>(1, Integer.MAX_VALUE, Database.DEFAULT_ACCOUNT);
+        accountSpinner.setEditable(true);
+        ComboBox<ConsumptionChart.Source> sourceBox = new ComboBox<>();
+        sourceBox.getItems().addAll(ConsumptionChart.Source.values());
+        sourceBox.getSelectionModel().selectFirst();
+        Runnable show = () -> chart.show(accountSpinner.getValue(), sourceBox.getValue());
+        accountSpinner.valueProperty().addListener((obs, oldValue, newValue) -> show.run());
+        sourceBox.valueProperty().addListener((obs, oldValue, newValue) -> show.run());
+        show.run();
+
+        HBox controls = new HBox(10, new Label("Лицевой счет:"), accountSpinner, new Label("Ряд:"), sourceBox);
+        controls.setAlignment(Pos.CENTER_LEFT);
+        Label hint = new Label("Колесо мыши — масштаб, перетаскивание — сдвиг, двойной щелчок — весь период.");
+        HBox status = new HBox(20, chart.info(), hint);
+        VBox layout = new VBox(10, controls, chart.chart(), status);
+        VBox.setVgrow(chart.chart(), Priority.ALWAYS);
+        layout.setPadding(new Insets(10));
+        return layout;
+    }
+
+    private static TableColumn<AnalyticsTable.Row, String> analyticsColumn(String title, double width,
+                                                                        Function<AnalyticsTable.Row, String> text) {
+        TableColumn<AnalyticsTable.Row, String> column = new TableColumn<>(title);
+        column.setCellValueFactory(data -> new ReadOnlyStringWrapper(text.apply(data.getValue())));
+        column.setPrefWidth(width);
+        column.setSortable(false);
+        return column;
+    }
+
+    private static String formatAmount(double value) {
+        return Double.isNaN(value) ? "—" : String.format("%.2f", value);
+    }
+
+    private void saveTariffs(int effectiveFrom, TextField cold, TextField hot, TextField sewer, TextField electricityDay,
+                             TextField electricityNight, Consumer<TariffSnapshot> onSaved) {
+        TariffPlan plan;
+        try {
+            // Проверяем ввод на корректность
+            plan = new TariffPlan(List.of(
+                    TariffPlan.parseLine(cold.getText()),
+                    TariffPlan.parseLine(hot.getText()),
+                    TariffPlan.parseLine(sewer.getText()),
+                    TariffPlan.parseLine(electricityDay.getText()),
+                    TariffPlan.parseLine(electricityNight.getText())));
+            plan.compile().requireValid();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            showAlert(e.getMessage());
+            return;
+        }
+
+        // Если все данные корректны, сохраняем их
+        runInBackground("Сохранение тарифов...", tariffRepository.save(effectiveFrom, plan),
+                onSaved, "Ошибка при сохранении тарифов.");
+    }
+
+    /**
+     * Предлагает пересчитать суммы истории за периоды, на которые действует сохраненная версия тарифов.
+     * Пересчет идет в фоне и не мешает работе с остальными вкладками.
+     */
+    private void offerRepricing(TariffSnapshot snapshot, int effectiveFrom, Button saveButton, HBox box,
+                                ProgressBar progress, Label status, Button cancel) {
+        int until = snapshot.effectiveUntil(effectiveFrom);
+        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+        alert.setTitle("Тарифы сохранены");
+        alert.setHeaderText("Тарифы успешно сохранены!");
+        alert.setContentText("Пересчитать суммы в истории за периоды с " + formatPeriod(effectiveFrom)
+                             + (until == Integer.MAX_VALUE ? "" : " по " + formatPeriod(previousPeriod(until)))
+                             + " по новым тарифам?");
+        Optional<ButtonType> answer = TimedEventDispatcher.untimed(alert::showAndWait);
+        if (answer.isEmpty() || answer.get() != ButtonType.OK) {
+            return;
+        }
+
+        RepricingJob job = RepricingJob.forVersion(historyRepository, snapshot, effectiveFrom);
+        repricing = job;
+        saveButton.setDisable(true);
+        cancel.setDisable(false);
+        progress.setProgress(0);
+        status.setText("");
+        box.setVisible(true);
+        CompletableFuture<RepricingReport> running = job.start((processed, total) -> Platform.runLater(() -> {
+            progress.setProgress(total == 0 ? 1 : (double) processed / total);
+            status.setText("Пересчитано: " + processed + " из " + total);
+        }));
+
+        repricingRun = running;
+        running.whenComplete((report, error) -> Platform.runLater(() -> {
+            repricing = null;
+            repricingRun = null;
+            saveButton.setDisable(false);
+            box.setVisible(false);
+        }));
+        runInBackground("Пересчет истории...", running, report -> {
+            String result = (report.cancelled() ? "Пересчет остановлен." : "Пересчет завершен.")
+                            + "\nПросмотрено записей: " + report.processed()
+                            + "\nИзменено сумм: " + report.changed();
+            if (report.skipped() > 0) {
+                result += "\nПропущено (нет тарифа или некорректные показания): " + report.skipped();
+            }
+            showAlert(result);
+        }, "Ошибка пересчета истории.");
+    }
+
+    private static String formatPeriod(int period) {
+        return String.format("%02d.%d", BillingPeriod.month(period), BillingPeriod.year(period));
+    }
+
+    private static int previousPeriod(int period) {
+        return BillingPeriod.key(BillingPeriod.toYearMonth(period).minusMonths(1));
+    }
+
+    /**
+     * Сводка замеров: задержки SQL, обработчиков FX и отклика потока FX, статистика подключений.
+     */
+    private VBox createDiagnosticsTab() {
+        TextArea report = new TextArea();
+        report.setEditable(false);
+        report.setStyle("-fx-font-family: monospace;");
+        VBox.setVgrow(report, Priority.ALWAYS);
+
+        Runnable refresh = () -> runInBackground("Сбор замеров...",
+                dbExecutor.submit(() -> Metrics.dump() + "\nБаза данных: " + database.connections().stats()),
+                report::setText, "Не удалось собрать замеры.");
+
+        Button refreshButton = new Button("Обновить");
+        refreshButton.setOnAction(e -> refresh.run());
+        Button resetButton = new Button("Сбросить");
+        resetButton.setOnAction(e -> {
+            Metrics.reset();
+            refresh.run();
+        });
+        Button logButton = new Button("В журнал");
+        logButton.setOnAction(e -> Log.info("Замеры:\n" + Metrics.dump()));
+
+        refresh.run();
+
+        VBox box = new VBox(10, new HBox(10, refreshButton, resetButton, logButton), report);
+        box.setPadding(new Insets(10));
+        return box;
+    }
+
+    /**
+     * Ожидает результат фоновой операции и передает его обратно в JavaFX Application Thread.
+     */
+    private <T> void runInBackground(String status, CompletableFuture<T> operation,
+                                     Consumer<T> onSuccess, String errorMessage) {
+        pendingOperations.set(pendingOperations.get() + 1);
+        statusLabel.setText(status);
+        operation.whenComplete((value, error) -> Platform.runLater(() -> TimedEventDispatcher.runTimed(status, () -> {
+            pendingOperations.set(pendingOperations.get() - 1);
+            if (pendingOperations.get() == 0) {
+                statusLabel.setText("");
+            }
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                Log.error(errorMessage, cause);
+                showAlert(cause instanceof IllegalStateException ? cause.getMessage() : errorMessage);
+            } else {
+                onSuccess.accept(value);
+            }
+        })));
+    }
+
+    /**
+     * Ошибка фоновой операции, о которой не нужно сообщать диалогом (например, подгрузка страницы).
+     */
+    private void showBackgroundError(Throwable error) {
+        Throwable cause = unwrap(error);
+        Log.error("Ошибка фоновой операции", cause);
+        statusLabel.setText("Ошибка: " + cause.getMessage());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private void showAlert(String message) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("Информация");
+        alert.setHeaderText(null);
+        alert.setContentText(message);
+        TimedEventDispatcher.untimed(alert::showAndWait);
+    }
+
+
+    @Override
+    public void stop() {
+        stopping = true;
+        fxWatchdog.close();
+        if (repricing != null) {
+            repricing.cancel(); // Уже записанные порции остаются пересчитанными
+        }
+        if (cancelExport != null) {
+            cancelExport.run(); // Недописанный файл удаляется
+        }
+        CsvHistoryImporter runningImport = importer;
+        if (runningImport != null) {
+            runningImport.cancel(); // Уже записанные пакеты остаются в истории
+        }
+        // Последняя порция пересчета и запись файла не должны попасть на закрытую базу
+        awaitStopped(repricingRun);
+        awaitStopped(exportRun);
+        awaitStopped(importing);
+        if (DEBUG) {
+            Log.info("Замеры:\n" + Metrics.dump());
+        }
+        tombstoneCompactor.close();
+        historyRepository.close(); // Сбрасываем отложенные записи истории
+        dbExecutor.close();
+        database.close();
+    }
+
+    /**
+     * Дожидается остановки фоновой операции перед закрытием базы, но не дольше нескольких секунд.
+     */
+    private static void awaitStopped(CompletableFuture<?> operation) {
+        if (operation == null) {
+            return;
+        }
+        try {
+            operation.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Об ошибке операции сообщает runInBackground
+        } catch (TimeoutException e) {
+            Log.error("Фоновая операция не остановилась до закрытия базы данных");
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("prism.order", "sw");  // Использование программного рендеринга
+        if (DEBUG) {
+            System.setProperty("prism.verbose", "true");
+        }
+
+        launch(args);
+    }
+}